@@ -0,0 +1,167 @@
+package manfredlift.facebook.rmndr;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import io.dropwizard.jersey.DropwizardResourceConfig;
+import io.dropwizard.jersey.setup.JerseyEnvironment;
+import manfredlift.facebook.rmndr.api.*;
+import manfredlift.facebook.rmndr.client.FbClient;
+import manfredlift.facebook.rmndr.client.WitClient;
+import manfredlift.facebook.rmndr.concurrent.KeyedLaneExecutor;
+import manfredlift.facebook.rmndr.store.InMemoryReminderRepository;
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.util.JsonCodec;
+import manfredlift.facebook.rmndr.util.ReminderPayloadCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process cost of handling one messaging event, from the parsed {@link Callback} to the reply handed to the
+ * Send API, per command. Lanes run on the calling thread, the Send API and the Graph API are replaced by completed
+ * futures, the date of the !reminder is resolved by the local parser and "confirm" saves the reminder in an
+ * {@link InMemoryReminderRepository}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackHandlerBenchmark {
+    private static final String USER_ID = "1254459154682919";
+    private static final int LISTED_REMINDERS = 5;
+
+    @Param({"help", "list", "cancel", "reminder", "confirm"})
+    private String command;
+
+    private InMemoryReminderRepository reminderRepository;
+    private CallbackHandler callbackHandler;
+    private Messaging messaging;
+    private Callback callback;
+    private long deliveries;
+
+    @Setup
+    public void setup() throws Exception {
+        reminderRepository = new InMemoryReminderRepository();
+
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setLocalDateParsing(true);
+        config.setSpeculativeWitParse(false);
+
+        JsonCodec jsonCodec = JsonCodec.create().warm();
+        JerseyEnvironment jersey = new JerseyEnvironment(null, new DropwizardResourceConfig());
+        jersey.property(RmndrConstants.JSON_CODEC, jsonCodec);
+        jersey.property(RmndrConstants.FB_CLIENT, new StubFbClient(config));
+        jersey.property(RmndrConstants.WIT_CLIENT, new WitClient(config, null, null, jsonCodec));
+        jersey.property(RmndrConstants.REMINDER_REPOSITORY, reminderRepository);
+        jersey.property(RmndrConstants.REMINDER_ENGINE, new PollingReminderEngine(reminderRepository));
+        jersey.property(RmndrConstants.CALLBACK_LANES, new KeyedLaneExecutor(MoreExecutors.directExecutor(), 1));
+        callbackHandler = new CallbackHandler(config, jersey);
+
+        messaging = messaging();
+        callback = callback(messaging);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetReminders() {
+        // "confirm" adds a reminder per call, start every iteration from the same reminders
+        reminderRepository.deleteByUser(USER_ID);
+        for (int i = 0; i < LISTED_REMINDERS; i++) {
+            reminderRepository.save(Reminder.builder()
+                .id("reminder" + i)
+                .userId(USER_ID)
+                .text("take the pizza out of the oven")
+                .date("2099-09-12T11:30:00.000+01:00")
+                .fireTime(4092600600000L)
+                .build());
+        }
+    }
+
+    @Benchmark
+    public Void handleCallback() {
+        // a new mid for every call, the handler ignores events it already processed
+        messaging.getMessage().setMid("mid." + ++deliveries);
+        return callbackHandler.handleCallbackAsync(callback).join();
+    }
+
+    private Messaging messaging() {
+        Messaging.MessagingBuilder messaging = Messaging.builder()
+            .sender(new User(USER_ID))
+            .recipient(new User("682498302938465"))
+            .timestamp(System.currentTimeMillis());
+
+        switch (command) {
+            case "help":
+                return messaging.message(message("what can you do?")).build();
+            case "list":
+                return messaging.message(message(RmndrConstants.LIST_COMMAND)).build();
+            case "cancel":
+                return messaging.message(message(RmndrConstants.CANCEL_COMMAND + " reminder42")).build();
+            case "reminder":
+                return messaging.message(message(RmndrConstants.REMINDER_COMMAND +
+                    " in 15 mins; take the pizza out of the oven")).build();
+            case "confirm":
+                String payload = new ReminderPayloadCodec(null)
+                    .encode(4092600600000L, 3600, "take the pizza out of the oven");
+                QuickReply quickReply = QuickReply.builder().title("Yes").payload(payload).build();
+                return messaging.message(Message.builder().mid("mid.1").seq(1).quickReply(quickReply).build()).build();
+            default:
+                throw new IllegalArgumentException("Unknown command " + command);
+        }
+    }
+
+    private static Message message(String text) {
+        return Message.builder().mid("mid.1").seq(1).text(text).build();
+    }
+
+    private static Callback callback(Messaging messaging) {
+        Entry entry = Entry.builder()
+            .id(682498302938465L)
+            .time(System.currentTimeMillis())
+            .messaging(Collections.singletonList(messaging))
+            .build();
+        return Callback.builder().object("page").entry(Collections.singletonList(entry)).build();
+    }
+
+    /**
+     * Answers every call with a completed future, so only the handler itself is measured.
+     */
+    private static class StubFbClient extends FbClient {
+        private static final CompletableFuture<Void> SENT = CompletableFuture.completedFuture(null);
+        private static final CompletableFuture<UserTimezone> TIMEZONE =
+            CompletableFuture.completedFuture(new UserTimezone(1));
+
+        StubFbClient(RmndrConfiguration config) {
+            super(config, null, null, null);
+        }
+
+        @Override
+        public CompletableFuture<Void> sendTextMessage(String recipientId, String text) {
+            return SENT;
+        }
+
+        @Override
+        public CompletableFuture<Void> sendQuickReply(String recipientId, String text, List<QuickReply> quickReplies) {
+            return SENT;
+        }
+
+        @Override
+        public CompletableFuture<Void> sendErrorMessage(String recipientId, String errorMessage) {
+            return SENT;
+        }
+
+        @Override
+        public CompletableFuture<UserTimezone> getUserTimezoneFuture(String userId) {
+            return TIMEZONE;
+        }
+
+        @Override
+        public Optional<UserTimezone> getCachedUserTimezone(String userId) {
+            return Optional.of(new UserTimezone(1));
+        }
+    }
+}
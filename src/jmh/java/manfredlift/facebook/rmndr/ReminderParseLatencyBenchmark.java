@@ -0,0 +1,140 @@
+package manfredlift.facebook.rmndr;
+
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.jersey.DropwizardResourceConfig;
+import io.dropwizard.jersey.setup.JerseyEnvironment;
+import manfredlift.facebook.rmndr.client.FbClient;
+import manfredlift.facebook.rmndr.client.SendQueue;
+import manfredlift.facebook.rmndr.client.WitClient;
+import manfredlift.facebook.rmndr.concurrent.KeyedLaneExecutor;
+import manfredlift.facebook.rmndr.factories.SendQueueFactory;
+import manfredlift.facebook.rmndr.store.InMemoryReminderRepository;
+import manfredlift.facebook.rmndr.util.JsonCodec;
+import org.glassfish.jersey.client.ClientConfig;
+import org.glassfish.jersey.jetty.connector.JettyConnectorProvider;
+import org.openjdk.jmh.annotations.*;
+
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.UriBuilder;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+
+/**
+ * Command-to-parsed-date latency of a !reminder for a user whose timezone is not cached, with the Graph API and
+ * Wit AI replaced by local stub servers with fixed latencies. Compares the sequential path with the speculative
+ * one, both when the guessed offset is right and when Wit has to be asked again, and with the expression resolved
+ * by {@link manfredlift.facebook.rmndr.util.LocalDateParser} or served from the Wit response cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+@Threads(4)
+public class ReminderParseLatencyBenchmark {
+    private static final String WIT_RESPONSE = "{\"msg_id\":\"some_id\",\"_text\":\"in 5 mins\",\"entities\":{\"datetime\":" +
+        "[{\"confidence\":0.97,\"value\":\"2017-09-12T11:30:35.000+01:00\",\"grain\":\"second\",\"type\":\"value\"}]}}";
+
+    @Param({"sequential", "speculative", "speculativeWrongGuess", "localParse", "cachedWit"})
+    private String mode;
+
+    @Param({"100"})
+    private int graphLatencyMillis;
+
+    @Param({"250"})
+    private int witLatencyMillis;
+
+    private final AtomicLong userIds = new AtomicLong();
+
+    private WireMockServer graphStub;
+    private WireMockServer witStub;
+    private Client client;
+    private ExecutorService executor;
+    private ScheduledExecutorService sendScheduler;
+    private CallbackHandler callbackHandler;
+
+    @Setup
+    public void setup() throws Exception {
+        graphStub = new WireMockServer(wireMockConfig().dynamicPort().containerThreads(64));
+        witStub = new WireMockServer(wireMockConfig().dynamicPort().containerThreads(64));
+        graphStub.start();
+        witStub.start();
+
+        // the user's real offset is +1, a wrong guess (offset 0) makes the handler ask Wit again
+        graphStub.stubFor(get(urlPathMatching("/v2.6/.*")).willReturn(aResponse().withFixedDelay(graphLatencyMillis)
+            .withHeader("Content-Type", "application/json").withBody("{\"timezone\":1}")));
+        witStub.stubFor(get(urlPathEqualTo("/message")).willReturn(aResponse().withFixedDelay(witLatencyMillis)
+            .withHeader("Content-Type", "application/json").withBody(WIT_RESPONSE)));
+
+        client = ClientBuilder.newClient(new ClientConfig()
+            .connectorProvider(new JettyConnectorProvider())
+            .register(JacksonJsonProvider.class)
+            .register(redirectToStubs(ImmutableMap.of(
+                "graph.facebook.com", graphStub.port(),
+                "api.wit.ai", witStub.port()))));
+        executor = Executors.newFixedThreadPool(8);
+
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setPageAccessToken("some_access_token");
+        config.setWitToken("some_wit_token");
+        config.setLocalDateParsing("localParse".equals(mode));
+        config.setWitResponseCaching("cachedWit".equals(mode));
+        config.setSpeculativeWitParse(mode.startsWith("speculative"));
+        config.setSpeculativeOffsetHours("speculativeWrongGuess".equals(mode) ? 0 : 1);
+
+        sendScheduler = Executors.newSingleThreadScheduledExecutor();
+        SendQueue sendQueue = new SendQueue(new SendQueueFactory(), sendScheduler, new MetricRegistry());
+
+        JsonCodec jsonCodec = JsonCodec.create().warm();
+        JerseyEnvironment jersey = new JerseyEnvironment(null, new DropwizardResourceConfig());
+        jersey.property(RmndrConstants.JSON_CODEC, jsonCodec);
+        jersey.property(RmndrConstants.FB_CLIENT, new FbClient(config, client, executor, sendQueue));
+        jersey.property(RmndrConstants.WIT_CLIENT, new WitClient(config, client, executor, jsonCodec));
+        InMemoryReminderRepository reminderRepository = new InMemoryReminderRepository();
+        jersey.property(RmndrConstants.REMINDER_REPOSITORY, reminderRepository);
+        jersey.property(RmndrConstants.REMINDER_ENGINE, new PollingReminderEngine(reminderRepository));
+        jersey.property(RmndrConstants.CALLBACK_LANES, new KeyedLaneExecutor(executor, 16));
+
+        callbackHandler = new CallbackHandler(config, jersey);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.close();
+        executor.shutdownNow();
+        sendScheduler.shutdownNow();
+        graphStub.stop();
+        witStub.stop();
+    }
+
+    @Benchmark
+    public Object parseReminderDate() {
+        // a new user every time, so the timezone is never cached
+        String userId = "user_" + userIds.incrementAndGet();
+        return callbackHandler.parseDateFuture(userId, "in 5 mins", System.currentTimeMillis()).join();
+    }
+
+    private static ClientRequestFilter redirectToStubs(Map<String, Integer> stubPorts) {
+        return requestContext -> {
+            URI uri = requestContext.getUri();
+            Integer port = stubPorts.get(uri.getHost());
+            if (port != null) {
+                requestContext.setUri(UriBuilder.fromUri(uri).scheme("http").host("localhost").port(port).build());
+            }
+        };
+    }
+}
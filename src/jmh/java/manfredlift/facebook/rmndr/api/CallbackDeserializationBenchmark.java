@@ -0,0 +1,103 @@
+package manfredlift.facebook.rmndr.api;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import manfredlift.facebook.rmndr.util.CallbackStreamReader;
+import manfredlift.facebook.rmndr.util.JsonCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson binding of webhook bodies into {@link Callback}, and of a single {@link Entry} and {@link Messaging}, for
+ * a text message, a quick reply and a postback event, and the {@link CallbackStreamReader} that binds only the
+ * messaging events of a body. {@code callbackCodec} reads with the application's {@link JsonCodec}, Dropwizard's
+ * mapper with Afterburner. Bodies are bytes, as WebhookResource receives them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackDeserializationBenchmark {
+    private static final String TEXT = "{\"sender\":{\"id\":\"1254459154682919\"},\"recipient\":{\"id\":\"682498302938465\"}," +
+        "\"timestamp\":1505211935893,\"message\":{\"mid\":\"mid.$cAAJsujCd2ORkHh27-leqAZ1wtQ5S\",\"seq\":1234," +
+        "\"text\":\"!reminder in 15 mins; take the pizza out of the oven\"}}";
+    private static final String QUICK_REPLY = "{\"sender\":{\"id\":\"1254459154682919\"},\"recipient\":{\"id\":\"682498302938465\"}," +
+        "\"timestamp\":1505211935893,\"message\":{\"quick_reply\":{\"payload\":\"{\\\"text\\\":\\\"take the pizza out " +
+        "of the oven\\\",\\\"date\\\":\\\"2017-09-12T11:30:35.000+01:00\\\"}\"},\"mid\":\"mid.$cAAJsujCd2ORkHh27-leqAZ1wtQ5S\"," +
+        "\"seq\":1235,\"text\":\"Yes\"}}";
+    private static final String POSTBACK = "{\"sender\":{\"id\":\"1254459154682919\"},\"recipient\":{\"id\":\"682498302938465\"}," +
+        "\"timestamp\":1505211935893,\"postback\":{\"payload\":\"GET_STARTED\",\"title\":\"Get Started\"}}";
+
+    @Param({"text", "quickReply", "postback"})
+    private String event;
+
+    @Param({"1", "20"})
+    private int events;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ObjectReader callbackReader = objectMapper.readerFor(Callback.class);
+    private final ObjectReader entryReader = objectMapper.readerFor(Entry.class);
+    private final ObjectReader messagingReader = objectMapper.readerFor(Messaging.class);
+    private final CallbackStreamReader callbackStreamReader = new CallbackStreamReader(objectMapper);
+    private final JsonCodec jsonCodec = JsonCodec.create();
+    private final CallbackStreamReader codecStreamReader = new CallbackStreamReader(jsonCodec.getObjectMapper());
+
+    private byte[] callbackBody;
+    private byte[] entryBody;
+    private byte[] messagingBody;
+
+    @Setup
+    public void setup() {
+        String messaging = "text".equals(event) ? TEXT : "quickReply".equals(event) ? QUICK_REPLY : POSTBACK;
+        StringBuilder messagings = new StringBuilder();
+        for (int i = 0; i < events; i++) {
+            messagings.append(i > 0 ? "," : "").append(messaging);
+        }
+        String entry = "{\"id\":\"682498302938465\",\"time\":1505211936012,\"messaging\":[" + messagings + "]}";
+
+        callbackBody = ("{\"object\":\"page\",\"entry\":[" + entry + "]}").getBytes(StandardCharsets.UTF_8);
+        entryBody = entry.getBytes(StandardCharsets.UTF_8);
+        messagingBody = messaging.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Callback callback() throws IOException {
+        return objectMapper.readValue(callbackBody, Callback.class);
+    }
+
+    @Benchmark
+    public Callback callbackReader() throws IOException {
+        return callbackReader.readValue(callbackBody);
+    }
+
+    @Benchmark
+    public Callback callbackCodec() throws IOException {
+        return jsonCodec.readCallback(callbackBody);
+    }
+
+    @Benchmark
+    public void callbackStreamed(Blackhole blackhole) throws IOException {
+        callbackStreamReader.forEachMessaging(callbackBody, blackhole::consume);
+    }
+
+    @Benchmark
+    public void callbackCodecStreamed(Blackhole blackhole) throws IOException {
+        codecStreamReader.forEachMessaging(callbackBody, blackhole::consume);
+    }
+
+    @Benchmark
+    public Entry entry() throws IOException {
+        return entryReader.readValue(entryBody);
+    }
+
+    @Benchmark
+    public Messaging messaging() throws IOException {
+        return messagingReader.readValue(messagingBody);
+    }
+}
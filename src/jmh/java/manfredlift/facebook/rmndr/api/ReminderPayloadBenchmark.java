@@ -0,0 +1,76 @@
+package manfredlift.facebook.rmndr.api;
+
+import manfredlift.facebook.rmndr.util.JsonCodec;
+import manfredlift.facebook.rmndr.util.ReminderPayloadCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Round trip of the reminder carried in the confirmation quick reply: written when the confirmation is sent and
+ * read back when the user confirms. The {@link JsonCodec} benchmarks write the former JSON {@link ReminderPayload}
+ * and parse its date, the {@code compact} ones use the {@link ReminderPayloadCodec}, with or without a tag.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReminderPayloadBenchmark {
+    private static final long FIRE_TIME = 1505212235000L;
+    private static final int OFFSET_SECONDS = 3600;
+    private static final String TEXT = "take the pizza out of the oven";
+
+    @Param({"true", "false"})
+    private boolean signed;
+
+    private ReminderPayloadCodec reminderPayloadCodec;
+    private JsonCodec jsonCodec;
+    private ReminderPayload payload;
+    private String json;
+    private String compact;
+
+    @Setup
+    public void setup() throws IOException {
+        jsonCodec = JsonCodec.create().warm();
+        payload = new ReminderPayload();
+        payload.setText(TEXT);
+        payload.setDate("2017-09-12T11:30:35.000+01:00");
+        json = jsonCodec.writeReminderPayload(payload);
+        reminderPayloadCodec = new ReminderPayloadCodec(signed ? "some_app_secret" : null);
+        compact = reminderPayloadCodec.encode(FIRE_TIME, OFFSET_SECONDS, TEXT);
+    }
+
+    @Benchmark
+    public String toJson() throws IOException {
+        return jsonCodec.writeReminderPayload(payload);
+    }
+
+    @Benchmark
+    public long fromJson() throws IOException {
+        return ZonedDateTime.parse(jsonCodec.readReminderPayload(json).getDate()).toInstant().toEpochMilli();
+    }
+
+    @Benchmark
+    public ReminderPayload roundTrip() throws IOException {
+        return jsonCodec.readReminderPayload(jsonCodec.writeReminderPayload(payload));
+    }
+
+    @Benchmark
+    public String compactEncode() {
+        return reminderPayloadCodec.encode(FIRE_TIME, OFFSET_SECONDS, TEXT);
+    }
+
+    @Benchmark
+    public long compactDecode() {
+        return reminderPayloadCodec.decode(compact).getFireTime();
+    }
+
+    @Benchmark
+    public ReminderPayloadCodec.Confirmation compactRoundTrip() {
+        return reminderPayloadCodec.decode(reminderPayloadCodec.encode(FIRE_TIME, OFFSET_SECONDS, TEXT));
+    }
+}
@@ -0,0 +1,64 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of scheduling and cancelling a task among {@code held} others that are due within five minutes, in
+ * {@link HierarchicalTimingWheel} versus a {@link ScheduledThreadPoolExecutor}, whose heap makes both O(log n).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HierarchicalTimingWheelBenchmark {
+    private static final long HORIZON_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final Runnable NOOP = () -> {
+    };
+
+    @Param({"1000", "100000"})
+    private int held;
+
+    private HierarchicalTimingWheel wheel;
+    private ScheduledThreadPoolExecutor executor;
+
+    @Setup
+    public void setup() {
+        wheel = new HierarchicalTimingWheel(1, 64, "benchmark-wheel");
+        wheel.start();
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < held; i++) {
+            long delay = HORIZON_MILLIS / 2 + ThreadLocalRandom.current().nextLong(HORIZON_MILLIS / 2);
+            wheel.schedule(now + delay, NOOP);
+            executor.schedule(NOOP, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        wheel.stop();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public boolean timingWheel() {
+        long delay = ThreadLocalRandom.current().nextLong(1000, HORIZON_MILLIS / 2);
+        return wheel.schedule(System.currentTimeMillis() + delay, NOOP).cancel();
+    }
+
+    @Benchmark
+    public boolean scheduledExecutor() {
+        long delay = ThreadLocalRandom.current().nextLong(1000, HORIZON_MILLIS / 2);
+        ScheduledFuture<?> future = executor.schedule(NOOP, delay, TimeUnit.MILLISECONDS);
+        return future.cancel(false);
+    }
+}
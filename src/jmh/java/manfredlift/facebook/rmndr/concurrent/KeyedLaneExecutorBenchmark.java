@@ -0,0 +1,74 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of dispatching a batch of messaging events, unordered on the pool (the previous behaviour of
+ * CallbackHandler) versus ordered per sender through {@link KeyedLaneExecutor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyedLaneExecutorBenchmark {
+    private static final int EVENTS_PER_BATCH = 1024;
+
+    @Param({"1", "64", "4096"})
+    private int senders;
+
+    @Param({"100"})
+    private int workTokens;
+
+    private ExecutorService pool;
+    private KeyedLaneExecutor lanes;
+    private String[] senderIds;
+
+    @Setup
+    public void setup() {
+        int threads = Runtime.getRuntime().availableProcessors();
+        pool = Executors.newFixedThreadPool(threads);
+        lanes = new KeyedLaneExecutor(pool, 64);
+
+        senderIds = new String[senders];
+        for (int i = 0; i < senders; i++) {
+            senderIds[i] = "sender_" + i;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_BATCH)
+    public void unordered() {
+        CompletableFuture<?>[] futures = new CompletableFuture[EVENTS_PER_BATCH];
+        for (int i = 0; i < EVENTS_PER_BATCH; i++) {
+            futures[i] = CompletableFuture.runAsync(this::process, pool);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS_PER_BATCH)
+    public void orderedPerSender() {
+        CompletableFuture<?>[] futures = new CompletableFuture[EVENTS_PER_BATCH];
+        for (int i = 0; i < EVENTS_PER_BATCH; i++) {
+            futures[i] = lanes.submit(senderIds[i % senders], this::process);
+        }
+        CompletableFuture.allOf(futures).join();
+    }
+
+    private void process() {
+        Blackhole.consumeCPU(workTokens);
+    }
+}
@@ -0,0 +1,108 @@
+package manfredlift.facebook.rmndr.factories;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import manfredlift.facebook.rmndr.store.JdbcReminderRepository;
+import org.openjdk.jmh.annotations.*;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.impl.matchers.GroupMatcher;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * !clear of a user with {@code perUser} reminders, among the reminders of other users. {@code quartz} is how it
+ * was done with a Quartz job per reminder, {@code scheduler.deleteJobs} on the keys of the user's group, which
+ * deletes trigger by trigger and job by job while holding the trigger lock. {@code table} is the single
+ * {@code DELETE} on the reminders table. Every invocation loads the user's reminders again first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClearRemindersBenchmark {
+    private static final String USER = "clearing_user";
+    private static final int OTHER_USERS = 10000;
+    private static final int REMINDERS_PER_OTHER_USER = 5;
+
+    @Param({"10000"})
+    private int perUser;
+
+    @Param({"quartz", "table"})
+    private String store;
+
+    private EmbeddedPostgres postgres;
+    private Connection connection;
+    private Scheduler scheduler;
+    private JdbcReminderRepository repository;
+    private long now;
+
+    @Setup
+    public void setup() throws Exception {
+        postgres = EmbeddedPostgres.start();
+        QuartzSchedulerFactory factory = new QuartzSchedulerFactory();
+        factory.migrate(postgres.getPostgresDatabase());
+
+        connection = postgres.getPostgresDatabase().getConnection();
+        scheduler = factory.create(postgres.getPostgresDatabase());
+        repository = new JdbcReminderRepository(postgres.getPostgresDatabase());
+        now = System.currentTimeMillis();
+
+        load("'user' || (i / " + REMINDERS_PER_OTHER_USER + ")", "'other' || i",
+            OTHER_USERS * REMINDERS_PER_OTHER_USER);
+        execute("VACUUM ANALYZE");
+    }
+
+    @Setup(Level.Invocation)
+    public void loadUser() throws SQLException {
+        load("'" + USER + "'", "'clear' || i", perUser);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+        connection.close();
+        postgres.close();
+    }
+
+    @Benchmark
+    public int clear() throws Exception {
+        if ("quartz".equals(store)) {
+            List<JobKey> jobKeys = new ArrayList<>(scheduler.getJobKeys(GroupMatcher.jobGroupEquals(USER)));
+            scheduler.deleteJobs(jobKeys);
+            return jobKeys.size();
+        }
+        return repository.deleteByUser(USER).size();
+    }
+
+    private void load(String user, String id, int count) throws SQLException {
+        String series = "FROM generate_series(0, " + (count - 1) + ") i";
+        if ("quartz".equals(store)) {
+            execute("INSERT INTO qrtz_job_details " +
+                "SELECT 'RmndrScheduler', " + id + ", " + user + ", NULL, 'manfredlift.facebook.rmndr.ReminderJob', " +
+                "false, false, false, false, NULL " + series);
+            execute("INSERT INTO qrtz_triggers " +
+                "SELECT 'RmndrScheduler', " + id + ", " + user + ", " + id + ", " + user + ", NULL, " +
+                (now + TimeUnit.DAYS.toMillis(1)) + " + i, -1, 5, 'WAITING', 'SIMPLE', " + now + ", 0, NULL, 0, " +
+                "''::bytea " + series);
+            execute("INSERT INTO qrtz_simple_triggers " +
+                "SELECT 'RmndrScheduler', " + id + ", " + user + ", 0, 0, 0 " + series);
+        } else {
+            execute("INSERT INTO reminders (ID, USER_ID, TEXT, DATE, FIRE_TIME, STATUS) " +
+                "SELECT " + id + ", " + user + ", 'some_text', 'some_date', " +
+                (now + TimeUnit.DAYS.toMillis(1)) + " + i, 'SCHEDULED' " + series);
+        }
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package manfredlift.facebook.rmndr.factories;
+
+import com.google.common.io.Resources;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.openjdk.jmh.annotations.*;
+import org.quartz.impl.jdbcjobstore.Constants;
+import org.quartz.impl.jdbcjobstore.StdJDBCConstants;
+import org.quartz.impl.jdbcjobstore.Util;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The queries Quartz issues for trigger acquisition, misfire handling, !list and !cancel, against an embedded
+ * Postgres holding {@code rows} reminders of five per user spread over the next year. With {@code indexes=none}
+ * the tables have primary keys only, with {@code migrated} the schema migrations added the secondary indexes.
+ * <p>
+ * Loading a million rows takes a minute or two per fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QuartzQueryBenchmark {
+    private static final String SCHED_NAME = "RmndrScheduler";
+    private static final int REMINDERS_PER_USER = 5;
+    private static final long YEAR_MILLIS = TimeUnit.DAYS.toMillis(365);
+
+    @Param({"1000000"})
+    private int rows;
+
+    @Param({"none", "migrated"})
+    private String indexes;
+
+    private EmbeddedPostgres postgres;
+    private Connection connection;
+    private long now;
+
+    private PreparedStatement acquireNextTriggers;
+    private PreparedStatement misfiredTriggers;
+    private PreparedStatement jobsInGroup;
+    private PreparedStatement triggersForJob;
+
+    @Setup
+    public void setup() throws Exception {
+        postgres = EmbeddedPostgres.start();
+        QuartzSchedulerFactory factory = new QuartzSchedulerFactory();
+        connection = postgres.getPostgresDatabase().getConnection();
+        now = System.currentTimeMillis();
+
+        // the tables as a database set up by hand has them, with primary keys only
+        execute(Resources.toString(
+            Resources.getResource("db/migration/V1__create_quartz_tables.sql"), StandardCharsets.UTF_8));
+        try (Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery("SELECT indexname FROM pg_indexes " +
+                 "WHERE schemaname = 'public' AND indexname LIKE 'idx_qrtz_%'")) {
+            while (resultSet.next()) {
+                execute("DROP INDEX " + resultSet.getString(1));
+            }
+        }
+
+        long started = System.nanoTime();
+        load();
+        System.out.printf("%nLoaded %d reminders in %d s%n", rows, TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+
+        if ("migrated".equals(indexes)) {
+            started = System.nanoTime();
+            factory.migrate(postgres.getPostgresDatabase());
+            System.out.printf("Migrated in %d s%n", TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - started));
+        }
+        execute("VACUUM ANALYZE");
+
+        acquireNextTriggers = prepare(StdJDBCConstants.SELECT_NEXT_TRIGGER_TO_ACQUIRE);
+        acquireNextTriggers.setMaxRows(1);
+        misfiredTriggers = prepare(StdJDBCConstants.SELECT_HAS_MISFIRED_TRIGGERS_IN_STATE);
+        misfiredTriggers.setMaxRows(20);
+        jobsInGroup = prepare(StdJDBCConstants.SELECT_JOBS_IN_GROUP);
+        triggersForJob = prepare(StdJDBCConstants.SELECT_TRIGGERS_FOR_JOB);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.close();
+        postgres.close();
+    }
+
+    /**
+     * What an instance asks for every time it looks for the next reminder to fire.
+     */
+    @Benchmark
+    public int acquireNextTriggers() throws SQLException {
+        acquireNextTriggers.setString(1, Constants.STATE_WAITING);
+        acquireNextTriggers.setLong(2, now + TimeUnit.SECONDS.toMillis(30));
+        acquireNextTriggers.setLong(3, now - TimeUnit.MINUTES.toMillis(1));
+        return count(acquireNextTriggers);
+    }
+
+    /**
+     * The misfire handler looks for reminders that are overdue by more than the misfire threshold.
+     */
+    @Benchmark
+    public int misfiredTriggers() throws SQLException {
+        misfiredTriggers.setLong(1, now - TimeUnit.MINUTES.toMillis(1));
+        misfiredTriggers.setString(2, Constants.STATE_WAITING);
+        return count(misfiredTriggers);
+    }
+
+    /**
+     * !list and !clear look up the reminders of the user.
+     */
+    @Benchmark
+    public int jobsInGroup() throws SQLException {
+        jobsInGroup.setString(1, randomUser());
+        return count(jobsInGroup);
+    }
+
+    /**
+     * !cancel deletes the triggers of the reminder before the reminder itself.
+     */
+    @Benchmark
+    public int triggersForJob() throws SQLException {
+        int reminder = ThreadLocalRandom.current().nextInt(rows);
+        triggersForJob.setString(1, "reminder" + reminder);
+        triggersForJob.setString(2, "user" + reminder / REMINDERS_PER_USER);
+        return count(triggersForJob);
+    }
+
+    private void load() throws SQLException {
+        execute("SELECT setseed(0.42)");
+        execute("INSERT INTO qrtz_job_details " +
+            "SELECT '" + SCHED_NAME + "', 'reminder' || i, 'user' || (i / " + REMINDERS_PER_USER + "), NULL, " +
+            "'manfredlift.facebook.rmndr.ReminderJob', false, false, false, false, decode(repeat('ac', 300), 'hex') " +
+            "FROM generate_series(0, " + (rows - 1) + ") i");
+        execute("INSERT INTO qrtz_triggers " +
+            "SELECT '" + SCHED_NAME + "', 'reminder' || i, 'user' || (i / " + REMINDERS_PER_USER + "), " +
+            "'reminder' || i, 'user' || (i / " + REMINDERS_PER_USER + "), NULL, fire, -1, 5, 'WAITING', 'SIMPLE', " +
+            "fire, 0, NULL, 0, ''::bytea " +
+            "FROM (SELECT i, " + now + " + (random() * " + YEAR_MILLIS + ")::bigint AS fire " +
+            "FROM generate_series(0, " + (rows - 1) + ") i) reminders");
+    }
+
+    private String randomUser() {
+        return "user" + ThreadLocalRandom.current().nextInt(rows / REMINDERS_PER_USER);
+    }
+
+    private PreparedStatement prepare(String query) throws SQLException {
+        return connection.prepareStatement(Util.rtp(query, "QRTZ_", "'" + SCHED_NAME + "'"));
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static int count(PreparedStatement statement) throws SQLException {
+        int count = 0;
+        try (ResultSet resultSet = statement.executeQuery()) {
+            while (resultSet.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
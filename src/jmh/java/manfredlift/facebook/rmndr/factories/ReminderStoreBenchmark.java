@@ -0,0 +1,112 @@
+package manfredlift.facebook.rmndr.factories;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.db.ManagedDataSource;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import manfredlift.facebook.rmndr.ReminderJob;
+import manfredlift.facebook.rmndr.store.JdbcReminderRepository;
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.WalReminderRepository;
+import org.openjdk.jmh.annotations.*;
+import org.quartz.Scheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+/**
+ * Throughput of scheduling reminders from several threads, each one durable when the call returns: as a Quartz job
+ * in {@code JobStoreTX}, as a row of the reminders table, and in a {@link WalReminderRepository} on local disk.
+ * Postgres runs embedded with {@code fsync} and {@code synchronous_commit} on, so every store pays for its fsyncs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class ReminderStoreBenchmark {
+    @Param({"quartz", "jdbc", "wal"})
+    private String store;
+
+    private EmbeddedPostgres postgres;
+    private Scheduler scheduler;
+    private ManagedDataSource dataSource;
+    private ReminderRepository repository;
+    private Path walDirectory;
+    private long fireTime;
+
+    @Setup
+    public void setup() throws Exception {
+        fireTime = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(1);
+        if ("wal".equals(store)) {
+            walDirectory = Files.createTempDirectory("reminders");
+            repository = WalReminderRepository.open(walDirectory);
+            return;
+        }
+
+        postgres = EmbeddedPostgres.builder()
+            .setServerConfig("fsync", "on")
+            .setServerConfig("synchronous_commit", "on")
+            .start();
+        DatabaseFactory database = new DatabaseFactory();
+        database.setUrl(postgres.getJdbcUrl("postgres", "postgres"));
+        database.setUser("postgres");
+        database.setMaxSize(8);
+        dataSource = database.build(new MetricRegistry(), "benchmark");
+        dataSource.start();
+        QuartzSchedulerFactory factory = new QuartzSchedulerFactory();
+        factory.migrate(dataSource);
+
+        if ("quartz".equals(store)) {
+            scheduler = factory.create(dataSource);
+        } else {
+            repository = new JdbcReminderRepository(dataSource);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+        if (dataSource != null) {
+            dataSource.stop();
+        }
+        if (repository instanceof WalReminderRepository) {
+            ((WalReminderRepository) repository).close();
+        }
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Benchmark
+    public void schedule() throws Exception {
+        String id = UUID.randomUUID().toString().replace("-", "");
+        if (scheduler != null) {
+            scheduler.scheduleJob(
+                newJob(ReminderJob.class).withIdentity(id, "some_user")
+                    .usingJobData("recipient", "some_user")
+                    .usingJobData("text", "take the pizza out of the oven")
+                    .usingJobData("date", "2099-09-12T11:30:00.000+01:00")
+                    .build(),
+                newTrigger().withIdentity(id, "some_user").startAt(new Date(fireTime)).build());
+            return;
+        }
+        repository.save(Reminder.builder()
+            .id(id)
+            .userId("some_user")
+            .text("take the pizza out of the oven")
+            .date("2099-09-12T11:30:00.000+01:00")
+            .fireTime(fireTime)
+            .build());
+    }
+}
@@ -0,0 +1,85 @@
+package manfredlift.facebook.rmndr.resources;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import manfredlift.facebook.rmndr.api.Callback;
+import manfredlift.facebook.rmndr.util.SignatureVerifier;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of verifying and parsing one webhook request, from the bytes Jersey read off the wire. The string path is
+ * the previous WebhookResource: decode to a String, re-encode it for the HMAC, compare hex strings and parse the
+ * String. Run with {@code -prof gc} to see the allocations per request.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebhookVerificationBenchmark {
+    private static final String APP_SECRET = "some_app_secret";
+    private static final String MESSAGING = "{\"sender\":{\"id\":\"1254459154682919\"},\"recipient\":{\"id\":\"682498302938465\"}," +
+        "\"timestamp\":1505211935893,\"message\":{\"mid\":\"mid.$cAAJsujCd2ORkHh27-leqAZ1wtQ5S\",\"seq\":1234," +
+        "\"text\":\"!reminder in 15 mins; take the pizza out of the oven\"}}";
+
+    @Param({"1", "20", "100"})
+    private int events;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private SignatureVerifier signatureVerifier;
+    private byte[] body;
+    private String signature;
+
+    @Setup
+    public void setup() {
+        StringBuilder messaging = new StringBuilder();
+        for (int i = 0; i < events; i++) {
+            messaging.append(i > 0 ? "," : "").append(MESSAGING);
+        }
+        String json = "{\"object\":\"page\",\"entry\":[{\"id\":\"682498302938465\",\"time\":1505211936012," +
+            "\"messaging\":[" + messaging + "]}]}";
+
+        body = json.getBytes(StandardCharsets.UTF_8);
+        signature = "sha1=" + Hex.encodeHexString(HmacUtils.hmacSha1(APP_SECRET.getBytes(StandardCharsets.UTF_8), body));
+        signatureVerifier = new SignatureVerifier(APP_SECRET);
+    }
+
+    @Benchmark
+    public Callback stringBody() throws IOException {
+        String requestBody = new String(body, StandardCharsets.UTF_8);
+        byte[] sha1 = HmacUtils.hmacSha1(APP_SECRET.getBytes(StandardCharsets.UTF_8),
+            requestBody.getBytes(StandardCharsets.UTF_8));
+        if (!StringUtils.equals("sha1=" + Hex.encodeHexString(sha1), signature)) {
+            throw new IllegalStateException("Signature should be valid");
+        }
+        return objectMapper.readValue(requestBody, Callback.class);
+    }
+
+    @Benchmark
+    public Callback byteBody() throws IOException {
+        if (!signatureVerifier.isValid(signature, body)) {
+            throw new IllegalStateException("Signature should be valid");
+        }
+        return objectMapper.readValue(body, Callback.class);
+    }
+
+    @Benchmark
+    public boolean stringSignatureOnly() {
+        String requestBody = new String(body, StandardCharsets.UTF_8);
+        byte[] sha1 = HmacUtils.hmacSha1(APP_SECRET.getBytes(StandardCharsets.UTF_8),
+            requestBody.getBytes(StandardCharsets.UTF_8));
+        return StringUtils.equals("sha1=" + Hex.encodeHexString(sha1), signature);
+    }
+
+    @Benchmark
+    public boolean byteSignatureOnly() {
+        return signatureVerifier.isValid(signature, body);
+    }
+}
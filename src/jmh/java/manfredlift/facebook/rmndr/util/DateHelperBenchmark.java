@@ -0,0 +1,40 @@
+package manfredlift.facebook.rmndr.util;
+
+import manfredlift.facebook.rmndr.api.ReferenceTime;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.OffsetDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion between the message timestamp and the reference time sent to Wit AI, done for every !reminder.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateHelperBenchmark {
+    @Param({"0", "-7", "9"})
+    private int offsetHours;
+
+    private long millis;
+    private ReferenceTime referenceTime;
+
+    @Setup
+    public void setup() {
+        millis = 1505211935893L;
+        referenceTime = DateHelper.referenceTimeFromMillis(millis, offsetHours);
+    }
+
+    @Benchmark
+    public ReferenceTime referenceTimeFromMillis() {
+        return DateHelper.referenceTimeFromMillis(millis, offsetHours);
+    }
+
+    @Benchmark
+    public OffsetDateTime offsetDateTimeFromReferenceTime() {
+        return DateHelper.offsetDateTimeFromReferenceTime(referenceTime);
+    }
+}
@@ -0,0 +1,226 @@
+package manfredlift.facebook.rmndr.loadtest;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dropwizard.testing.ConfigOverride;
+import io.dropwizard.testing.DropwizardTestSupport;
+import io.dropwizard.testing.ResourceHelpers;
+import manfredlift.facebook.rmndr.ReminderDispatcher;
+import manfredlift.facebook.rmndr.RmndrApplication;
+import manfredlift.facebook.rmndr.RmndrConfiguration;
+import manfredlift.facebook.rmndr.RmndrConstants;
+import manfredlift.facebook.rmndr.api.*;
+import manfredlift.facebook.rmndr.client.SendQueue;
+import manfredlift.facebook.rmndr.util.ReminderPayloadCodec;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.HmacUtils;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.codahale.metrics.MetricRegistry.name;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathMatching;
+
+/**
+ * Drives signed webhook traffic at a fixed rate into a local {@link RmndrApplication} whose Graph API and Wit AI
+ * are stub servers, then reports the webhook throughput, the latency until the user gets a reply and how late the
+ * scheduled reminders arrive. Runs offline, see the README for the options.
+ * <p>
+ * Every event comes from a new sender, so user timezones are never cached.
+ */
+public class LoadHarness {
+    private static final String APP_SECRET = "load_test_app_secret";
+    private static final String PAGE_ID = "682498302938465";
+    private static final String WIT_RESPONSE = "{\"msg_id\":\"load_test\",\"_text\":\"next friday at 5pm\"," +
+        "\"entities\":{\"datetime\":[{\"confidence\":0.97,\"value\":\"2099-09-18T17:00:00.000+01:00\"," +
+        "\"grain\":\"hour\",\"type\":\"value\"}]}}";
+    private static final AtomicLong MIDS = new AtomicLong();
+
+    private final LoadOptions options;
+    private final LoadRecorder recorder = new LoadRecorder();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ReminderPayloadCodec payloadCodec = new ReminderPayloadCodec(APP_SECRET);
+
+    private LoadHarness(LoadOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadHarness(LoadOptions.parse(args)).run();
+        // Quartz worker threads are not daemons
+        System.exit(0);
+    }
+
+    private void run() throws Exception {
+        StubServer graphApi = new StubServer(options.getStubThreads(), options.getGraphLatencyMillis(),
+            options.getGraphJitterMillis(), options.getGraphErrorRate(), recorder::messageServed);
+        StubServer witApi = new StubServer(options.getStubThreads(), options.getWitLatencyMillis(),
+            options.getWitJitterMillis(), options.getWitErrorRate(), request -> { });
+        graphApi.stubJson(get(urlPathMatching("/v2.6/[^/]+")), "{\"timezone\":1,\"id\":\"load_test\"}");
+        graphApi.stubJson(post(urlPathEqualTo("/v2.6/me/messages")),
+            "{\"recipient_id\":\"load_test\",\"message_id\":\"mid.load_test\"}");
+        witApi.stubJson(get(urlPathEqualTo("/message")), WIT_RESPONSE);
+        graphApi.start();
+        witApi.start();
+
+        List<ConfigOverride> overrides = new ArrayList<>();
+        overrides.add(ConfigOverride.config("appSecret", APP_SECRET));
+        overrides.add(ConfigOverride.config("graphApiUri", "http://localhost:" + graphApi.port() + "/v2.6"));
+        overrides.add(ConfigOverride.config("witUri", "http://localhost:" + witApi.port() + "/message?v=20170901"));
+        for (Map.Entry<String, String> override : options.getOverrides().entrySet()) {
+            overrides.add(ConfigOverride.config(override.getKey(), override.getValue()));
+        }
+        DropwizardTestSupport<RmndrConfiguration> app = new DropwizardTestSupport<>(RmndrApplication.class,
+            ResourceHelpers.resourceFilePath(options.getConfig()), overrides.toArray(new ConfigOverride[0]));
+        app.before();
+
+        HttpClient httpClient = new HttpClient();
+        httpClient.setMaxConnectionsPerDestination(options.getConnections());
+        httpClient.start();
+
+        try {
+            String webhookUri = "http://localhost:" + app.getLocalPort() + "/webhook";
+            long started = System.nanoTime();
+            long lastReminderDue = generate(httpClient, webhookUri, started);
+            double elapsedSeconds = (System.nanoTime() - started) / 1e9;
+
+            long graceMillis = TimeUnit.SECONDS.toMillis(options.getGraceSeconds());
+            long repliesDeadline = System.currentTimeMillis() + graceMillis;
+            while (recorder.hasPendingReplies() && System.currentTimeMillis() < repliesDeadline) {
+                Thread.sleep(100);
+            }
+            System.out.printf("Waiting for reminders due until %s%n", Instant.ofEpochMilli(lastReminderDue));
+            while (recorder.hasPendingReminders() && System.currentTimeMillis() < lastReminderDue + graceMillis) {
+                Thread.sleep(100);
+            }
+
+            recorder.report(System.out, options.getRate(), elapsedSeconds);
+            reportApplication(app.getEnvironment().metrics());
+            System.out.printf("Stubs      injected faults: graph %d, wit %d%n", graphApi.faults(), witApi.faults());
+        } finally {
+            httpClient.stop();
+            app.after();
+            graphApi.stop();
+            witApi.stop();
+        }
+    }
+
+    /**
+     * Sends the events open loop, at the intended time of each event whether or not earlier ones were answered.
+     * Returns the due time of the last scheduled reminder.
+     */
+    private long generate(HttpClient httpClient, String webhookUri, long started) throws Exception {
+        long events = Math.round(options.getRate() * options.getDurationSeconds());
+        double intervalNanos = 1e9 / options.getRate();
+        long reminderDelayMillis = TimeUnit.SECONDS.toMillis(options.getReminderDelaySeconds());
+        long lastReminderDue = 0;
+
+        for (long i = 0; i < events; i++) {
+            long intendedNanos = started + (long) (i * intervalNanos);
+            long wait = intendedNanos - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+
+            String senderId = "load" + i;
+            double share = ThreadLocalRandom.current().nextDouble();
+            Message message;
+            if (share < options.getConfirmShare()) {
+                long due = System.currentTimeMillis() + reminderDelayMillis;
+                message = confirmation(due);
+                recorder.reminderScheduled(senderId, due);
+                lastReminderDue = due;
+            } else if (share < options.getConfirmShare() + options.getWitShare()) {
+                message = text(RmndrConstants.REMINDER_COMMAND + " next friday at 5pm; water the plants");
+            } else {
+                message = text(RmndrConstants.REMINDER_COMMAND + " in 15 mins; take the pizza out of the oven");
+            }
+
+            byte[] body = objectMapper.writeValueAsBytes(callback(senderId, message));
+            String signature = "sha1=" + Hex.encodeHexString(HmacUtils.hmacSha1(
+                APP_SECRET.getBytes(StandardCharsets.UTF_8), body));
+
+            recorder.eventSent(senderId, intendedNanos);
+            httpClient.POST(webhookUri)
+                .header("X-Hub-Signature", signature)
+                .content(new BytesContentProvider("application/json", body))
+                .send(result -> {
+                    if (result.isFailed()) {
+                        recorder.webhookFailed();
+                    } else {
+                        recorder.webhookAnswered(intendedNanos, result.getResponse().getStatus());
+                    }
+                });
+        }
+        return lastReminderDue;
+    }
+
+    private static Message text(String text) {
+        return Message.builder().mid(nextMid()).seq(1).text(text).build();
+    }
+
+    private Message confirmation(long dueMillis) {
+        QuickReply quickReply = QuickReply.builder()
+            .title("Yes")
+            .payload(payloadCodec.encode(dueMillis, 0, LoadRecorder.REMINDER_PREFIX + dueMillis))
+            .build();
+        return Message.builder().mid(nextMid()).seq(1).text("Yes").quickReply(quickReply).build();
+    }
+
+    /**
+     * Every event gets its own mid, the application ignores events it already processed.
+     */
+    private static String nextMid() {
+        return "mid.load_test." + MIDS.incrementAndGet();
+    }
+
+    private static Callback callback(String senderId, Message message) {
+        Messaging messaging = Messaging.builder()
+            .sender(new User(senderId))
+            .recipient(new User(PAGE_ID))
+            .timestamp(System.currentTimeMillis())
+            .message(message)
+            .build();
+        Entry entry = Entry.builder()
+            .id(Long.parseLong(PAGE_ID))
+            .time(System.currentTimeMillis())
+            .messaging(Collections.singletonList(messaging))
+            .build();
+        return Callback.builder().object("page").entry(Collections.singletonList(entry)).build();
+    }
+
+    private static void reportApplication(MetricRegistry metrics) {
+        Map<String, Meter> meters = metrics.getMeters();
+        System.out.printf("Send queue sent %d, retried %d, throttled %d, dropped %d%n",
+            count(meters, name(SendQueue.class, "sent")),
+            count(meters, name(SendQueue.class, "retried")),
+            count(meters, name(SendQueue.class, "throttled")),
+            count(meters, name(SendQueue.class, "dropped", "queue-full"))
+                + count(meters, name(SendQueue.class, "dropped", "retry-buffer-full"))
+                + count(meters, name(SendQueue.class, "dropped", "retries-exhausted")));
+        Histogram deliveryLag = metrics.getHistograms().get(name(ReminderDispatcher.class, "delivery-lag"));
+        System.out.printf("Dispatcher delivery lag p99 %.0f ms, sent on Quartz threads %d%n",
+            deliveryLag != null ? deliveryLag.getSnapshot().get99thPercentile() : 0.0,
+            count(meters, name(ReminderDispatcher.class, "caller-runs")));
+    }
+
+    private static long count(Map<String, Meter> meters, String name) {
+        Meter meter = meters.get(name);
+        return meter != null ? meter.getCount() : 0;
+    }
+}
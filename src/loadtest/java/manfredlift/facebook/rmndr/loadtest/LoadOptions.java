@@ -0,0 +1,76 @@
+package manfredlift.facebook.rmndr.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Options of the load harness, given as {@code --name=value} arguments. Arguments of the form
+ * {@code --dw.path=value} override the application configuration instead, e.g. {@code --dw.witResponseCaching=false}.
+ */
+@Data
+public class LoadOptions {
+    private static final String OVERRIDE_PREFIX = "dw.";
+
+    /** webhooks per second, one messaging event each */
+    private double rate = 50;
+
+    private int durationSeconds = 60;
+
+    private int connections = 64;
+
+    /** share of events that confirm a reminder, which schedules it */
+    private double confirmShare = 0.5;
+
+    /** share of events with a !reminder the local parser does not understand, which go to Wit */
+    private double witShare = 0.1;
+
+    private int reminderDelaySeconds = 30;
+
+    /** how long to wait for late replies and reminders before reporting them missing */
+    private int graceSeconds = 30;
+
+    private int graphLatencyMillis = 50;
+
+    private int graphJitterMillis = 20;
+
+    private double graphErrorRate = 0;
+
+    private int witLatencyMillis = 200;
+
+    private int witJitterMillis = 50;
+
+    private double witErrorRate = 0;
+
+    /** request threads of each stub server, the stubs hold a thread for their whole latency */
+    private int stubThreads = 200;
+
+    private String config = "loadtest-config.yml";
+
+    private Map<String, String> overrides = new LinkedHashMap<>();
+
+    public static LoadOptions parse(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        Map<String, String> overrides = new LinkedHashMap<>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got '" + arg + "'");
+            }
+            String name = arg.substring(2, equals);
+            String value = arg.substring(equals + 1);
+            if (name.startsWith(OVERRIDE_PREFIX)) {
+                overrides.put(name.substring(OVERRIDE_PREFIX.length()), value);
+            } else {
+                options.put(name, value);
+            }
+        }
+
+        LoadOptions loadOptions = new ObjectMapper().convertValue(options, LoadOptions.class);
+        loadOptions.setOverrides(overrides);
+        return loadOptions;
+    }
+}
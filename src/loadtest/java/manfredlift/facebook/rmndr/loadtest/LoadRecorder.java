@@ -0,0 +1,134 @@
+package manfredlift.facebook.rmndr.loadtest;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.UniformReservoir;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.http.Request;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Matches what arrives at the Send API stub with the events that caused it. Every event comes from its own sender
+ * and gets exactly one reply, so the first message to a sender is its reply. Reminders carry their due time in
+ * their text.
+ */
+class LoadRecorder {
+    static final String REMINDER_PREFIX = "due:";
+
+    private static final int RESERVOIR_SIZE = 100_000;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, Long> pendingReplies = new ConcurrentHashMap<>();
+    private final Map<String, Long> pendingReminders = new ConcurrentHashMap<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong acked = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong replies = new AtomicLong();
+    private final AtomicLong scheduled = new AtomicLong();
+    private final AtomicLong reminders = new AtomicLong();
+
+    // microseconds for the latencies, milliseconds for the lateness
+    private final Histogram ackLatency = new Histogram(new UniformReservoir(RESERVOIR_SIZE));
+    private final Histogram replyLatency = new Histogram(new UniformReservoir(RESERVOIR_SIZE));
+    private final Histogram reminderLateness = new Histogram(new UniformReservoir(RESERVOIR_SIZE));
+
+    /**
+     * Latencies are measured from when the event should have been sent, so a generator that falls behind does not
+     * hide the delay.
+     */
+    void eventSent(String senderId, long intendedNanos) {
+        sent.incrementAndGet();
+        pendingReplies.put(senderId, intendedNanos);
+    }
+
+    void reminderScheduled(String senderId, long dueMillis) {
+        scheduled.incrementAndGet();
+        pendingReminders.put(senderId, dueMillis);
+    }
+
+    void webhookAnswered(long intendedNanos, int status) {
+        if (status == 200) {
+            acked.incrementAndGet();
+            ackLatency.update(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos));
+        } else {
+            rejected.incrementAndGet();
+        }
+    }
+
+    void webhookFailed() {
+        failed.incrementAndGet();
+    }
+
+    /**
+     * Called by the Graph API stub for every message it accepts.
+     */
+    void messageServed(Request request) {
+        if (!request.getUrl().contains("/me/messages")) {
+            return;
+        }
+
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        JsonNode message;
+        try {
+            message = objectMapper.readTree(request.getBody());
+        } catch (IOException e) {
+            return;
+        }
+        String recipientId = message.path("recipient").path("id").asText();
+        String text = message.path("message").path("text").asText();
+
+        if (text.startsWith(REMINDER_PREFIX)) {
+            // a reminder sent again after a lost response is only counted once
+            if (pendingReminders.remove(recipientId) != null) {
+                reminders.incrementAndGet();
+                reminderLateness.update(nowMillis - Long.parseLong(text.substring(REMINDER_PREFIX.length())));
+            }
+            return;
+        }
+
+        Long intendedNanos = pendingReplies.remove(recipientId);
+        if (intendedNanos != null) {
+            replies.incrementAndGet();
+            replyLatency.update(TimeUnit.NANOSECONDS.toMicros(nowNanos - intendedNanos));
+        }
+    }
+
+    boolean hasPendingReplies() {
+        return !pendingReplies.isEmpty();
+    }
+
+    boolean hasPendingReminders() {
+        return !pendingReminders.isEmpty();
+    }
+
+    void report(PrintStream out, double targetRate, double elapsedSeconds) {
+        out.printf("Webhooks   sent %d in %.1fs (%.1f/s, target %.1f/s), acknowledged %d, rejected %d, failed %d%n",
+            sent.get(), elapsedSeconds, sent.get() / elapsedSeconds, targetRate, acked.get(), rejected.get(), failed.get());
+        printMillis(out, "  ack latency ms     ", ackLatency.getSnapshot(), 1000.0);
+        out.printf("Replies    received %d of %d%n", replies.get(), sent.get());
+        printMillis(out, "  reply latency ms   ", replyLatency.getSnapshot(), 1000.0);
+        out.printf("Reminders  delivered %d of %d%n", reminders.get(), scheduled.get());
+        printMillis(out, "  lateness ms        ", reminderLateness.getSnapshot(), 1.0);
+    }
+
+    private static void printMillis(PrintStream out, String label, Snapshot snapshot, double divisor) {
+        if (snapshot.size() == 0) {
+            out.println(label + "-");
+            return;
+        }
+        out.printf("%sp50 %.1f  p90 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n", label,
+            snapshot.getMedian() / divisor, snapshot.getValue(0.9) / divisor, snapshot.get99thPercentile() / divisor,
+            snapshot.get999thPercentile() / divisor, snapshot.getMax() / divisor);
+    }
+}
@@ -0,0 +1,95 @@
+package manfredlift.facebook.rmndr.loadtest;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.MappingBuilder;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseTransformer;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.Response;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+
+/**
+ * Local stand-in for an external API. Every response is delayed by a uniformly distributed latency and a share of
+ * the requests fails with a 500. Requests that are answered successfully are passed to a listener as they arrive.
+ */
+class StubServer {
+    private final WireMockServer server;
+    private final FaultInjector faults;
+    private final int latencyMillis;
+    private final int jitterMillis;
+
+    StubServer(int threads, int latencyMillis, int jitterMillis, double errorRate, Consumer<Request> onServed) {
+        this.faults = new FaultInjector(errorRate, onServed);
+        this.server = new WireMockServer(wireMockConfig()
+            .dynamicPort()
+            .containerThreads(threads)
+            .disableRequestJournal()
+            .extensions(faults));
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop();
+    }
+
+    int port() {
+        return server.port();
+    }
+
+    long faults() {
+        return faults.injected.get();
+    }
+
+    void stubJson(MappingBuilder request, String body) {
+        ResponseDefinitionBuilder response = aResponse()
+            .withHeader("Content-Type", "application/json")
+            .withBody(body);
+        server.stubFor(request.willReturn(jitterMillis > 0
+            ? response.withUniformRandomDelay(latencyMillis, latencyMillis + jitterMillis)
+            : response.withFixedDelay(latencyMillis)));
+    }
+
+    private static class FaultInjector extends ResponseTransformer {
+        private final double errorRate;
+        private final Consumer<Request> onServed;
+        private final AtomicLong injected = new AtomicLong();
+
+        FaultInjector(double errorRate, Consumer<Request> onServed) {
+            this.errorRate = errorRate;
+            this.onServed = onServed;
+        }
+
+        @Override
+        public Response transform(Request request, Response response, FileSource files, Parameters parameters) {
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                injected.incrementAndGet();
+                return Response.Builder.like(response).but()
+                    .status(500)
+                    .body("{\"error\":{\"message\":\"injected fault\"}}")
+                    .build();
+            }
+            if (response.getStatus() == 200) {
+                onServed.accept(request);
+            }
+            return response;
+        }
+
+        @Override
+        public String getName() {
+            return "fault-injector";
+        }
+    }
+}
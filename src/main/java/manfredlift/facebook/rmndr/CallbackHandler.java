@@ -1,282 +1,509 @@
 package manfredlift.facebook.rmndr;
 
 import com.google.common.collect.ImmutableList;
-import com.google.gson.Gson;
+import com.google.common.hash.Hashing;
 import io.dropwizard.jersey.setup.JerseyEnvironment;
 import lombok.extern.slf4j.Slf4j;
 import manfredlift.facebook.rmndr.api.*;
 import manfredlift.facebook.rmndr.client.FbClient;
 import manfredlift.facebook.rmndr.client.WitClient;
+import manfredlift.facebook.rmndr.concurrent.ExpiringLongSet;
+import manfredlift.facebook.rmndr.concurrent.KeyedLaneExecutor;
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderCursor;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+import manfredlift.facebook.rmndr.util.CallbackStreamReader;
 import manfredlift.facebook.rmndr.util.DateHelper;
+import manfredlift.facebook.rmndr.util.JsonCodec;
+import manfredlift.facebook.rmndr.util.ReminderPayloadCodec;
 import org.apache.commons.lang3.StringUtils;
-import org.quartz.*;
-import org.quartz.impl.matchers.GroupMatcher;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
 import static jersey.repackaged.com.google.common.base.Preconditions.checkNotNull;
 import static manfredlift.facebook.rmndr.RmndrConstants.*;
-import static org.quartz.JobBuilder.newJob;
-import static org.quartz.TriggerBuilder.newTrigger;
 
 @Slf4j
 public class CallbackHandler {
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern(DATE_FORMAT);
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
     private final FbClient fbClient;
     private final WitClient witClient;
-    private final Scheduler scheduler;
-    private final Gson gson;
-
-    public CallbackHandler(JerseyEnvironment jersey) {
+    private final ReminderRepository reminderRepository;
+    private final ReminderEngine reminderEngine;
+    private final KeyedLaneExecutor lanes;
+    private final ExpiringLongSet recentDeliveries;
+    private final JsonCodec jsonCodec;
+    private final CallbackStreamReader callbackStreamReader;
+    private final ReminderPayloadCodec reminderPayloadCodec;
+    private final boolean jsonQuickReplyAccepted;
+    private final boolean streamingCallbackParsing;
+    private final boolean speculativeWitParse;
+    private final int speculativeOffsetHours;
+    private final int listPageSize;
+
+    public CallbackHandler(RmndrConfiguration config, JerseyEnvironment jersey) {
         this.fbClient = checkNotNull(jersey.getProperty(RmndrConstants.FB_CLIENT));
         this.witClient = checkNotNull(jersey.getProperty(RmndrConstants.WIT_CLIENT));
-        this.scheduler = checkNotNull(jersey.getProperty(RmndrConstants.QUARTZ_SCHEDULER));
-        this.gson = new Gson();
+        this.reminderRepository = checkNotNull(jersey.getProperty(RmndrConstants.REMINDER_REPOSITORY));
+        this.reminderEngine = checkNotNull(jersey.getProperty(RmndrConstants.REMINDER_ENGINE));
+        this.lanes = checkNotNull(jersey.getProperty(RmndrConstants.CALLBACK_LANES));
+        this.recentDeliveries = new ExpiringLongSet(config.getDeduplicationWindow().toMilliseconds(),
+            config.getDeduplicationMaxEntries());
+        this.jsonCodec = checkNotNull(jersey.getProperty(RmndrConstants.JSON_CODEC));
+        this.callbackStreamReader = new CallbackStreamReader(jsonCodec.getObjectMapper());
+        this.reminderPayloadCodec = new ReminderPayloadCodec(config.getAppSecret());
+        this.jsonQuickReplyAccepted = config.getAppSecret() == null;
+        this.streamingCallbackParsing = config.isStreamingCallbackParsing();
+        this.speculativeWitParse = config.isSpeculativeWitParse();
+        this.speculativeOffsetHours = config.getSpeculativeOffsetHours();
+        this.listPageSize = config.getListPageSize();
     }
 
+    /**
+     * Dispatches every messaging event of the callback. Events from the same sender are processed in the order
+     * they were received, events from different senders are processed in parallel. The returned future completes
+     * once every event was processed, including the replies sent for it. Throws a
+     * {@link CallbackRejectedException} if the lanes are full, the events after the rejected one are not dispatched.
+     */
     public CompletableFuture<Void> handleCallbackAsync(Callback callback) {
-        return CompletableFuture.runAsync(() ->
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
             Optional.ofNullable(callback.getEntry())
                 .orElseGet(Collections::emptyList)
                 .stream()
                 .map(Entry::getMessaging)
                 .filter(Objects::nonNull)
                 .flatMap(Collection::stream)
-                .forEach(this::processMessaging));
+                .forEachOrdered(messaging -> futures.add(dispatch(messaging)));
+        } catch (RejectedExecutionException e) {
+            throw new CallbackRejectedException(allOf(futures), e);
+        }
+        return allOf(futures);
+    }
+
+    /**
+     * Parses the webhook body and dispatches its messaging events. With streaming callback parsing each event is
+     * dispatched as soon as it is parsed, so processing starts before the rest of a large batch is read. A body
+     * that is not a valid callback throws, the events before the error are still processed. Full lanes throw a
+     * {@link CallbackRejectedException} the same way.
+     */
+    public CompletableFuture<Void> handleCallbackAsync(byte[] body) throws IOException {
+        if (!streamingCallbackParsing) {
+            return handleCallbackAsync(jsonCodec.readCallback(body));
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try {
+            callbackStreamReader.forEachMessaging(body, messaging -> futures.add(dispatch(messaging)));
+        } catch (RejectedExecutionException e) {
+            throw new CallbackRejectedException(allOf(futures), e);
+        }
+        return allOf(futures);
     }
 
-    private void processMessaging(Messaging messaging) {
+    /**
+     * Ids of the messaging events processed within the deduplication window, Facebook delivers a webhook again
+     * when it was not acknowledged in time.
+     */
+    public ExpiringLongSet getRecentDeliveries() {
+        return recentDeliveries;
+    }
+
+    private static CompletableFuture<Void> allOf(List<CompletableFuture<Void>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]));
+    }
+
+    private CompletableFuture<Void> dispatch(Messaging messaging) {
+        return lanes.submitAsync(senderId(messaging), () -> processMessaging(messaging));
+    }
+
+    private static String senderId(Messaging messaging) {
+        return messaging.getSender() != null ? messaging.getSender().getId() : null;
+    }
+
+    /**
+     * Processes the event and returns a future that completes once the asynchronous work it started, e.g. the Wit
+     * request and the replies, is done.
+     */
+    private CompletableFuture<Void> processMessaging(Messaging messaging) {
         if (messaging.getSender() == null || messaging.getSender().getId() == null) {
             log.error("Unexpected: Sender id for the message is missing.");
-            return;
+            return DONE;
+        }
+
+        if (isRedelivery(messaging)) {
+            log.info("Ignoring a messaging event that was already processed: {}", messaging.toString());
+            return DONE;
         }
 
         if (messaging.getPostback() != null) {
-            processPostback(messaging.getSender(), messaging.getPostback());
-            return;
+            return processPostback(messaging.getSender(), messaging.getPostback());
         }
 
         Message message = messaging.getMessage();
 
         if (message == null) {
             log.error("Unexpected: Message is null in Messaging: {}", messaging.toString());
-            return;
+            return DONE;
         }
 
         if (message.getQuickReply() != null) {
             log.info("Quick reply received: '{}'", message.getQuickReply().getPayload());
-            processQuickReply(messaging.getSender(), message.getQuickReply());
+            return processQuickReply(messaging.getSender(), message.getQuickReply());
         } else {
-            processMessage(messaging.getSender(), message, messaging.getTimestamp());
+            return processMessage(messaging.getSender(), message, messaging.getTimestamp());
         }
     }
 
-    private void processQuickReply(User user, QuickReply quickReply) {
+    /**
+     * Messages are identified by their mid, postbacks by their sender and timestamp. Events without either are
+     * always processed.
+     */
+    private boolean isRedelivery(Messaging messaging) {
+        String deliveryId;
+        if (messaging.getMessage() != null && messaging.getMessage().getMid() != null) {
+            deliveryId = messaging.getMessage().getMid();
+        } else if (messaging.getTimestamp() != 0) {
+            deliveryId = messaging.getSender().getId() + ":" + messaging.getTimestamp();
+        } else {
+            return false;
+        }
+        return !recentDeliveries.add(Hashing.murmur3_128().hashString(deliveryId, StandardCharsets.UTF_8).asLong());
+    }
+
+    private CompletableFuture<Void> processQuickReply(User user, QuickReply quickReply) {
         if (quickReply.getPayload() == null || quickReply.getPayload().length() == 0) {
             log.info("User cancelled in quick reply");
-            return;
+            return DONE;
         }
 
         if (quickReply.getPayload().equals(RmndrConstants.CANCEL)) {
             log.info("User cancelled timer in confirmation");
-            return;
+            return DONE;
+        }
+
+        if (quickReply.getPayload().startsWith(LIST_MORE)) {
+            ReminderCursor cursor = parseListCursor(quickReply.getPayload());
+            if (cursor == null) {
+                log.error("Invalid list QuickReply payload: {}", quickReply.getPayload());
+                return DONE;
+            }
+            return handleListCommand(user.getId(), cursor);
         }
 
         String payload = quickReply.getPayload();
-        ReminderPayload reminderPayload = gson.fromJson(payload, ReminderPayload.class);
+        if (payload.startsWith("{")) {
+            if (!jsonQuickReplyAccepted) {
+                log.error("Refusing an unsigned JSON QuickReply payload: {}", payload);
+                return DONE;
+            }
+            return processJsonQuickReply(user, payload);
+        }
 
-        if (reminderPayload.getDate() == null || reminderPayload.getText() == null) {
+        ReminderPayloadCodec.Confirmation confirmation = reminderPayloadCodec.decode(payload);
+        if (confirmation == null) {
             log.error("Invalid QuickReply payload: {}", payload);
-            return;
+            return DONE;
         }
 
-        Date date = Date.from(ZonedDateTime.parse(reminderPayload.getDate()).toInstant());
+        Date date = new Date(confirmation.getFireTime());
+        String dateString = DATE_FORMATTER.format(Instant.ofEpochMilli(confirmation.getFireTime())
+            .atOffset(ZoneOffset.ofTotalSeconds(confirmation.getOffsetSeconds())));
+        return scheduleReminder(user.getId(), confirmation.getText(), dateString, date);
+    }
 
-        if (date.before(new Date())) {
-            log.info("Tried to set a reminder in the past");
-            fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.DATE_MUST_BE_IN_FUTURE);
-            return;
+    /**
+     * Confirmations sent before payloads were encoded by {@link ReminderPayloadCodec} carry the reminder as JSON.
+     * They can not be authenticated, so they are only accepted while no app secret is configured.
+     */
+    private CompletableFuture<Void> processJsonQuickReply(User user, String payload) {
+        ReminderPayload reminderPayload;
+        try {
+            reminderPayload = jsonCodec.readReminderPayload(payload);
+        } catch (IOException e) {
+            log.error("Invalid QuickReply payload: {}. Error: {}:{}", payload, e.getClass().getCanonicalName(),
+                e.getMessage());
+            return DONE;
         }
 
-        scheduleReminder(user.getId(), reminderPayload.getText(), reminderPayload.getDate(), date);
+        if (reminderPayload.getDate() == null || reminderPayload.getText() == null) {
+            log.error("Invalid QuickReply payload: {}", payload);
+            return DONE;
+        }
+
+        Date date = Date.from(ZonedDateTime.parse(reminderPayload.getDate()).toInstant());
+        return scheduleReminder(user.getId(), reminderPayload.getText(), reminderPayload.getDate(), date);
     }
 
-    private void processPostback(User user, Postback postback) {
+    private CompletableFuture<Void> processPostback(User user, Postback postback) {
         if (RmndrConstants.GET_STARTED.equals(postback.getPayload())) {
             log.info("Get started postback received");
-            fbClient.sendTextMessage(user.getId(), RmndrMessageConstants.GET_STARTED);
+            return fbClient.sendTextMessage(user.getId(), RmndrMessageConstants.GET_STARTED);
         }
+        return DONE;
     }
 
-    private void processMessage(User user, Message message, long timestamp) {
+    private CompletableFuture<Void> processMessage(User user, Message message, long timestamp) {
         String text = message.getText();
 
         if (text == null) {
             log.info("Unexpected: Text is null in Message: {}", message.toString());
-            return;
+            return DONE;
         }
 
         if (text.startsWith(REMINDER_COMMAND)) {
             if (text.indexOf(';') > 0 && text.indexOf(';') < text.length() - 1) {
-                handleReminderCommand(user, text, timestamp);
+                return handleReminderCommand(user, text, timestamp);
             } else {
-                fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.REMINDER_HELP);
+                return fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.REMINDER_HELP);
             }
 
         } else if (text.startsWith(LIST_COMMAND)) {
-            handleListCommand(user.getId());
+            return handleListCommand(user.getId(), ReminderCursor.FIRST);
 
         } else if (text.startsWith(CANCEL_COMMAND)) {
             String[] splitStrings = text.split("\\s+"); // split string on whitespace
             if (splitStrings.length == 2) {
-                handleCancelCommand(user.getId(), splitStrings[1]);
+                return handleCancelCommand(user.getId(), splitStrings[1]);
             } else {
-                fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.CANCEL_REMINDER_HELP);
+                return fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.CANCEL_REMINDER_HELP);
             }
 
         } else if (text.startsWith(CLEAR_COMMAND)) {
-            handleClearCommand(user.getId());
+            return handleClearCommand(user.getId());
         } else {
-            fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.HELP_MESSAGE);
+            return fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.HELP_MESSAGE);
         }
     }
 
-    private void handleReminderCommand(User user, String text, long timestamp) {
+    private CompletableFuture<Void> handleReminderCommand(User user, String text, long timestamp) {
         String dateText = text.substring(RmndrConstants.REMINDER_COMMAND.length(), text.indexOf(';')).trim();
         String reminderText = text.substring(text.indexOf(';') + 1).trim();
 
-        fbClient.getUserTimezoneFuture(user.getId())
-            .thenCompose(userTimezone -> {
-                ReferenceTime refTime = DateHelper.referenceTimeFromMillis(timestamp, userTimezone.getOffsetHours());
-                return witClient.getResponseFuture(dateText, refTime);
-            })
-            .thenAccept(witResponse -> {
+        return parseDateFuture(user.getId(), dateText, timestamp)
+            .thenCompose(witResponse -> {
                 if (witResponse.getEntities() == null) {
                     log.info("Entity object not present in Wit response. Response: {}", witResponse);
-                    fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.UNPARSABLE_DATE);
+                    return fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.UNPARSABLE_DATE);
                 }
 
                 List<NlpEntity> datetimeEntityList = witResponse.getEntities().get("datetime");
 
                 if (datetimeEntityList == null) {
                     log.info("Datetime entity not present in NLP map. Response: {}", witResponse);
-                    fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.UNPARSABLE_DATE);
-                    return;
+                    return fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.UNPARSABLE_DATE);
                 }
 
                 NlpEntity dateTimeEntity = datetimeEntityList.stream().findFirst().orElse(null);
 
                 if (dateTimeEntity != null) {
-                    createConfirmationQuickReply(user, dateTimeEntity, reminderText);
+                    return createConfirmationQuickReply(user, dateTimeEntity, reminderText);
                 } else {
                     log.info("Datetime entity not present datetime entity list. Response: {}", witResponse);
-                    fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.UNPARSABLE_DATE);
+                    return fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.UNPARSABLE_DATE);
                 }
             })
-            .exceptionally(th -> {
+            .handle((result, th) -> {
+                if (th == null) {
+                    return DONE;
+                }
                 log.error("Error when getting timezone from Facebook or Wit AI response. Error: {}:{}:{}",
                     th.getClass().getCanonicalName(), th.getClass().getCanonicalName(), th.getMessage());
-                fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
-                return null;
+                return fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
+            })
+            .thenCompose(reply -> reply);
+    }
+
+    CompletableFuture<WitResponse> parseDateFuture(String userId, String dateText, long timestamp) {
+        if (!speculativeWitParse) {
+            return fbClient.getUserTimezoneFuture(userId)
+                .thenCompose(userTimezone -> {
+                    ReferenceTime refTime = DateHelper.referenceTimeFromMillis(timestamp, userTimezone.getOffsetHours());
+                    return witClient.getResponseFuture(dateText, refTime);
+                });
+        }
+
+        /* Ask Wit right away with the last known (or default) offset while the timezone is fetched. Wit does not
+         * say whether an expression was relative ("in 5 mins") or wall clock ("at 5pm"), so a result parsed with
+         * the wrong offset can not be shifted reliably and is parsed again instead. */
+        int guessedOffset = fbClient.getCachedUserTimezone(userId)
+            .map(UserTimezone::getOffsetHours)
+            .orElse(speculativeOffsetHours);
+        CompletableFuture<WitResponse> speculativeResponse =
+            witClient.getResponseFuture(dateText, DateHelper.referenceTimeFromMillis(timestamp, guessedOffset));
+
+        return fbClient.getUserTimezoneFuture(userId)
+            .thenCompose(userTimezone -> {
+                if (userTimezone.getOffsetHours() == guessedOffset) {
+                    return speculativeResponse;
+                }
+
+                log.info("Guessed timezone offset {} was wrong, parsing again with {}",
+                    guessedOffset, userTimezone.getOffsetHours());
+                ReferenceTime refTime = DateHelper.referenceTimeFromMillis(timestamp, userTimezone.getOffsetHours());
+                return witClient.getResponseFuture(dateText, refTime);
             });
     }
 
-    private void handleListCommand(String userId) {
+    /**
+     * Sends one page of the user's reminders in as few messages as fit, the last one with a quick reply for the
+     * next page if there is one. The returned future completes once the messages were sent, or the user was told
+     * that they could not be.
+     */
+    private CompletableFuture<Void> handleListCommand(String userId, ReminderCursor cursor) {
         try {
-            Set<JobKey> jobKeys = scheduler.getJobKeys(GroupMatcher.jobGroupEquals(userId));
-            if (jobKeys.size() == 0) {
-                fbClient.sendTextMessage(userId, RmndrMessageConstants.NO_REMINDERS_SCHEDULED);
-                return;
+            List<Reminder> reminders = reminderRepository.findByUser(userId, cursor, listPageSize + 1);
+            if (reminders.size() == 0) {
+                return fbClient.sendTextMessage(userId, cursor == ReminderCursor.FIRST
+                    ? RmndrMessageConstants.NO_REMINDERS_SCHEDULED
+                    : RmndrMessageConstants.NO_MORE_REMINDERS);
             }
 
-            for (JobKey jobKey : jobKeys) {
-                JobDataMap jobDataMap = scheduler.getJobDetail(jobKey).getJobDataMap();
+            boolean more = reminders.size() > listPageSize;
+            if (more) {
+                reminders = reminders.subList(0, listPageSize);
+            }
 
-                String id = jobKey.getName();
-                String date = jobDataMap.getString("date");
-                String text = jobDataMap.getString("text");
+            List<String> messages = new ArrayList<>();
+            StringBuilder message = new StringBuilder();
+            for (Reminder reminder : reminders) {
+                String text = reminder.getText();
                 text = text.length() > 20 ? StringUtils.left(text, 17) + "..." : text;
+                String entry = String.format(RmndrMessageConstants.LIST_REMINDER_ENTRY,
+                    reminder.getId(), text, reminder.getDate());
 
-                fbClient.sendTextMessage(userId, String.format(RmndrMessageConstants.LIST_REMINDER_ENTRY, id, text, date));
+                if (message.length() > 0 && message.length() + 2 + entry.length() > MAX_MESSAGE_LENGTH) {
+                    messages.add(message.toString());
+                    message.setLength(0);
+                }
+                message.append(message.length() > 0 ? "\n\n" : "").append(entry);
             }
-        } catch (SchedulerException e) {
-            log.error("Error when listing jobs. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
-            fbClient.sendErrorMessage(userId, RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
+            messages.add(message.toString());
+
+            // the Send API does not keep the order of messages sent at the same time
+            CompletableFuture<Void> sent = CompletableFuture.completedFuture(null);
+            for (int i = 0; i < messages.size(); i++) {
+                String text = messages.get(i);
+                if (i == messages.size() - 1 && more) {
+                    String payload = LIST_MORE + listCursor(ReminderCursor.after(reminders.get(reminders.size() - 1)));
+                    QuickReply moreQuickReply = QuickReply.builder()
+                        .title(RmndrMessageConstants.LIST_MORE_TITLE)
+                        .payload(payload)
+                        .build();
+                    sent = sent.thenCompose(v -> fbClient.sendQuickReply(userId, text,
+                        Collections.singletonList(moreQuickReply)));
+                } else {
+                    sent = sent.thenCompose(v -> fbClient.sendTextMessage(userId, text));
+                }
+            }
+            return sent.exceptionally(th -> {
+                log.error("Error when sending the list of reminders. Error: {}:{}", th.getClass().getCanonicalName(),
+                    th.getMessage());
+                fbClient.sendErrorMessage(userId, RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
+                return null;
+            });
+        } catch (ReminderStoreException e) {
+            log.error("Error when listing reminders. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
+            return fbClient.sendErrorMessage(userId, RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
         }
     }
 
-    private void handleCancelCommand(String userId, String reminderId) {
-        try {
-            JobKey jobKey = new JobKey(reminderId, userId);
-            if (scheduler.deleteJob(jobKey)) {
-                fbClient.sendTextMessage(userId, RmndrMessageConstants.SUCCESSFULLY_CANCELLED_REMINDER);
-            } else {
-                fbClient.sendErrorMessage(userId, RmndrMessageConstants.COULD_NOT_CANCEL_REMINDER);
-            }
+    private static String listCursor(ReminderCursor cursor) {
+        return cursor.getFireTime() + ":" + cursor.getId();
+    }
 
-        } catch (SchedulerException e) {
-            log.error("Error when cancelling a job. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
-            fbClient.sendErrorMessage(userId, RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
+    private static ReminderCursor parseListCursor(String payload) {
+        String cursor = payload.substring(LIST_MORE.length());
+        int separator = cursor.indexOf(':');
+        if (separator < 0) {
+            return null;
+        }
+        try {
+            return new ReminderCursor(Long.parseLong(cursor.substring(0, separator)), cursor.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
-    private void handleClearCommand(String userId) {
+    private CompletableFuture<Void> handleCancelCommand(String userId, String reminderId) {
         try {
-            Set<JobKey> jobKeysSet = scheduler.getJobKeys(GroupMatcher.jobGroupEquals(userId));
-            List<JobKey> jobKeys = new ArrayList<>(jobKeysSet);
-            if (scheduler.deleteJobs(jobKeys)) {
-                fbClient.sendTextMessage(userId, RmndrMessageConstants.SUCCESSFULLY_CLEARED_REMINDERS);
+            if (reminderEngine.cancel(userId, reminderId)) {
+                return fbClient.sendTextMessage(userId, RmndrMessageConstants.SUCCESSFULLY_CANCELLED_REMINDER);
             } else {
-                fbClient.sendErrorMessage(userId, RmndrMessageConstants.COULD_NOT_CLEAR_REMINDERS);
+                return fbClient.sendErrorMessage(userId, RmndrMessageConstants.COULD_NOT_CANCEL_REMINDER);
             }
 
-        } catch (SchedulerException e) {
-            log.error("Error when clearing all jobs. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
-            fbClient.sendErrorMessage(userId, RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
+        } catch (ReminderStoreException e) {
+            log.error("Error when cancelling a reminder. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
+            return fbClient.sendErrorMessage(userId, RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
         }
     }
 
-    private void createConfirmationQuickReply(User user, NlpEntity dateTimeEntity, String reminderText) {
+    private CompletableFuture<Void> handleClearCommand(String userId) {
+        try {
+            reminderEngine.cancelAll(userId);
+            return fbClient.sendTextMessage(userId, RmndrMessageConstants.SUCCESSFULLY_CLEARED_REMINDERS);
+        } catch (ReminderStoreException e) {
+            log.error("Error when clearing all reminders. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
+            return fbClient.sendErrorMessage(userId, RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
+        }
+    }
+
+    private CompletableFuture<Void> createConfirmationQuickReply(User user, NlpEntity dateTimeEntity,
+                                                                 String reminderText) {
         ZonedDateTime zonedDate = ZonedDateTime.parse(dateTimeEntity.getValue());
         String humanDateString = zonedDate.format(DateTimeFormatter.ofPattern(RmndrConstants.HUMAN_DATE_FORMAT));
 
         String confirmationText = String.format(RmndrMessageConstants.USER_CONFIRMATION,
             reminderText, humanDateString);
 
-        ReminderPayload reminderPayload = new ReminderPayload();
-        reminderPayload.setText(reminderText);
-        reminderPayload.setDate(dateTimeEntity.getValue());
-        String payload = gson.toJson(reminderPayload);
+        String payload = reminderPayloadCodec.encode(zonedDate.toInstant().toEpochMilli(),
+            zonedDate.getOffset().getTotalSeconds(), reminderText);
+        if (payload.length() > MAX_QUICK_REPLY_PAYLOAD_LENGTH) {
+            log.info("Reminder text of {} characters is too long for the confirmation", reminderText.length());
+            return fbClient.sendErrorMessage(user.getId(), RmndrMessageConstants.REMINDER_TEXT_TOO_LONG);
+        }
 
         QuickReply yesQuickReply = QuickReply.builder().title("Yes").payload(payload).build();
         QuickReply cancelQuickReply = QuickReply.builder().title("Cancel").payload(RmndrConstants.CANCEL).build();
 
-        fbClient.sendQuickReply(user.getId(), confirmationText, ImmutableList.of(yesQuickReply, cancelQuickReply));
-        log.info("Quick reply sent");
+        log.info("Sending quick reply");
+        return fbClient.sendQuickReply(user.getId(), confirmationText,
+            ImmutableList.of(yesQuickReply, cancelQuickReply));
     }
 
-    private void scheduleReminder(String userId, String text, String dateString, Date date) {
-        JobDetail job = newJob(ReminderJob.class)
-            .withIdentity(UUID.randomUUID().toString().replace("-", ""), userId)
-            .usingJobData("recipient", userId)
-            .usingJobData("text", text)
-            .usingJobData("date", dateString)
-            .build();
+    private CompletableFuture<Void> scheduleReminder(String userId, String text, String dateString, Date date) {
+        if (date.before(new Date())) {
+            log.info("Tried to set a reminder in the past");
+            return fbClient.sendErrorMessage(userId, RmndrMessageConstants.DATE_MUST_BE_IN_FUTURE);
+        }
 
-        Trigger trigger = newTrigger()
-            .withIdentity(UUID.randomUUID().toString().replace("-", ""), userId)
-            .startAt(date)
+        Reminder reminder = Reminder.builder()
+            .id(UUID.randomUUID().toString().replace("-", ""))
+            .userId(userId)
+            .text(text)
+            .date(dateString)
+            .fireTime(date.getTime())
             .build();
 
         try {
-            scheduler.scheduleJob(job, trigger);
-            fbClient.sendTextMessage(userId, RmndrMessageConstants.TIMER_SCHEDULED_SUCCESSFULLY);
+            reminderEngine.schedule(reminder);
             log.info("Reminder scheduled");
-        } catch (SchedulerException e) {
-            log.error("Error when scheduling a job. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
-            fbClient.sendErrorMessage(userId, RmndrMessageConstants.SCHEDULING_ERROR);
+            return fbClient.sendTextMessage(userId, RmndrMessageConstants.TIMER_SCHEDULED_SUCCESSFULLY);
+        } catch (ReminderStoreException e) {
+            log.error("Error when scheduling a reminder. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
+            return fbClient.sendErrorMessage(userId, RmndrMessageConstants.SCHEDULING_ERROR);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,21 @@
+package manfredlift.facebook.rmndr;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when the lanes are full and a messaging event of a callback could not be dispatched. The events before
+ * it were dispatched already, {@link #getDispatched()} completes once they are processed.
+ */
+public class CallbackRejectedException extends RejectedExecutionException {
+    private final transient CompletableFuture<Void> dispatched;
+
+    public CallbackRejectedException(CompletableFuture<Void> dispatched, RejectedExecutionException cause) {
+        super("The callback could not be dispatched completely", cause);
+        this.dispatched = dispatched;
+    }
+
+    public CompletableFuture<Void> getDispatched() {
+        return dispatched;
+    }
+}
@@ -0,0 +1,58 @@
+package manfredlift.facebook.rmndr;
+
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+import org.quartz.*;
+import org.quartz.impl.matchers.GroupMatcher;
+
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * Moves the reminders that were scheduled as a {@link ReminderJob} each into the {@link ReminderRepository}, keeping
+ * their ids. A reminder is saved before its job is deleted, so one that is imported while an instance of an earlier
+ * version fires it may be sent twice but is never lost.
+ */
+@Slf4j
+public class LegacyReminderImport {
+    private LegacyReminderImport() {
+    }
+
+    public static int run(Scheduler scheduler, ReminderRepository repository)
+        throws SchedulerException, ReminderStoreException {
+        int imported = 0;
+        for (String group : scheduler.getJobGroupNames()) {
+            for (JobKey jobKey : scheduler.getJobKeys(GroupMatcher.jobGroupEquals(group))) {
+                JobDetail job = scheduler.getJobDetail(jobKey);
+                if (job == null || !ReminderJob.class.equals(job.getJobClass())) {
+                    continue;
+                }
+
+                Date nextFireTime = scheduler.getTriggersOfJob(jobKey).stream()
+                    .map(Trigger::getNextFireTime)
+                    .filter(Objects::nonNull)
+                    .min(Date::compareTo)
+                    .orElse(null);
+                if (nextFireTime != null) {
+                    JobDataMap jobDataMap = job.getJobDataMap();
+                    repository.save(Reminder.builder()
+                        .id(jobKey.getName())
+                        .userId(jobDataMap.getString("recipient"))
+                        .text(jobDataMap.getString("text"))
+                        .date(jobDataMap.getString("date"))
+                        .fireTime(nextFireTime.getTime())
+                        .build());
+                    imported++;
+                }
+                scheduler.deleteJob(jobKey);
+            }
+        }
+
+        if (imported > 0) {
+            log.info("Imported {} reminders scheduled as Quartz jobs", imported);
+        }
+        return imported;
+    }
+}
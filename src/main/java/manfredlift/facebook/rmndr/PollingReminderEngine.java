@@ -0,0 +1,32 @@
+package manfredlift.facebook.rmndr;
+
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+
+/**
+ * {@link ReminderEngine} that only saves reminders, they are fired by the {@link ReminderPollJob} of whichever
+ * instance claims them first.
+ */
+public class PollingReminderEngine implements ReminderEngine {
+    private final ReminderRepository repository;
+
+    public PollingReminderEngine(ReminderRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public void schedule(Reminder reminder) throws ReminderStoreException {
+        repository.save(reminder);
+    }
+
+    @Override
+    public boolean cancel(String userId, String id) throws ReminderStoreException {
+        return repository.delete(userId, id);
+    }
+
+    @Override
+    public int cancelAll(String userId) throws ReminderStoreException {
+        return repository.deleteByUser(userId).size();
+    }
+}
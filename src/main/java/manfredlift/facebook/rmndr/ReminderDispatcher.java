@@ -0,0 +1,171 @@
+package manfredlift.facebook.rmndr;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.client.FbClient;
+import manfredlift.facebook.rmndr.client.SendFailedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Delivery stage between the Quartz workers and Facebook. Fired reminders are queued and a single drain thread
+ * sends them with at most {@code concurrency} sends in flight, so a burst of reminders due at the same time does
+ * not hold the Quartz worker threads. When the queue is full the Quartz worker sends the reminder itself.
+ * <p>
+ * The delay between the scheduled fire time and the completed send is recorded in the delivery-lag histogram.
+ * <p>
+ * The returned futures complete once the reminder was sent and fail when the send failed or was dropped. Refusals
+ * by the Send API are counted in the refused meter. Reminders still queued when the dispatcher stops and can not be
+ * sent within the shutdown time never complete.
+ */
+@Slf4j
+public class ReminderDispatcher implements Managed {
+    private final FbClient fbClient;
+    private final BlockingQueue<Delivery> queue;
+    private final Semaphore permits;
+    private final Duration shutdownTime;
+    private final Histogram deliveryLag;
+    private final Meter callerRuns;
+    private final Meter refused;
+    private final Thread drainThread;
+
+    private volatile boolean running;
+
+    public ReminderDispatcher(FbClient fbClient, int queueSize, int concurrency, Duration shutdownTime,
+                              MetricRegistry metrics) {
+        this.fbClient = fbClient;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.permits = new Semaphore(concurrency);
+        this.shutdownTime = shutdownTime;
+        this.deliveryLag = metrics.histogram(name(ReminderDispatcher.class, "delivery-lag"));
+        this.callerRuns = metrics.meter(name(ReminderDispatcher.class, "caller-runs"));
+        this.refused = metrics.meter(name(ReminderDispatcher.class, "refused"));
+        this.drainThread = new Thread(this::drain, "reminder-dispatcher");
+        this.drainThread.setDaemon(true);
+
+        metrics.register(name(ReminderDispatcher.class, "queue-size"), (Gauge<Integer>) queue::size);
+        metrics.register(name(ReminderDispatcher.class, "in-flight"),
+            (Gauge<Integer>) () -> concurrency - permits.availablePermits());
+    }
+
+    /**
+     * Queues a reminder for delivery, or sends it on the calling thread once a send slot is free if the queue
+     * is full.
+     */
+    public CompletableFuture<Void> dispatch(String recipientId, String text, long scheduledMillis) {
+        Delivery delivery = new Delivery(recipientId, text, scheduledMillis);
+        if (queue.offer(delivery)) {
+            return delivery.getSent();
+        }
+
+        callerRuns.mark();
+        log.warn("Reminder queue is full, sending on the calling thread");
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while waiting to send a reminder to {}", recipientId);
+            delivery.getSent().completeExceptionally(e);
+            return delivery.getSent();
+        }
+        return send(delivery);
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        drainThread.start();
+    }
+
+    /**
+     * Stops the drain thread and sends whatever is still queued, waiting at most {@code shutdownTime}.
+     */
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        drainThread.interrupt();
+        final long deadline = System.nanoTime() + shutdownTime.toNanoseconds();
+        drainThread.join(shutdownTime.toMilliseconds());
+
+        List<Delivery> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Delivery delivery : remaining) {
+            if (!permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                log.error("{} reminders were not sent within {}", remaining.size() - futures.size(), shutdownTime);
+                return;
+            }
+            futures.add(send(delivery));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            log.error("Not all reminders were sent within {}", shutdownTime);
+        }
+    }
+
+    private void drain() {
+        try {
+            while (running) {
+                permits.acquire();
+                Delivery delivery;
+                try {
+                    delivery = queue.take();
+                } catch (InterruptedException e) {
+                    permits.release();
+                    throw e;
+                }
+                send(delivery);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends with a permit already acquired, the permit is released when the send completes.
+     */
+    private CompletableFuture<Void> send(Delivery delivery) {
+        try {
+            return fbClient.sendTextMessage(delivery.getRecipientId(), delivery.getText())
+                .whenComplete((result, th) -> {
+                    permits.release();
+                    deliveryLag.update(System.currentTimeMillis() - delivery.getScheduledMillis());
+                    if (th != null) {
+                        if (SendFailedException.isPermanent(th)) {
+                            refused.mark();
+                        }
+                        delivery.getSent().completeExceptionally(th);
+                    } else {
+                        delivery.getSent().complete(null);
+                    }
+                });
+        } catch (RuntimeException e) {
+            permits.release();
+            log.error("Unexpected error when sending a reminder. Error: '{}:{}'",
+                e.getClass().getCanonicalName(), e.getMessage());
+            delivery.getSent().completeExceptionally(e);
+            return delivery.getSent();
+        }
+    }
+
+    @Data
+    private static class Delivery {
+        private final String recipientId;
+        private final String text;
+        private final long scheduledMillis;
+        private final CompletableFuture<Void> sent = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,23 @@
+package manfredlift.facebook.rmndr;
+
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+
+/**
+ * Schedules and cancels the reminders of users. Every reminder is kept in the {@link ReminderRepository} until it
+ * was sent, an engine decides only which instance fires it and when.
+ */
+public interface ReminderEngine {
+    void schedule(Reminder reminder) throws ReminderStoreException;
+
+    /**
+     * Cancels a reminder of the user, returns false if the user has no reminder with that id.
+     */
+    boolean cancel(String userId, String id) throws ReminderStoreException;
+
+    /**
+     * Cancels all reminders of the user and returns how many there were.
+     */
+    int cancelAll(String userId) throws ReminderStoreException;
+}
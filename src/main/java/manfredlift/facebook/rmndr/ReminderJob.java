@@ -1,34 +1,26 @@
 package manfredlift.facebook.rmndr;
 
-import lombok.extern.slf4j.Slf4j;
-import manfredlift.facebook.rmndr.client.FbClient;
 import org.quartz.*;
 
-@Slf4j
+/**
+ * Hands the fired reminder over to the {@link ReminderDispatcher}, the Quartz worker thread does not wait for it
+ * to be sent.
+ * <p>
+ * Reminders are now kept in the reminder repository and fired by the {@link ReminderPollJob}, this job only fires
+ * reminders that an instance of an earlier version scheduled as a job each.
+ */
 public class  ReminderJob implements Job {
-    @Override
-    public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
-        String recipientId;
-        String text;
-        FbClient fbClient;
-
-        try {
-            recipientId = (String) jobExecutionContext.getJobDetail().getJobDataMap().get("recipient");
-            text = (String) jobExecutionContext.getJobDetail().getJobDataMap().get("text");
+    private final ReminderDispatcher dispatcher;
 
-            SchedulerContext context = jobExecutionContext.getScheduler().getContext();
-            fbClient = (FbClient) context.get(RmndrConstants.FB_CLIENT);
+    public ReminderJob(ReminderDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+    }
 
-            fbClient.sendTextMessage(recipientId, text);
-        } catch (SchedulerException e) {
-            log.warn("Error when getting context for sending a reminder. Error: '{}:{}'",
-                e.getClass().getCanonicalName(), e.getMessage());
+    @Override
+    public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
+        String recipientId = (String) jobExecutionContext.getJobDetail().getJobDataMap().get("recipient");
+        String text = (String) jobExecutionContext.getJobDetail().getJobDataMap().get("text");
 
-            if (jobExecutionContext.getRefireCount() < 100) {
-                throw new JobExecutionException(e, true);
-            } else {
-                log.error("Failed to get the job execution context after 100 retries");
-            }
-        }
+        dispatcher.dispatch(recipientId, text, jobExecutionContext.getScheduledFireTime().getTime());
     }
 }
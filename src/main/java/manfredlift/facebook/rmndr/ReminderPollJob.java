@@ -0,0 +1,76 @@
+package manfredlift.facebook.rmndr;
+
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.client.SendFailedException;
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+import org.quartz.DisallowConcurrentExecution;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+
+import java.util.List;
+
+/**
+ * The one recurring Quartz job that fires reminders: claims the due reminders from the {@link ReminderRepository}
+ * in batches and hands them to the {@link ReminderDispatcher}. A reminder is removed once it was sent or refused,
+ * one that is not sent within the lease is claimed again by a later poll.
+ */
+@Slf4j
+@DisallowConcurrentExecution
+public class ReminderPollJob implements Job {
+    public static final String NAME = "reminder-poll";
+    public static final String GROUP = "rmndr";
+
+    private final ReminderRepository repository;
+    private final ReminderDispatcher dispatcher;
+    private final int batchSize;
+    private final long leaseMillis;
+
+    public ReminderPollJob(ReminderRepository repository, ReminderDispatcher dispatcher, int batchSize,
+                           long leaseMillis) {
+        this.repository = repository;
+        this.dispatcher = dispatcher;
+        this.batchSize = batchSize;
+        this.leaseMillis = leaseMillis;
+    }
+
+    @Override
+    public void execute(JobExecutionContext jobExecutionContext) throws JobExecutionException {
+        try {
+            List<Reminder> due;
+            do {
+                due = repository.claimDue(System.currentTimeMillis(), batchSize, leaseMillis);
+                for (Reminder reminder : due) {
+                    dispatcher.dispatch(reminder.getUserId(), reminder.getText(), reminder.getFireTime())
+                        .whenComplete((result, th) -> onSent(reminder, th));
+                }
+            } while (due.size() == batchSize);
+        } catch (ReminderStoreException e) {
+            log.error("Error when claiming due reminders. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Removes a reminder that was sent or that the Send API refused. One that was dropped stays claimed and is
+     * claimed again once the lease ran out.
+     */
+    private void onSent(Reminder reminder, Throwable th) {
+        if (th != null && SendFailedException.isPermanent(th)) {
+            log.warn("Reminder {} was refused by the Send API and is removed. Error: {}",
+                reminder.getId(), th.getMessage());
+        } else if (th != null) {
+            log.warn("Reminder {} was not sent, it is sent again after the lease. Error: {}:{}",
+                reminder.getId(), th.getClass().getCanonicalName(), th.getMessage());
+            return;
+        }
+
+        try {
+            repository.complete(reminder.getId());
+        } catch (ReminderStoreException e) {
+            log.error("Reminder {} was sent but could not be completed, it is sent again after the lease. Error: {}:{}",
+                reminder.getId(), e.getClass().getCanonicalName(), e.getMessage());
+        }
+    }
+}
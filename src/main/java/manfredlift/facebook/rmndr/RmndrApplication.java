@@ -2,21 +2,37 @@ package manfredlift.facebook.rmndr;
 
 import io.dropwizard.Application;
 import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.client.JerseyClientConfiguration;
 import io.dropwizard.configuration.EnvironmentVariableSubstitutor;
 import io.dropwizard.configuration.SubstitutingSourceProvider;
 import io.dropwizard.setup.Bootstrap;
 import io.dropwizard.setup.Environment;
 import lombok.extern.slf4j.Slf4j;
 import manfredlift.facebook.rmndr.client.FbClient;
+import manfredlift.facebook.rmndr.client.SendQueue;
 import manfredlift.facebook.rmndr.client.WitClient;
-import manfredlift.facebook.rmndr.factories.QuartzSchedulerFactory;
+import manfredlift.facebook.rmndr.concurrent.KeyedLaneExecutor;
+import manfredlift.facebook.rmndr.factories.ReminderJobFactory;
+import manfredlift.facebook.rmndr.factories.ReminderStoreFactory;
 import manfredlift.facebook.rmndr.resources.HealthCheckResource;
 import manfredlift.facebook.rmndr.resources.WebhookResource;
+import manfredlift.facebook.rmndr.store.InMemoryReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+import manfredlift.facebook.rmndr.util.CacheMetricSet;
+import manfredlift.facebook.rmndr.util.JsonCodec;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.jetty.connector.JettyConnectorProvider;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
+import org.quartz.impl.StdSchedulerFactory;
 
+import javax.sql.DataSource;
 import javax.ws.rs.client.Client;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
+import static com.codahale.metrics.MetricRegistry.name;
 import static jersey.repackaged.com.google.common.base.Preconditions.checkNotNull;
 
 @Slf4j
@@ -29,9 +45,11 @@ public class RmndrApplication extends Application<RmndrConfiguration> {
     @Override
     public void run(RmndrConfiguration configuration, Environment environment) throws Exception {
 
+        registerJsonCodec(environment);
+        registerExecutors(configuration, environment);
         registerClients(configuration, environment);
         registerScheduler(configuration, environment);
-        registerCallbackHandler(environment);
+        registerCallbackHandler(configuration, environment);
 
         environment.jersey().register(new HealthCheckResource());
         environment.jersey().register(new WebhookResource(configuration, environment.jersey()));
@@ -47,30 +65,99 @@ public class RmndrApplication extends Application<RmndrConfiguration> {
         );
     }
 
+    /**
+     * Dropwizard's mapper is the only one, the Jersey client reads and writes with it too. It is warmed before the
+     * first webhook arrives.
+     */
+    private void registerJsonCodec(Environment environment) throws IOException {
+        environment.jersey().property(RmndrConstants.JSON_CODEC, new JsonCodec(environment.getObjectMapper()).warm());
+    }
+
+    private void registerExecutors(RmndrConfiguration configuration, Environment environment) {
+        final KeyedLaneExecutor callbackLanes = configuration.getCallbackExecutor()
+            .buildLanes(environment, "callback", configuration.getCallbackLanes());
+        final ExecutorService outboundExecutor = configuration.getOutboundExecutor().build(environment, "outbound");
+
+        environment.jersey().property(RmndrConstants.CALLBACK_LANES, callbackLanes);
+        environment.jersey().property(RmndrConstants.OUTBOUND_EXECUTOR, outboundExecutor);
+    }
+
     private void registerClients(RmndrConfiguration configuration, Environment environment) {
-        final Client client = new JerseyClientBuilder(environment).using(configuration.getJerseyClientConfiguration())
+        final ExecutorService outboundExecutor = checkNotNull(environment.jersey().getProperty(RmndrConstants.OUTBOUND_EXECUTOR));
+        final JsonCodec jsonCodec = checkNotNull(environment.jersey().getProperty(RmndrConstants.JSON_CODEC));
+        final JerseyClientConfiguration clientConfiguration = configuration.getJerseyClientConfiguration();
+
+        // Jetty connector does non-blocking I/O for async invocations, the executor only initiates requests
+        final Client client = new JerseyClientBuilder(environment)
+            .using(clientConfiguration)
+            .using(new JettyConnectorProvider())
+            .using(outboundExecutor, jsonCodec.getObjectMapper())
+            .withProperty(ClientProperties.CONNECT_TIMEOUT, (int) clientConfiguration.getConnectionTimeout().toMilliseconds())
+            .withProperty(ClientProperties.READ_TIMEOUT, (int) clientConfiguration.getTimeout().toMilliseconds())
             .build(getName());
 
-        final FbClient fbClient = new FbClient(configuration, client);
-        final WitClient witClient = new WitClient(configuration, client);
+        final SendQueue sendQueue = configuration.getSendQueue().build(environment);
+        final FbClient fbClient = new FbClient(configuration, client, outboundExecutor, sendQueue);
+        final WitClient witClient = new WitClient(configuration, client, outboundExecutor, jsonCodec);
+
+        environment.metrics().register(name(FbClient.class, "timezone-cache"),
+            new CacheMetricSet(fbClient.getTimezoneCache()));
+        environment.metrics().register(name(WitClient.class, "local-date-parser"), witClient.getLocalDateParser());
+        environment.metrics().register(name(WitClient.class, "recent-response-cache"),
+            new CacheMetricSet(witClient.getRecentResponseCache()));
+        environment.metrics().register(name(WitClient.class, "relative-response-cache"),
+            new CacheMetricSet(witClient.getRelativeResponseCache()));
 
         environment.jersey().property(RmndrConstants.FB_CLIENT, fbClient);
         environment.jersey().property(RmndrConstants.WIT_CLIENT, witClient);
     }
 
-    private void registerScheduler(RmndrConfiguration configuration, Environment environment) throws SchedulerException {
-        final Scheduler scheduler = QuartzSchedulerFactory.create(configuration);
+    private void registerScheduler(RmndrConfiguration configuration, Environment environment)
+        throws SchedulerException, ReminderStoreException {
         final FbClient fbClient = checkNotNull(environment.jersey().getProperty(RmndrConstants.FB_CLIENT));
 
-        scheduler.getContext().put(RmndrConstants.FB_CLIENT, fbClient);
+        // managed in this order, so the scheduler stops first, then the dispatcher, the repository and the connection
+        // pool last; the engine is managed after the dispatcher and stops before it
+        final boolean wal = configuration.getReminderStore().getMode() == ReminderStoreFactory.Mode.WAL;
+        final DataSource dataSource = configuration.isTesting() || wal
+            ? null
+            : configuration.getDatabase().build(environment);
+        final ReminderRepository reminderRepository = configuration.isTesting()
+            ? new InMemoryReminderRepository()
+            : configuration.getReminderStore().build(environment, dataSource);
+        final ReminderDispatcher dispatcher = configuration.getReminderDispatcher().build(environment, fbClient);
+        final ReminderEngine reminderEngine = configuration.getReminderEngine()
+            .build(environment, reminderRepository, dispatcher, configuration.getReminderStore().getLease());
+        final Scheduler scheduler;
+        if (configuration.isTesting()) {
+            scheduler = StdSchedulerFactory.getDefaultScheduler();
+        } else if (wal) {
+            // the poll job is scheduled again on every start, nothing else is kept in Quartz
+            scheduler = configuration.getQuartz().buildInMemory(environment);
+        } else {
+            scheduler = configuration.getQuartz().build(environment, dataSource);
+        }
+
+        scheduler.setJobFactory(new ReminderJobFactory(dispatcher, reminderRepository, configuration.getReminderStore()));
         scheduler.getContext().put(RmndrConstants.ACCESS_TOKEN, configuration.getPageAccessToken());
+        LegacyReminderImport.run(scheduler, reminderRepository);
+        configuration.getReminderStore().schedulePoller(scheduler);
         scheduler.start();
 
-        environment.jersey().property(RmndrConstants.QUARTZ_SCHEDULER, scheduler);
+        environment.jersey().property(RmndrConstants.REMINDER_REPOSITORY, reminderRepository);
+        environment.jersey().property(RmndrConstants.REMINDER_ENGINE, reminderEngine);
     }
 
-    private void registerCallbackHandler(Environment environment) {
-        final CallbackHandler callbackHandler = new CallbackHandler(environment.jersey());
+    private void registerCallbackHandler(RmndrConfiguration configuration, Environment environment)
+        throws IOException {
+        final CallbackHandler callbackHandler = new CallbackHandler(configuration, environment.jersey());
         environment.jersey().property(RmndrConstants.CALLBACK_HANDLER, callbackHandler);
+        environment.metrics().register(name(CallbackHandler.class, "recent-deliveries"),
+            callbackHandler.getRecentDeliveries());
+
+        if (configuration.getWebhookLog().isEnabled()) {
+            environment.jersey().property(RmndrConstants.WEBHOOK_LOG,
+                configuration.getWebhookLog().build(environment, callbackHandler));
+        }
     }
 }
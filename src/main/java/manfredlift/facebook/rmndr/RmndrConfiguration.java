@@ -1,8 +1,19 @@
 package manfredlift.facebook.rmndr;
 
+import com.google.common.cache.CacheBuilderSpec;
 import io.dropwizard.Configuration;
 import io.dropwizard.client.JerseyClientConfiguration;
+import io.dropwizard.util.Duration;
 import lombok.Data;
+import manfredlift.facebook.rmndr.factories.DatabaseFactory;
+import manfredlift.facebook.rmndr.factories.ExecutorFactory;
+import manfredlift.facebook.rmndr.factories.ExecutorFactory.RejectionPolicy;
+import manfredlift.facebook.rmndr.factories.QuartzSchedulerFactory;
+import manfredlift.facebook.rmndr.factories.ReminderDispatcherFactory;
+import manfredlift.facebook.rmndr.factories.ReminderEngineFactory;
+import manfredlift.facebook.rmndr.factories.ReminderStoreFactory;
+import manfredlift.facebook.rmndr.factories.SendQueueFactory;
+import manfredlift.facebook.rmndr.factories.WebhookLogFactory;
 
 @Data
 public class RmndrConfiguration extends Configuration {
@@ -14,10 +25,55 @@ public class RmndrConfiguration extends Configuration {
 
     private String witToken;
 
+    private String graphApiUri = RmndrConstants.BASE_URI;
+
+    private String witUri = RmndrConstants.WIT_URI;
+
     private boolean testing = false;
 
     private JerseyClientConfiguration jerseyClient;
 
+    private ExecutorFactory callbackExecutor = ExecutorFactory.withRejectionPolicy(RejectionPolicy.ABORT);
+
+    private int callbackLanes = 64;
+
+    private int listPageSize = 10;
+
+    private boolean streamingCallbackParsing = true;
+
+    private Duration deduplicationWindow = Duration.hours(1);
+
+    private int deduplicationMaxEntries = 50000;
+
+    private WebhookLogFactory webhookLog = new WebhookLogFactory();
+
+    private ExecutorFactory outboundExecutor = new ExecutorFactory();
+
+    private DatabaseFactory database = new DatabaseFactory();
+
+    private QuartzSchedulerFactory quartz = new QuartzSchedulerFactory();
+
+    private ReminderStoreFactory reminderStore = new ReminderStoreFactory();
+
+    private ReminderEngineFactory reminderEngine = new ReminderEngineFactory();
+
+    private ReminderDispatcherFactory reminderDispatcher = new ReminderDispatcherFactory();
+
+    private SendQueueFactory sendQueue = new SendQueueFactory();
+
+    private boolean speculativeWitParse = false;
+
+    private int speculativeOffsetHours = 0;
+
+    private boolean localDateParsing = true;
+
+    private CacheBuilderSpec timezoneCachePolicy =
+        CacheBuilderSpec.parse("maximumSize=100000, expireAfterWrite=7d, refreshAfterWrite=1d");
+
+    private boolean witResponseCaching = true;
+
+    private CacheBuilderSpec witCachePolicy = CacheBuilderSpec.parse("maximumSize=10000, expireAfterWrite=1d");
+
     public JerseyClientConfiguration getJerseyClientConfiguration() {
         return jerseyClient;
     }
@@ -2,19 +2,30 @@ package manfredlift.facebook.rmndr;
 
 public class RmndrConstants {
     public static final String BASE_URI = "https://graph.facebook.com/v2.6";
-    public static final String MESSAGES_URI = BASE_URI + "/me/messages";
+    public static final String MESSAGES_PATH = "/me/messages";
+    public static final String MESSAGES_URI = BASE_URI + MESSAGES_PATH;
     public static final String FIELDS = "fields";
     public static final String ACCESS_TOKEN = "access_token";
     public static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
     public static final String HUMAN_DATE_FORMAT = "EEE, dd/MMM/yyyy HH:mm:ss z";
     public static final String CANCEL = "cancel";
     public static final String GET_STARTED = "get_started";
+    public static final String LIST_MORE = "list_more:";
+    // Send API limit on the text of a message
+    public static final int MAX_MESSAGE_LENGTH = 2000;
+    // Send API limit on the payload of a quick reply
+    public static final int MAX_QUICK_REPLY_PAYLOAD_LENGTH = 1000;
 
     // jersey properties
     public static final String FB_CLIENT = "fb_client";
     public static final String WIT_CLIENT = "wit_client";
     public static final String CALLBACK_HANDLER = "callback_handler";
-    public static final String QUARTZ_SCHEDULER = "quartz_scheduler";
+    public static final String REMINDER_REPOSITORY = "reminder_repository";
+    public static final String REMINDER_ENGINE = "reminder_engine";
+    public static final String CALLBACK_LANES = "callback_lanes";
+    public static final String OUTBOUND_EXECUTOR = "outbound_executor";
+    public static final String WEBHOOK_LOG = "webhook_log";
+    public static final String JSON_CODEC = "json_codec";
 
     //Wit api
     public static final String WIT_URI = "https://api.wit.ai/message?v=20170901";
@@ -8,14 +8,16 @@ public class RmndrMessageConstants {
     public static final String UNEXPECTED_ERROR_PLEASE_TRY_AGAIN = "Unexpected error. Please try again.";
     public static final String TIMER_SCHEDULED_SUCCESSFULLY = "Reminder scheduled successfully.";
     public static final String USER_CONFIRMATION = "Set reminder '%s' for '%s'?";
+    public static final String REMINDER_TEXT_TOO_LONG = "The reminder text is too long. Please try a shorter one.";
     public static final String NO_REMINDERS_SCHEDULED = "No reminders scheduled.";
+    public static final String NO_MORE_REMINDERS = "No more reminders scheduled.";
     public static final String LIST_REMINDER_ENTRY = "id: %s\ntext: %s\ndate: %s";
+    public static final String LIST_MORE_TITLE = "More";
     public static final String CANCEL_REMINDER_HELP = "To cancel a reminder:\n" +
         "'!cancel <reminder_id>'";
     public static final String SUCCESSFULLY_CANCELLED_REMINDER = "Successfully cancelled the reminder.";
     public static final String COULD_NOT_CANCEL_REMINDER = "Could not cancel reminder with that id.";
     public static final String SUCCESSFULLY_CLEARED_REMINDERS = "Successfully cleared all reminders.";
-    public static final String COULD_NOT_CLEAR_REMINDERS = "Could not clear all reminders.";
 
     public static final String HELP_MESSAGE = "Could not parse the message.\n" +
         REMINDER_HELP + "\n\n" +
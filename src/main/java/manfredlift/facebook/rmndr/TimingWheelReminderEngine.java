@@ -0,0 +1,136 @@
+package manfredlift.facebook.rmndr;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.concurrent.HierarchicalTimingWheel;
+import manfredlift.facebook.rmndr.concurrent.HierarchicalTimingWheel.Timeout;
+import manfredlift.facebook.rmndr.client.SendFailedException;
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * {@link ReminderEngine} that fires reminders due within the horizon itself, on time to the millisecond, instead
+ * of up to a poll interval late. Such a reminder is saved already claimed until its fire time plus the lease and
+ * held in a {@link HierarchicalTimingWheel}, reminders due later are saved for the {@link ReminderPollJob}.
+ * <p>
+ * Held reminders are still in the repository, when the engine stops their claims are released so the poll job of
+ * another instance fires them. Those of an instance that dies are fired by the poll job once the lease expired.
+ */
+@Slf4j
+public class TimingWheelReminderEngine implements ReminderEngine, Managed {
+    private final ReminderRepository repository;
+    private final ReminderDispatcher dispatcher;
+    private final HierarchicalTimingWheel wheel;
+    private final long horizonMillis;
+    private final long leaseMillis;
+    private final Map<String, Timeout> held = new ConcurrentHashMap<>();
+
+    public TimingWheelReminderEngine(ReminderRepository repository, ReminderDispatcher dispatcher,
+                                     HierarchicalTimingWheel wheel, long horizonMillis, long leaseMillis,
+                                     MetricRegistry metrics) {
+        this.repository = repository;
+        this.dispatcher = dispatcher;
+        this.wheel = wheel;
+        this.horizonMillis = horizonMillis;
+        this.leaseMillis = leaseMillis;
+
+        metrics.register(name(TimingWheelReminderEngine.class, "held"), (Gauge<Integer>) wheel::size);
+    }
+
+    @Override
+    public void schedule(Reminder reminder) throws ReminderStoreException {
+        if (reminder.getFireTime() - System.currentTimeMillis() >= horizonMillis) {
+            repository.save(reminder);
+            return;
+        }
+
+        repository.saveClaimed(reminder, reminder.getFireTime() + leaseMillis);
+        Timeout timeout = wheel.schedule(reminder.getFireTime(), () -> fire(reminder));
+        held.put(reminder.getId(), timeout);
+        if (!timeout.isPending()) {
+            held.remove(reminder.getId(), timeout);
+        }
+    }
+
+    @Override
+    public boolean cancel(String userId, String id) throws ReminderStoreException {
+        if (!repository.delete(userId, id)) {
+            return false;
+        }
+        cancelHeld(id);
+        return true;
+    }
+
+    @Override
+    public int cancelAll(String userId) throws ReminderStoreException {
+        List<String> deleted = repository.deleteByUser(userId);
+        deleted.forEach(this::cancelHeld);
+        return deleted.size();
+    }
+
+    @Override
+    public void start() {
+        wheel.start();
+    }
+
+    /**
+     * Stops firing and releases the claims of the reminders that were not fired yet.
+     */
+    @Override
+    public void stop() throws Exception {
+        wheel.stop();
+        List<String> unfired = new ArrayList<>(held.keySet());
+        if (unfired.isEmpty()) {
+            return;
+        }
+
+        try {
+            repository.release(unfired);
+            log.info("Released {} reminders that were not fired yet", unfired.size());
+        } catch (ReminderStoreException e) {
+            log.error("{} reminders could not be released, they are fired after the lease. Error: {}:{}",
+                unfired.size(), e.getClass().getCanonicalName(), e.getMessage());
+        }
+    }
+
+    private void cancelHeld(String id) {
+        Timeout timeout = held.remove(id);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    private void fire(Reminder reminder) {
+        held.remove(reminder.getId());
+        dispatcher.dispatch(reminder.getUserId(), reminder.getText(), reminder.getFireTime())
+            .whenComplete((result, th) -> onSent(reminder, th));
+    }
+
+    private void onSent(Reminder reminder, Throwable th) {
+        if (th != null && SendFailedException.isPermanent(th)) {
+            log.warn("Reminder {} was refused by the Send API and is removed. Error: {}",
+                reminder.getId(), th.getMessage());
+        } else if (th != null) {
+            log.warn("Reminder {} was not sent, the poll job sends it again after the lease. Error: {}:{}",
+                reminder.getId(), th.getClass().getCanonicalName(), th.getMessage());
+            return;
+        }
+
+        try {
+            repository.complete(reminder.getId());
+        } catch (ReminderStoreException e) {
+            log.error("Reminder {} was sent but could not be completed, it is sent again after the lease. Error: {}:{}",
+                reminder.getId(), e.getClass().getCanonicalName(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package manfredlift.facebook.rmndr;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.util.Duration;
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.store.WebhookLog;
+
+import java.io.IOException;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Processing stage behind the {@link WebhookLog}. A single reader thread reads the acknowledged webhooks in the
+ * order they were appended and hands them to the {@link CallbackHandler}, whose lanes process them, with at most
+ * {@code maxInFlight} webhooks in flight. A webhook is in flight until the asynchronous work started for its events,
+ * such as the replies, is done. When the handler falls behind, webhooks wait on disk instead of in memory.
+ * A webhook the full lanes reject is read again once the events dispatched from it are processed, the events are
+ * then recognised as redeliveries.
+ * <p>
+ * The checkpoint is the offset of the earliest webhook that is still processed, or the next one to read. Webhooks
+ * after the last checkpoint are processed again after a restart, so a webhook is processed at least once.
+ */
+@Slf4j
+public class WebhookConsumer implements Managed {
+    private static final long REJECTED_BACKOFF_MILLIS = 100;
+
+    private final WebhookLog webhookLog;
+    private final CallbackHandler callbackHandler;
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final Duration shutdownTime;
+    private final NavigableSet<Long> inFlight = new ConcurrentSkipListSet<>();
+    private final Thread readerThread;
+
+    private volatile boolean running;
+    private volatile long position;
+
+    public WebhookConsumer(WebhookLog webhookLog, CallbackHandler callbackHandler, int maxInFlight,
+                           Duration shutdownTime, MetricRegistry metrics) {
+        this.webhookLog = webhookLog;
+        this.callbackHandler = callbackHandler;
+        this.maxInFlight = maxInFlight;
+        this.permits = new Semaphore(maxInFlight);
+        this.shutdownTime = shutdownTime;
+        this.readerThread = new Thread(this::read, "webhook-consumer");
+        this.readerThread.setDaemon(true);
+
+        metrics.register(name(WebhookConsumer.class, "in-flight"),
+            (Gauge<Integer>) () -> maxInFlight - permits.availablePermits());
+        metrics.register(name(WebhookConsumer.class, "lag-bytes"),
+            (Gauge<Long>) () -> Math.max(0, webhookLog.getEnd() - position));
+        metrics.register(name(WebhookConsumer.class, "segments"), (Gauge<Integer>) webhookLog::getSegmentCount);
+    }
+
+    @Override
+    public void start() {
+        position = webhookLog.getCheckpoint();
+        running = true;
+        readerThread.start();
+    }
+
+    /**
+     * Stops reading, waits at most {@code shutdownTime} for the webhooks in flight and writes a last checkpoint.
+     */
+    @Override
+    public void stop() throws Exception {
+        running = false;
+        readerThread.interrupt();
+        readerThread.join(shutdownTime.toMilliseconds());
+        if (permits.tryAcquire(maxInFlight, shutdownTime.toMilliseconds(), TimeUnit.MILLISECONDS)) {
+            permits.release(maxInFlight);
+        } else {
+            log.error("{} webhooks were not processed within {}, they are processed again on start",
+                inFlight.size(), shutdownTime);
+        }
+        checkpoint();
+    }
+
+    /**
+     * Records the current checkpoint in the log.
+     */
+    public void checkpoint() throws IOException {
+        long checkpoint = position;
+        if (!inFlight.isEmpty()) {
+            checkpoint = Math.min(checkpoint, inFlight.first());
+        }
+        webhookLog.checkpoint(checkpoint);
+    }
+
+    private void read() {
+        try {
+            while (running) {
+                permits.acquire();
+                WebhookLog.Record record;
+                try {
+                    record = webhookLog.poll(position, 100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    permits.release();
+                    throw e;
+                }
+                if (record == null) {
+                    permits.release();
+                    continue;
+                }
+                // in flight before the position moves past it, so the checkpoint never skips it
+                inFlight.add(record.getOffset());
+                if (process(record)) {
+                    position = record.getNext();
+                } else {
+                    done(record);
+                    Thread.sleep(REJECTED_BACKOFF_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns false if the lanes rejected the webhook, after waiting for the events that were dispatched from it.
+     */
+    private boolean process(WebhookLog.Record record) throws InterruptedException {
+        try {
+            callbackHandler.handleCallbackAsync(record.getPayload()).whenComplete((result, th) -> done(record));
+        } catch (CallbackRejectedException e) {
+            log.debug("Callback lanes are full, reading the webhook at offset {} again", record.getOffset());
+            try {
+                e.getDispatched().get();
+            } catch (ExecutionException ignored) {
+                // failed events are logged by the handler
+            }
+            return false;
+        } catch (IOException | RuntimeException e) {
+            log.error("Could not process the webhook at offset {}. Error: {}:{}", record.getOffset(),
+                e.getClass().getCanonicalName(), e.getMessage());
+            done(record);
+        }
+        return true;
+    }
+
+    private void done(WebhookLog.Record record) {
+        inFlight.remove(record.getOffset());
+        permits.release();
+    }
+}
@@ -1,6 +1,6 @@
 package manfredlift.facebook.rmndr.api;
 
-import com.google.gson.annotations.SerializedName;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -9,6 +9,6 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 @NoArgsConstructor
 public class ReferenceTime {
-    @SerializedName("reference_time")
+    @JsonProperty("reference_time")
     private String referenceTime;
 }
@@ -1,8 +1,10 @@
 package manfredlift.facebook.rmndr.api;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import lombok.Data;
 
 @Data
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class ReminderPayload {
     private String text;
     private String date;
@@ -1,10 +1,15 @@
 package manfredlift.facebook.rmndr.client;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import lombok.extern.slf4j.Slf4j;
 import manfredlift.facebook.rmndr.RmndrConfiguration;
 import manfredlift.facebook.rmndr.RmndrConstants;
 import manfredlift.facebook.rmndr.api.*;
-import org.apache.http.HttpStatus;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
@@ -12,36 +17,48 @@ import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 @Slf4j
 public class FbClient {
     private final String accessToken;
+    private final String graphApiUri;
+    private final String messagesUri;
     private final Client client;
+    private final ExecutorService executor;
+    private final SendQueue sendQueue;
+    private final LoadingCache<String, CompletableFuture<UserTimezone>> timezoneCache;
 
-    public FbClient(RmndrConfiguration configuration, Client client) {
+    public FbClient(RmndrConfiguration configuration, Client client, ExecutorService executor, SendQueue sendQueue) {
         this.accessToken = configuration.getPageAccessToken();
+        this.graphApiUri = configuration.getGraphApiUri();
+        this.messagesUri = graphApiUri + RmndrConstants.MESSAGES_PATH;
         this.client = client;
+        this.executor = executor;
+        this.sendQueue = sendQueue;
+        this.timezoneCache = CacheBuilder.from(configuration.getTimezoneCachePolicy())
+            .recordStats()
+            .build(new TimezoneLoader());
     }
 
+    /**
+     * Queues the message in the {@link SendQueue}, which rate limits and retries it.
+     */
     private CompletableFuture<Void> sendMessage(OutboundRequest outboundRequest) {
-        return CompletableFuture.runAsync(() -> {
-            WebTarget target = client.target(RmndrConstants.MESSAGES_URI)
-                .queryParam(RmndrConstants.ACCESS_TOKEN, accessToken);
-
-            Entity<OutboundRequest> entity = Entity.entity(outboundRequest, MediaType.APPLICATION_JSON);
-            Response response = target.request(MediaType.APPLICATION_JSON).post(entity);
-
-            if (response.getStatus() != HttpStatus.SC_OK) {
-                log.error("Could not send message to Facebook. Response: {}", response);
-            } else {
-                log.info("Message sent to: {}", outboundRequest.getRecipient().getId());
-            }
-        }).exceptionally(e -> {
-            log.error("Unexpected error when sending a message. Error: '{}:{}'",
-                e.getClass().getCanonicalName(), e.getMessage());
-            return null;
-        });
+        return sendQueue.submit(outboundRequest.getRecipient().getId(), () -> postMessage(outboundRequest));
+    }
+
+    private CompletableFuture<Response> postMessage(OutboundRequest outboundRequest) {
+        WebTarget target = client.target(messagesUri)
+            .queryParam(RmndrConstants.ACCESS_TOKEN, accessToken);
+
+        Entity<OutboundRequest> entity = Entity.entity(outboundRequest, MediaType.APPLICATION_JSON);
+        ResponseCallback callback = new ResponseCallback();
+        target.request(MediaType.APPLICATION_JSON).async().post(entity, callback);
+
+        return callback.future();
     }
 
     public CompletableFuture<Void> sendTextMessage(String recipientId, String text) {
@@ -66,17 +83,82 @@ public class FbClient {
         return sendTextMessage(recipientId, errorMessage);
     }
 
+    /**
+     * Returns the user's timezone, from the cache if possible. Concurrent lookups for a user that is not cached
+     * share a single Graph API request.
+     */
     public CompletableFuture<UserTimezone> getUserTimezoneFuture(String userId) {
-        return CompletableFuture.supplyAsync(() -> {
-            WebTarget target = client.target(RmndrConstants.BASE_URI)
-                .path(userId)
-                .queryParam(RmndrConstants.FIELDS, "timezone")
-                .queryParam(RmndrConstants.ACCESS_TOKEN, accessToken);
+        CompletableFuture<UserTimezone> future = timezoneCache.getUnchecked(userId);
+
+        if (future.isCompletedExceptionally()) {
+            // failures are not cached, the next lookup tries again
+            timezoneCache.asMap().remove(userId, future);
+        }
+        return future;
+    }
+
+    /**
+     * Returns the user's timezone only if it is already cached, without calling the Graph API.
+     */
+    public Optional<UserTimezone> getCachedUserTimezone(String userId) {
+        CompletableFuture<UserTimezone> future = timezoneCache.getIfPresent(userId);
+
+        if (future == null || !future.isDone() || future.isCompletedExceptionally()) {
+            return Optional.empty();
+        }
+        return Optional.of(future.join());
+    }
+
+    public Cache<String, CompletableFuture<UserTimezone>> getTimezoneCache() {
+        return timezoneCache;
+    }
+
+    private CompletableFuture<UserTimezone> fetchUserTimezone(String userId) {
+        WebTarget target = client.target(graphApiUri)
+            .path(userId)
+            .queryParam(RmndrConstants.FIELDS, "timezone")
+            .queryParam(RmndrConstants.ACCESS_TOKEN, accessToken);
 
-            UserTimezone userTimezone = target.request().get(UserTimezone.class);
+        ResponseCallback callback = new ResponseCallback();
+        target.request().async().get(callback);
+
+        // the body is read on the outbound executor, the connector's I/O thread is needed to stream it in
+        return callback.future().thenApplyAsync(response -> {
+            UserTimezone userTimezone = ResponseCallback.readEntity(response, UserTimezone.class);
             log.info("User timezone {} received from facebook for user {}",
                 userTimezone.getOffsetHours(), userTimezone.getOffsetHours());
             return userTimezone;
-        });
+        }, executor);
+    }
+
+    private class TimezoneLoader extends CacheLoader<String, CompletableFuture<UserTimezone>> {
+        @Override
+        public CompletableFuture<UserTimezone> load(String userId) {
+            CompletableFuture<UserTimezone> future = fetchUserTimezone(userId);
+            future.whenComplete((userTimezone, th) -> {
+                if (th != null) {
+                    timezoneCache.asMap().remove(userId, future);
+                }
+            });
+            return future;
+        }
+
+        /**
+         * Keeps serving the old timezone until the refreshed one has arrived, a failed refresh keeps the old one.
+         */
+        @Override
+        public ListenableFuture<CompletableFuture<UserTimezone>> reload(String userId,
+                                                                        CompletableFuture<UserTimezone> oldValue) {
+            SettableFuture<CompletableFuture<UserTimezone>> refreshed = SettableFuture.create();
+            CompletableFuture<UserTimezone> future = fetchUserTimezone(userId);
+            future.whenComplete((userTimezone, th) -> {
+                if (th == null) {
+                    refreshed.set(future);
+                } else {
+                    refreshed.setException(th);
+                }
+            });
+            return refreshed;
+        }
     }
 }
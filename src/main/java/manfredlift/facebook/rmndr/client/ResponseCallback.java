@@ -0,0 +1,41 @@
+package manfredlift.facebook.rmndr.client;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.InvocationCallback;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bridges Jersey's async invoker to a {@link CompletableFuture}. With a non-blocking connector the callback is
+ * invoked on the connector's I/O thread as soon as the response headers arrive, so no thread waits for the
+ * remote service in the meantime.
+ */
+class ResponseCallback implements InvocationCallback<Response> {
+    private final CompletableFuture<Response> future = new CompletableFuture<>();
+
+    @Override
+    public void completed(Response response) {
+        future.complete(response);
+    }
+
+    @Override
+    public void failed(Throwable throwable) {
+        future.completeExceptionally(throwable);
+    }
+
+    CompletableFuture<Response> future() {
+        return future;
+    }
+
+    /**
+     * Reads the entity the same way the synchronous {@code get(Class)} does, failing on a non 2xx status.
+     * The body is streamed in by the I/O thread, so this must not be called on it.
+     */
+    static <T> T readEntity(Response response, Class<T> entityType) {
+        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+            response.close();
+            throw new WebApplicationException(response);
+        }
+        return response.readEntity(entityType);
+    }
+}
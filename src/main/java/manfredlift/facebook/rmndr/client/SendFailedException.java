@@ -0,0 +1,29 @@
+package manfredlift.facebook.rmndr.client;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * Fails the future of a message that the {@link SendQueue} gave up on, so callers can tell it was not delivered.
+ * A permanent failure is a refusal by the Send API that sending again would not change, e.g. because the user
+ * blocked the page, the others are drops that may succeed later.
+ */
+public class SendFailedException extends RuntimeException {
+    private final boolean permanent;
+
+    public SendFailedException(String message, boolean permanent) {
+        super(message);
+        this.permanent = permanent;
+    }
+
+    public boolean isPermanent() {
+        return permanent;
+    }
+
+    /**
+     * Whether the failure of a send future, possibly wrapped by a dependent stage, is a permanent refusal.
+     */
+    public static boolean isPermanent(Throwable th) {
+        Throwable cause = th instanceof CompletionException && th.getCause() != null ? th.getCause() : th;
+        return cause instanceof SendFailedException && ((SendFailedException) cause).isPermanent();
+    }
+}
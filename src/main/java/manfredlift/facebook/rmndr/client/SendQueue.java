@@ -0,0 +1,265 @@
+package manfredlift.facebook.rmndr.client;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.concurrent.TokenBucket;
+import manfredlift.facebook.rmndr.factories.SendQueueFactory;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Outbound queue in front of the Send API. Requests leave the queue at most at the global rate and at the
+ * per-recipient rate, a request for a recipient that is over its rate waits in the retry buffer and may overtake
+ * or be overtaken by other requests for that recipient.
+ * <p>
+ * Throttled (429) and failed (5xx or I/O error) requests are retried with exponential backoff and jitter, or after
+ * the Retry-After the response asks for if that is longer. Requests that can not be queued, buffered or sent
+ * within the retry limit are dropped and counted, as are requests the Send API refuses. The returned futures complete
+ * once the request was sent and fail with a {@link SendFailedException} when it was dropped or, permanently, when
+ * it was refused.
+ */
+@Slf4j
+public class SendQueue {
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private final ScheduledExecutorService scheduler;
+    private final BlockingQueue<Send> queue;
+    private final TokenBucket globalBucket;
+    private final LoadingCache<String, TokenBucket> recipientBuckets;
+    private final int maxRetries;
+    private final long initialBackoffNanos;
+    private final long maxBackoffNanos;
+    private final int retryBufferSize;
+
+    private final AtomicInteger delayed = new AtomicInteger();
+    private final AtomicBoolean pumpScheduled = new AtomicBoolean();
+
+    private final Meter sent;
+    private final Meter retried;
+    private final Meter throttled;
+    private final Meter failed;
+    private final Meter droppedQueueFull;
+    private final Meter droppedRetryBufferFull;
+    private final Meter droppedRetriesExhausted;
+
+    public SendQueue(SendQueueFactory config, ScheduledExecutorService scheduler, MetricRegistry metrics) {
+        this.scheduler = scheduler;
+        this.queue = new ArrayBlockingQueue<>(config.getQueueSize());
+        this.globalBucket = new TokenBucket(config.getGlobalRatePerSecond(), config.getGlobalBurst());
+        this.recipientBuckets = CacheBuilder.newBuilder()
+            .maximumSize(100_000)
+            .expireAfterAccess(10, TimeUnit.MINUTES)
+            .build(CacheLoader.from(() ->
+                new TokenBucket(config.getRecipientRatePerSecond(), config.getRecipientBurst())));
+        this.maxRetries = config.getMaxRetries();
+        this.initialBackoffNanos = config.getInitialBackoff().toNanoseconds();
+        this.maxBackoffNanos = config.getMaxBackoff().toNanoseconds();
+        this.retryBufferSize = config.getRetryBufferSize();
+
+        this.sent = metrics.meter(name(SendQueue.class, "sent"));
+        this.retried = metrics.meter(name(SendQueue.class, "retried"));
+        this.throttled = metrics.meter(name(SendQueue.class, "throttled"));
+        this.failed = metrics.meter(name(SendQueue.class, "failed"));
+        this.droppedQueueFull = metrics.meter(name(SendQueue.class, "dropped", "queue-full"));
+        this.droppedRetryBufferFull = metrics.meter(name(SendQueue.class, "dropped", "retry-buffer-full"));
+        this.droppedRetriesExhausted = metrics.meter(name(SendQueue.class, "dropped", "retries-exhausted"));
+
+        metrics.register(name(SendQueue.class, "queue-size"), (Gauge<Integer>) queue::size);
+        metrics.register(name(SendQueue.class, "retry-buffer-size"), (Gauge<Integer>) delayed::get);
+    }
+
+    /**
+     * Queues a request to the given recipient. The supplier is called for every attempt.
+     */
+    public CompletableFuture<Void> submit(String recipientId, Supplier<CompletableFuture<Response>> request) {
+        Send send = new Send(recipientId, request);
+        enqueue(send);
+        return send.future;
+    }
+
+    private void enqueue(Send send) {
+        if (!queue.offer(send)) {
+            drop(send, droppedQueueFull, "the send queue is full");
+            return;
+        }
+
+        if (pumpScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::pump);
+            } catch (RejectedExecutionException e) {
+                pumpScheduled.set(false);
+                log.error("Send queue scheduler is shut down, {} messages are not sent", queue.size());
+            }
+        }
+    }
+
+    /**
+     * Sends queued requests as long as the global rate allows, then schedules itself for when it allows more.
+     * Only one pump runs at a time.
+     */
+    private void pump() {
+        while (true) {
+            if (queue.isEmpty()) {
+                pumpScheduled.set(false);
+                // take over a request queued after the check, unless its submitter already scheduled a pump
+                if (queue.isEmpty() || !pumpScheduled.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+
+            long globalWait = globalBucket.tryAcquire();
+            if (globalWait > 0) {
+                scheduler.schedule(this::pump, globalWait, TimeUnit.NANOSECONDS);
+                return;
+            }
+
+            Send send = queue.poll();
+            long recipientWait = recipientBuckets.getUnchecked(send.recipientId).tryAcquire();
+            if (recipientWait > 0) {
+                globalBucket.release();
+                delay(send, recipientWait);
+                continue;
+            }
+
+            attempt(send);
+        }
+    }
+
+    private void attempt(Send send) {
+        send.attempts++;
+        CompletableFuture<Response> response;
+        try {
+            response = send.request.get();
+        } catch (RuntimeException e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        response.whenComplete((r, th) -> onResponse(send, r, th));
+    }
+
+    private void onResponse(Send send, Response response, Throwable th) {
+        if (th != null) {
+            log.warn("Error when sending a message to {}. Error: '{}:{}'",
+                send.recipientId, th.getClass().getCanonicalName(), th.getMessage());
+            retry(send, backoff(send.attempts));
+            return;
+        }
+
+        try {
+            int status = response.getStatus();
+            if (response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL) {
+                sent.mark();
+                log.info("Message sent to: {}", send.recipientId);
+                send.future.complete(null);
+            } else if (status == TOO_MANY_REQUESTS || status >= 500) {
+                if (status == TOO_MANY_REQUESTS) {
+                    throttled.mark();
+                }
+                log.warn("Send API responded {} for a message to {}", status, send.recipientId);
+                retry(send, Math.max(backoff(send.attempts), retryAfter(response)));
+            } else {
+                failed.mark();
+                log.error("Could not send message to Facebook. Response: {}", response);
+                send.future.completeExceptionally(new SendFailedException("The Send API responded " + status, true));
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private void retry(Send send, long delayNanos) {
+        if (send.attempts > maxRetries) {
+            drop(send, droppedRetriesExhausted, "it failed " + send.attempts + " times");
+            return;
+        }
+        retried.mark();
+        delay(send, delayNanos);
+    }
+
+    /**
+     * Puts the request back in the queue after the delay. The number of delayed requests is bounded by the retry
+     * buffer size.
+     */
+    private void delay(Send send, long delayNanos) {
+        if (delayed.incrementAndGet() > retryBufferSize) {
+            delayed.decrementAndGet();
+            drop(send, droppedRetryBufferFull, "the retry buffer is full");
+            return;
+        }
+
+        try {
+            scheduler.schedule(() -> {
+                delayed.decrementAndGet();
+                enqueue(send);
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            delayed.decrementAndGet();
+            drop(send, droppedRetryBufferFull, "the send queue scheduler is shut down");
+        }
+    }
+
+    private void drop(Send send, Meter reason, String why) {
+        reason.mark();
+        log.error("Dropped a message to {} because {}", send.recipientId, why);
+        send.future.completeExceptionally(new SendFailedException("Dropped because " + why, false));
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random.
+     */
+    private long backoff(int attempts) {
+        long exponential = initialBackoffNanos << Math.min(attempts - 1, 30);
+        long delay = exponential > 0 ? Math.min(maxBackoffNanos, exponential) : maxBackoffNanos;
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * The Retry-After of the response in nanoseconds, given either as seconds or as an HTTP date, or 0.
+     */
+    static long retryAfter(Response response) {
+        String retryAfter = response.getHeaderString(HttpHeaders.RETRY_AFTER);
+        if (retryAfter == null) {
+            return 0;
+        }
+
+        try {
+            return TimeUnit.SECONDS.toNanos(Long.parseLong(retryAfter.trim()));
+        } catch (NumberFormatException e) {
+            try {
+                Instant date = ZonedDateTime.parse(retryAfter.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                return Math.max(0, TimeUnit.MILLISECONDS.toNanos(date.toEpochMilli() - System.currentTimeMillis()));
+            } catch (DateTimeParseException ignored) {
+                log.warn("Ignoring unparsable Retry-After '{}'", retryAfter);
+                return 0;
+            }
+        }
+    }
+
+    private static class Send {
+        private final String recipientId;
+        private final Supplier<CompletableFuture<Response>> request;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private volatile int attempts;
+
+        Send(String recipientId, Supplier<CompletableFuture<Response>> request) {
+            this.recipientId = recipientId;
+            this.request = request;
+        }
+    }
+}
@@ -1,41 +1,107 @@
 package manfredlift.facebook.rmndr.client;
 
-import com.google.gson.Gson;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import lombok.extern.slf4j.Slf4j;
 import manfredlift.facebook.rmndr.RmndrConfiguration;
-import manfredlift.facebook.rmndr.RmndrConstants;
+import manfredlift.facebook.rmndr.api.NlpEntity;
 import manfredlift.facebook.rmndr.api.ReferenceTime;
 import manfredlift.facebook.rmndr.api.WitResponse;
+import manfredlift.facebook.rmndr.util.JsonCodec;
+import manfredlift.facebook.rmndr.util.LocalDateParser;
 import org.glassfish.jersey.uri.UriComponent;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
 
 @Slf4j
 public class WitClient {
 
     private final String witToken;
+    private final String witUri;
     private final Client client;
-    private final Gson gson;
+    private final ExecutorService executor;
+    private final JsonCodec jsonCodec;
+    private final boolean localDateParsing;
+    private final LocalDateParser localDateParser;
+    private final boolean witResponseCaching;
+    private final WitResponseCache responseCache;
 
-    public WitClient(RmndrConfiguration configuration, Client client) {
+    public WitClient(RmndrConfiguration configuration, Client client, ExecutorService executor,
+                     JsonCodec jsonCodec) {
         this.witToken = configuration.getWitToken();
+        this.witUri = configuration.getWitUri();
         this.client = client;
-        this.gson = new Gson();
+        this.executor = executor;
+        this.jsonCodec = jsonCodec;
+        this.localDateParsing = configuration.isLocalDateParsing();
+        this.localDateParser = new LocalDateParser();
+        this.witResponseCaching = configuration.isWitResponseCaching();
+        this.responseCache = new WitResponseCache(configuration.getWitCachePolicy());
     }
 
+    /**
+     * Resolves the query locally when {@link LocalDateParser} understands it, otherwise asks Wit AI unless the
+     * response is already cached.
+     */
     public CompletableFuture<WitResponse> getResponseFuture(String query, ReferenceTime referenceTime) {
-        WebTarget target = client.target(RmndrConstants.WIT_URI)
+        if (localDateParsing) {
+            Optional<NlpEntity> datetime = localDateParser.parse(query, referenceTime);
+            if (datetime.isPresent()) {
+                log.info("Parsed '{}:{}' locally", query, referenceTime);
+                return CompletableFuture.completedFuture(WitResponse.builder()
+                    .text(query)
+                    .entities(ImmutableMap.of("datetime", ImmutableList.of(datetime.get())))
+                    .build());
+            }
+        }
+
+        if (witResponseCaching) {
+            return responseCache.get(query, referenceTime, this::fetchResponse);
+        }
+        return fetchResponse(query, referenceTime);
+    }
+
+    public LocalDateParser getLocalDateParser() {
+        return localDateParser;
+    }
+
+    public Cache<?, ?> getRecentResponseCache() {
+        return responseCache.getRecentCache();
+    }
+
+    public Cache<?, ?> getRelativeResponseCache() {
+        return responseCache.getRelativeCache();
+    }
+
+    private CompletableFuture<WitResponse> fetchResponse(String query, ReferenceTime referenceTime) {
+        String context;
+        try {
+            context = jsonCodec.writeReferenceTime(referenceTime);
+        } catch (JsonProcessingException e) {
+            CompletableFuture<WitResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+
+        WebTarget target = client.target(witUri)
             .queryParam("q", query)
-            .queryParam("context", UriComponent.encode(gson.toJson(referenceTime), UriComponent.Type.QUERY_PARAM));
+            .queryParam("context", UriComponent.encode(context, UriComponent.Type.QUERY_PARAM));
+
+        log.info("Sending request to Wit AI: '{}:{}'", query, referenceTime);
+        ResponseCallback callback = new ResponseCallback();
+        target.request().header(HttpHeaders.AUTHORIZATION, witToken).async().get(callback);
 
-        return CompletableFuture.supplyAsync(() -> {
-            log.info("Sending request to Wit AI: '{}:{}'", query, referenceTime);
-            WitResponse response = target.request().header(HttpHeaders.AUTHORIZATION, witToken).get(WitResponse.class);
+        return callback.future().thenApplyAsync(response -> {
+            WitResponse witResponse = ResponseCallback.readEntity(response, WitResponse.class);
             log.info("Response received from Wit AI");
-            return response;
-        });
+            return witResponse;
+        }, executor);
     }
 }
@@ -0,0 +1,192 @@
+package manfredlift.facebook.rmndr.client;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheBuilderSpec;
+import lombok.Data;
+import manfredlift.facebook.rmndr.RmndrConstants;
+import manfredlift.facebook.rmndr.api.NlpEntity;
+import manfredlift.facebook.rmndr.api.ReferenceTime;
+import manfredlift.facebook.rmndr.api.WitResponse;
+import manfredlift.facebook.rmndr.util.DateHelper;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Memoizes Wit AI responses by normalized query and UTC offset.
+ * <p>
+ * A response is reused within the minute it was parsed in, since a wall clock expression ("at 5pm") may resolve
+ * differently a minute later. Only a query that is relative as a whole ("in 10 minutes", "in an hour") is kept as
+ * an offset from the reference time it was parsed with and reused at any later time, the grain of the response can
+ * not tell an absolute time with seconds from a relative one. Concurrent identical queries share a single request,
+ * the loader always gets the query as the user wrote it.
+ */
+class WitResponseCache {
+    private static final String DATETIME = "datetime";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(RmndrConstants.DATE_FORMAT);
+    private static final long RECENT_CACHE_SIZE = 10_000;
+    private static final String AMOUNT = "(\\d+|an?|one) (s|secs?|seconds?|m|mins?|minutes?|h|hrs?|hours?)";
+    private static final Pattern RELATIVE = Pattern.compile("in " + AMOUNT + "(,? (and )?" + AMOUNT + ")*");
+
+    private final Cache<RecentKey, Parse> recentCache;
+    private final Cache<QueryKey, Parse> relativeCache;
+
+    WitResponseCache(CacheBuilderSpec relativeCachePolicy) {
+        this.recentCache = CacheBuilder.newBuilder()
+            .maximumSize(RECENT_CACHE_SIZE)
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+        this.relativeCache = CacheBuilder.from(relativeCachePolicy)
+            .recordStats()
+            .build();
+    }
+
+    /**
+     * Returns the cached response for the query, or calls the loader with the query on a miss.
+     */
+    CompletableFuture<WitResponse> get(String query, ReferenceTime referenceTime,
+                                       BiFunction<String, ReferenceTime, CompletableFuture<WitResponse>> loader) {
+        OffsetDateTime reference = DateHelper.offsetDateTimeFromReferenceTime(referenceTime)
+            .truncatedTo(ChronoUnit.SECONDS);
+        QueryKey queryKey = new QueryKey(normalize(query), reference.getOffset().getTotalSeconds());
+        boolean relative = RELATIVE.matcher(queryKey.getQuery()).matches();
+
+        Parse parsed = relative ? relativeCache.getIfPresent(queryKey) : null;
+        if (parsed != null) {
+            return parsed.getFuture().thenApply(response -> rebase(response, parsed.getReference(), reference));
+        }
+
+        RecentKey recentKey = new RecentKey(queryKey, reference.truncatedTo(ChronoUnit.MINUTES).toEpochSecond());
+        Parse recent;
+        try {
+            recent = recentCache.get(recentKey, () -> load(query, relative, recentKey, reference, referenceTime,
+                loader));
+        } catch (ExecutionException e) {
+            CompletableFuture<WitResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e.getCause());
+            return failed;
+        }
+
+        if (recent.getFuture().isCompletedExceptionally()) {
+            // failures are not cached, the next lookup tries again
+            recentCache.asMap().remove(recentKey, recent);
+        }
+        if (!relative) {
+            return recent.getFuture();
+        }
+        return recent.getFuture().thenApply(response -> rebase(response, recent.getReference(), reference));
+    }
+
+    Cache<?, ?> getRecentCache() {
+        return recentCache;
+    }
+
+    Cache<?, ?> getRelativeCache() {
+        return relativeCache;
+    }
+
+    private Parse load(String query, boolean relative, RecentKey recentKey, OffsetDateTime reference,
+                       ReferenceTime referenceTime,
+                       BiFunction<String, ReferenceTime, CompletableFuture<WitResponse>> loader) {
+        Parse parse = new Parse(reference, loader.apply(query, referenceTime));
+        parse.getFuture().whenComplete((response, th) -> {
+            if (th != null) {
+                recentCache.asMap().remove(recentKey, parse);
+            } else if (relative && isExact(response)) {
+                relativeCache.put(recentKey.getQueryKey(), parse);
+            }
+        });
+        return parse;
+    }
+
+    static String normalize(String query) {
+        StringBuilder normalized = new StringBuilder(query.length());
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = normalized.length() > 0;
+            } else {
+                if (space) {
+                    normalized.append(' ');
+                    space = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Whether every datetime of the response is a point in time to the second, as Wit resolves relative queries.
+     */
+    private static boolean isExact(WitResponse response) {
+        List<NlpEntity> datetimes = response.getEntities() != null ? response.getEntities().get(DATETIME) : null;
+        return datetimes != null && !datetimes.isEmpty() && datetimes.stream()
+            .allMatch(entity -> entity.getValue() != null
+                && "value".equals(entity.getType())
+                && "second".equals(entity.getGrain()));
+    }
+
+    /**
+     * Moves the datetimes of the response to a relative query from the reference time it was parsed with to another
+     * one. Responses that are not exact are returned unchanged.
+     */
+    private static WitResponse rebase(WitResponse response, OffsetDateTime parsedAt, OffsetDateTime reference) {
+        long seconds = Duration.between(parsedAt, reference).getSeconds();
+        if (seconds == 0 || !isExact(response)) {
+            return response;
+        }
+
+        List<NlpEntity> datetimes = response.getEntities().get(DATETIME).stream()
+            .map(entity -> {
+                NlpEntity shifted = new NlpEntity();
+                shifted.setConfidence(entity.getConfidence());
+                shifted.setGrain(entity.getGrain());
+                shifted.setType(entity.getType());
+                shifted.setValue(OffsetDateTime.parse(entity.getValue()).plusSeconds(seconds).format(FORMATTER));
+                return shifted;
+            })
+            .collect(Collectors.toList());
+
+        Map<String, List<NlpEntity>> entities = new HashMap<>(response.getEntities());
+        entities.put(DATETIME, datetimes);
+        return WitResponse.builder()
+            .msgId(response.getMsgId())
+            .text(response.getText())
+            .entities(entities)
+            .build();
+    }
+
+    @Data
+    private static class QueryKey {
+        private final String query;
+        private final int offsetSeconds;
+    }
+
+    @Data
+    private static class RecentKey {
+        private final QueryKey queryKey;
+        private final long minute;
+    }
+
+    @Data
+    private static class Parse {
+        private final OffsetDateTime reference;
+        private final CompletableFuture<WitResponse> future;
+    }
+}
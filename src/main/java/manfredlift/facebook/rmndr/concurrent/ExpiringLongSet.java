@@ -0,0 +1,142 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Set of longs that remembers each one for at least {@code windowMillis}. Keys are kept in two open addressing
+ * tables of primitive longs: new keys go to the current one, and every window the current table becomes the
+ * previous one and the old previous table is cleared, so memory stays fixed no matter how long the set is used.
+ * <p>
+ * At most {@code maxEntries} keys are added per window. When more arrive, the tables rotate early and the oldest
+ * keys are forgotten before their window is over.
+ */
+public class ExpiringLongSet implements MetricSet {
+    private static final long EMPTY = 0L;
+    // stands in for the key 0, which marks empty slots
+    private static final long ZERO_KEY = 0x9E3779B97F4A7C15L;
+
+    private final LongSupplier clock;
+    private final long windowMillis;
+    private final int maxEntries;
+    private final int mask;
+    private final Counter duplicates = new Counter();
+
+    // guarded by this
+    private long[] current;
+    private long[] previous;
+    private int currentSize;
+    private int previousSize;
+    private long rotatedAt;
+
+    public ExpiringLongSet(long windowMillis, int maxEntries) {
+        this(windowMillis, maxEntries, System::currentTimeMillis);
+    }
+
+    ExpiringLongSet(long windowMillis, int maxEntries, LongSupplier clock) {
+        if (windowMillis <= 0 || maxEntries < 1 || maxEntries > 1 << 29) {
+            throw new IllegalArgumentException("windowMillis must be positive and maxEntries between 1 and 2^29");
+        }
+
+        // at most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(maxEntries * 2 - 1) << 1;
+        this.clock = clock;
+        this.windowMillis = windowMillis;
+        this.maxEntries = maxEntries;
+        this.mask = capacity - 1;
+        this.current = new long[capacity];
+        this.previous = new long[capacity];
+        this.rotatedAt = clock.getAsLong();
+    }
+
+    /**
+     * Adds the key and returns true, or returns false and counts a duplicate if the key was added within the
+     * window.
+     */
+    public synchronized boolean add(long key) {
+        if (key == EMPTY) {
+            key = ZERO_KEY;
+        }
+        expire();
+
+        if (contains(current, key) || contains(previous, key)) {
+            duplicates.inc();
+            return false;
+        }
+        if (currentSize >= maxEntries) {
+            rotate();
+        }
+        insert(current, key);
+        currentSize++;
+        return true;
+    }
+
+    /**
+     * Keys that were added more than once within the window.
+     */
+    public long getDuplicates() {
+        return duplicates.getCount();
+    }
+
+    public synchronized int size() {
+        expire();
+        return currentSize + previousSize;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return ImmutableMap.<String, Metric>builder()
+            .put("duplicates", duplicates)
+            .put("size", (Gauge<Integer>) this::size)
+            .build();
+    }
+
+    private void expire() {
+        long elapsed = clock.getAsLong() - rotatedAt;
+        if (elapsed >= 2 * windowMillis) {
+            rotate();
+            rotate();
+        } else if (elapsed >= windowMillis) {
+            rotate();
+        }
+    }
+
+    private void rotate() {
+        long[] cleared = previous;
+        Arrays.fill(cleared, EMPTY);
+        previous = current;
+        previousSize = currentSize;
+        current = cleared;
+        currentSize = 0;
+        rotatedAt = clock.getAsLong();
+    }
+
+    private boolean contains(long[] table, long key) {
+        for (int i = index(key); table[i] != EMPTY; i = (i + 1) & mask) {
+            if (table[i] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void insert(long[] table, long key) {
+        int i = index(key);
+        while (table[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        table[i] = key;
+    }
+
+    private int index(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
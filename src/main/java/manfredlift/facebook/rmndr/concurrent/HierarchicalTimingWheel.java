@@ -0,0 +1,268 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timing wheel that runs tasks at wall clock times with millisecond precision. Each level is a ring
+ * of {@code wheelSize} buckets, a bucket of one level spans the whole ring of the level below, so a few levels
+ * cover hours with a tick of one millisecond. Scheduling links a task into the bucket of its expiration and
+ * cancelling unlinks it, both in constant time.
+ * <p>
+ * Only buckets that hold tasks are in the delay queue the ticker thread waits on, it wakes up when the earliest of
+ * them expires. Tasks of an expired bucket on an upper level move down to the level below, tasks of an expired
+ * bucket on the lowest level are run on the ticker thread, so they have to hand longer work elsewhere.
+ */
+@Slf4j
+public class HierarchicalTimingWheel {
+    private final long tickMillis;
+    private final int wheelSize;
+    private final DelayQueue<Bucket> queue = new DelayQueue<>();
+    private final Object lock = new Object();
+    private final Level root;
+    private final Thread ticker;
+
+    private int size;
+
+    public HierarchicalTimingWheel(long tickMillis, int wheelSize, String name) {
+        if (tickMillis < 1 || wheelSize < 2) {
+            throw new IllegalArgumentException("tickMillis must be positive and wheelSize at least 2");
+        }
+
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.root = new Level(tickMillis, System.currentTimeMillis());
+        this.ticker = new Thread(this::tick, name);
+        this.ticker.setDaemon(true);
+    }
+
+    public void start() {
+        ticker.start();
+    }
+
+    /**
+     * Stops the ticker thread, tasks that did not run yet are dropped.
+     */
+    public void stop() throws InterruptedException {
+        ticker.interrupt();
+        ticker.join();
+    }
+
+    /**
+     * Runs the task at {@code expirationMillis}, or right away on the calling thread if that is less than a tick
+     * away.
+     */
+    public Timeout schedule(long expirationMillis, Runnable task) {
+        Timeout timeout = new Timeout(expirationMillis, task);
+        boolean added;
+        synchronized (lock) {
+            added = root.add(timeout);
+            if (added) {
+                size++;
+            }
+        }
+        if (!added) {
+            run(timeout);
+        }
+        return timeout;
+    }
+
+    /**
+     * Number of tasks that are scheduled and did not run yet.
+     */
+    public int size() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    private void tick() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Bucket bucket = queue.take();
+                List<Timeout> expired = new ArrayList<>();
+                synchronized (lock) {
+                    do {
+                        root.advanceClock(bucket.expiration);
+                        Timeout timeout;
+                        while ((timeout = bucket.poll()) != null) {
+                            size--;
+                            if (root.add(timeout)) {
+                                size++;
+                            } else {
+                                expired.add(timeout);
+                            }
+                        }
+                        bucket.expiration = -1;
+                        bucket = queue.poll();
+                    } while (bucket != null);
+                }
+                expired.forEach(HierarchicalTimingWheel::run);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void run(Timeout timeout) {
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            log.error("Timer task failed. Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public class Timeout {
+        private final long expirationMillis;
+        private final Runnable task;
+
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(long expirationMillis, Runnable task) {
+            this.expirationMillis = expirationMillis;
+            this.task = task;
+        }
+
+        public long getExpirationMillis() {
+            return expirationMillis;
+        }
+
+        /**
+         * Whether the task is still waiting to run.
+         */
+        public boolean isPending() {
+            synchronized (lock) {
+                return bucket != null;
+            }
+        }
+
+        /**
+         * Cancels the task, returns false if it already ran, is running or was cancelled before.
+         */
+        public boolean cancel() {
+            synchronized (lock) {
+                if (bucket == null) {
+                    return false;
+                }
+                bucket.remove(this);
+                size--;
+                return true;
+            }
+        }
+    }
+
+    private final class Level {
+        private final long tick;
+        private final long interval;
+        private final Bucket[] buckets;
+
+        private long currentTime;
+        private Level overflow;
+
+        private Level(long tick, long startMillis) {
+            this.tick = tick;
+            this.interval = tick * wheelSize;
+            this.buckets = new Bucket[wheelSize];
+            for (int i = 0; i < wheelSize; i++) {
+                buckets[i] = new Bucket();
+            }
+            this.currentTime = startMillis - startMillis % tick;
+        }
+
+        /**
+         * Links the timeout into its bucket, returns false if it expires within the current tick.
+         */
+        private boolean add(Timeout timeout) {
+            long expiration = timeout.expirationMillis;
+            if (expiration < currentTime + tick) {
+                return false;
+            }
+            if (expiration < currentTime + interval) {
+                long virtualId = expiration / tick;
+                Bucket bucket = buckets[(int) (virtualId % wheelSize)];
+                bucket.add(timeout);
+                if (bucket.expiration != virtualId * tick) {
+                    bucket.expiration = virtualId * tick;
+                    queue.offer(bucket);
+                }
+                return true;
+            }
+            if (overflow == null) {
+                overflow = new Level(interval, currentTime);
+            }
+            return overflow.add(timeout);
+        }
+
+        private void advanceClock(long time) {
+            if (time >= currentTime + tick) {
+                currentTime = time - time % tick;
+                if (overflow != null) {
+                    overflow.advanceClock(currentTime);
+                }
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timeouts that expire within one tick of a level, guarded by the wheel lock.
+     */
+    private final class Bucket implements Delayed {
+        private final Timeout head = new Timeout(0, null);
+
+        private volatile long expiration = -1;
+
+        private Bucket() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = head.prev;
+            timeout.next = head;
+            head.prev.next = timeout;
+            head.prev = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            timeout.prev.next = timeout.next;
+            timeout.next.prev = timeout.prev;
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        private Timeout poll() {
+            Timeout first = head.next;
+            if (first == head) {
+                return null;
+            }
+            remove(first);
+            return first;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(expiration - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(expiration, ((Bucket) other).expiration);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Runs tasks submitted under the same key one after another, in submission order, while tasks for different
+ * keys run in parallel on the backing executor. Keys are striped over a fixed number of lanes, so two keys
+ * may share a lane (and be serialised) but no thread or queue is ever created per key.
+ *
+ * At most {@code maxPendingTasks} tasks wait in or run on the lanes at a time, a task submitted beyond that is
+ * rejected with a RejectedExecutionException so the caller can push back instead of queueing without bound.
+ *
+ * If the backing executor rejects a lane, the submitting thread drains that lane itself. The backing executor
+ * must therefore reject by throwing, it must neither silently discard tasks nor run them on the caller.
+ */
+public class KeyedLaneExecutor {
+    private static final int MAX_TASKS_PER_RUN = 64;
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+
+    private final Executor executor;
+    private final Lane[] lanes;
+    private final int maxPendingTasks;
+    private final Semaphore permits;
+
+    public KeyedLaneExecutor(Executor executor, int laneCount) {
+        this(executor, laneCount, Integer.MAX_VALUE);
+    }
+
+    public KeyedLaneExecutor(Executor executor, int laneCount, int maxPendingTasks) {
+        if (laneCount < 1) {
+            throw new IllegalArgumentException("laneCount must be positive");
+        }
+        if (maxPendingTasks < 1) {
+            throw new IllegalArgumentException("maxPendingTasks must be positive");
+        }
+
+        this.executor = executor;
+        this.maxPendingTasks = maxPendingTasks;
+        this.permits = new Semaphore(maxPendingTasks);
+        this.lanes = new Lane[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    /**
+     * Queues the task on the lane of the key, throws a RejectedExecutionException if {@code maxPendingTasks} tasks
+     * are already pending.
+     */
+    public CompletableFuture<Void> submit(Object key, Runnable task) {
+        return submitAsync(key, () -> {
+            task.run();
+            return DONE;
+        });
+    }
+
+    /**
+     * Queues a task that starts asynchronous work on the lane of the key. The lane moves on to its next task once
+     * this one returned, but the task stays pending, and the returned future incomplete, until the stage it
+     * returned completes. Throws a RejectedExecutionException if {@code maxPendingTasks} tasks are already pending.
+     */
+    public CompletableFuture<Void> submitAsync(Object key, Supplier<? extends CompletionStage<?>> task) {
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Already " + maxPendingTasks + " tasks pending in the lanes");
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        lanes[laneIndex(key)].enqueue(() -> {
+            CompletionStage<?> stage;
+            try {
+                stage = Objects.requireNonNull(task.get(), "The task returned no stage");
+            } catch (Throwable th) {
+                complete(future, th);
+                return;
+            }
+            stage.whenComplete((result, th) -> complete(future, th));
+        });
+
+        return future;
+    }
+
+    private void complete(CompletableFuture<Void> future, Throwable failure) {
+        // released first, so a caller that sees the future complete can submit again
+        permits.release();
+        if (failure == null) {
+            future.complete(null);
+        } else {
+            future.completeExceptionally(failure);
+        }
+    }
+
+    public int getLaneCount() {
+        return lanes.length;
+    }
+
+    /**
+     * Tasks waiting in or running on the lanes.
+     */
+    public int getPendingTasks() {
+        return maxPendingTasks - permits.availablePermits();
+    }
+
+    private int laneIndex(Object key) {
+        if (key == null) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        hash ^= hash >>> 16; // spread high bits, as HashMap does
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    private final class Lane implements Runnable {
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        void enqueue(Runnable task) {
+            tasks.add(task);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // lane is still marked as scheduled, so draining here keeps the ordering guarantee
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                // bounded batch, so one busy sender can not monopolise a pool thread
+                for (int i = 0; i < MAX_TASKS_PER_RUN; i++) {
+                    Runnable task = tasks.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    task.run();
+                }
+            } finally {
+                scheduled.set(false);
+                if (!tasks.isEmpty()) {
+                    schedule();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter that never blocks. {@link #tryAcquire()} either takes a token or tells the caller how
+ * long to wait for the next one, so a single scheduler thread can serve many buckets.
+ */
+public class TokenBucket {
+    private final Ticker ticker;
+    private final double tokensPerNano;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefill;
+
+    public TokenBucket(double tokensPerSecond, int burst) {
+        this(tokensPerSecond, burst, Ticker.systemTicker());
+    }
+
+    public TokenBucket(double tokensPerSecond, int burst, Ticker ticker) {
+        if (tokensPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("tokensPerSecond and burst must be positive");
+        }
+
+        this.ticker = ticker;
+        this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefill = ticker.read();
+    }
+
+    /**
+     * Takes a token if one is available and returns 0, otherwise returns the nanoseconds until one will be.
+     */
+    public synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+
+    /**
+     * Gives back a token taken by {@link #tryAcquire()} that was not used.
+     */
+    public synchronized void release() {
+        tokens = Math.min(capacity, tokens + 1);
+    }
+
+    private void refill() {
+        long now = ticker.read();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,53 @@
+package manfredlift.facebook.rmndr.factories;
+
+import com.codahale.metrics.RatioGauge;
+import io.dropwizard.db.DataSourceFactory;
+import io.dropwizard.db.ManagedDataSource;
+import io.dropwizard.db.ManagedPooledDataSource;
+import io.dropwizard.setup.Environment;
+import manfredlift.facebook.rmndr.util.TimedDataSource;
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.apache.tomcat.jdbc.pool.interceptor.ConnectionState;
+
+import javax.sql.DataSource;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Configuration for the connection pool shared by the Quartz scheduler and the reminder store, with the settings
+ * of a Dropwizard {@link DataSourceFactory}. It has to hold a connection for each Quartz worker thread, three for
+ * the scheduler itself and a few for the reminder store.
+ * <p>
+ * Besides the active, idle, waiting and size gauges of the pool, the utilization of the pool (active connections
+ * out of {@code maxSize}) and the time it takes to get a connection, waiting included, are exported under
+ * {@code io.dropwizard.db.ManagedPooledDataSource.database}. The pool is closed by the Dropwizard lifecycle.
+ */
+public class DatabaseFactory extends DataSourceFactory {
+    private static final String NAME = "database";
+
+    public DatabaseFactory() {
+        setDriverClass(org.postgresql.Driver.class.getName());
+        setInitialSize(4);
+        setMinSize(4);
+        setMaxSize(16);
+        setAutoCommitByDefault(true);
+    }
+
+    public DataSource build(Environment environment) {
+        final ManagedDataSource dataSource = build(environment.metrics(), NAME);
+        environment.lifecycle().manage(dataSource);
+
+        final DataSourceProxy pool = (DataSourceProxy) dataSource;
+        // Quartz turns auto-commit off while it holds a connection, the reminder store relies on it being on for
+        // the next borrower, which the pool only sees to with this interceptor
+        pool.setJdbcInterceptors(ConnectionState.class.getSimpleName());
+        environment.metrics().register(name(ManagedPooledDataSource.class, NAME, "utilization"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(pool.getActive(), pool.getMaxActive());
+            }
+        });
+        return new TimedDataSource(dataSource,
+            environment.metrics().timer(name(ManagedPooledDataSource.class, NAME, "acquisition")));
+    }
+}
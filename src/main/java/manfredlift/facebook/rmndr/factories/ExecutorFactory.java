@@ -0,0 +1,109 @@
+package manfredlift.facebook.rmndr.factories;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.InstrumentedExecutorService;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.concurrent.KeyedLaneExecutor;
+
+import java.util.concurrent.*;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Configuration for a bounded, instrumented thread pool. The pool is managed by the Dropwizard lifecycle
+ * and exposes queue depth, active threads, rejections and task latency in the metrics registry.
+ */
+@Data
+@Slf4j
+public class ExecutorFactory {
+    public enum RejectionPolicy {
+        /** Fail the submission with a RejectedExecutionException. */
+        ABORT,
+        /** Run the task on the submitting thread, which slows the producer down. */
+        CALLER_RUNS,
+        /** Drop the task. */
+        DISCARD
+    }
+
+    private int minThreads = 4;
+
+    private int maxThreads = 16;
+
+    private int queueSize = 1024;
+
+    private Duration keepAliveTime = Duration.seconds(60);
+
+    private Duration shutdownTime = Duration.seconds(5);
+
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.CALLER_RUNS;
+
+    public static ExecutorFactory withRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        ExecutorFactory factory = new ExecutorFactory();
+        factory.setRejectionPolicy(rejectionPolicy);
+        return factory;
+    }
+
+    public ExecutorService build(Environment environment, String name) {
+        final MetricRegistry metrics = environment.metrics();
+        final BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<>(queueSize);
+        final Meter rejected = metrics.meter(name(ExecutorService.class, name, "rejected"));
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(minThreads, maxThreads,
+            keepAliveTime.getQuantity(), keepAliveTime.getUnit(), workQueue,
+            new ThreadFactoryBuilder().setNameFormat(name + "-%d").build(),
+            rejectionHandler(name, rejected));
+
+        metrics.register(name(ExecutorService.class, name, "queue-size"), (Gauge<Integer>) workQueue::size);
+        metrics.register(name(ExecutorService.class, name, "active-threads"), (Gauge<Integer>) executor::getActiveCount);
+        metrics.register(name(ExecutorService.class, name, "pool-size"), (Gauge<Integer>) executor::getPoolSize);
+
+        environment.lifecycle().manage(new ExecutorServiceManager(executor, shutdownTime, name));
+
+        return new InstrumentedExecutorService(executor, metrics, name(ExecutorService.class, name));
+    }
+
+    /**
+     * Builds the pool as the backing executor of a {@link KeyedLaneExecutor}. Only {@link RejectionPolicy#ABORT}
+     * is allowed: a discarded lane would never run again and a lane run by the caller would run inside the
+     * submitting lane, while a rejected one is drained by the submitting thread.
+     * <p>
+     * The queue size also bounds the tasks pending in the lanes, a task submitted beyond it is rejected.
+     */
+    public KeyedLaneExecutor buildLanes(Environment environment, String name, int laneCount) {
+        if (rejectionPolicy != RejectionPolicy.ABORT) {
+            throw new IllegalArgumentException("Executor '" + name + "' backs keyed lanes and must use the ABORT "
+                + "rejection policy, not " + rejectionPolicy);
+        }
+        final KeyedLaneExecutor lanes = new KeyedLaneExecutor(build(environment, name), laneCount, queueSize);
+        environment.metrics().register(name(KeyedLaneExecutor.class, name, "pending-tasks"),
+            (Gauge<Integer>) lanes::getPendingTasks);
+        return lanes;
+    }
+
+    private RejectedExecutionHandler rejectionHandler(String name, Meter rejected) {
+        final RejectedExecutionHandler delegate;
+        switch (rejectionPolicy) {
+            case ABORT:
+                delegate = new ThreadPoolExecutor.AbortPolicy();
+                break;
+            case DISCARD:
+                delegate = new ThreadPoolExecutor.DiscardPolicy();
+                break;
+            default:
+                delegate = new ThreadPoolExecutor.CallerRunsPolicy();
+        }
+
+        return (runnable, executor) -> {
+            rejected.mark();
+            log.debug("Executor '{}' saturated, applying {} policy", name, rejectionPolicy);
+            delegate.rejectedExecution(runnable, executor);
+        };
+    }
+}
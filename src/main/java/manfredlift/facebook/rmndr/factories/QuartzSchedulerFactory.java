@@ -1,43 +1,175 @@
 package manfredlift.facebook.rmndr.factories;
 
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import manfredlift.facebook.rmndr.RmndrConfiguration;
+import org.flywaydb.core.Flyway;
 import org.quartz.Scheduler;
 import org.quartz.SchedulerException;
 import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.impl.jdbcjobstore.JobStoreTX;
+import org.quartz.impl.jdbcjobstore.PostgreSQLDelegate;
+import org.quartz.simpl.RAMJobStore;
+import org.quartz.utils.ConnectionProvider;
+import org.quartz.utils.DBConnectionManager;
 
-import java.io.IOException;
-import java.io.InputStream;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
 import java.util.Properties;
 
+/**
+ * Configuration for the Quartz scheduler, which keeps reminders in the {@code QRTZ_} tables in Postgres.
+ * <p>
+ * The scheduler takes its connections from the pool configured by {@link DatabaseFactory}, which is shared with
+ * the reminder store. Quartz looks data sources up by name in a registry for the whole JVM, the pool is registered
+ * there under {@code rmndrDS} before the scheduler is created.
+ * <p>
+ * In clustered mode any number of instances share the tables: every instance checks in at the check-in interval,
+ * every trigger fires on exactly one instance and the triggers of an instance that stops checking in are recovered
+ * by the others. All instances must use the same instance name and a unique instance id, {@code AUTO} generates
+ * one from the host name and the start time.
+ * <p>
+ * Before the scheduler is created the schema is migrated with the versioned scripts in {@code db/migration}. A
+ * database that already has the tables but no migration history is taken to be at version 1. With
+ * {@code migrateSchema} off the schema is left alone and has to be migrated separately.
+ * <p>
+ * The scheduler is shut down by the Dropwizard lifecycle after waiting for running jobs.
+ */
+@Data
 @Slf4j
 public class QuartzSchedulerFactory {
-    public static Scheduler create(RmndrConfiguration config) throws SchedulerException {
-        if (config.isTesting()) {
-            return StdSchedulerFactory.getDefaultScheduler();
-        } else {
-            Properties properties = new Properties();
-            try {
-                ClassLoader classloader = Thread.currentThread().getContextClassLoader();
-                InputStream inputStream = classloader.getResourceAsStream("quartz.properties");
-                properties.load(inputStream);
-            } catch (IOException e) {
-                log.error("Could not load Quartz factories.");
-                return null;
+    private static final String DATA_SOURCE = "rmndrDS";
+
+    private String instanceName = "RmndrScheduler";
+
+    private String instanceId = "AUTO";
+
+    private boolean clustered = false;
+
+    private Duration clusterCheckinInterval = Duration.seconds(15);
+
+    private int threadCount = 3;
+
+    /** Triggers an instance acquires per database round trip, more than 1 helps when many fire at once. */
+    private int batchTriggerAcquisitionMaxCount = 1;
+
+    private Duration misfireThreshold = Duration.minutes(1);
+
+    /** How often an idle instance looks for triggers scheduled by other instances. */
+    private Duration idleWaitTime = Duration.seconds(30);
+
+    private boolean migrateSchema = true;
+
+    public Scheduler build(Environment environment, DataSource dataSource) throws SchedulerException {
+        if (migrateSchema) {
+            migrate(dataSource);
+        }
+
+        return manage(environment, create(dataSource));
+    }
+
+    /**
+     * Creates the scheduler with connections from the data source, it is not managed.
+     */
+    Scheduler create(DataSource dataSource) throws SchedulerException {
+        DBConnectionManager.getInstance().addConnectionProvider(DATA_SOURCE, new PoolConnectionProvider(dataSource));
+        return new StdSchedulerFactory(properties()).getScheduler();
+    }
+
+    /**
+     * Builds a scheduler that keeps its jobs in memory, for a single instance whose reminders are not kept in
+     * the database. The database settings are not used.
+     */
+    public Scheduler buildInMemory(Environment environment) throws SchedulerException {
+        return manage(environment, new StdSchedulerFactory(inMemoryProperties()).getScheduler());
+    }
+
+    Properties inMemoryProperties() {
+        final Properties properties = new Properties();
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, instanceName);
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_ID, instanceId);
+        properties.setProperty(StdSchedulerFactory.PROP_THREAD_POOL_PREFIX + ".threadCount", String.valueOf(threadCount));
+        properties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, RAMJobStore.class.getName());
+        properties.setProperty("org.quartz.jobStore.misfireThreshold", String.valueOf(misfireThreshold.toMilliseconds()));
+        return properties;
+    }
+
+    private static Scheduler manage(Environment environment, Scheduler scheduler) {
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() {
             }
 
-            String rdsHostname = System.getenv("RDS_HOSTNAME");
-            String rdsPort = System.getenv("RDS_PORT");
-            String rdsDbName = System.getenv("RDS_DB_NAME");
-            String rdsUrl = String.format("jdbc:postgresql://%s:%s/%s", rdsHostname, rdsPort, rdsDbName);
+            @Override
+            public void stop() throws SchedulerException {
+                log.info("Shutting down scheduler {}", scheduler.getSchedulerInstanceId());
+                scheduler.shutdown(true);
+            }
+        });
+        return scheduler;
+    }
+
+    /**
+     * Applies the pending migrations, concurrently starting instances wait for each other.
+     */
+    public void migrate(DataSource dataSource) {
+        final Flyway flyway = Flyway.configure()
+            .dataSource(dataSource)
+            .baselineOnMigrate(true)
+            .baselineVersion("1")
+            .load();
+        final int applied = flyway.migrate();
+        log.info("Applied {} schema migrations, schema is at version {}",
+            applied, flyway.info().current().getVersion());
+    }
+
+    Properties properties() {
+        final Properties properties = new Properties();
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, instanceName);
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_ID, instanceId);
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_MAX_BATCH_SIZE,
+            String.valueOf(batchTriggerAcquisitionMaxCount));
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_IDLE_WAIT_TIME, String.valueOf(idleWaitTime.toMilliseconds()));
+        properties.setProperty(StdSchedulerFactory.PROP_THREAD_POOL_PREFIX + ".threadCount", String.valueOf(threadCount));
+
+        properties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, JobStoreTX.class.getName());
+        properties.setProperty("org.quartz.jobStore.driverDelegateClass", PostgreSQLDelegate.class.getName());
+        properties.setProperty("org.quartz.jobStore.tablePrefix", "QRTZ_");
+        properties.setProperty("org.quartz.jobStore.dataSource", DATA_SOURCE);
+        properties.setProperty("org.quartz.jobStore.misfireThreshold", String.valueOf(misfireThreshold.toMilliseconds()));
+        properties.setProperty("org.quartz.jobStore.isClustered", String.valueOf(clustered));
+        properties.setProperty("org.quartz.jobStore.clusterCheckinInterval",
+            String.valueOf(clusterCheckinInterval.toMilliseconds()));
+        // acquiring a batch of triggers is only safe across instances under the row lock
+        properties.setProperty("org.quartz.jobStore.acquireTriggersWithinLock",
+            String.valueOf(batchTriggerAcquisitionMaxCount > 1));
+        return properties;
+    }
+
+    /**
+     * Hands out connections of the shared pool, which is closed by the Dropwizard lifecycle and not by Quartz.
+     */
+    private static final class PoolConnectionProvider implements ConnectionProvider {
+        private final DataSource dataSource;
 
-            properties.setProperty("org.quartz.dataSource.rmndrDS.URL", rdsUrl);
-            properties.setProperty("org.quartz.dataSource.rmndrDS.user", System.getenv("RDS_USERNAME"));
-            properties.setProperty("org.quartz.dataSource.rmndrDS.password", System.getenv("RDS_PASSWORD"));
+        private PoolConnectionProvider(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return dataSource.getConnection();
+        }
 
-            final StdSchedulerFactory schedulerFactory = new StdSchedulerFactory(properties);
+        @Override
+        public void shutdown() {
+        }
 
-            return schedulerFactory.getScheduler();
+        @Override
+        public void initialize() {
         }
     }
 }
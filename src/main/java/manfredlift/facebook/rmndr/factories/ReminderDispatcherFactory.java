@@ -0,0 +1,26 @@
+package manfredlift.facebook.rmndr.factories;
+
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import lombok.Data;
+import manfredlift.facebook.rmndr.ReminderDispatcher;
+import manfredlift.facebook.rmndr.client.FbClient;
+
+/**
+ * Configuration for the {@link ReminderDispatcher}, which is managed by the Dropwizard lifecycle.
+ */
+@Data
+public class ReminderDispatcherFactory {
+    private int queueSize = 10000;
+
+    private int concurrency = 32;
+
+    private Duration shutdownTime = Duration.seconds(10);
+
+    public ReminderDispatcher build(Environment environment, FbClient fbClient) {
+        final ReminderDispatcher dispatcher =
+            new ReminderDispatcher(fbClient, queueSize, concurrency, shutdownTime, environment.metrics());
+        environment.lifecycle().manage(dispatcher);
+        return dispatcher;
+    }
+}
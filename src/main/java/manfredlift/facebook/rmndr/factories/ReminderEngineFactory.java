@@ -0,0 +1,41 @@
+package manfredlift.facebook.rmndr.factories;
+
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import lombok.Data;
+import manfredlift.facebook.rmndr.PollingReminderEngine;
+import manfredlift.facebook.rmndr.ReminderDispatcher;
+import manfredlift.facebook.rmndr.ReminderEngine;
+import manfredlift.facebook.rmndr.TimingWheelReminderEngine;
+import manfredlift.facebook.rmndr.concurrent.HierarchicalTimingWheel;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+
+/**
+ * Configuration for the {@link ReminderEngine}. Reminders due within the horizon are held in a timing wheel of the
+ * instance that scheduled them, a horizon of zero leaves every reminder to the poll job. The wheel is managed by
+ * the Dropwizard lifecycle.
+ * <p>
+ * With the default tick and wheel size the levels of the wheel span 64ms, 4s, 4min and 4.6h.
+ */
+@Data
+public class ReminderEngineFactory {
+    private Duration horizon = Duration.minutes(5);
+
+    private Duration tick = Duration.milliseconds(1);
+
+    private int wheelSize = 64;
+
+    public ReminderEngine build(Environment environment, ReminderRepository repository,
+                                ReminderDispatcher dispatcher, Duration lease) {
+        if (horizon.toMilliseconds() <= 0) {
+            return new PollingReminderEngine(repository);
+        }
+
+        final HierarchicalTimingWheel wheel =
+            new HierarchicalTimingWheel(tick.toMilliseconds(), wheelSize, "reminder-wheel");
+        final TimingWheelReminderEngine engine = new TimingWheelReminderEngine(repository, dispatcher, wheel,
+            horizon.toMilliseconds(), lease.toMilliseconds(), environment.metrics());
+        environment.lifecycle().manage(engine);
+        return engine;
+    }
+}
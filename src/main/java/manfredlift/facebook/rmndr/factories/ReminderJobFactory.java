@@ -0,0 +1,42 @@
+package manfredlift.facebook.rmndr.factories;
+
+import manfredlift.facebook.rmndr.ReminderDispatcher;
+import manfredlift.facebook.rmndr.ReminderJob;
+import manfredlift.facebook.rmndr.ReminderPollJob;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import org.quartz.Job;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.simpl.SimpleJobFactory;
+import org.quartz.spi.JobFactory;
+import org.quartz.spi.TriggerFiredBundle;
+
+/**
+ * Creates {@link ReminderPollJob}s and {@link ReminderJob}s with their dependencies, so firing a job does not have
+ * to look anything up in the scheduler context. Other jobs are created by Quartz's {@link SimpleJobFactory}.
+ */
+public class ReminderJobFactory implements JobFactory {
+    private final ReminderDispatcher dispatcher;
+    private final ReminderRepository repository;
+    private final ReminderStoreFactory store;
+    private final JobFactory fallback = new SimpleJobFactory();
+
+    public ReminderJobFactory(ReminderDispatcher dispatcher, ReminderRepository repository,
+                              ReminderStoreFactory store) {
+        this.dispatcher = dispatcher;
+        this.repository = repository;
+        this.store = store;
+    }
+
+    @Override
+    public Job newJob(TriggerFiredBundle bundle, Scheduler scheduler) throws SchedulerException {
+        Class<? extends Job> jobClass = bundle.getJobDetail().getJobClass();
+        if (ReminderPollJob.class.equals(jobClass)) {
+            return new ReminderPollJob(repository, dispatcher, store.getBatchSize(), store.getLease().toMilliseconds());
+        }
+        if (ReminderJob.class.equals(jobClass)) {
+            return new ReminderJob(dispatcher);
+        }
+        return fallback.newJob(bundle, scheduler);
+    }
+}
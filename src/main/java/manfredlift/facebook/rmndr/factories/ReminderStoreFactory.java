@@ -0,0 +1,112 @@
+package manfredlift.facebook.rmndr.factories;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.ReminderPollJob;
+import manfredlift.facebook.rmndr.store.JdbcReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+import manfredlift.facebook.rmndr.store.WalReminderRepository;
+import org.quartz.JobDetail;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.Trigger;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.SimpleScheduleBuilder.simpleSchedule;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+/**
+ * Configuration for the reminder store and the {@link ReminderPollJob} that fires its due reminders.
+ * <p>
+ * In {@code jdbc} mode reminders are kept in the reminders table, with connections from the pool that is shared
+ * with the Quartz scheduler and configured by {@link DatabaseFactory}. In {@code wal} mode, for a single instance
+ * without a database, they are kept in memory and made durable in {@code walDirectory} by a
+ * {@link WalReminderRepository}, which writes a snapshot every {@code snapshotInterval} and when it is closed.
+ * <p>
+ * Reminders are sent up to the poll interval after they are due. The lease has to cover the time a claimed
+ * reminder may spend in the dispatcher and the send queue, a reminder that is not sent within it is sent again.
+ */
+@Data
+@Slf4j
+public class ReminderStoreFactory {
+    public enum Mode {
+        JDBC, WAL
+    }
+
+    private Mode mode = Mode.JDBC;
+
+    private String walDirectory = "data/reminders";
+
+    private Duration snapshotInterval = Duration.minutes(5);
+
+    private Duration pollInterval = Duration.seconds(1);
+
+    private int batchSize = 100;
+
+    private Duration lease = Duration.minutes(5);
+
+    /**
+     * Builds the repository of the configured mode, the data source is only used in {@code jdbc} mode.
+     */
+    public ReminderRepository build(Environment environment, DataSource dataSource) throws ReminderStoreException {
+        if (mode == Mode.WAL) {
+            return buildWal(environment);
+        }
+        return new JdbcReminderRepository(dataSource);
+    }
+
+    private ReminderRepository buildWal(Environment environment) throws ReminderStoreException {
+        final WalReminderRepository repository = WalReminderRepository.open(Paths.get(walDirectory));
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void stop() throws IOException {
+                repository.close();
+            }
+        });
+
+        // managed after the repository, so it stops before the repository is closed
+        final ScheduledExecutorService snapshots =
+            environment.lifecycle().scheduledExecutorService("reminder-snapshot").build();
+        snapshots.scheduleWithFixedDelay(() -> {
+            try {
+                repository.snapshot();
+            } catch (ReminderStoreException e) {
+                log.error("Could not write a reminder snapshot. Error: {}:{}",
+                    e.getClass().getCanonicalName(), e.getMessage());
+            }
+        }, snapshotInterval.toMilliseconds(), snapshotInterval.toMilliseconds(), TimeUnit.MILLISECONDS);
+        return repository;
+    }
+
+    /**
+     * Schedules the poll job, or reschedules it with the current poll interval if an instance scheduled it before.
+     */
+    public void schedulePoller(Scheduler scheduler) throws SchedulerException {
+        final JobDetail job = newJob(ReminderPollJob.class)
+            .withIdentity(ReminderPollJob.NAME, ReminderPollJob.GROUP)
+            .build();
+        final Trigger trigger = newTrigger()
+            .withIdentity(ReminderPollJob.NAME, ReminderPollJob.GROUP)
+            .withSchedule(simpleSchedule()
+                .withIntervalInMilliseconds(pollInterval.toMilliseconds())
+                .repeatForever()
+                .withMisfireHandlingInstructionNextWithRemainingCount())
+            .build();
+        scheduler.scheduleJob(job, Collections.singleton(trigger), true);
+    }
+}
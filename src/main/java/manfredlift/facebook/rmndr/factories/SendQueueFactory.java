@@ -0,0 +1,46 @@
+package manfredlift.facebook.rmndr.factories;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.ExecutorServiceManager;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import lombok.Data;
+import manfredlift.facebook.rmndr.client.SendQueue;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * Configuration for the {@link SendQueue} in front of the Send API. The defaults stay well below the Send API
+ * limits and give up on a message after about a minute and a half of retries.
+ */
+@Data
+public class SendQueueFactory {
+    private int queueSize = 10000;
+
+    private double globalRatePerSecond = 100;
+
+    private int globalBurst = 50;
+
+    private double recipientRatePerSecond = 1;
+
+    private int recipientBurst = 5;
+
+    private int maxRetries = 5;
+
+    private Duration initialBackoff = Duration.milliseconds(500);
+
+    private Duration maxBackoff = Duration.seconds(60);
+
+    private int retryBufferSize = 10000;
+
+    private Duration shutdownTime = Duration.seconds(5);
+
+    public SendQueue build(Environment environment) {
+        final ScheduledExecutorService scheduler = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactoryBuilder().setNameFormat("send-queue-%d").setDaemon(true).build());
+        environment.lifecycle().manage(new ExecutorServiceManager(scheduler, shutdownTime, "send-queue"));
+
+        return new SendQueue(this, scheduler, environment.metrics());
+    }
+}
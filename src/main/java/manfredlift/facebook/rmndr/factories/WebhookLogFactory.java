@@ -0,0 +1,74 @@
+package manfredlift.facebook.rmndr.factories;
+
+import io.dropwizard.lifecycle.Managed;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.util.Duration;
+import io.dropwizard.util.Size;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import manfredlift.facebook.rmndr.CallbackHandler;
+import manfredlift.facebook.rmndr.WebhookConsumer;
+import manfredlift.facebook.rmndr.store.WebhookLog;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuration for the {@link WebhookLog} that webhooks are appended to before they are acknowledged, and the
+ * {@link WebhookConsumer} that processes them from there. Disk use is bounded by {@code maxSegments} segments of
+ * {@code segmentSize}, webhooks are answered with 503 while the log is full so Facebook sends them again later.
+ * <p>
+ * The consumer writes a checkpoint every {@code checkpointInterval} and when it stops, the log is closed by the
+ * Dropwizard lifecycle after that.
+ */
+@Data
+@Slf4j
+public class WebhookLogFactory {
+    private boolean enabled = false;
+
+    private String directory = "data/webhooks";
+
+    private Size segmentSize = Size.megabytes(64);
+
+    private int maxSegments = 16;
+
+    private int maxInFlight = 1024;
+
+    private Duration checkpointInterval = Duration.seconds(1);
+
+    private Duration shutdownTime = Duration.seconds(10);
+
+    public WebhookLog build(Environment environment, CallbackHandler callbackHandler) throws IOException {
+        final WebhookLog webhookLog = WebhookLog.open(Paths.get(directory),
+            (int) Math.min(segmentSize.toBytes(), Integer.MAX_VALUE), maxSegments);
+        environment.lifecycle().manage(new Managed() {
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public void stop() {
+                webhookLog.close();
+            }
+        });
+
+        // managed after the log, so the consumer stops and writes its last checkpoint before the log is closed
+        final WebhookConsumer consumer = new WebhookConsumer(webhookLog, callbackHandler, maxInFlight, shutdownTime,
+            environment.metrics());
+        environment.lifecycle().manage(consumer);
+
+        final ScheduledExecutorService checkpoints =
+            environment.lifecycle().scheduledExecutorService("webhook-checkpoint").build();
+        checkpoints.scheduleWithFixedDelay(() -> {
+            try {
+                consumer.checkpoint();
+            } catch (IOException e) {
+                log.error("Could not write a webhook checkpoint. Error: {}:{}",
+                    e.getClass().getCanonicalName(), e.getMessage());
+            }
+        }, checkpointInterval.toMilliseconds(), checkpointInterval.toMilliseconds(), TimeUnit.MILLISECONDS);
+        return webhookLog;
+    }
+}
@@ -1,12 +1,12 @@
 package manfredlift.facebook.rmndr.resources;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import io.dropwizard.jersey.setup.JerseyEnvironment;
 import lombok.extern.slf4j.Slf4j;
 import manfredlift.facebook.rmndr.CallbackHandler;
+import manfredlift.facebook.rmndr.CallbackRejectedException;
 import manfredlift.facebook.rmndr.RmndrConfiguration;
 import manfredlift.facebook.rmndr.RmndrConstants;
-import manfredlift.facebook.rmndr.api.Callback;
+import manfredlift.facebook.rmndr.store.WebhookLog;
 import manfredlift.facebook.rmndr.util.SignatureVerifier;
 
 import javax.ws.rs.*;
@@ -21,13 +21,15 @@ import static jersey.repackaged.com.google.common.base.Preconditions.checkNotNul
 @Produces(MediaType.APPLICATION_JSON)
 public class WebhookResource {
     private final RmndrConfiguration config;
-    private final ObjectMapper objectMapper;
     private final CallbackHandler callbackHandler;
+    private final WebhookLog webhookLog;
+    private final SignatureVerifier signatureVerifier;
 
     public WebhookResource(RmndrConfiguration config, JerseyEnvironment jersey) {
         this.config = config;
         this.callbackHandler = checkNotNull(jersey.getProperty(RmndrConstants.CALLBACK_HANDLER));
-        this.objectMapper = new ObjectMapper();
+        this.webhookLog = jersey.getProperty(RmndrConstants.WEBHOOK_LOG);
+        this.signatureVerifier = new SignatureVerifier(config.getAppSecret());
     }
 
     @GET
@@ -44,13 +46,34 @@ public class WebhookResource {
         }
     }
 
+    /**
+     * The body is read as bytes once, the signature is computed over them and the callback is parsed from them.
+     * With the webhook log enabled the body is appended to it and acknowledged once it is on disk, it is parsed and
+     * processed from there. A webhook that can not be appended, or without the log can not be dispatched because the
+     * callback lanes are full, is answered with 503 so Facebook sends it again; the events that were dispatched
+     * already are recognised as redeliveries then.
+     */
     @POST
     public Response handleCallback(@HeaderParam("X-Hub-Signature") String signature,
-                                   String requestBody) throws IOException {
+                                   byte[] requestBody) throws IOException {
 
-        if (SignatureVerifier.isValid(config.getAppSecret(), signature, requestBody)) {
-            Callback callback = objectMapper.readValue(requestBody, Callback.class);
-            callbackHandler.handleCallbackAsync(callback);
+        if (signatureVerifier.isValid(signature, requestBody)) {
+            if (webhookLog != null) {
+                try {
+                    webhookLog.append(requestBody);
+                } catch (IOException e) {
+                    log.error("Could not append the webhook to the log. Error: {}:{}",
+                        e.getClass().getCanonicalName(), e.getMessage());
+                    return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+                }
+            } else {
+                try {
+                    callbackHandler.handleCallbackAsync(requestBody);
+                } catch (CallbackRejectedException e) {
+                    log.warn("Callback lanes are full, refusing the webhook");
+                    return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+                }
+            }
 
             /* Always acknowledge with response 200 instantly, if signature is valid. (even with invalid request body)
              * Otherwise, Facebook would keep retrying the same request. */
@@ -0,0 +1,141 @@
+package manfredlift.facebook.rmndr.store;
+
+import java.util.*;
+
+/**
+ * {@link ReminderRepository} for a single instance that keeps nothing across restarts, used when testing.
+ */
+public class InMemoryReminderRepository implements ReminderRepository {
+    private static final Comparator<Reminder> BY_FIRE_TIME =
+        Comparator.comparingLong(Reminder::getFireTime).thenComparing(Reminder::getId);
+
+    private final Map<String, Reminder> reminders = new HashMap<>();
+    private final NavigableSet<Reminder> scheduled = new TreeSet<>(BY_FIRE_TIME);
+    private final Map<String, Long> claimedUntil = new HashMap<>();
+
+    @Override
+    public synchronized void save(Reminder reminder) {
+        if (reminders.putIfAbsent(reminder.getId(), reminder) == null) {
+            scheduled.add(reminder);
+        }
+    }
+
+    @Override
+    public synchronized void saveClaimed(Reminder reminder, long claimedUntil) {
+        if (reminders.putIfAbsent(reminder.getId(), reminder) == null) {
+            this.claimedUntil.put(reminder.getId(), claimedUntil);
+        }
+    }
+
+    @Override
+    public synchronized List<Reminder> findByUser(String userId) {
+        List<Reminder> found = new ArrayList<>();
+        for (Reminder reminder : reminders.values()) {
+            if (reminder.getUserId().equals(userId)) {
+                found.add(reminder);
+            }
+        }
+        found.sort(BY_FIRE_TIME);
+        return found;
+    }
+
+    @Override
+    public synchronized List<Reminder> findByUser(String userId, ReminderCursor after, int limit) {
+        List<Reminder> page = new ArrayList<>();
+        for (Reminder reminder : findByUser(userId)) {
+            if (page.size() == limit) {
+                break;
+            }
+            if (reminder.getFireTime() > after.getFireTime()
+                || reminder.getFireTime() == after.getFireTime() && reminder.getId().compareTo(after.getId()) > 0) {
+                page.add(reminder);
+            }
+        }
+        return page;
+    }
+
+    @Override
+    public synchronized boolean delete(String userId, String id) {
+        Reminder reminder = reminders.get(id);
+        if (reminder == null || !reminder.getUserId().equals(userId)) {
+            return false;
+        }
+        remove(reminder);
+        return true;
+    }
+
+    @Override
+    public synchronized List<String> deleteByUser(String userId) {
+        List<String> ids = new ArrayList<>();
+        for (Reminder reminder : findByUser(userId)) {
+            remove(reminder);
+            ids.add(reminder.getId());
+        }
+        return ids;
+    }
+
+    @Override
+    public synchronized List<Reminder> claimDue(long now, int limit, long leaseMillis) {
+        Iterator<Map.Entry<String, Long>> claims = claimedUntil.entrySet().iterator();
+        while (claims.hasNext()) {
+            Map.Entry<String, Long> claim = claims.next();
+            if (claim.getValue() <= now) {
+                scheduled.add(reminders.get(claim.getKey()));
+                claims.remove();
+            }
+        }
+
+        List<Reminder> due = new ArrayList<>();
+        while (due.size() < limit && !scheduled.isEmpty() && scheduled.first().getFireTime() <= now) {
+            Reminder reminder = scheduled.pollFirst();
+            claimedUntil.put(reminder.getId(), now + leaseMillis);
+            due.add(reminder);
+        }
+        return due;
+    }
+
+    @Override
+    public synchronized void complete(String id) {
+        if (claimedUntil.remove(id) != null) {
+            reminders.remove(id);
+        }
+    }
+
+    @Override
+    public synchronized void release(Collection<String> ids) {
+        for (String id : ids) {
+            if (claimedUntil.remove(id) != null) {
+                scheduled.add(reminders.get(id));
+            }
+        }
+    }
+
+    synchronized void deleteById(String id) {
+        Reminder reminder = reminders.get(id);
+        if (reminder != null) {
+            remove(reminder);
+        }
+    }
+
+    synchronized boolean contains(String userId, String id) {
+        Reminder reminder = reminders.get(id);
+        return reminder != null && reminder.getUserId().equals(userId);
+    }
+
+    synchronized boolean isClaimed(String id) {
+        return claimedUntil.containsKey(id);
+    }
+
+    /**
+     * All saved reminders, claimed or not.
+     */
+    synchronized List<Reminder> all() {
+        return new ArrayList<>(reminders.values());
+    }
+
+    private void remove(Reminder reminder) {
+        reminders.remove(reminder.getId());
+        scheduled.remove(reminder);
+        claimedUntil.remove(reminder.getId());
+    }
+}
@@ -0,0 +1,191 @@
+package manfredlift.facebook.rmndr.store;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link ReminderRepository} on the {@code reminders} table. Instances claim due reminders with
+ * {@code FOR UPDATE SKIP LOCKED}, so any number of them can poll at the same time without blocking each other or
+ * claiming the same reminder.
+ */
+public class JdbcReminderRepository implements ReminderRepository {
+    private static final String SCHEDULED = "SCHEDULED";
+    private static final String CLAIMED = "CLAIMED";
+
+    private static final String INSERT = "INSERT INTO reminders (ID, USER_ID, TEXT, DATE, FIRE_TIME, STATUS) " +
+        "VALUES (?, ?, ?, ?, ?, '" + SCHEDULED + "') ON CONFLICT (ID) DO NOTHING";
+    private static final String INSERT_CLAIMED = "INSERT INTO reminders " +
+        "(ID, USER_ID, TEXT, DATE, FIRE_TIME, STATUS, CLAIMED_UNTIL) " +
+        "VALUES (?, ?, ?, ?, ?, '" + CLAIMED + "', ?) ON CONFLICT (ID) DO NOTHING";
+    private static final String SELECT_BY_USER = "SELECT ID, USER_ID, TEXT, DATE, FIRE_TIME FROM reminders " +
+        "WHERE USER_ID = ? ORDER BY FIRE_TIME, ID";
+    private static final String SELECT_PAGE_BY_USER = "SELECT ID, USER_ID, TEXT, DATE, FIRE_TIME FROM reminders " +
+        "WHERE USER_ID = ? AND (FIRE_TIME, ID) > (?, ?) ORDER BY FIRE_TIME, ID LIMIT ?";
+    private static final String DELETE = "DELETE FROM reminders WHERE USER_ID = ? AND ID = ?";
+    private static final String DELETE_BY_USER = "DELETE FROM reminders WHERE USER_ID = ? RETURNING ID";
+    private static final String RELEASE_EXPIRED_CLAIMS = "UPDATE reminders SET STATUS = '" + SCHEDULED + "', " +
+        "CLAIMED_UNTIL = NULL WHERE STATUS = '" + CLAIMED + "' AND CLAIMED_UNTIL <= ?";
+    private static final String CLAIM_DUE = "UPDATE reminders SET STATUS = '" + CLAIMED + "', CLAIMED_UNTIL = ? " +
+        "WHERE ID IN (SELECT ID FROM reminders WHERE STATUS = '" + SCHEDULED + "' AND FIRE_TIME <= ? " +
+        "ORDER BY FIRE_TIME LIMIT ? FOR UPDATE SKIP LOCKED) " +
+        "RETURNING ID, USER_ID, TEXT, DATE, FIRE_TIME";
+    private static final String COMPLETE = "DELETE FROM reminders WHERE ID = ? AND STATUS = '" + CLAIMED + "'";
+    private static final String RELEASE = "UPDATE reminders SET STATUS = '" + SCHEDULED + "', CLAIMED_UNTIL = NULL " +
+        "WHERE ID = ANY (?) AND STATUS = '" + CLAIMED + "'";
+
+    private final DataSource dataSource;
+
+    public JdbcReminderRepository(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void save(Reminder reminder) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            setReminder(statement, reminder);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not save reminder " + reminder.getId(), e);
+        }
+    }
+
+    @Override
+    public void saveClaimed(Reminder reminder, long claimedUntil) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(INSERT_CLAIMED)) {
+            setReminder(statement, reminder);
+            statement.setLong(6, claimedUntil);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not save reminder " + reminder.getId(), e);
+        }
+    }
+
+    @Override
+    public List<Reminder> findByUser(String userId) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_BY_USER)) {
+            statement.setString(1, userId);
+            return reminders(statement.executeQuery());
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not find the reminders of " + userId, e);
+        }
+    }
+
+    @Override
+    public List<Reminder> findByUser(String userId, ReminderCursor after, int limit) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(SELECT_PAGE_BY_USER)) {
+            statement.setString(1, userId);
+            statement.setLong(2, after.getFireTime());
+            statement.setString(3, after.getId());
+            statement.setInt(4, limit);
+            return reminders(statement.executeQuery());
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not find the reminders of " + userId, e);
+        }
+    }
+
+    @Override
+    public boolean delete(String userId, String id) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(DELETE)) {
+            statement.setString(1, userId);
+            statement.setString(2, id);
+            return statement.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not delete reminder " + id, e);
+        }
+    }
+
+    @Override
+    public List<String> deleteByUser(String userId) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(DELETE_BY_USER)) {
+            statement.setString(1, userId);
+            List<String> ids = new ArrayList<>();
+            try (ResultSet resultSet = statement.executeQuery()) {
+                while (resultSet.next()) {
+                    ids.add(resultSet.getString(1));
+                }
+            }
+            return ids;
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not delete the reminders of " + userId, e);
+        }
+    }
+
+    @Override
+    public List<Reminder> claimDue(long now, int limit, long leaseMillis) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement release = connection.prepareStatement(RELEASE_EXPIRED_CLAIMS)) {
+                release.setLong(1, now);
+                release.executeUpdate();
+            }
+            try (PreparedStatement claim = connection.prepareStatement(CLAIM_DUE)) {
+                claim.setLong(1, now + leaseMillis);
+                claim.setLong(2, now);
+                claim.setInt(3, limit);
+                List<Reminder> claimed = reminders(claim.executeQuery());
+                claimed.sort(Comparator.comparingLong(Reminder::getFireTime));
+                return claimed;
+            }
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not claim due reminders", e);
+        }
+    }
+
+    @Override
+    public void complete(String id) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(COMPLETE)) {
+            statement.setString(1, id);
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not complete reminder " + id, e);
+        }
+    }
+
+    @Override
+    public void release(Collection<String> ids) throws ReminderStoreException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement(RELEASE)) {
+            statement.setArray(1, connection.createArrayOf("varchar", ids.toArray()));
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new ReminderStoreException("Could not release " + ids.size() + " reminders", e);
+        }
+    }
+
+    private static void setReminder(PreparedStatement statement, Reminder reminder) throws SQLException {
+        statement.setString(1, reminder.getId());
+        statement.setString(2, reminder.getUserId());
+        statement.setString(3, reminder.getText());
+        statement.setString(4, reminder.getDate());
+        statement.setLong(5, reminder.getFireTime());
+    }
+
+    private static List<Reminder> reminders(ResultSet resultSet) throws SQLException {
+        List<Reminder> reminders = new ArrayList<>();
+        try (ResultSet rs = resultSet) {
+            while (rs.next()) {
+                reminders.add(Reminder.builder()
+                    .id(rs.getString(1))
+                    .userId(rs.getString(2))
+                    .text(rs.getString(3))
+                    .date(rs.getString(4))
+                    .fireTime(rs.getLong(5))
+                    .build());
+            }
+        }
+        return reminders;
+    }
+}
@@ -0,0 +1,20 @@
+package manfredlift.facebook.rmndr.store;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class Reminder {
+    private final String id;
+
+    private final String userId;
+
+    private final String text;
+
+    /** The date as the user confirmed it, in their offset. */
+    private final String date;
+
+    /** When the reminder is due, in epoch milliseconds. */
+    private final long fireTime;
+}
@@ -0,0 +1,20 @@
+package manfredlift.facebook.rmndr.store;
+
+import lombok.Data;
+
+/**
+ * Position in the reminders of a user, ordered by fire time and then id. A page after the cursor starts with the
+ * first reminder past that position, so reminders saved or deleted between two pages do not shift the next one.
+ */
+@Data
+public class ReminderCursor {
+    public static final ReminderCursor FIRST = new ReminderCursor(Long.MIN_VALUE, "");
+
+    private final long fireTime;
+
+    private final String id;
+
+    public static ReminderCursor after(Reminder reminder) {
+        return new ReminderCursor(reminder.getFireTime(), reminder.getId());
+    }
+}
@@ -0,0 +1,57 @@
+package manfredlift.facebook.rmndr.store;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Scheduled reminders, by user and by fire time.
+ * <p>
+ * A due reminder is claimed for a lease before it is sent and removed once it was sent. A reminder whose lease
+ * runs out before that, e.g. because the instance that claimed it stopped, is claimed again.
+ */
+public interface ReminderRepository {
+    /**
+     * Saves a new reminder, a reminder with the id of one that is already saved is ignored.
+     */
+    void save(Reminder reminder) throws ReminderStoreException;
+
+    /**
+     * Saves a new reminder that is already claimed until {@code claimedUntil}, for an instance that fires it itself.
+     */
+    void saveClaimed(Reminder reminder, long claimedUntil) throws ReminderStoreException;
+
+    /**
+     * The reminders of the user that are not sent yet, the earliest first.
+     */
+    List<Reminder> findByUser(String userId) throws ReminderStoreException;
+
+    /**
+     * At most {@code limit} reminders of the user that come after the cursor, the earliest first.
+     */
+    List<Reminder> findByUser(String userId, ReminderCursor after, int limit) throws ReminderStoreException;
+
+    /**
+     * Returns whether the user had a reminder with the id.
+     */
+    boolean delete(String userId, String id) throws ReminderStoreException;
+
+    /**
+     * Deletes all reminders of the user at once and returns their ids.
+     */
+    List<String> deleteByUser(String userId) throws ReminderStoreException;
+
+    /**
+     * Claims at most {@code limit} reminders due at {@code now}, the earliest first, until {@code now + leaseMillis}.
+     */
+    List<Reminder> claimDue(long now, int limit, long leaseMillis) throws ReminderStoreException;
+
+    /**
+     * Removes a claimed reminder after it was sent.
+     */
+    void complete(String id) throws ReminderStoreException;
+
+    /**
+     * Gives up the claims on reminders that were not sent, so they are claimed by the next poll.
+     */
+    void release(Collection<String> ids) throws ReminderStoreException;
+}
@@ -0,0 +1,7 @@
+package manfredlift.facebook.rmndr.store;
+
+public class ReminderStoreException extends Exception {
+    public ReminderStoreException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,485 @@
+package manfredlift.facebook.rmndr.store;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * {@link ReminderRepository} for a single instance that keeps the reminders in memory and makes them durable in a
+ * local directory. Every change is appended to a write-ahead log and a call returns once its record was forced to
+ * disk; callers that append while a force is running are covered together by the next one, so concurrent changes
+ * share fsyncs. A change is applied to the reminders in memory only once its record is durable, in the order of the
+ * log, so neither a lookup nor a claim sees a reminder that could still be lost. A snapshot of all reminders starts a new log segment and lets the older segments be deleted.
+ * <p>
+ * On open the latest snapshot is loaded and the log segments after it are replayed, a record that was only partly
+ * written when the process died ends the last segment. The recovered reminders are written as a new snapshot right
+ * away. Claims are not logged: after a restart every reminder is waiting to be claimed again.
+ * <p>
+ * If the log can not be written the repository refuses further changes and claims, as the reminders in memory may
+ * then no longer match the ones on disk.
+ */
+@Slf4j
+public class WalReminderRepository implements ReminderRepository, Closeable {
+    private static final Pattern FILE_NAME = Pattern.compile("(wal|snapshot)-(\\d{20})");
+    private static final int SNAPSHOT_MAGIC = 0x524d4e31;
+    private static final int MAX_RECORD_LENGTH = 1 << 24;
+
+    private static final byte SAVE = 1;
+    private static final byte DELETE = 2;
+    private static final byte DELETE_USER = 3;
+
+    private final Path directory;
+    private final InMemoryReminderRepository reminders;
+    private final Object syncLock = new Object();
+    private final Object snapshotLock = new Object();
+
+    // guarded by this
+    private FileChannel journal;
+    private long segment;
+    private long appended;
+    private long appendedSinceSnapshot;
+    private IOException failure;
+    private final Deque<PendingChange> pending = new ArrayDeque<>();
+
+    // guarded by syncLock
+    private long synced;
+
+    private WalReminderRepository(Path directory, InMemoryReminderRepository reminders) {
+        this.directory = directory;
+        this.reminders = reminders;
+    }
+
+    /**
+     * Recovers the reminders kept in the directory, which is created if it does not exist yet.
+     */
+    public static WalReminderRepository open(Path directory) throws ReminderStoreException {
+        try {
+            Files.createDirectories(directory);
+            WalReminderRepository repository = new WalReminderRepository(directory, new InMemoryReminderRepository());
+            long segment = repository.recover();
+            repository.journal = FileChannel.open(repository.file("wal", segment + 1),
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            repository.segment = segment + 1;
+            repository.writeSnapshot(repository.segment, repository.reminders.all());
+            return repository;
+        } catch (IOException e) {
+            throw new ReminderStoreException("Could not recover the reminders in " + directory, e);
+        }
+    }
+
+    @Override
+    public void save(Reminder reminder) throws ReminderStoreException {
+        long position;
+        synchronized (this) {
+            checkWritable();
+            position = append(SAVE, out -> writeReminder(out, reminder), () -> reminders.save(reminder));
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void saveClaimed(Reminder reminder, long claimedUntil) throws ReminderStoreException {
+        long position;
+        synchronized (this) {
+            checkWritable();
+            position = append(SAVE, out -> writeReminder(out, reminder),
+                () -> reminders.saveClaimed(reminder, claimedUntil));
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public List<Reminder> findByUser(String userId) {
+        return reminders.findByUser(userId);
+    }
+
+    @Override
+    public List<Reminder> findByUser(String userId, ReminderCursor after, int limit) {
+        return reminders.findByUser(userId, after, limit);
+    }
+
+    @Override
+    public boolean delete(String userId, String id) throws ReminderStoreException {
+        long position;
+        synchronized (this) {
+            checkWritable();
+            if (!reminders.contains(userId, id)) {
+                return false;
+            }
+            position = append(DELETE, out -> writeString(out, id), () -> reminders.deleteById(id));
+        }
+        awaitDurable(position);
+        return true;
+    }
+
+    @Override
+    public List<String> deleteByUser(String userId) throws ReminderStoreException {
+        List<String> deleted = new ArrayList<>();
+        long position;
+        synchronized (this) {
+            checkWritable();
+            if (reminders.findByUser(userId).isEmpty()) {
+                return deleted;
+            }
+            position = append(DELETE_USER, out -> writeString(out, userId),
+                () -> deleted.addAll(reminders.deleteByUser(userId)));
+        }
+        awaitDurable(position);
+        return deleted;
+    }
+
+    @Override
+    public List<Reminder> claimDue(long now, int limit, long leaseMillis) throws ReminderStoreException {
+        synchronized (this) {
+            checkWritable();
+        }
+        return reminders.claimDue(now, limit, leaseMillis);
+    }
+
+    @Override
+    public void complete(String id) throws ReminderStoreException {
+        long position;
+        synchronized (this) {
+            checkWritable();
+            if (!reminders.isClaimed(id)) {
+                return;
+            }
+            position = append(DELETE, out -> writeString(out, id), () -> reminders.deleteById(id));
+        }
+        awaitDurable(position);
+    }
+
+    @Override
+    public void release(Collection<String> ids) {
+        reminders.release(ids);
+    }
+
+    /**
+     * Writes a snapshot of all reminders if anything changed since the last one and deletes the log segments it
+     * covers.
+     */
+    public void snapshot() throws ReminderStoreException {
+        synchronized (snapshotLock) {
+            long snapshotSegment;
+            List<Reminder> all;
+            try {
+                synchronized (syncLock) {
+                    synchronized (this) {
+                        checkWritable();
+                        if (appendedSinceSnapshot == 0) {
+                            return;
+                        }
+                        journal.force(false);
+                        synced = appended;
+                        applyDurable();
+                        journal.close();
+                        journal = FileChannel.open(file("wal", segment + 1),
+                            StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                        segment++;
+                        appendedSinceSnapshot = 0;
+                        snapshotSegment = segment;
+                        all = reminders.all();
+                    }
+                }
+            } catch (IOException e) {
+                throw fail(e);
+            }
+
+            try {
+                writeSnapshot(snapshotSegment, all);
+            } catch (IOException e) {
+                throw new ReminderStoreException("Could not write a snapshot to " + directory, e);
+            }
+        }
+    }
+
+    /**
+     * Writes a last snapshot and closes the log, changes are refused afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            snapshot();
+        } catch (ReminderStoreException e) {
+            log.error("Could not write a snapshot on close, the log is replayed on open. " +
+                "Error: {}:{}", e.getClass().getCanonicalName(), e.getMessage());
+        }
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (journal.isOpen()) {
+                    journal.force(false);
+                    journal.close();
+                }
+                if (failure == null) {
+                    failure = new IOException("Closed");
+                }
+            }
+        }
+    }
+
+    private void checkWritable() throws ReminderStoreException {
+        if (failure != null) {
+            throw new ReminderStoreException("Reminders in " + directory + " can not be changed", failure);
+        }
+    }
+
+    private ReminderStoreException fail(IOException e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        return new ReminderStoreException("Could not write the reminder log in " + directory, e);
+    }
+
+    /**
+     * Appends a record of a change that is applied to memory once the record is durable and returns the position
+     * that has to be durable.
+     */
+    private long append(byte type, RecordWriter writer, Runnable change) throws ReminderStoreException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(type);
+            writer.write(out);
+            byte[] payload = bytes.toByteArray();
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+            record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+            while (record.hasRemaining()) {
+                journal.write(record);
+            }
+            appended += record.limit();
+            appendedSinceSnapshot += record.limit();
+            pending.add(new PendingChange(appended, change));
+            return appended;
+        } catch (IOException e) {
+            failure = e;
+            throw new ReminderStoreException("Could not write the reminder log in " + directory, e);
+        }
+    }
+
+    /**
+     * Forces the log up to the position, unless a force by another caller already covered it, and applies the
+     * changes that are durable then.
+     */
+    private void awaitDurable(long position) throws ReminderStoreException {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            long target;
+            FileChannel channel;
+            synchronized (this) {
+                target = appended;
+                channel = journal;
+            }
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                throw fail(e);
+            }
+            synced = target;
+            applyDurable();
+        }
+    }
+
+    /**
+     * Applies the pending changes up to the synced position in the order they were logged, called holding the sync
+     * lock in the same step that moves the position so a caller that finds its record synced also sees its change.
+     */
+    private void applyDurable() {
+        synchronized (this) {
+            while (!pending.isEmpty() && pending.peek().position <= synced) {
+                pending.poll().change.run();
+            }
+        }
+    }
+
+    /**
+     * Loads the latest snapshot, replays the log segments after it and returns the last segment.
+     */
+    private long recover() throws IOException {
+        SortedMap<Long, Path> snapshots = new TreeMap<>();
+        SortedMap<Long, Path> segments = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    long number = Long.parseLong(matcher.group(2));
+                    ("wal".equals(matcher.group(1)) ? segments : snapshots).put(number, path);
+                } else if (path.getFileName().toString().endsWith(".tmp")) {
+                    Files.delete(path);
+                }
+            }
+        }
+
+        long last = 0;
+        if (!snapshots.isEmpty()) {
+            last = snapshots.lastKey();
+            readSnapshot(snapshots.get(last));
+        }
+        SortedMap<Long, Path> replayed = segments.tailMap(last);
+        for (Map.Entry<Long, Path> entry : replayed.entrySet()) {
+            replay(entry.getValue(), entry.getKey().equals(segments.lastKey()));
+            last = entry.getKey();
+        }
+
+        log.info("Recovered {} reminders with {} log segments from {}", reminders.all().size(), replayed.size(),
+            directory);
+        return last;
+    }
+
+    private void replay(Path path, boolean lastSegment) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                byte[] payload;
+                try {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    if (length < 0 || length > MAX_RECORD_LENGTH) {
+                        throw new IOException("Invalid record length " + length);
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new IOException("Checksum mismatch");
+                    }
+                } catch (EOFException e) {
+                    return;
+                } catch (IOException e) {
+                    if (!lastSegment) {
+                        throw new IOException("Corrupt record in " + path, e);
+                    }
+                    log.warn("Ignoring the partly written end of {}", path);
+                    return;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(payload)));
+            }
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case SAVE:
+                reminders.save(readReminder(in));
+                break;
+            case DELETE:
+                reminders.deleteById(readString(in));
+                break;
+            case DELETE_USER:
+                reminders.deleteByUser(readString(in));
+                break;
+            default:
+                throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    private void readSnapshot(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a reminder snapshot: " + path);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                reminders.save(readReminder(in));
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot next to its final name and moves it there once it is on disk, then deletes the
+     * snapshots and log segments before it.
+     */
+    private void writeSnapshot(long snapshotSegment, List<Reminder> all) throws IOException {
+        Path target = file("snapshot", snapshotSegment);
+        Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(all.size());
+            for (Reminder reminder : all) {
+                writeReminder(out, reminder);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            log.debug("Could not sync directory {}", directory);
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches() && Long.parseLong(matcher.group(2)) < snapshotSegment) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private Path file(String kind, long number) {
+        return directory.resolve(String.format("%s-%020d", kind, number));
+    }
+
+    private static void writeReminder(DataOutputStream out, Reminder reminder) throws IOException {
+        writeString(out, reminder.getId());
+        writeString(out, reminder.getUserId());
+        writeString(out, reminder.getText());
+        writeString(out, reminder.getDate());
+        out.writeLong(reminder.getFireTime());
+    }
+
+    private static Reminder readReminder(DataInputStream in) throws IOException {
+        return Reminder.builder()
+            .id(readString(in))
+            .userId(readString(in))
+            .text(readString(in))
+            .date(readString(in))
+            .fireTime(in.readLong())
+            .build();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static class PendingChange {
+        private final long position;
+        private final Runnable change;
+
+        private PendingChange(long position, Runnable change) {
+            this.position = position;
+            this.change = change;
+        }
+    }
+}
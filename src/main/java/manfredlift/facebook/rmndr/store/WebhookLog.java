@@ -0,0 +1,352 @@
+package manfredlift.facebook.rmndr.store;
+
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of the raw webhook payloads, kept in memory-mapped segment files in a local directory. An append
+ * returns once its record was forced to disk; callers that append while a force is running are covered together by
+ * the next one, so concurrent webhooks share fsyncs. A record that does not fit the current segment starts the
+ * next one.
+ * <p>
+ * Records are addressed by their offset, the position in the segment plus the offset the segment starts at, and
+ * read back in the order they were appended. Readers only see records that are on disk. The reader records how far
+ * it processed everything with {@link #checkpoint(long)}, segments before the checkpoint are deleted and the
+ * records after it are read again after a restart. With {@code maxSegments} in use, appends are refused until the
+ * reader catches up. Mappings are never released by hand, a deleted segment's disk space is freed once its buffer
+ * is garbage collected, so a reader or a force still using it never touches an unmapped buffer.
+ * <p>
+ * On open appends go to a new segment, a record that was only partly written when the process died ends the
+ * segment it is in.
+ */
+@Slf4j
+public class WebhookLog implements Closeable {
+    private static final Pattern FILE_NAME = Pattern.compile("webhooks-(\\d{20})");
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int HEADER = 8;
+
+    private final Path directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Object syncLock = new Object();
+    private final Object checkpointLock = new Object();
+
+    // guarded by this
+    private Segment active;
+    private ByteBuffer writer;
+    private long appended;
+    private boolean closed;
+
+    // guarded by syncLock
+    private long synced;
+
+    private volatile long durable;
+
+    // guarded by checkpointLock
+    private long checkpoint;
+
+    private WebhookLog(Path directory, int segmentBytes, int maxSegments) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Opens the log kept in the directory, which is created if it does not exist yet.
+     */
+    public static WebhookLog open(Path directory, int segmentBytes, int maxSegments) throws IOException {
+        if (segmentBytes <= HEADER || maxSegments < 2) {
+            throw new IllegalArgumentException("segmentBytes must fit a record and maxSegments be at least 2");
+        }
+
+        Files.createDirectories(directory);
+        WebhookLog webhookLog = new WebhookLog(directory, segmentBytes, maxSegments);
+        webhookLog.recover();
+        return webhookLog;
+    }
+
+    /**
+     * Appends the payload and returns its offset once it is on disk.
+     */
+    public long append(byte[] payload) throws IOException {
+        long offset;
+        long end;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Webhook log in " + directory + " is closed");
+            }
+            if (payload.length > segmentBytes - HEADER) {
+                throw new IOException("Payload of " + payload.length + " bytes does not fit a segment");
+            }
+            if (writer.remaining() < HEADER + payload.length) {
+                roll();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            offset = active.base + writer.position();
+            writer.putInt(payload.length).putInt((int) crc.getValue()).put(payload);
+            appended = active.base + writer.position();
+            end = appended;
+        }
+        awaitDurable(end);
+        return offset;
+    }
+
+    /**
+     * Returns the record at the offset, or the first one after it if the offset is at the end of a segment.
+     * Waits up to the timeout for the record to be on disk and returns null if it is not.
+     */
+    public Record poll(long offset, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (syncLock) {
+            long remaining;
+            while (durable <= offset && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(syncLock, remaining);
+            }
+        }
+
+        while (offset < durable) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(offset);
+            if (entry == null) {
+                throw new IllegalArgumentException("Offset " + offset + " is before the checkpoint");
+            }
+            Record record = entry.getValue().read(offset);
+            if (record != null) {
+                return record;
+            }
+            Long next = segments.higherKey(entry.getKey());
+            if (next == null) {
+                log.error("No record at offset {} in {}", offset, directory);
+                return null;
+            }
+            offset = next;
+        }
+        return null;
+    }
+
+    /**
+     * Offset the reader has to start from, everything before it was processed.
+     */
+    public long getCheckpoint() {
+        synchronized (checkpointLock) {
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Offset after the last record that is on disk.
+     */
+    public long getEnd() {
+        return durable;
+    }
+
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Records that everything before the offset was processed and deletes the segments it covers. The offset must
+     * not be after the record the reader reads next.
+     */
+    public void checkpoint(long offset) throws IOException {
+        synchronized (checkpointLock) {
+            if (offset <= checkpoint) {
+                return;
+            }
+
+            Path target = directory.resolve(CHECKPOINT);
+            Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                 DataOutputStream out = new DataOutputStream(file)) {
+                out.writeLong(offset);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            checkpoint = offset;
+
+            for (Segment segment : segments.headMap(offset).values()) {
+                synchronized (this) {
+                    if (segment == active || segment.base + segment.size > offset) {
+                        continue;
+                    }
+                }
+                segments.remove(segment.base);
+                Files.delete(segment.path);
+            }
+        }
+    }
+
+    /**
+     * Forces the current segment to disk, appends are refused afterwards. The reader must have stopped.
+     */
+    @Override
+    public void close() {
+        synchronized (syncLock) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                active.buffer.force();
+                synced = appended;
+                durable = appended;
+            }
+            syncLock.notifyAll();
+        }
+    }
+
+    /**
+     * Forces the current segment up to the position, unless a force by another caller or the close already
+     * covered it.
+     */
+    private void awaitDurable(long position) {
+        synchronized (syncLock) {
+            if (synced >= position) {
+                return;
+            }
+            long target;
+            MappedByteBuffer buffer;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                target = appended;
+                buffer = active.buffer;
+            }
+            buffer.force();
+            synced = target;
+            durable = target;
+            syncLock.notifyAll();
+        }
+    }
+
+    /**
+     * Forces the current segment and continues in a new one, guarded by this.
+     */
+    private void roll() throws IOException {
+        if (segments.size() >= maxSegments) {
+            throw new IOException("Webhook log in " + directory + " is full with " + segments.size() + " segments");
+        }
+        active.buffer.force();
+        createSegment(active.base + active.size);
+    }
+
+    private void createSegment(long base) throws IOException {
+        Path path = directory.resolve(String.format("webhooks-%020d", base));
+        try (FileChannel channel = FileChannel.open(path,
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            active = new Segment(base, segmentBytes, path,
+                channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            log.debug("Could not sync directory {}", directory);
+        }
+        segments.put(base, active);
+        writer = active.buffer.duplicate();
+    }
+
+    private void recover() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Matcher matcher = FILE_NAME.matcher(path.getFileName().toString());
+                if (matcher.matches()) {
+                    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                        long base = Long.parseLong(matcher.group(1));
+                        int size = (int) channel.size();
+                        segments.put(base, new Segment(base, size, path,
+                            channel.map(FileChannel.MapMode.READ_ONLY, 0, size)));
+                    }
+                } else if (path.getFileName().toString().endsWith(".tmp")) {
+                    Files.delete(path);
+                }
+            }
+        }
+
+        Path checkpointFile = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpointFile)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(checkpointFile))) {
+                checkpoint = in.readLong();
+            }
+        }
+
+        // offsets go on after the last segment, or after the checkpoint if every segment was processed
+        long base = checkpoint;
+        if (!segments.isEmpty()) {
+            Segment last = segments.lastEntry().getValue();
+            base = last.base + last.size;
+            checkpoint = Math.max(checkpoint, segments.firstKey());
+        }
+        createSegment(base);
+        appended = base;
+        synced = base;
+        durable = base;
+
+        log.info("Opened the webhook log in {} with {} bytes to replay", directory, Math.max(0, base - checkpoint));
+    }
+
+    @Data
+    public static class Record {
+        private final long offset;
+        private final long next;
+        private final byte[] payload;
+    }
+
+    private static final class Segment {
+        private final long base;
+        private final int size;
+        private final Path path;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long base, int size, Path path, MappedByteBuffer buffer) {
+            this.base = base;
+            this.size = size;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        /**
+         * Reads the record at the offset, returns null at the end of the written records.
+         */
+        private Record read(long offset) {
+            int position = (int) (offset - base);
+            if (position + HEADER > size) {
+                return null;
+            }
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > size - position - HEADER) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer reader = buffer.duplicate();
+            reader.position(position + HEADER);
+            reader.get(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                log.warn("Ignoring the partly written end of {}", path);
+                return null;
+            }
+            return new Record(offset, offset + HEADER + length, payload);
+        }
+    }
+}
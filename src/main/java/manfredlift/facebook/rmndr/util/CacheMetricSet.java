@@ -0,0 +1,32 @@
+package manfredlift.facebook.rmndr.util;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.google.common.cache.Cache;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.Map;
+
+/**
+ * Exposes the statistics of a Guava cache as gauges. The cache must be built with {@code recordStats()}.
+ */
+public class CacheMetricSet implements MetricSet {
+    private final Cache<?, ?> cache;
+
+    public CacheMetricSet(Cache<?, ?> cache) {
+        this.cache = cache;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return ImmutableMap.<String, Metric>builder()
+            .put("size", (Gauge<Long>) cache::size)
+            .put("hits", (Gauge<Long>) () -> cache.stats().hitCount())
+            .put("misses", (Gauge<Long>) () -> cache.stats().missCount())
+            .put("hit-ratio", (Gauge<Double>) () -> cache.stats().hitRate())
+            .put("evictions", (Gauge<Long>) () -> cache.stats().evictionCount())
+            .put("load-failures", (Gauge<Long>) () -> cache.stats().loadExceptionCount())
+            .build();
+    }
+}
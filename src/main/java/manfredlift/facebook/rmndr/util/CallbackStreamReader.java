@@ -0,0 +1,84 @@
+package manfredlift.facebook.rmndr.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import manfredlift.facebook.rmndr.api.Callback;
+import manfredlift.facebook.rmndr.api.Messaging;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Reads the messaging events of a webhook body with the Jackson streaming API. Only the {@link Messaging} objects
+ * are bound, one at a time, and handed to the consumer as soon as each is read; the {@link Callback} and its
+ * entries are never built, whatever their number. Fields other than {@code entry} and {@code messaging} are
+ * skipped.
+ */
+public class CallbackStreamReader {
+    private final JsonFactory jsonFactory;
+    private final ObjectReader messagingReader;
+
+    public CallbackStreamReader(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+        this.messagingReader = objectMapper.readerFor(Messaging.class);
+    }
+
+    /**
+     * Hands every messaging event of the body to the consumer, in the order they appear. Throws if the body is not
+     * a valid callback, after the events before the error were handed over.
+     */
+    public void forEachMessaging(byte[] body, Consumer<Messaging> consumer) throws IOException {
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a callback object");
+            }
+            readObject(parser, "entry", () -> readEntry(parser, consumer));
+        }
+    }
+
+    private void readEntry(JsonParser parser, Consumer<Messaging> consumer) throws IOException {
+        readObject(parser, "messaging", () -> {
+            Messaging messaging = messagingReader.readValue(parser);
+            if (messaging != null) {
+                consumer.accept(messaging);
+            }
+        });
+    }
+
+    /**
+     * Reads the fields of the object the parser is at and calls the element reader, positioned at the start of
+     * each element, for the elements of the array field. Other fields are skipped.
+     */
+    private static void readObject(JsonParser parser, String arrayField, ElementReader elementReader)
+        throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (arrayField.equals(field) && value == JsonToken.START_ARRAY) {
+                for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                    if (token == JsonToken.START_OBJECT) {
+                        elementReader.read();
+                    } else if (token == null) {
+                        throw new JsonParseException(parser, "Unexpected end of the callback");
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        if (parser.getCurrentToken() != JsonToken.END_OBJECT) {
+            throw new JsonParseException(parser, "Expected a field or the end of the object");
+        }
+    }
+
+    @FunctionalInterface
+    private interface ElementReader {
+        void read() throws IOException;
+    }
+}
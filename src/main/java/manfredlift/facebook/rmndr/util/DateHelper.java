@@ -4,6 +4,7 @@ import manfredlift.facebook.rmndr.RmndrConstants;
 import manfredlift.facebook.rmndr.api.ReferenceTime;
 
 import java.time.Instant;
+import java.time.OffsetDateTime;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
@@ -17,4 +18,9 @@ public class DateHelper {
 
         return new ReferenceTime(formattedDate);
     }
+
+    public static OffsetDateTime offsetDateTimeFromReferenceTime(ReferenceTime referenceTime) {
+        return OffsetDateTime.parse(referenceTime.getReferenceTime(),
+            DateTimeFormatter.ofPattern(RmndrConstants.DATE_FORMAT));
+    }
 }
@@ -0,0 +1,96 @@
+package manfredlift.facebook.rmndr.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.collect.ImmutableList;
+import io.dropwizard.jackson.Jackson;
+import manfredlift.facebook.rmndr.api.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The JSON codec of the application: one Jackson mapper, Dropwizard's with Afterburner, shared by the webhook, the
+ * quick reply payloads, the Wit context and the Jersey client. The types handled on every webhook have their own
+ * {@link ObjectReader} or {@link ObjectWriter}, which are immutable and keep the (de)serializer they resolved, so
+ * they are safe to share between threads and skip the lookup on every call.
+ * <p>
+ * {@link #warm()} reads and writes a sample of every type once, so serializers are built and Afterburner's
+ * accessors generated at startup instead of on the first webhooks.
+ */
+public class JsonCodec {
+    private static final String WARM_CALLBACK = "{\"object\":\"page\",\"entry\":[{\"id\":\"1\",\"time\":1," +
+        "\"messaging\":[{\"sender\":{\"id\":\"1\"},\"recipient\":{\"id\":\"2\"},\"timestamp\":1," +
+        "\"message\":{\"mid\":\"mid.1\",\"seq\":1,\"text\":\"!list\",\"quick_reply\":{\"payload\":\"cancel\"}}}," +
+        "{\"sender\":{\"id\":\"1\"},\"timestamp\":2," +
+        "\"postback\":{\"title\":\"Get Started\",\"payload\":\"get_started\"}}]}]}";
+
+    private final ObjectMapper objectMapper;
+    private final ObjectReader callbackReader;
+    private final ObjectReader reminderPayloadReader;
+    private final ObjectWriter reminderPayloadWriter;
+    private final ObjectWriter referenceTimeWriter;
+
+    public JsonCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        this.callbackReader = objectMapper.readerFor(Callback.class);
+        this.reminderPayloadReader = objectMapper.readerFor(ReminderPayload.class);
+        this.reminderPayloadWriter = objectMapper.writerFor(ReminderPayload.class);
+        this.referenceTimeWriter = objectMapper.writerFor(ReferenceTime.class);
+    }
+
+    /**
+     * A codec with a new mapper configured like Dropwizard's, for code that runs outside the application.
+     */
+    public static JsonCodec create() {
+        return new JsonCodec(Jackson.newObjectMapper());
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return objectMapper;
+    }
+
+    public Callback readCallback(byte[] body) throws IOException {
+        return callbackReader.readValue(body);
+    }
+
+    public ReminderPayload readReminderPayload(String json) throws IOException {
+        return reminderPayloadReader.readValue(json);
+    }
+
+    public String writeReminderPayload(ReminderPayload reminderPayload) throws JsonProcessingException {
+        return reminderPayloadWriter.writeValueAsString(reminderPayload);
+    }
+
+    public String writeReferenceTime(ReferenceTime referenceTime) throws JsonProcessingException {
+        return referenceTimeWriter.writeValueAsString(referenceTime);
+    }
+
+    /**
+     * Reads and writes a sample of each type handled per webhook: the callback, the quick reply payload, the Wit
+     * context and response and the requests to the Send API.
+     */
+    public JsonCodec warm() throws IOException {
+        Callback callback = readCallback(WARM_CALLBACK.getBytes(StandardCharsets.UTF_8));
+        objectMapper.writeValueAsBytes(callback);
+
+        ReminderPayload reminderPayload = new ReminderPayload();
+        reminderPayload.setText("warm");
+        reminderPayload.setDate("2017-09-12T11:30:35.000+01:00");
+        readReminderPayload(writeReminderPayload(reminderPayload));
+        writeReferenceTime(new ReferenceTime(reminderPayload.getDate()));
+
+        objectMapper.readValue(objectMapper.writeValueAsBytes(WitResponse.builder().msgId("warm").text("warm")
+            .build()), WitResponse.class);
+        objectMapper.writeValueAsBytes(OutboundRequest.builder()
+            .recipient(new User("1"))
+            .message(OutboundMessage.builder()
+                .text("warm")
+                .quickReplies(ImmutableList.of(QuickReply.builder().title("Yes").payload("warm").build()))
+                .build())
+            .build());
+        return this;
+    }
+}
@@ -0,0 +1,356 @@
+package manfredlift.facebook.rmndr.util;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.codahale.metrics.RatioGauge;
+import com.google.common.collect.ImmutableMap;
+import manfredlift.facebook.rmndr.RmndrConstants;
+import manfredlift.facebook.rmndr.api.NlpEntity;
+import manfredlift.facebook.rmndr.api.ReferenceTime;
+
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Resolves the date expressions most reminders use ("in 15 mins", "at 5pm", "tomorrow at 9", "2017-09-20 17:30")
+ * against a reference time without a round trip to Wit AI. The result has the value format and grain Wit would
+ * return for the same expression, anything the grammar does not cover is left to Wit.
+ */
+public class LocalDateParser implements MetricSet {
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(RmndrConstants.DATE_FORMAT);
+    private static final int MAX_AMOUNT_DIGITS = 6;
+
+    private final Counter hits = new Counter();
+    private final Counter misses = new Counter();
+
+    public Optional<NlpEntity> parse(String text, ReferenceTime referenceTime) {
+        NlpEntity entity = text != null ? parseOrNull(text, referenceTime) : null;
+
+        if (entity != null) {
+            hits.inc();
+        } else {
+            misses.inc();
+        }
+        return Optional.ofNullable(entity);
+    }
+
+    private static NlpEntity parseOrNull(String text, ReferenceTime referenceTime) {
+        try {
+            OffsetDateTime reference = DateHelper.offsetDateTimeFromReferenceTime(referenceTime);
+            return new Cursor(text).parse(reference);
+        } catch (DateTimeException e) {
+            // out of range date fields, e.g. 2017-02-30
+            return null;
+        }
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        return ImmutableMap.<String, Metric>builder()
+            .put("hits", (Gauge<Long>) hits::getCount)
+            .put("misses", (Gauge<Long>) misses::getCount)
+            .put("hit-ratio", new RatioGauge() {
+                @Override
+                protected Ratio getRatio() {
+                    return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+                }
+            })
+            .build();
+    }
+
+    private static NlpEntity entity(OffsetDateTime dateTime, String grain) {
+        NlpEntity entity = new NlpEntity();
+        entity.setConfidence(1.0f);
+        entity.setValue(dateTime.format(FORMATTER));
+        entity.setGrain(grain);
+        entity.setType("value");
+        return entity;
+    }
+
+    /**
+     * Single pass over the text, without regular expressions or intermediate strings. Every method returns null
+     * (or a negative number) when the text does not match, which ends the parse.
+     */
+    private static final class Cursor {
+        private final String text;
+        private int pos;
+
+        private int hour;
+        private int minute;
+        private boolean hasMinutes;
+        private boolean hasMeridiem;
+        private boolean ambiguousHour;
+
+        Cursor(String text) {
+            this.text = text;
+        }
+
+        NlpEntity parse(OffsetDateTime reference) {
+            skipSpaces();
+            NlpEntity entity;
+            if (isoDateAhead()) {
+                entity = isoDateTime(reference);
+            } else if (word("in")) {
+                entity = relative(reference);
+            } else {
+                entity = dayAndTime(reference);
+            }
+            skipSpaces();
+            return pos == text.length() ? entity : null;
+        }
+
+        // in 15 mins, in an hour
+        private NlpEntity relative(OffsetDateTime reference) {
+            skipSpaces();
+            long amount;
+            if (word("a") || word("an")) {
+                amount = 1;
+            } else {
+                amount = number(MAX_AMOUNT_DIGITS);
+            }
+            skipSpaces();
+            ChronoUnit unit = unit();
+            if (amount <= 0 || unit == null) {
+                return null;
+            }
+            return entity(reference.truncatedTo(ChronoUnit.SECONDS).plus(amount, unit), "second");
+        }
+
+        private ChronoUnit unit() {
+            if (word("s") || word("sec") || word("secs") || word("second") || word("seconds")) {
+                return ChronoUnit.SECONDS;
+            }
+            if (word("m") || word("min") || word("mins") || word("minute") || word("minutes")) {
+                return ChronoUnit.MINUTES;
+            }
+            if (word("h") || word("hr") || word("hrs") || word("hour") || word("hours")) {
+                return ChronoUnit.HOURS;
+            }
+            return null;
+        }
+
+        // tomorrow, at 5pm, 17:30, tomorrow at 9, 9am tomorrow, today at 5:30 pm
+        private NlpEntity dayAndTime(OffsetDateTime reference) {
+            int dayShift = day();
+            skipSpaces();
+            if (dayShift >= 0 && pos == text.length()) {
+                // a bare "today" has no sensible point in time to remind at
+                return dayShift == 1 ? entity(atTime(reference, 1, 0, 0), "day") : null;
+            }
+
+            boolean at = word("at");
+            skipSpaces();
+            if (!time()) {
+                return null;
+            }
+            skipSpaces();
+            if (dayShift < 0) {
+                dayShift = day();
+            }
+            if (!at && dayShift < 0 && !hasMinutes && !hasMeridiem) {
+                // a lone number is more likely a typo than an hour
+                return null;
+            }
+
+            String grain = hasMinutes ? "minute" : "hour";
+            if (dayShift < 0) {
+                return entity(nextOccurrence(reference), grain);
+            }
+
+            OffsetDateTime dateTime = atTime(reference, dayShift, hour, minute);
+            if (dayShift == 0 && ambiguousHour && !dateTime.isAfter(reference) && hour < 12) {
+                dateTime = atTime(reference, 0, hour + 12, minute);
+            }
+            if (dayShift == 0 && !dateTime.isAfter(reference)) {
+                return null;
+            }
+            return entity(dateTime, grain);
+        }
+
+        private OffsetDateTime nextOccurrence(OffsetDateTime reference) {
+            for (int dayShift = 0; dayShift <= 1; dayShift++) {
+                if (ambiguousHour) {
+                    // both readings of a 12 hour clock time, earliest first
+                    int morning = hour % 12;
+                    OffsetDateTime first = atTime(reference, dayShift, morning, minute);
+                    if (first.isAfter(reference)) {
+                        return first;
+                    }
+                    OffsetDateTime second = atTime(reference, dayShift, morning + 12, minute);
+                    if (second.isAfter(reference)) {
+                        return second;
+                    }
+                } else {
+                    OffsetDateTime dateTime = atTime(reference, dayShift, hour, minute);
+                    if (dateTime.isAfter(reference)) {
+                        return dateTime;
+                    }
+                }
+            }
+            throw new IllegalStateException("A time of day always occurs within two days");
+        }
+
+        private static OffsetDateTime atTime(OffsetDateTime reference, int dayShift, int hour, int minute) {
+            return reference.truncatedTo(ChronoUnit.DAYS).plusDays(dayShift).withHour(hour).withMinute(minute);
+        }
+
+        private int day() {
+            if (word("today")) {
+                return 0;
+            }
+            if (word("tomorrow")) {
+                return 1;
+            }
+            return -1;
+        }
+
+        // 5pm, 5 pm, 5:30pm, 17:30, 9, noon
+        private boolean time() {
+            if (word("noon")) {
+                hour = 12;
+                minute = 0;
+                hasMinutes = false;
+                hasMeridiem = true;
+                ambiguousHour = false;
+                return true;
+            }
+
+            hour = number(2);
+            if (hour < 0) {
+                return false;
+            }
+            minute = 0;
+            hasMinutes = false;
+            if (pos < text.length() && text.charAt(pos) == ':') {
+                pos++;
+                minute = digits(2);
+                if (minute < 0 || minute > 59) {
+                    return false;
+                }
+                hasMinutes = true;
+            }
+
+            skipSpaces();
+            boolean am = word("am");
+            boolean pm = !am && word("pm");
+            hasMeridiem = am || pm;
+            if (hasMeridiem) {
+                if (hour < 1 || hour > 12) {
+                    return false;
+                }
+                hour = hour % 12 + (pm ? 12 : 0);
+                ambiguousHour = false;
+                return true;
+            }
+
+            ambiguousHour = hour >= 1 && hour <= 12;
+            return hour <= 23;
+        }
+
+        // 2017-09-20, 2017-09-20 17:30, 2017-09-20T17:30:15
+        private boolean isoDateAhead() {
+            return pos + 10 <= text.length()
+                && isDigit(pos) && isDigit(pos + 1) && isDigit(pos + 2) && isDigit(pos + 3)
+                && text.charAt(pos + 4) == '-' && isDigit(pos + 5) && isDigit(pos + 6)
+                && text.charAt(pos + 7) == '-' && isDigit(pos + 8) && isDigit(pos + 9);
+        }
+
+        private NlpEntity isoDateTime(OffsetDateTime reference) {
+            int year = digits(4);
+            pos++;
+            int month = digits(2);
+            pos++;
+            int dayOfMonth = digits(2);
+            LocalDate date = LocalDate.of(year, month, dayOfMonth);
+
+            if (pos == text.length()) {
+                return entity(date.atStartOfDay().atOffset(reference.getOffset()), "day");
+            }
+
+            char separator = text.charAt(pos);
+            if (separator != 'T' && separator != 't' && separator != ' ') {
+                return null;
+            }
+            pos++;
+
+            int isoHour = digits(2);
+            if (isoHour < 0 || pos >= text.length() || text.charAt(pos) != ':') {
+                return null;
+            }
+            pos++;
+            int isoMinute = digits(2);
+            int isoSecond = 0;
+            String grain = "minute";
+            if (pos < text.length() && text.charAt(pos) == ':') {
+                pos++;
+                isoSecond = digits(2);
+                grain = "second";
+            }
+            if (isoMinute < 0 || isoSecond < 0) {
+                return null;
+            }
+
+            return entity(date.atTime(isoHour, isoMinute, isoSecond).atOffset(reference.getOffset()), grain);
+        }
+
+        /**
+         * Matches a whole word, ignoring case. The word must not be followed by a letter or digit.
+         */
+        private boolean word(String word) {
+            int end = pos + word.length();
+            if (!text.regionMatches(true, pos, word, 0, word.length())
+                || (end < text.length() && Character.isLetterOrDigit(text.charAt(end)))) {
+                return false;
+            }
+            pos = end;
+            return true;
+        }
+
+        /**
+         * Reads one to maxDigits digits, or returns -1 if there are none or more.
+         */
+        private int number(int maxDigits) {
+            int start = pos;
+            int value = 0;
+            while (pos < text.length() && isDigit(pos)) {
+                if (pos - start == maxDigits) {
+                    return -1;
+                }
+                value = value * 10 + (text.charAt(pos++) - '0');
+            }
+            return pos > start ? value : -1;
+        }
+
+        /**
+         * Reads exactly count digits, or returns -1.
+         */
+        private int digits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                if (pos >= text.length() || !isDigit(pos)) {
+                    return -1;
+                }
+                value = value * 10 + (text.charAt(pos++) - '0');
+            }
+            return value;
+        }
+
+        private boolean isDigit(int index) {
+            char c = text.charAt(index);
+            return c >= '0' && c <= '9';
+        }
+
+        private void skipSpaces() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+    }
+}
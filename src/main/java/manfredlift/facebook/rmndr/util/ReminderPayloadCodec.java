@@ -0,0 +1,106 @@
+package manfredlift.facebook.rmndr.util;
+
+import lombok.Data;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Encodes the reminder carried in the confirmation quick reply, and decodes it when the user confirms, without
+ * JSON or date parsing. A payload is base64url without padding of a version byte, the fire time in epoch millis,
+ * the UTC offset of the date in seconds and the UTF-8 text. With a secret it ends with a truncated HMAC-SHA256 of
+ * everything before it, so a payload that was not sent by the bot is refused.
+ */
+public class ReminderPayloadCodec {
+    private static final byte VERSION = 1;
+    private static final int HEADER = 1 + 8 + 4;
+    private static final int TAG_LENGTH = 8;
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final ThreadLocal<Mac> mac;
+
+    /**
+     * Payloads are tagged when the secret is not null.
+     */
+    public ReminderPayloadCodec(String secret) {
+        if (secret == null) {
+            this.mac = null;
+            return;
+        }
+
+        SecretKeySpec key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+            }
+        });
+    }
+
+    public String encode(long fireTime, int offsetSeconds, String text) {
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + textBytes.length + (mac != null ? TAG_LENGTH : 0))
+            .put(VERSION)
+            .putLong(fireTime)
+            .putInt(offsetSeconds)
+            .put(textBytes);
+        if (mac != null) {
+            buffer.put(tag(buffer.array(), buffer.position()));
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * Returns the reminder in the payload, or null if it is not a payload of this version, its tag is wrong or its
+     * offset is not a valid UTC offset.
+     */
+    public Confirmation decode(String payload) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode(payload);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        int end = bytes.length - (mac != null ? TAG_LENGTH : 0);
+        if (end < HEADER || bytes[0] != VERSION) {
+            return null;
+        }
+        if (mac != null && !MessageDigest.isEqual(tag(bytes, end), Arrays.copyOfRange(bytes, end, bytes.length))) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, end - 1);
+        long fireTime = buffer.getLong();
+        int offsetSeconds = buffer.getInt();
+        if (offsetSeconds < ZoneOffset.MIN.getTotalSeconds() || offsetSeconds > ZoneOffset.MAX.getTotalSeconds()) {
+            return null;
+        }
+        String text = new String(bytes, HEADER, end - HEADER, StandardCharsets.UTF_8);
+        return new Confirmation(fireTime, offsetSeconds, text);
+    }
+
+    private byte[] tag(byte[] bytes, int length) {
+        // doFinal resets the Mac for the next payload on this thread
+        Mac mac = this.mac.get();
+        mac.update(bytes, 0, length);
+        return Arrays.copyOf(mac.doFinal(), TAG_LENGTH);
+    }
+
+    @Data
+    public static class Confirmation {
+        private final long fireTime;
+        private final int offsetSeconds;
+        private final String text;
+    }
+}
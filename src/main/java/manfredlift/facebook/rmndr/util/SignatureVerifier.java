@@ -1,15 +1,66 @@
 package manfredlift.facebook.rmndr.util;
 
-import org.apache.commons.codec.binary.Hex;
-import org.apache.commons.codec.digest.HmacUtils;
-import org.apache.commons.lang3.StringUtils;
-
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 
+/**
+ * Verifies the X-Hub-Signature of webhook requests, the hex encoded HMAC-SHA1 of the raw body keyed with the app
+ * secret. The body is hashed as received, the header is decoded and compared in constant time. Every thread keeps
+ * its own initialized {@link Mac}.
+ */
 public class SignatureVerifier {
+    private static final String ALGORITHM = "HmacSHA1";
+    private static final String PREFIX = "sha1=";
+    private static final int DIGEST_LENGTH = 20;
+
+    private final ThreadLocal<Mac> mac;
+
+    public SignatureVerifier(String appSecret) {
+        SecretKeySpec key = new SecretKeySpec(appSecret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA1 is not available", e);
+            }
+        });
+    }
+
+    public boolean isValid(String signature, byte[] requestBody) {
+        byte[] expected = decodeSignature(signature);
+        if (expected == null) {
+            return false;
+        }
+
+        // doFinal resets the Mac for the next request on this thread
+        byte[] actual = mac.get().doFinal(requestBody);
+        return MessageDigest.isEqual(expected, actual);
+    }
+
     public static boolean isValid(String appSecret, String signature, String requestBody) {
-        byte[] sha1 = HmacUtils.hmacSha1(appSecret.getBytes(StandardCharsets.UTF_8),
-            requestBody.getBytes(StandardCharsets.UTF_8));
-        return StringUtils.equals("sha1=" + Hex.encodeHexString(sha1), signature);
+        return new SignatureVerifier(appSecret).isValid(signature, requestBody.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] decodeSignature(String signature) {
+        if (signature == null || signature.length() != PREFIX.length() + 2 * DIGEST_LENGTH
+            || !signature.startsWith(PREFIX)) {
+            return null;
+        }
+
+        byte[] digest = new byte[DIGEST_LENGTH];
+        for (int i = 0; i < DIGEST_LENGTH; i++) {
+            int high = Character.digit(signature.charAt(PREFIX.length() + 2 * i), 16);
+            int low = Character.digit(signature.charAt(PREFIX.length() + 2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                return null;
+            }
+            digest[i] = (byte) (high << 4 | low);
+        }
+        return digest;
     }
 }
@@ -0,0 +1,73 @@
+package manfredlift.facebook.rmndr.util;
+
+import com.codahale.metrics.Timer;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.logging.Logger;
+
+/**
+ * Data source that times how long getting a connection from the wrapped pool takes, including waiting for one
+ * when all connections are in use. Failed attempts are timed as well.
+ */
+public class TimedDataSource implements DataSource {
+    private final DataSource dataSource;
+    private final Timer acquisition;
+
+    public TimedDataSource(DataSource dataSource, Timer acquisition) {
+        this.dataSource = dataSource;
+        this.acquisition = acquisition;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        try (Timer.Context ignored = acquisition.time()) {
+            return dataSource.getConnection();
+        }
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        try (Timer.Context ignored = acquisition.time()) {
+            return dataSource.getConnection(username, password);
+        }
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+}
@@ -0,0 +1,23 @@
+-- Databases created from an earlier copy of the Quartz tables may lack the secondary indexes of V1, without them
+-- trigger acquisition, misfire handling and listing the reminders of a user scan the whole table. Built
+-- concurrently, so a clustered instance keeps firing reminders while another instance runs this migration.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_j_req_recovery ON qrtz_job_details (SCHED_NAME,REQUESTS_RECOVERY);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_j_grp ON qrtz_job_details (SCHED_NAME,JOB_GROUP);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_j ON qrtz_triggers (SCHED_NAME,JOB_NAME,JOB_GROUP);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_jg ON qrtz_triggers (SCHED_NAME,JOB_GROUP);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_c ON qrtz_triggers (SCHED_NAME,CALENDAR_NAME);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_g ON qrtz_triggers (SCHED_NAME,TRIGGER_GROUP);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_state ON qrtz_triggers (SCHED_NAME,TRIGGER_STATE);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_n_state ON qrtz_triggers (SCHED_NAME,TRIGGER_NAME,TRIGGER_GROUP,TRIGGER_STATE);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_n_g_state ON qrtz_triggers (SCHED_NAME,TRIGGER_GROUP,TRIGGER_STATE);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_next_fire_time ON qrtz_triggers (SCHED_NAME,NEXT_FIRE_TIME);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_nft_st ON qrtz_triggers (SCHED_NAME,TRIGGER_STATE,NEXT_FIRE_TIME);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_nft_misfire ON qrtz_triggers (SCHED_NAME,MISFIRE_INSTR,NEXT_FIRE_TIME);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_nft_st_misfire ON qrtz_triggers (SCHED_NAME,MISFIRE_INSTR,NEXT_FIRE_TIME,TRIGGER_STATE);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_t_nft_st_misfire_grp ON qrtz_triggers (SCHED_NAME,MISFIRE_INSTR,NEXT_FIRE_TIME,TRIGGER_GROUP,TRIGGER_STATE);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_ft_trig_inst_name ON qrtz_fired_triggers (SCHED_NAME,INSTANCE_NAME);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_ft_inst_job_req_rcvry ON qrtz_fired_triggers (SCHED_NAME,INSTANCE_NAME,REQUESTS_RECOVERY);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_ft_j_g ON qrtz_fired_triggers (SCHED_NAME,JOB_NAME,JOB_GROUP);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_ft_jg ON qrtz_fired_triggers (SCHED_NAME,JOB_GROUP);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_ft_t_g ON qrtz_fired_triggers (SCHED_NAME,TRIGGER_NAME,TRIGGER_GROUP);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_qrtz_ft_tg ON qrtz_fired_triggers (SCHED_NAME,TRIGGER_GROUP);
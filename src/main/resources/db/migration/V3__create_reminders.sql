@@ -0,0 +1,20 @@
+-- One row per reminder with typed columns, instead of a Quartz job and trigger with the reminder serialized in
+-- their JOB_DATA. STATUS is SCHEDULED until an instance claims the reminder for sending until CLAIMED_UNTIL, sent
+-- reminders are deleted.
+CREATE TABLE reminders
+  (
+    ID VARCHAR(32) NOT NULL,
+    USER_ID VARCHAR(64) NOT NULL,
+    TEXT TEXT NOT NULL,
+    DATE VARCHAR(40) NOT NULL,
+    FIRE_TIME BIGINT NOT NULL,
+    STATUS VARCHAR(16) NOT NULL,
+    CLAIMED_UNTIL BIGINT NULL,
+    PRIMARY KEY (ID)
+);
+
+-- !list and !clear, in fire time order
+CREATE INDEX idx_reminders_user ON reminders (USER_ID, FIRE_TIME);
+-- the poller only looks at reminders that are waiting, and at claims that ran out
+CREATE INDEX idx_reminders_due ON reminders (FIRE_TIME) WHERE STATUS = 'SCHEDULED';
+CREATE INDEX idx_reminders_claimed ON reminders (CLAIMED_UNTIL) WHERE STATUS = 'CLAIMED';
@@ -0,0 +1,4 @@
+-- !list pages through the reminders of a user by (FIRE_TIME, ID), so the index orders by the id as well and a page
+-- is one index range scan. Built without locking the table against writes.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_reminders_user_cursor ON reminders (USER_ID, FIRE_TIME, ID);
+DROP INDEX CONCURRENTLY IF EXISTS idx_reminders_user;
@@ -1,52 +1,76 @@
 package manfredlift.facebook.rmndr;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import io.dropwizard.jersey.setup.JerseyEnvironment;
 import manfredlift.facebook.rmndr.api.*;
 import manfredlift.facebook.rmndr.client.FbClient;
 import manfredlift.facebook.rmndr.client.WitClient;
+import manfredlift.facebook.rmndr.concurrent.KeyedLaneExecutor;
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderCursor;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
 import manfredlift.facebook.rmndr.util.DateHelper;
+import manfredlift.facebook.rmndr.util.JsonCodec;
+import manfredlift.facebook.rmndr.util.ReminderPayloadCodec;
+import org.apache.commons.lang3.StringUtils;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
-import org.quartz.JobDetail;
-import org.quartz.JobKey;
-import org.quartz.Scheduler;
-import org.quartz.Trigger;
-import org.quartz.impl.matchers.GroupMatcher;
+import org.mockito.stubbing.Answer;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.mockito.Mockito.*;
-import static org.quartz.JobBuilder.newJob;
 
 @RunWith(MockitoJUnitRunner.class)
 public class CallbackHandlerTest {
-    @Mock FbClient fbClient;
+    private static final Answer<Object> COMPLETED_FUTURES = invocation ->
+        invocation.getMethod().getReturnType() == CompletableFuture.class
+            ? CompletableFuture.completedFuture(null)
+            : RETURNS_DEFAULTS.answer(invocation);
+
     @Mock WitClient witClient;
-    @Mock Scheduler scheduler;
+    @Mock ReminderRepository reminderRepository;
+    @Mock ReminderEngine reminderEngine;
+
+    private final AtomicInteger mids = new AtomicInteger();
 
+    private FbClient fbClient;
+    private JerseyEnvironment jersey;
     private CallbackHandler callbackHandler;
 
     @Before
     public void setup() {
-        JerseyEnvironment jersey = mock(JerseyEnvironment.class);
+        fbClient = mock(FbClient.class, COMPLETED_FUTURES);
+        jersey = mock(JerseyEnvironment.class);
 
         when(jersey.getProperty(RmndrConstants.FB_CLIENT)).thenReturn(fbClient);
         when(jersey.getProperty(RmndrConstants.WIT_CLIENT)).thenReturn(witClient);
-        when(jersey.getProperty(RmndrConstants.QUARTZ_SCHEDULER)).thenReturn(scheduler);
+        when(jersey.getProperty(RmndrConstants.REMINDER_REPOSITORY)).thenReturn(reminderRepository);
+        when(jersey.getProperty(RmndrConstants.REMINDER_ENGINE)).thenReturn(reminderEngine);
+        when(jersey.getProperty(RmndrConstants.CALLBACK_LANES))
+            .thenReturn(new KeyedLaneExecutor(MoreExecutors.directExecutor(), 4));
+        when(jersey.getProperty(RmndrConstants.JSON_CODEC)).thenReturn(JsonCodec.create());
 
-        callbackHandler = new CallbackHandler(jersey);
+        callbackHandler = new CallbackHandler(new RmndrConfiguration(), jersey);
     }
 
     @Test
@@ -55,7 +79,7 @@ public class CallbackHandlerTest {
 
         callbackHandler.handleCallbackAsync(callback).get();
 
-        verifyZeroInteractions(fbClient, witClient, scheduler);
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -65,7 +89,7 @@ public class CallbackHandlerTest {
         Callback callback = Callback.builder().object("page").entry(entries).build();
 
         callbackHandler.handleCallbackAsync(callback).get();
-        verifyZeroInteractions(fbClient, witClient, scheduler);
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -77,7 +101,7 @@ public class CallbackHandlerTest {
         Callback callback = Callback.builder().object("page").entry(entries).build();
 
         callbackHandler.handleCallbackAsync(callback).get();
-        verifyZeroInteractions(fbClient, witClient, scheduler);
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -92,7 +116,7 @@ public class CallbackHandlerTest {
         callbackHandler.handleCallbackAsync(callback).get();
         verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.GET_STARTED);
 
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -105,7 +129,7 @@ public class CallbackHandlerTest {
         Callback callback = Callback.builder().object("page").entry(entries).build();
 
         callbackHandler.handleCallbackAsync(callback).get();
-        verifyZeroInteractions(fbClient, witClient, scheduler);
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -118,7 +142,7 @@ public class CallbackHandlerTest {
         Callback callback = Callback.builder().object("page").entry(entries).build();
 
         callbackHandler.handleCallbackAsync(callback).get();
-        verifyZeroInteractions(fbClient, witClient, scheduler);
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -134,20 +158,40 @@ public class CallbackHandlerTest {
 
         callbackHandler.handleCallbackAsync(callback).get();
 
-        ArgumentCaptor<JobDetail> jobDetailArgumentCaptor = ArgumentCaptor.forClass(JobDetail.class);
-        ArgumentCaptor<Trigger> triggerArgumentCaptor = ArgumentCaptor.forClass(Trigger.class);
+        ArgumentCaptor<Reminder> reminderArgumentCaptor = ArgumentCaptor.forClass(Reminder.class);
 
-        verify(scheduler).scheduleJob(jobDetailArgumentCaptor.capture(), triggerArgumentCaptor.capture());
+        verify(reminderEngine).schedule(reminderArgumentCaptor.capture());
         verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.TIMER_SCHEDULED_SUCCESSFULLY);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+
+        Reminder reminder = reminderArgumentCaptor.getValue();
+
+        assertThat(reminder.getId().length(), equalTo(32));
+        assertThat(reminder.getUserId(), equalTo("some_id"));
+        assertThat(reminder.getText(), equalTo("some_text"));
+        assertThat(reminder.getDate(), equalTo("2050-09-11T12:30:00.000+01:00"));
+        assertThat(reminder.getFireTime(), equalTo(2546508600000L));
+    }
+
+    @Test
+    public void receiveYesQuickReplyTest_storeFail() throws Exception {
+        String payload = "{\"text\":\"some_text\",\"date\":\"2050-09-11T12:30:00.000+01:00\"}";
+        QuickReply quickReply = QuickReply.builder().title("Yes").payload(payload).build();
+        Message message = Message.builder().mid("some_mid").quickReply(quickReply).seq(1).build();
+        Messaging messaging = Messaging.builder().sender(new User("some_id")).message(message).build();
+        List<Messaging> messagings = Collections.singletonList(messaging);
+        Entry entry = Entry.builder().id(123).time(1503652953801L).messaging(messagings).build();
+        List<Entry> entries = Collections.singletonList(entry);
+        Callback callback = Callback.builder().object("page").entry(entries).build();
 
-        JobDetail jobDetail = jobDetailArgumentCaptor.getValue();
-        Trigger trigger = triggerArgumentCaptor.getValue();
+        doThrow(new ReminderStoreException("some_error", new SQLException()))
+            .when(reminderEngine).schedule(any(Reminder.class));
 
-        assertThat(jobDetail.getJobDataMap().get("recipient"), equalTo("some_id"));
-        assertThat(jobDetail.getJobDataMap().get("text"), equalTo("some_text"));
-        assertThat(jobDetail.getJobDataMap().get("date"), equalTo("2050-09-11T12:30:00.000+01:00"));
-        assertThat(trigger.getStartTime().toInstant().toEpochMilli(), equalTo(2546508600000L));
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(reminderEngine).schedule(any(Reminder.class));
+        verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.SCHEDULING_ERROR);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -164,7 +208,7 @@ public class CallbackHandlerTest {
         callbackHandler.handleCallbackAsync(callback).get();
 
         verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.DATE_MUST_BE_IN_FUTURE);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -182,7 +226,7 @@ public class CallbackHandlerTest {
             callbackHandler.handleCallbackAsync(callback).get();
             throw new Exception("Should have failed to parse the date");
         } catch (ExecutionException executionException) {
-            verifyZeroInteractions(fbClient, witClient, scheduler);
+            verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
             Throwable cause = executionException.getCause();
             assertThat(cause.getClass(), equalTo(DateTimeParseException.class));
         }
@@ -200,7 +244,44 @@ public class CallbackHandlerTest {
         Callback callback = Callback.builder().object("page").entry(entries).build();
 
         callbackHandler.handleCallbackAsync(callback).get();
-        verifyZeroInteractions(fbClient, witClient, scheduler);
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void receiveYesQuickReplyTest_encodedPastDate() throws Exception {
+        String payload = new ReminderPayloadCodec(null).encode(946729800000L, 3600, "some_text");
+
+        callbackHandler.handleCallbackAsync(createQuickReplyPayload(QuickReply.builder().title("Yes")
+            .payload(payload).build())).get();
+
+        verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.DATE_MUST_BE_IN_FUTURE);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void receiveYesQuickReplyTest_tamperedPayload() throws Exception {
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setAppSecret("some_app_secret");
+        callbackHandler = new CallbackHandler(config, jersey);
+        String payload = new ReminderPayloadCodec("other_secret").encode(2546508600000L, 3600, "some_text");
+
+        callbackHandler.handleCallbackAsync(createQuickReplyPayload(QuickReply.builder().title("Yes")
+            .payload(payload).build())).get();
+
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void receiveYesQuickReplyTest_jsonPayloadWithSecret() throws Exception {
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setAppSecret("some_app_secret");
+        callbackHandler = new CallbackHandler(config, jersey);
+        String payload = "{\"text\":\"some_text\",\"date\":\"2050-09-11T12:30:00.000+01:00\"}";
+
+        callbackHandler.handleCallbackAsync(createQuickReplyPayload(QuickReply.builder().title("Yes")
+            .payload(payload).build())).get();
+
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -214,7 +295,7 @@ public class CallbackHandlerTest {
         Callback callback = Callback.builder().object("page").entry(entries).build();
 
         callbackHandler.handleCallbackAsync(callback).get();
-        verifyZeroInteractions(fbClient, witClient, scheduler);
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -224,7 +305,7 @@ public class CallbackHandlerTest {
         callbackHandler.handleCallbackAsync(callback).get();
 
         verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.HELP_MESSAGE);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -239,7 +320,7 @@ public class CallbackHandlerTest {
         callbackHandler.handleCallbackAsync(callback3).get();
 
         verify(fbClient, times(3)).sendErrorMessage("some_id", RmndrMessageConstants.REMINDER_HELP);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -257,7 +338,67 @@ public class CallbackHandlerTest {
         verify(fbClient).getUserTimezoneFuture("some_id");
         verify(witClient).getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1));
         verify(fbClient).sendQuickReply(eq("some_id"), anyString(), anyList());
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void processMessage_confirmationRoundTrip() throws Exception {
+        when(fbClient.getUserTimezoneFuture("some_id")).thenReturn(CompletableFuture.completedFuture(new UserTimezone(1)));
+        when(witClient.getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1)))
+            .thenReturn(CompletableFuture.completedFuture(createWitResponse("2050-09-11T12:30:00.000+01:00")));
+
+        callbackHandler.handleCallbackAsync(createProcessMessagePayload("!reminder in 5 secs; yassss")).get();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<QuickReply>> quickReplies = ArgumentCaptor.forClass(List.class);
+        verify(fbClient).sendQuickReply(eq("some_id"), anyString(), quickReplies.capture());
+        String payload = quickReplies.getValue().get(0).getPayload();
+        assertThat(payload.startsWith("{"), equalTo(false));
+
+        callbackHandler.handleCallbackAsync(createQuickReplyPayload(QuickReply.builder().title("Yes")
+            .payload(payload).build())).get();
+
+        ArgumentCaptor<Reminder> reminder = ArgumentCaptor.forClass(Reminder.class);
+        verify(reminderEngine).schedule(reminder.capture());
+        verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.TIMER_SCHEDULED_SUCCESSFULLY);
+        assertThat(reminder.getValue().getText(), equalTo("yassss"));
+        assertThat(reminder.getValue().getDate(), equalTo("2050-09-11T12:30:00.000+01:00"));
+        assertThat(reminder.getValue().getFireTime(), equalTo(2546508600000L));
+    }
+
+    @Test
+    public void processMessage_reminderCommandDoneOnceReplied() throws Exception {
+        CompletableFuture<WitResponse> witResponse = new CompletableFuture<>();
+        CompletableFuture<Void> reply = new CompletableFuture<>();
+        when(fbClient.getUserTimezoneFuture("some_id")).thenReturn(CompletableFuture.completedFuture(new UserTimezone(1)));
+        when(witClient.getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1)))
+            .thenReturn(witResponse);
+        when(fbClient.sendQuickReply(eq("some_id"), anyString(), anyList())).thenReturn(reply);
+
+        CompletableFuture<Void> handled =
+            callbackHandler.handleCallbackAsync(createProcessMessagePayload("!reminder in 5 secs; yassss"));
+        assertThat(handled.isDone(), equalTo(false));
+
+        witResponse.complete(createWitResponse("2050-09-11T12:30:00.000+01:00"));
+        assertThat(handled.isDone(), equalTo(false));
+
+        reply.complete(null);
+        assertThat(handled.isDone() && !handled.isCompletedExceptionally(), equalTo(true));
+    }
+
+    @Test
+    public void processMessage_reminderTextTooLong() throws Exception {
+        String text = StringUtils.repeat('x', 800);
+        when(fbClient.getUserTimezoneFuture("some_id")).thenReturn(CompletableFuture.completedFuture(new UserTimezone(1)));
+        when(witClient.getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1)))
+            .thenReturn(CompletableFuture.completedFuture(createWitResponse("2050-09-11T12:30:00.000+01:00")));
+
+        callbackHandler.handleCallbackAsync(createProcessMessagePayload("!reminder in 5 secs; " + text)).get();
+
+        verify(fbClient).getUserTimezoneFuture("some_id");
+        verify(witClient).getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1));
+        verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.REMINDER_TEXT_TOO_LONG);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -273,7 +414,7 @@ public class CallbackHandlerTest {
 
         verify(fbClient).getUserTimezoneFuture("some_id");
         verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -292,7 +433,48 @@ public class CallbackHandlerTest {
         verify(fbClient).getUserTimezoneFuture("some_id");
         verify(witClient).getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1));
         verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void processMessage_speculativeReminderCommand_guessedOffsetMatches() throws Exception {
+        callbackHandler = speculativeCallbackHandler();
+        Callback callback = createProcessMessagePayload("!reminder in 5 secs; yassss");
+
+        when(fbClient.getCachedUserTimezone("some_id")).thenReturn(Optional.of(new UserTimezone(1)));
+        when(fbClient.getUserTimezoneFuture("some_id")).thenReturn(CompletableFuture.completedFuture(new UserTimezone(1)));
+        when(witClient.getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1)))
+            .thenReturn(CompletableFuture.completedFuture(createWitResponse()));
+
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(fbClient).getCachedUserTimezone("some_id");
+        verify(fbClient).getUserTimezoneFuture("some_id");
+        verify(witClient).getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1));
+        verify(fbClient).sendQuickReply(eq("some_id"), anyString(), anyList());
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void processMessage_speculativeReminderCommand_guessedOffsetWrong() throws Exception {
+        callbackHandler = speculativeCallbackHandler();
+        Callback callback = createProcessMessagePayload("!reminder in 5 secs; yassss");
+
+        when(fbClient.getCachedUserTimezone("some_id")).thenReturn(Optional.empty());
+        when(fbClient.getUserTimezoneFuture("some_id")).thenReturn(CompletableFuture.completedFuture(new UserTimezone(1)));
+        when(witClient.getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 0)))
+            .thenReturn(CompletableFuture.completedFuture(createWitResponse()));
+        when(witClient.getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1)))
+            .thenReturn(CompletableFuture.completedFuture(createWitResponse()));
+
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(fbClient).getCachedUserTimezone("some_id");
+        verify(fbClient).getUserTimezoneFuture("some_id");
+        verify(witClient).getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 0));
+        verify(witClient).getResponseFuture("in 5 secs", DateHelper.referenceTimeFromMillis(1503652953801L, 1));
+        verify(fbClient).sendQuickReply(eq("some_id"), anyString(), anyList());
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -301,61 +483,152 @@ public class CallbackHandlerTest {
 
         callbackHandler.handleCallbackAsync(callback).get();
 
-        verify(scheduler).getJobKeys(GroupMatcher.jobGroupEquals("some_id"));
+        verify(reminderRepository).findByUser("some_id", ReminderCursor.FIRST, 11);
         verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.NO_REMINDERS_SCHEDULED);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
     public void processMessage_listCommand_oneReminder() throws Exception {
         Callback callback = createProcessMessagePayload("!list");
 
-        JobDetail job = newJob(ReminderJob.class)
-            .withIdentity("12345", "some_id")
-            .usingJobData("recipient", "some_id")
-            .usingJobData("text", "some_text")
-            .usingJobData("date", "some_date")
+        Reminder reminder = Reminder.builder()
+            .id("random_id")
+            .userId("some_id")
+            .text("some_text")
+            .date("some_date")
+            .fireTime(2546508600000L)
             .build();
 
-        JobKey jobKey = new JobKey("random_id", "some_id");
+        when(reminderRepository.findByUser("some_id", ReminderCursor.FIRST, 11))
+            .thenReturn(Collections.singletonList(reminder));
+
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(reminderRepository).findByUser("some_id", ReminderCursor.FIRST, 11);
+        verify(fbClient).sendTextMessage("some_id",
+            String.format(RmndrMessageConstants.LIST_REMINDER_ENTRY, "random_id", "some_text", "some_date"));
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
 
-        when(scheduler.getJobKeys(GroupMatcher.jobGroupEquals("some_id")))
-            .thenReturn(Collections.singleton(jobKey));
-        when(scheduler.getJobDetail(jobKey)).thenReturn(job);
+    @Test
+    public void processMessage_listCommand_morePages() throws Exception {
+        Callback callback = createProcessMessagePayload("!list");
+        List<Reminder> reminders = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            reminders.add(Reminder.builder()
+                .id("id_" + i).userId("some_id").text("some_text").date("some_date").fireTime(1000 + i).build());
+        }
+        when(reminderRepository.findByUser("some_id", ReminderCursor.FIRST, 11)).thenReturn(reminders);
 
         callbackHandler.handleCallbackAsync(callback).get();
 
-        verify(scheduler).getJobKeys(GroupMatcher.jobGroupEquals("some_id"));
-        verify(scheduler).getJobDetail(jobKey);
+        String entries = reminders.subList(0, 10).stream()
+            .map(reminder -> String.format(RmndrMessageConstants.LIST_REMINDER_ENTRY, reminder.getId(), "some_text",
+                "some_date"))
+            .collect(Collectors.joining("\n\n"));
+        QuickReply more = QuickReply.builder()
+            .title(RmndrMessageConstants.LIST_MORE_TITLE)
+            .payload(RmndrConstants.LIST_MORE + "1009:id_9")
+            .build();
+        verify(reminderRepository).findByUser("some_id", ReminderCursor.FIRST, 11);
+        verify(fbClient).sendQuickReply("some_id", entries, Collections.singletonList(more));
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void processMessage_listCommand_splitIntoMessages() throws Exception {
+        Callback callback = createProcessMessagePayload("!list");
+        String longId = StringUtils.repeat('x', 900);
+        List<Reminder> reminders = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            reminders.add(Reminder.builder()
+                .id(longId + i).userId("some_id").text("some_text").date("some_date").fireTime(i).build());
+        }
+        when(reminderRepository.findByUser("some_id", ReminderCursor.FIRST, 11)).thenReturn(reminders);
+        when(fbClient.sendTextMessage(eq("some_id"), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        String first = String.format(RmndrMessageConstants.LIST_REMINDER_ENTRY, longId + 1, "some_text", "some_date");
+        String second = String.format(RmndrMessageConstants.LIST_REMINDER_ENTRY, longId + 2, "some_text", "some_date");
+        String third = String.format(RmndrMessageConstants.LIST_REMINDER_ENTRY, longId + 3, "some_text", "some_date");
+        verify(fbClient).sendTextMessage("some_id", first + "\n\n" + second);
+        verify(fbClient).sendTextMessage("some_id", third);
+    }
+
+    @Test
+    public void processMessage_listCommand_sendFailed() throws Exception {
+        Callback callback = createProcessMessagePayload("!list");
+        Reminder reminder = Reminder.builder()
+            .id("random_id").userId("some_id").text("some_text").date("some_date").fireTime(1000).build();
+        when(reminderRepository.findByUser("some_id", ReminderCursor.FIRST, 11))
+            .thenReturn(Collections.singletonList(reminder));
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException());
+        when(fbClient.sendTextMessage(eq("some_id"), anyString())).thenReturn(failed);
+
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(reminderRepository).findByUser("some_id", ReminderCursor.FIRST, 11);
         verify(fbClient).sendTextMessage("some_id",
             String.format(RmndrMessageConstants.LIST_REMINDER_ENTRY, "random_id", "some_text", "some_date"));
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.UNEXPECTED_ERROR_PLEASE_TRY_AGAIN);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void receiveListMoreQuickReplyTest() throws Exception {
+        QuickReply quickReply = QuickReply.builder()
+            .title(RmndrMessageConstants.LIST_MORE_TITLE)
+            .payload(RmndrConstants.LIST_MORE + "1009:id_9")
+            .build();
+        Callback callback = createQuickReplyPayload(quickReply);
+
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(reminderRepository).findByUser("some_id", new ReminderCursor(1009, "id_9"), 11);
+        verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.NO_MORE_REMINDERS);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void receiveListMoreQuickReplyTest_invalidCursor() throws Exception {
+        QuickReply quickReply = QuickReply.builder()
+            .title(RmndrMessageConstants.LIST_MORE_TITLE)
+            .payload(RmndrConstants.LIST_MORE + "not_a_cursor")
+            .build();
+        Callback callback = createQuickReplyPayload(quickReply);
+
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
     public void processMessage_cancelCommand_success() throws Exception {
         Callback callback = createProcessMessagePayload("!cancel random_id");
 
-        when(scheduler.deleteJob(new JobKey("random_id", "some_id"))).thenReturn(true);
+        when(reminderEngine.cancel("some_id", "random_id")).thenReturn(true);
 
         callbackHandler.handleCallbackAsync(callback).get();
 
-        verify(scheduler).deleteJob(new JobKey("random_id", "some_id"));
+        verify(reminderEngine).cancel("some_id", "random_id");
         verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.SUCCESSFULLY_CANCELLED_REMINDER);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
     public void processMessage_cancelCommand_notDeleted() throws Exception {
         Callback callback = createProcessMessagePayload("!cancel wrong_id");
 
-        when(scheduler.deleteJob(new JobKey("wrong_id", "some_id"))).thenReturn(false);
+        when(reminderEngine.cancel("some_id", "wrong_id")).thenReturn(false);
 
         callbackHandler.handleCallbackAsync(callback).get();
 
-        verify(scheduler).deleteJob(new JobKey("wrong_id", "some_id"));
+        verify(reminderEngine).cancel("some_id", "wrong_id");
         verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.COULD_NOT_CANCEL_REMINDER);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
@@ -365,29 +638,150 @@ public class CallbackHandlerTest {
         callbackHandler.handleCallbackAsync(callback).get();
 
         verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.CANCEL_REMINDER_HELP);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
     }
 
     @Test
     public void processMessage_clearCommand_oneReminder() throws Exception {
         Callback callback = createProcessMessagePayload("!clear");
 
-        JobKey jobKey = new JobKey("random_id", "some_id");
-
-        when(scheduler.getJobKeys(GroupMatcher.jobGroupEquals("some_id")))
-            .thenReturn(Collections.singleton(jobKey));
-        when(scheduler.deleteJobs(ImmutableList.of(jobKey))).thenReturn(true);
+        when(reminderEngine.cancelAll("some_id")).thenReturn(1);
 
         callbackHandler.handleCallbackAsync(callback).get();
 
-        verify(scheduler).getJobKeys(GroupMatcher.jobGroupEquals("some_id"));
-        verify(scheduler).deleteJobs(ImmutableList.of(jobKey));
+        verify(reminderEngine).cancelAll("some_id");
         verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.SUCCESSFULLY_CLEARED_REMINDERS);
-        verifyNoMoreInteractions(fbClient, witClient, scheduler);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void processMessaging_redeliveredMessageIgnored() throws ExecutionException, InterruptedException {
+        Callback callback = createProcessMessagePayload("help me please");
+
+        callbackHandler.handleCallbackAsync(callback).get();
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.HELP_MESSAGE);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+        assertThat(callbackHandler.getRecentDeliveries().getDuplicates(), equalTo(1L));
+    }
+
+    @Test
+    public void processMessaging_redeliveredQuickReplyIgnored() throws Exception {
+        String payload = "{\"text\":\"some_text\",\"date\":\"2050-09-11T12:30:00.000+01:00\"}";
+        QuickReply quickReply = QuickReply.builder().title("Yes").payload(payload).build();
+        Callback callback = createQuickReplyPayload(quickReply);
+
+        callbackHandler.handleCallbackAsync(callback).get();
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(reminderEngine).schedule(any(Reminder.class));
+        verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.TIMER_SCHEDULED_SUCCESSFULLY);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void processMessaging_redeliveredPostbackIgnored() throws ExecutionException, InterruptedException {
+        Postback postback = Postback.builder().title("any title").payload(RmndrConstants.GET_STARTED).build();
+        Messaging messaging = Messaging.builder().sender(new User("some_id")).postback(postback)
+            .timestamp(1503652953801L).build();
+        Entry entry = Entry.builder().id(123).time(1503652953801L)
+            .messaging(Collections.singletonList(messaging)).build();
+        Callback callback = Callback.builder().object("page").entry(Collections.singletonList(entry)).build();
+
+        callbackHandler.handleCallbackAsync(callback).get();
+        callbackHandler.handleCallbackAsync(callback).get();
+
+        verify(fbClient).sendTextMessage("some_id", RmndrMessageConstants.GET_STARTED);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void handleCallbackBodyTest_streamed() throws Exception {
+        byte[] body = new ObjectMapper().writeValueAsBytes(createProcessMessagePayload("help me please"));
+
+        callbackHandler.handleCallbackAsync(body).get();
+
+        verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.HELP_MESSAGE);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void handleCallbackBodyTest_notStreamed() throws Exception {
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setStreamingCallbackParsing(false);
+        callbackHandler = new CallbackHandler(config, jersey);
+        byte[] body = new ObjectMapper().writeValueAsBytes(createProcessMessagePayload("help me please"));
+
+        callbackHandler.handleCallbackAsync(body).get();
+
+        verify(fbClient).sendErrorMessage("some_id", RmndrMessageConstants.HELP_MESSAGE);
+        verifyNoMoreInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test
+    public void handleCallbackBodyTest_lanesFull() throws Exception {
+        // lanes that never run, so the first event keeps the only pending slot
+        when(jersey.getProperty(RmndrConstants.CALLBACK_LANES)).thenReturn(new KeyedLaneExecutor(command -> { }, 1, 1));
+        callbackHandler = new CallbackHandler(new RmndrConfiguration(), jersey);
+        List<Messaging> messagings = new ArrayList<>();
+        messagings.addAll(createProcessMessagePayload("help me please").getEntry().get(0).getMessaging());
+        messagings.addAll(createProcessMessagePayload("help me please").getEntry().get(0).getMessaging());
+        Entry entry = Entry.builder().id(123).time(1503652953801L).messaging(messagings).build();
+        byte[] body = new ObjectMapper().writeValueAsBytes(
+            Callback.builder().object("page").entry(Collections.singletonList(entry)).build());
+
+        try {
+            callbackHandler.handleCallbackAsync(body);
+            throw new AssertionError("Should have been rejected");
+        } catch (CallbackRejectedException e) {
+            assertThat(e.getDispatched().isDone(), equalTo(false));
+        }
+        verifyZeroInteractions(fbClient, witClient, reminderRepository, reminderEngine);
+    }
+
+    @Test(expected = IOException.class)
+    public void handleCallbackBodyTest_invalidBody() throws Exception {
+        callbackHandler.handleCallbackAsync("dummy body".getBytes(StandardCharsets.UTF_8));
+    }
+
+    private CallbackHandler speculativeCallbackHandler() {
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setSpeculativeWitParse(true);
+        config.setSpeculativeOffsetHours(0);
+        return new CallbackHandler(config, jersey);
+    }
+
+    private WitResponse createWitResponse(String date) throws IOException {
+        String witResponseString = "{\"msg_id\":\"03zff2HjZnMuFXtxw\",\"_text\":\"in 5 secs\",\"entities\":" +
+            "{\"datetime\":[{\"confidence\":0.968155,\"value\":\"" + date + "\",\"grain\":\"second\"," +
+            "\"type\":\"value\"}]}}";
+        return new ObjectMapper().readValue(witResponseString, WitResponse.class);
+    }
+
+    private WitResponse createWitResponse() throws IOException {
+        String witResponseString = "{\"msg_id\":\"03zff2HjZnMuFXtxw\",\"_text\":\"in 5 secs; yassss\",\"entities\":{\"datetime\":[{\"confidence\":0.968155,\"values\":[{\"value\":\"2014-10-30T12:18:50.000+07:00\",\"grain\":\"second\",\"type\":\"value\"}],\"value\":\"2014-10-30T12:18:50.000+07:00\",\"grain\":\"second\",\"type\":\"value\"}]}}";
+        return new ObjectMapper().readValue(witResponseString, WitResponse.class);
+    }
+
+    private Callback createQuickReplyPayload(QuickReply quickReply) {
+        Message message = Message.builder().mid(nextMid()).quickReply(quickReply).seq(1).build();
+        Messaging messaging = Messaging.builder().sender(new User("some_id")).message(message).build();
+        Entry entry = Entry.builder()
+            .id(123)
+            .time(1503652953801L)
+            .messaging(Collections.singletonList(messaging))
+            .build();
+
+        return Callback.builder().object("page").entry(Collections.singletonList(entry)).build();
+    }
+
+    private String nextMid() {
+        return "mid." + mids.incrementAndGet();
     }
 
     private Callback createProcessMessagePayload(String text) {
-        Message message = Message.builder().mid("some_mid").seq(1).text(text).build();
+        Message message = Message.builder().mid(nextMid()).seq(1).text(text).build();
         Messaging messaging = Messaging.builder().sender(new User("some_id")).message(message).timestamp(1503652953801L).build();
         List<Messaging> messagings = Collections.singletonList(messaging);
         Entry entry = Entry.builder().id(123).time(1503652953801L).messaging(messagings).build();
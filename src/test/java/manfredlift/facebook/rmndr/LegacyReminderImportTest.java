@@ -0,0 +1,83 @@
+package manfredlift.facebook.rmndr;
+
+import manfredlift.facebook.rmndr.store.InMemoryReminderRepository;
+import manfredlift.facebook.rmndr.store.Reminder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.impl.StdSchedulerFactory;
+import org.quartz.simpl.RAMJobStore;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+public class LegacyReminderImportTest {
+    private Scheduler scheduler;
+    private InMemoryReminderRepository repository;
+
+    @Before
+    public void setup() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(StdSchedulerFactory.PROP_SCHED_INSTANCE_NAME, "LegacyReminderImportTest");
+        properties.setProperty(StdSchedulerFactory.PROP_JOB_STORE_CLASS, RAMJobStore.class.getName());
+        properties.setProperty("org.quartz.threadPool.threadCount", "1");
+        scheduler = new StdSchedulerFactory(properties).getScheduler();
+        repository = new InMemoryReminderRepository();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void runTest_movesReminderJobs() throws Exception {
+        scheduler.scheduleJob(
+            newJob(ReminderJob.class).withIdentity("random_id", "some_id")
+                .usingJobData("recipient", "some_id")
+                .usingJobData("text", "some_text")
+                .usingJobData("date", "2050-09-11T12:30:00.000+01:00")
+                .build(),
+            newTrigger().withIdentity("random_trigger", "some_id").startAt(new Date(2546508600000L)).build());
+
+        assertEquals(1, LegacyReminderImport.run(scheduler, repository));
+
+        Reminder reminder = Reminder.builder()
+            .id("random_id")
+            .userId("some_id")
+            .text("some_text")
+            .date("2050-09-11T12:30:00.000+01:00")
+            .fireTime(2546508600000L)
+            .build();
+        assertEquals(Collections.singletonList(reminder), repository.findByUser("some_id"));
+        assertFalse(scheduler.checkExists(new JobKey("random_id", "some_id")));
+        assertEquals(0, LegacyReminderImport.run(scheduler, repository));
+    }
+
+    @Test
+    public void runTest_leavesOtherJobs() throws Exception {
+        scheduler.scheduleJob(
+            newJob(OtherJob.class).withIdentity("other_job", "some_group").build(),
+            newTrigger().startAt(new Date(2546508600000L)).build());
+
+        assertEquals(0, LegacyReminderImport.run(scheduler, repository));
+        assertTrue(scheduler.checkExists(new JobKey("other_job", "some_group")));
+    }
+
+    public static class OtherJob implements Job {
+        @Override
+        public void execute(JobExecutionContext context) {
+        }
+    }
+}
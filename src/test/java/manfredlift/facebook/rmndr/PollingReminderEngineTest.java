@@ -0,0 +1,39 @@
+package manfredlift.facebook.rmndr;
+
+import manfredlift.facebook.rmndr.store.InMemoryReminderRepository;
+import manfredlift.facebook.rmndr.store.Reminder;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PollingReminderEngineTest {
+    private final InMemoryReminderRepository repository = new InMemoryReminderRepository();
+    private final PollingReminderEngine engine = new PollingReminderEngine(repository);
+
+    @Test
+    public void scheduleTest_leftToThePoller() throws Exception {
+        Reminder reminder = reminder("id_1");
+        engine.schedule(reminder);
+
+        assertEquals(Collections.singletonList(reminder), repository.claimDue(1000, 10, 500));
+    }
+
+    @Test
+    public void cancelTest() throws Exception {
+        engine.schedule(reminder("id_1"));
+        engine.schedule(reminder("id_2"));
+
+        assertFalse(engine.cancel("other_user", "id_1"));
+        assertTrue(engine.cancel("some_user", "id_1"));
+        assertEquals(1, engine.cancelAll("some_user"));
+        assertEquals(Collections.emptyList(), repository.claimDue(1000, 10, 500));
+    }
+
+    private static Reminder reminder(String id) {
+        return Reminder.builder().id(id).userId("some_user").text("some_text").date("some_date").fireTime(1000).build();
+    }
+}
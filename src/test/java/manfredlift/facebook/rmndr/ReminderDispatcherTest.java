@@ -0,0 +1,149 @@
+package manfredlift.facebook.rmndr;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import manfredlift.facebook.rmndr.client.FbClient;
+import manfredlift.facebook.rmndr.client.SendFailedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReminderDispatcherTest {
+    private static final int CONCURRENCY = 2;
+
+    @Mock
+    private FbClient fbClient;
+
+    private MetricRegistry metrics;
+    private ReminderDispatcher dispatcher;
+    private List<CompletableFuture<Void>> sends;
+
+    @Before
+    public void setup() {
+        metrics = new MetricRegistry();
+        dispatcher = new ReminderDispatcher(fbClient, 4, CONCURRENCY, Duration.seconds(5), metrics);
+        sends = new CopyOnWriteArrayList<>();
+        when(fbClient.sendTextMessage(anyString(), anyString())).thenAnswer(invocation -> {
+            CompletableFuture<Void> send = new CompletableFuture<>();
+            sends.add(send);
+            return send;
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        when(fbClient.sendTextMessage(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+        sends.forEach(send -> send.complete(null));
+        dispatcher.stop();
+    }
+
+    @Test
+    public void sendsAtMostConcurrencyRemindersAtOnce() throws Exception {
+        dispatcher.start();
+        for (int i = 0; i < 4; i++) {
+            dispatcher.dispatch("recipient_" + i, "some_text", System.currentTimeMillis());
+        }
+
+        verify(fbClient, timeout(1000).times(CONCURRENCY)).sendTextMessage(anyString(), anyString());
+        Thread.sleep(100);
+        assertEquals(CONCURRENCY, sends.size());
+
+        awaitSend(0).complete(null);
+        verify(fbClient, timeout(1000).times(CONCURRENCY + 1)).sendTextMessage(anyString(), anyString());
+        verify(fbClient).sendTextMessage("recipient_0", "some_text");
+        verify(fbClient).sendTextMessage("recipient_2", "some_text");
+    }
+
+    @Test
+    public void recordsDeliveryLag() throws Exception {
+        dispatcher.start();
+        dispatcher.dispatch("some_recipient", "some_text", System.currentTimeMillis() - 2000);
+
+        awaitSend(0).complete(null);
+
+        Histogram deliveryLag = metrics.histogram("manfredlift.facebook.rmndr.ReminderDispatcher.delivery-lag");
+        await(() -> deliveryLag.getCount() == 1);
+        assertTrue(deliveryLag.getSnapshot().getMax() >= 2000);
+    }
+
+    @Test
+    public void completesDispatchOnceSent() throws Exception {
+        dispatcher.start();
+        CompletableFuture<Void> dispatched =
+            dispatcher.dispatch("some_recipient", "some_text", System.currentTimeMillis());
+
+        CompletableFuture<Void> send = awaitSend(0);
+        assertFalse(dispatched.isDone());
+
+        send.complete(null);
+        dispatched.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void countsRefusedReminders() throws Exception {
+        dispatcher.start();
+        CompletableFuture<Void> dispatched =
+            dispatcher.dispatch("some_recipient", "some_text", System.currentTimeMillis());
+
+        awaitSend(0).completeExceptionally(new SendFailedException("The Send API responded 400", true));
+
+        assertTrue(dispatched.isCompletedExceptionally());
+        assertEquals(1, metrics.meter("manfredlift.facebook.rmndr.ReminderDispatcher.refused").getCount());
+    }
+
+    @Test
+    public void sendsOnCallingThreadWhenQueueIsFull() {
+        // not started, so nothing drains the queue of 4
+        for (int i = 0; i < 5; i++) {
+            dispatcher.dispatch("recipient_" + i, "some_text", System.currentTimeMillis());
+        }
+
+        verify(fbClient).sendTextMessage("recipient_4", "some_text");
+        assertEquals(1, metrics.meter("manfredlift.facebook.rmndr.ReminderDispatcher.caller-runs").getCount());
+    }
+
+    @Test
+    public void stopSendsQueuedReminders() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            dispatcher.dispatch("recipient_" + i, "some_text", System.currentTimeMillis());
+        }
+        when(fbClient.sendTextMessage(anyString(), anyString())).thenReturn(CompletableFuture.completedFuture(null));
+
+        dispatcher.stop();
+
+        verify(fbClient, times(3)).sendTextMessage(anyString(), anyString());
+    }
+
+    private CompletableFuture<Void> awaitSend(int index) throws InterruptedException {
+        await(() -> sends.size() > index);
+        return sends.get(index);
+    }
+
+    // the mock records a send before its answer returns the future the dispatcher completes on
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met within 1s");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
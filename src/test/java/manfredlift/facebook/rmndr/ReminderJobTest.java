@@ -1,6 +1,5 @@
 package manfredlift.facebook.rmndr;
 
-import manfredlift.facebook.rmndr.client.FbClient;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -10,7 +9,8 @@ import org.mockito.junit.MockitoJUnitRunner;
 import org.quartz.JobDataMap;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
-import org.quartz.SchedulerException;
+
+import java.util.Date;
 
 import static org.mockito.Mockito.*;
 
@@ -18,6 +18,7 @@ import static org.mockito.Mockito.*;
 public class ReminderJobTest {
     private final static String RECIPIENT = "some_recipient";
     private final static String TEXT = "some_text";
+    private final static long SCHEDULED_MILLIS = 1505211935893L;
 
     private ReminderJob reminderJob;
 
@@ -25,42 +26,26 @@ public class ReminderJobTest {
     private JobExecutionContext jobExecutionContext;
 
     @Mock
-    private FbClient fbClient;
+    private ReminderDispatcher dispatcher;
 
     @Before
-    public void setup() throws SchedulerException {
-        reminderJob = new ReminderJob();
-        when(jobExecutionContext.getScheduler().getContext().get(RmndrConstants.FB_CLIENT)).thenReturn(fbClient);
+    public void setup() {
+        reminderJob = new ReminderJob(dispatcher);
 
         JobDataMap jobDataMap = new JobDataMap();
         jobDataMap.put("recipient", RECIPIENT);
         jobDataMap.put("text", TEXT);
 
         when(jobExecutionContext.getJobDetail().getJobDataMap()).thenReturn(jobDataMap);
+        when(jobExecutionContext.getScheduledFireTime()).thenReturn(new Date(SCHEDULED_MILLIS));
     }
 
     @Test
     public void executionTest_success() throws JobExecutionException {
         reminderJob.execute(jobExecutionContext);
 
-        verify(fbClient).sendTextMessage(RECIPIENT, TEXT);
-        verifyNoMoreInteractions(fbClient);
-    }
-
-    @Test(expected=JobExecutionException.class)
-    public void executionTest_exception() throws Exception {
-        when(jobExecutionContext.getScheduler().getContext()).thenThrow(SchedulerException.class);
-
-        reminderJob.execute(jobExecutionContext);
-        verifyZeroInteractions(fbClient);
-    }
-
-    @Test
-    public void executionTest_exceptionAfter100Retries() throws Exception {
-        when(jobExecutionContext.getScheduler().getContext()).thenThrow(SchedulerException.class);
-        when(jobExecutionContext.getRefireCount()).thenReturn(1000);
-
-        reminderJob.execute(jobExecutionContext);
-        verifyZeroInteractions(fbClient);
+        verify(dispatcher).dispatch(RECIPIENT, TEXT, SCHEDULED_MILLIS);
+        verifyNoMoreInteractions(dispatcher);
+        verify(jobExecutionContext, never()).getScheduler();
     }
 }
@@ -0,0 +1,203 @@
+package manfredlift.facebook.rmndr;
+
+import com.codahale.metrics.MetricRegistry;
+import manfredlift.facebook.rmndr.client.SendFailedException;
+import manfredlift.facebook.rmndr.client.SendQueue;
+import manfredlift.facebook.rmndr.factories.SendQueueFactory;
+import manfredlift.facebook.rmndr.store.InMemoryReminderRepository;
+import manfredlift.facebook.rmndr.store.Reminder;
+import manfredlift.facebook.rmndr.store.ReminderRepository;
+import manfredlift.facebook.rmndr.store.ReminderStoreException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.quartz.JobExecutionContext;
+
+import javax.ws.rs.core.Response;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReminderPollJobTest {
+    private static final int BATCH_SIZE = 2;
+    private static final long LEASE_MILLIS = 60000;
+
+    @Mock
+    private ReminderRepository repository;
+
+    @Mock
+    private ReminderDispatcher dispatcher;
+
+    @Mock
+    private JobExecutionContext jobExecutionContext;
+
+    private ReminderPollJob pollJob;
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setup() {
+        pollJob = new ReminderPollJob(repository, dispatcher, BATCH_SIZE, LEASE_MILLIS);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void executionTest_completesSentReminders() throws Exception {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        when(repository.claimDue(anyLong(), eq(BATCH_SIZE), eq(LEASE_MILLIS)))
+            .thenReturn(Collections.singletonList(reminder("id_1")));
+        when(dispatcher.dispatch("some_user", "some_text", 1505211935893L)).thenReturn(sent);
+
+        pollJob.execute(jobExecutionContext);
+
+        verify(dispatcher).dispatch("some_user", "some_text", 1505211935893L);
+        verify(repository, never()).complete(anyString());
+
+        sent.complete(null);
+        verify(repository).complete("id_1");
+    }
+
+    @Test
+    public void executionTest_claimsUntilFewerThanBatchSizeAreDue() throws Exception {
+        when(repository.claimDue(anyLong(), eq(BATCH_SIZE), eq(LEASE_MILLIS)))
+            .thenReturn(Arrays.asList(reminder("id_1"), reminder("id_2")))
+            .thenReturn(Collections.singletonList(reminder("id_3")));
+        when(dispatcher.dispatch("some_user", "some_text", 1505211935893L))
+            .thenReturn(CompletableFuture.completedFuture(null));
+
+        pollJob.execute(jobExecutionContext);
+
+        verify(repository, times(2)).claimDue(anyLong(), anyInt(), anyLong());
+        verify(dispatcher, times(3)).dispatch("some_user", "some_text", 1505211935893L);
+        verify(repository).complete("id_1");
+        verify(repository).complete("id_2");
+        verify(repository).complete("id_3");
+    }
+
+    @Test
+    public void executionTest_unsentRemindersStayClaimed() throws Exception {
+        CompletableFuture<Void> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException("some_error"));
+        when(repository.claimDue(anyLong(), eq(BATCH_SIZE), eq(LEASE_MILLIS)))
+            .thenReturn(Collections.singletonList(reminder("id_1")));
+        when(dispatcher.dispatch("some_user", "some_text", 1505211935893L)).thenReturn(failed);
+
+        pollJob.execute(jobExecutionContext);
+
+        verify(repository, never()).complete(anyString());
+    }
+
+    @Test
+    public void executionTest_droppedReminderSentAgain() throws Exception {
+        List<CompletableFuture<Void>> sends = sendThroughQueue(Response.status(500).build(), Response.ok().build());
+        InMemoryReminderRepository inMemoryRepository = new InMemoryReminderRepository();
+        inMemoryRepository.save(reminder("id_1"));
+        ReminderPollJob inMemoryPollJob = new ReminderPollJob(inMemoryRepository, dispatcher, BATCH_SIZE, 1);
+
+        inMemoryPollJob.execute(jobExecutionContext);
+        assertFalse(SendFailedException.isPermanent(awaitFailure(sends.get(0))));
+        assertEquals(1, inMemoryRepository.findByUser("some_user").size());
+
+        // once the lease ran out the next poll claims and sends it again
+        Thread.sleep(10);
+        inMemoryPollJob.execute(jobExecutionContext);
+        verify(dispatcher, times(2)).dispatch("some_user", "some_text", 1505211935893L);
+        sends.get(1).get(5, TimeUnit.SECONDS);
+        awaitRemoved(inMemoryRepository);
+    }
+
+    @Test
+    public void executionTest_refusedReminderRemoved() throws Exception {
+        List<CompletableFuture<Void>> sends = sendThroughQueue(Response.status(400).build());
+        InMemoryReminderRepository inMemoryRepository = new InMemoryReminderRepository();
+        inMemoryRepository.save(reminder("id_1"));
+        ReminderPollJob inMemoryPollJob = new ReminderPollJob(inMemoryRepository, dispatcher, BATCH_SIZE, 1);
+
+        inMemoryPollJob.execute(jobExecutionContext);
+        assertTrue(SendFailedException.isPermanent(awaitFailure(sends.get(0))));
+        awaitRemoved(inMemoryRepository);
+
+        Thread.sleep(10);
+        inMemoryPollJob.execute(jobExecutionContext);
+        verify(dispatcher).dispatch("some_user", "some_text", 1505211935893L);
+    }
+
+    @Test
+    public void executionTest_storeError() throws Exception {
+        when(repository.claimDue(anyLong(), anyInt(), anyLong()))
+            .thenThrow(new ReminderStoreException("some_error", new SQLException()));
+
+        pollJob.execute(jobExecutionContext);
+
+        verifyZeroInteractions(dispatcher);
+    }
+
+    /**
+     * Sends every dispatched reminder through a real {@link SendQueue} that gets the responses in turn.
+     */
+    private List<CompletableFuture<Void>> sendThroughQueue(Response... responses) {
+        SendQueueFactory config = new SendQueueFactory();
+        config.setMaxRetries(0);
+        SendQueue sendQueue = new SendQueue(config, scheduler, new MetricRegistry());
+        List<Response> remaining = new CopyOnWriteArrayList<>(responses);
+        List<CompletableFuture<Void>> sends = new CopyOnWriteArrayList<>();
+        when(dispatcher.dispatch("some_user", "some_text", 1505211935893L)).thenAnswer(invocation -> {
+            CompletableFuture<Void> send = sendQueue.submit("some_user",
+                () -> CompletableFuture.completedFuture(remaining.remove(0)));
+            sends.add(send);
+            return send;
+        });
+        return sends;
+    }
+
+    private static Throwable awaitFailure(CompletableFuture<Void> send) throws Exception {
+        try {
+            send.get(5, TimeUnit.SECONDS);
+            throw new AssertionError("Expected the send to fail");
+        } catch (ExecutionException e) {
+            return e.getCause();
+        }
+    }
+
+    // the poll job completes the reminder in a dependent of the send future
+    private static void awaitRemoved(InMemoryReminderRepository repository) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!repository.findByUser("some_user").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.emptyList(), repository.findByUser("some_user"));
+    }
+
+    private static Reminder reminder(String id) {
+        return Reminder.builder()
+            .id(id)
+            .userId("some_user")
+            .text("some_text")
+            .date("2017-09-12T11:25:35.893+01:00")
+            .fireTime(1505211935893L)
+            .build();
+    }
+}
@@ -0,0 +1,161 @@
+package manfredlift.facebook.rmndr;
+
+import com.codahale.metrics.MetricRegistry;
+import manfredlift.facebook.rmndr.concurrent.HierarchicalTimingWheel;
+import manfredlift.facebook.rmndr.store.InMemoryReminderRepository;
+import manfredlift.facebook.rmndr.store.Reminder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TimingWheelReminderEngineTest {
+    private static final long HORIZON_MILLIS = 60000;
+    private static final long LEASE_MILLIS = 300000;
+
+    @Mock
+    private ReminderDispatcher dispatcher;
+
+    private InMemoryReminderRepository repository;
+    private TimingWheelReminderEngine engine;
+    private boolean stopped;
+
+    @Before
+    public void setup() {
+        repository = new InMemoryReminderRepository();
+        engine = new TimingWheelReminderEngine(repository, dispatcher,
+            new HierarchicalTimingWheel(1, 64, "test-wheel"), HORIZON_MILLIS, LEASE_MILLIS, new MetricRegistry());
+        engine.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (!stopped) {
+            engine.stop();
+        }
+    }
+
+    @Test
+    public void scheduleTest_nearReminderFiredByTheWheel() throws Exception {
+        CompletableFuture<Void> sent = new CompletableFuture<>();
+        long fireTime = System.currentTimeMillis() + 100;
+        when(dispatcher.dispatch("some_user", "some_text", fireTime)).thenReturn(sent);
+
+        engine.schedule(reminder("id_1", fireTime));
+
+        assertEquals(Collections.emptyList(), repository.claimDue(fireTime + 1000, 10, LEASE_MILLIS));
+        verify(dispatcher, timeout(5000)).dispatch("some_user", "some_text", fireTime);
+        assertEquals(1, repository.findByUser("some_user").size());
+
+        // completed on the wheel thread if it did not add the callback yet
+        sent.complete(null);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!repository.findByUser("some_user").isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Collections.emptyList(), repository.findByUser("some_user"));
+    }
+
+    @Test
+    public void scheduleTest_farReminderLeftToThePoller() throws Exception {
+        long fireTime = System.currentTimeMillis() + HORIZON_MILLIS + 1000;
+
+        engine.schedule(reminder("id_1", fireTime));
+
+        assertEquals(Collections.singletonList(reminder("id_1", fireTime)),
+            repository.claimDue(fireTime, 10, LEASE_MILLIS));
+        verifyZeroInteractions(dispatcher);
+    }
+
+    @Test
+    public void cancelTest_heldReminderNotFired() throws Exception {
+        long fireTime = System.currentTimeMillis() + 200;
+        engine.schedule(reminder("id_1", fireTime));
+
+        assertFalse(engine.cancel("other_user", "id_1"));
+        assertTrue(engine.cancel("some_user", "id_1"));
+
+        awaitFiredAfter(fireTime);
+        verify(dispatcher, never()).dispatch("some_user", "some_text", fireTime);
+        assertEquals(Collections.emptyList(), ids(repository.findByUser("some_user")));
+    }
+
+    @Test
+    public void cancelAllTest_heldAndPolledReminders() throws Exception {
+        long now = System.currentTimeMillis();
+        engine.schedule(reminder("id_1", now + 200));
+        engine.schedule(reminder("id_2", now + HORIZON_MILLIS + 1000));
+
+        assertEquals(2, engine.cancelAll("some_user"));
+
+        awaitFiredAfter(now + 200);
+        verify(dispatcher, never()).dispatch(eq("some_user"), eq("some_text"), anyLong());
+        assertEquals(Collections.emptyList(), repository.claimDue(now + HORIZON_MILLIS + 1000, 10, LEASE_MILLIS));
+    }
+
+    @Test
+    public void stopTest_releasesHeldReminders() throws Exception {
+        long fireTime = System.currentTimeMillis() + 10000;
+        engine.schedule(reminder("id_1", fireTime));
+
+        engine.stop();
+        stopped = true;
+
+        assertEquals(Collections.singletonList(reminder("id_1", fireTime)),
+            repository.claimDue(fireTime, 10, LEASE_MILLIS));
+        verify(dispatcher, never()).dispatch(anyString(), anyString(), anyLong());
+    }
+
+    /**
+     * Waits until the wheel fired a reminder held for after the fire time, so one it held for that time would have
+     * fired already.
+     */
+    private void awaitFiredAfter(long fireTime) throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        when(dispatcher.dispatch(eq("other_user"), eq("later_text"), anyLong())).thenAnswer(invocation -> {
+            fired.countDown();
+            return new CompletableFuture<Void>();
+        });
+        engine.schedule(Reminder.builder()
+            .id("later")
+            .userId("other_user")
+            .text("later_text")
+            .date("some_date")
+            .fireTime(fireTime + 50)
+            .build());
+
+        assertTrue(fired.await(5, TimeUnit.SECONDS));
+    }
+
+    private static List<String> ids(List<Reminder> reminders) {
+        return reminders.stream().map(Reminder::getId).collect(Collectors.toList());
+    }
+
+    private static Reminder reminder(String id, long fireTime) {
+        return Reminder.builder()
+            .id(id)
+            .userId("some_user")
+            .text("some_text")
+            .date("some_date")
+            .fireTime(fireTime)
+            .build();
+    }
+}
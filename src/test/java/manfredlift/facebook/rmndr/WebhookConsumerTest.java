@@ -0,0 +1,168 @@
+package manfredlift.facebook.rmndr;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import manfredlift.facebook.rmndr.store.WebhookLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@RunWith(MockitoJUnitRunner.class)
+public class WebhookConsumerTest {
+    private static final String CALLBACK = "{\"object\":\"page\",\"entry\":[]}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Mock
+    private CallbackHandler callbackHandler;
+
+    private WebhookLog webhookLog;
+    private WebhookConsumer consumer;
+    private List<CompletableFuture<Void>> handled;
+
+    @Before
+    public void setup() throws Exception {
+        webhookLog = WebhookLog.open(folder.getRoot().toPath(), 4096, 4);
+        consumer = new WebhookConsumer(webhookLog, callbackHandler, 2, Duration.seconds(1), new MetricRegistry());
+        handled = new CopyOnWriteArrayList<>();
+        when(callbackHandler.handleCallbackAsync(any(byte[].class)))
+            .thenAnswer(invocation -> handle(invocation.getArgument(0)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        handled.forEach(future -> future.complete(null));
+        consumer.stop();
+        webhookLog.close();
+    }
+
+    @Test
+    public void checkpointTest_stopsAtTheEarliestWebhookInFlight() throws Exception {
+        long first = webhookLog.append(bytes(CALLBACK));
+        webhookLog.append(bytes(CALLBACK));
+        consumer.start();
+        await(() -> handled.size() == 2);
+
+        handled.get(1).complete(null);
+        consumer.checkpoint();
+        assertEquals(first, webhookLog.getCheckpoint());
+
+        handled.get(0).complete(null);
+        consumer.checkpoint();
+        assertEquals(webhookLog.getEnd(), webhookLog.getCheckpoint());
+        verify(callbackHandler, times(2)).handleCallbackAsync(any(byte[].class));
+    }
+
+    @Test
+    public void readTest_atMostMaxInFlight() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            webhookLog.append(bytes(CALLBACK));
+        }
+        consumer.start();
+        await(() -> handled.size() == 2);
+        Thread.sleep(100);
+        assertEquals(2, handled.size());
+
+        handled.get(0).complete(null);
+        await(() -> handled.size() == 3);
+    }
+
+    @Test
+    public void readTest_invalidPayloadIsSkipped() throws Exception {
+        webhookLog.append(bytes("not json"));
+        webhookLog.append(bytes(CALLBACK));
+        consumer.start();
+        await(() -> handled.size() == 1);
+
+        handled.get(0).complete(null);
+        consumer.checkpoint();
+        assertEquals(webhookLog.getEnd(), webhookLog.getCheckpoint());
+    }
+
+    @Test
+    public void readTest_rejectedWebhookReadAgain() throws Exception {
+        CompletableFuture<Void> dispatched = new CompletableFuture<>();
+        doThrow(new CallbackRejectedException(dispatched, new RejectedExecutionException()))
+            .doAnswer(invocation -> handle(invocation.getArgument(0)))
+            .when(callbackHandler).handleCallbackAsync(any(byte[].class));
+        long first = webhookLog.append(bytes(CALLBACK));
+        consumer.start();
+        verify(callbackHandler, timeout(1000)).handleCallbackAsync(any(byte[].class));
+
+        consumer.checkpoint();
+        assertEquals(first, webhookLog.getCheckpoint());
+        assertEquals(0, handled.size());
+
+        dispatched.complete(null);
+        await(() -> handled.size() == 1);
+        handled.get(0).complete(null);
+        consumer.checkpoint();
+        assertEquals(webhookLog.getEnd(), webhookLog.getCheckpoint());
+    }
+
+    @Test
+    public void startTest_resumesFromTheCheckpoint() throws Exception {
+        webhookLog.append(bytes(CALLBACK));
+        long second = webhookLog.append(bytes(CALLBACK));
+        webhookLog.checkpoint(second);
+        consumer.start();
+        await(() -> handled.size() == 1);
+        Thread.sleep(100);
+
+        assertEquals(1, handled.size());
+    }
+
+    @Test
+    public void stopTest_writesTheLastCheckpoint() throws Exception {
+        webhookLog.append(bytes(CALLBACK));
+        consumer.start();
+        await(() -> handled.size() == 1);
+        handled.get(0).complete(null);
+
+        consumer.stop();
+
+        assertEquals(webhookLog.getEnd(), webhookLog.getCheckpoint());
+    }
+
+    private CompletableFuture<Void> handle(byte[] body) throws IOException {
+        if (!Arrays.equals(bytes(CALLBACK), body)) {
+            throw new IOException("Not a callback");
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        handled.add(future);
+        return future;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError("Condition not met within 1s");
+            }
+            Thread.sleep(5);
+        }
+    }
+}
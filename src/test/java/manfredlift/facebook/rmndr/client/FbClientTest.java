@@ -1,11 +1,15 @@
 package manfredlift.facebook.rmndr.client;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.MoreExecutors;
 import manfredlift.facebook.rmndr.RmndrConfiguration;
 import manfredlift.facebook.rmndr.RmndrConstants;
 import manfredlift.facebook.rmndr.api.OutboundRequest;
 import manfredlift.facebook.rmndr.api.QuickReply;
 import manfredlift.facebook.rmndr.api.UserTimezone;
+import manfredlift.facebook.rmndr.factories.SendQueueFactory;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,17 +17,23 @@ import org.mockito.Answers;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
 
 import javax.ws.rs.client.Client;
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,12 +48,21 @@ public class FbClientTest {
     @Mock(answer = Answers.RETURNS_DEEP_STUBS)
     private WebTarget target;
 
+    private ScheduledExecutorService scheduler;
+
     @Before
     public void setup() {
         RmndrConfiguration config = new RmndrConfiguration();
         config.setPageAccessToken("some_access_token");
 
-        fbClient = new FbClient(config, client);
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        SendQueue sendQueue = new SendQueue(new SendQueueFactory(), scheduler, new MetricRegistry());
+        fbClient = new FbClient(config, client, MoreExecutors.newDirectExecutorService(), sendQueue);
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
     }
 
     @Test
@@ -51,12 +70,13 @@ public class FbClientTest {
         ArgumentCaptor<Entity> argumentCaptor = ArgumentCaptor.forClass(Entity.class);
         when(client.target(RmndrConstants.MESSAGES_URI).queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token"))
             .thenReturn(target);
-        when(target.request(MediaType.APPLICATION_JSON).post(any())).thenReturn(Response.ok().build());
+        when(target.request(MediaType.APPLICATION_JSON).async().post(any(), any(InvocationCallback.class)))
+            .thenAnswer(completeWith(Response.ok().build()));
 
         fbClient.sendTextMessage("some_id", "some_text").get();
 
         verify(client.target(RmndrConstants.MESSAGES_URI)).queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token");
-        verify(target.request(MediaType.APPLICATION_JSON)).post(argumentCaptor.capture());
+        verify(target.request(MediaType.APPLICATION_JSON).async()).post(argumentCaptor.capture(), any(InvocationCallback.class));
         Entity<OutboundRequest> value = argumentCaptor.getValue();
         OutboundRequest entity = value.getEntity();
 
@@ -69,12 +89,13 @@ public class FbClientTest {
         ArgumentCaptor<Entity> argumentCaptor = ArgumentCaptor.forClass(Entity.class);
         when(client.target(RmndrConstants.MESSAGES_URI).queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token"))
             .thenReturn(target);
-        when(target.request(MediaType.APPLICATION_JSON).post(any())).thenReturn(Response.ok().build());
+        when(target.request(MediaType.APPLICATION_JSON).async().post(any(), any(InvocationCallback.class)))
+            .thenAnswer(completeWith(Response.ok().build()));
 
         fbClient.sendErrorMessage("some_id", "some_error").get();
 
         verify(client.target(RmndrConstants.MESSAGES_URI)).queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token");
-        verify(target.request(MediaType.APPLICATION_JSON)).post(argumentCaptor.capture());
+        verify(target.request(MediaType.APPLICATION_JSON).async()).post(argumentCaptor.capture(), any(InvocationCallback.class));
         Entity<OutboundRequest> value = argumentCaptor.getValue();
         OutboundRequest entity = value.getEntity();
 
@@ -87,13 +108,14 @@ public class FbClientTest {
         ArgumentCaptor<Entity> argumentCaptor = ArgumentCaptor.forClass(Entity.class);
         when(client.target(RmndrConstants.MESSAGES_URI).queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token"))
             .thenReturn(target);
-        when(target.request(MediaType.APPLICATION_JSON).post(any())).thenReturn(Response.ok().build());
+        when(target.request(MediaType.APPLICATION_JSON).async().post(any(), any(InvocationCallback.class)))
+            .thenAnswer(completeWith(Response.ok().build()));
 
         QuickReply quickReplyToSend = QuickReply.builder().title("some_title").payload("some_payload").build();
         fbClient.sendQuickReply("some_id", "some_text", ImmutableList.of(quickReplyToSend)).get();
 
         verify(client.target(RmndrConstants.MESSAGES_URI)).queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token");
-        verify(target.request(MediaType.APPLICATION_JSON)).post(argumentCaptor.capture());
+        verify(target.request(MediaType.APPLICATION_JSON).async()).post(argumentCaptor.capture(), any(InvocationCallback.class));
         Entity<OutboundRequest> value = argumentCaptor.getValue();
         OutboundRequest entity = value.getEntity();
 
@@ -113,16 +135,113 @@ public class FbClientTest {
             .queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token"))
         .thenReturn(target);
 
-        when(target.request().get(UserTimezone.class)).thenReturn(new UserTimezone(3));
+        Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.OK);
+        when(response.readEntity(UserTimezone.class)).thenReturn(new UserTimezone(3));
+        when(target.request().async().get(any(InvocationCallback.class))).thenAnswer(completeWith(response));
 
         UserTimezone userTimezone = fbClient.getUserTimezoneFuture(userId).get();
 
         verify(client.target(RmndrConstants.BASE_URI).path(userId).queryParam(RmndrConstants.FIELDS, "timezone"))
             .queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token");
-        verify(target.request()).get(UserTimezone.class);
+        verify(target.request().async()).get(any(InvocationCallback.class));
 
         assertEquals(3, userTimezone.getOffsetHours());
     }
 
+    @Test
+    public void getUserTimezoneTest_configuredGraphApiUri() throws ExecutionException, InterruptedException {
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setPageAccessToken("some_access_token");
+        config.setGraphApiUri("http://localhost:8090/v2.6");
+        SendQueue sendQueue = new SendQueue(new SendQueueFactory(), scheduler, new MetricRegistry());
+        fbClient = new FbClient(config, client, MoreExecutors.newDirectExecutorService(), sendQueue);
+
+        String userId = "some_id";
+        when(client.target("http://localhost:8090/v2.6")
+            .path(userId)
+            .queryParam(RmndrConstants.FIELDS, "timezone")
+            .queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token"))
+        .thenReturn(target);
+
+        Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.OK);
+        when(response.readEntity(UserTimezone.class)).thenReturn(new UserTimezone(3));
+        when(target.request().async().get(any(InvocationCallback.class))).thenAnswer(completeWith(response));
+
+        assertEquals(3, fbClient.getUserTimezoneFuture(userId).get().getOffsetHours());
+    }
+
+    @Test(expected = ExecutionException.class)
+    public void getUserTimezoneTest_errorStatus() throws ExecutionException, InterruptedException {
+        String userId = "some_id";
+
+        when(client.target(RmndrConstants.BASE_URI)
+            .path(userId)
+            .queryParam(RmndrConstants.FIELDS, "timezone")
+            .queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token"))
+        .thenReturn(target);
+
+        Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.BAD_REQUEST);
+        when(target.request().async().get(any(InvocationCallback.class))).thenAnswer(completeWith(response));
+
+        fbClient.getUserTimezoneFuture(userId).get();
+    }
+
+    @Test
+    public void getUserTimezoneTest_cached() throws ExecutionException, InterruptedException {
+        String userId = "some_id";
+
+        when(client.target(RmndrConstants.BASE_URI)
+            .path(userId)
+            .queryParam(RmndrConstants.FIELDS, "timezone")
+            .queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token"))
+        .thenReturn(target);
+
+        Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.OK);
+        when(response.readEntity(UserTimezone.class)).thenReturn(new UserTimezone(3));
+        when(target.request().async().get(any(InvocationCallback.class))).thenAnswer(completeWith(response));
+
+        assertEquals(3, fbClient.getUserTimezoneFuture(userId).get().getOffsetHours());
+        assertEquals(3, fbClient.getUserTimezoneFuture(userId).get().getOffsetHours());
+
+        verify(target.request().async(), times(1)).get(any(InvocationCallback.class));
+        assertEquals(1, fbClient.getTimezoneCache().stats().hitCount());
+    }
+
+    @Test
+    public void getUserTimezoneTest_failureNotCached() throws InterruptedException {
+        String userId = "some_id";
+
+        when(client.target(RmndrConstants.BASE_URI)
+            .path(userId)
+            .queryParam(RmndrConstants.FIELDS, "timezone")
+            .queryParam(RmndrConstants.ACCESS_TOKEN, "some_access_token"))
+        .thenReturn(target);
+
+        Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.BAD_REQUEST);
+        when(target.request().async().get(any(InvocationCallback.class))).thenAnswer(completeWith(response));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                fbClient.getUserTimezoneFuture(userId).get();
+            } catch (ExecutionException expected) {
+                // expected, Graph API returned an error
+            }
+        }
+
+        verify(target.request().async(), times(2)).get(any(InvocationCallback.class));
+    }
+
+    static Answer<Object> completeWith(Response response) {
+        return invocation -> {
+            InvocationCallback<Response> callback = invocation.getArgument(invocation.getArguments().length - 1);
+            callback.completed(response);
+            return null;
+        };
+    }
 
 }
@@ -0,0 +1,135 @@
+package manfredlift.facebook.rmndr.client;
+
+import com.codahale.metrics.MetricRegistry;
+import com.github.tomakehurst.wiremock.common.FileSource;
+import com.github.tomakehurst.wiremock.extension.Parameters;
+import com.github.tomakehurst.wiremock.extension.ResponseDefinitionTransformer;
+import com.github.tomakehurst.wiremock.http.Request;
+import com.github.tomakehurst.wiremock.http.ResponseDefinition;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import io.dropwizard.client.JerseyClientBuilder;
+import io.dropwizard.client.JerseyClientConfiguration;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.util.Duration;
+import manfredlift.facebook.rmndr.api.UserTimezone;
+import org.glassfish.jersey.client.ClientProperties;
+import org.glassfish.jersey.jetty.connector.JettyConnectorProvider;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.client.Client;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCallbackTest {
+    private static final int REQUESTS = 40;
+
+    private final CountDownLatch inFlight = new CountDownLatch(REQUESTS);
+
+    @Rule
+    public WireMockRule wireMock = new WireMockRule(wireMockConfig().dynamicPort().containerThreads(64)
+        .extensions(new AwaitAllRequests()));
+
+    private Client client;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        // wired like the application's client, the executor is the client's only pool
+        executor = Executors.newFixedThreadPool(2);
+        JerseyClientConfiguration configuration = new JerseyClientConfiguration();
+        configuration.setTimeout(Duration.seconds(30));
+        configuration.setGzipEnabled(false);
+        client = new JerseyClientBuilder(new MetricRegistry())
+            .using(configuration)
+            .using(new JettyConnectorProvider())
+            .using(executor, Jackson.newObjectMapper())
+            .withProperty(ClientProperties.READ_TIMEOUT, 30000)
+            .build("test");
+    }
+
+    @After
+    public void tearDown() {
+        client.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentRequestsDoNotHoldThreads() throws Exception {
+        wireMock.stubFor(get(urlEqualTo("/some_id"))
+            .willReturn(aResponse().withStatus(200)
+                .withHeader("Content-Type", "application/json")
+                .withBody("{\"timezone\":3}")
+                .withTransformers(AwaitAllRequests.NAME)));
+
+        List<CompletableFuture<UserTimezone>> futures = new ArrayList<>();
+        for (int i = 0; i < REQUESTS; i++) {
+            ResponseCallback callback = new ResponseCallback();
+            client.target("http://localhost:" + wireMock.port() + "/some_id").request().async().get(callback);
+            futures.add(callback.future()
+                .thenApplyAsync(response -> ResponseCallback.readEntity(response, UserTimezone.class), executor));
+        }
+
+        // the server answers none of them until all are in flight, which two parked client threads could not do
+        assertTrue(inFlight.await(30, TimeUnit.SECONDS));
+        for (CompletableFuture<UserTimezone> future : futures) {
+            assertThat(future.get(30, TimeUnit.SECONDS).getOffsetHours(), equalTo(3));
+        }
+    }
+
+    @Test
+    public void errorStatusFailsEntityRead() throws Exception {
+        wireMock.stubFor(get(urlEqualTo("/some_id")).willReturn(aResponse().withStatus(400)));
+
+        ResponseCallback callback = new ResponseCallback();
+        client.target("http://localhost:" + wireMock.port() + "/some_id").request().async().get(callback);
+        CompletableFuture<UserTimezone> future = callback.future()
+            .thenApplyAsync(response -> ResponseCallback.readEntity(response, UserTimezone.class), executor);
+
+        try {
+            future.get(10, TimeUnit.SECONDS);
+            throw new AssertionError("Should have failed on the 400 response");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getClass(), equalTo(WebApplicationException.class));
+        }
+    }
+
+    /**
+     * Holds every request it is applied to until {@link #REQUESTS} of them arrived.
+     */
+    private class AwaitAllRequests extends ResponseDefinitionTransformer {
+        private static final String NAME = "await-all-requests";
+
+        @Override
+        public ResponseDefinition transform(Request request, ResponseDefinition responseDefinition, FileSource files,
+                                            Parameters parameters) {
+            inFlight.countDown();
+            try {
+                inFlight.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return responseDefinition;
+        }
+
+        @Override
+        public boolean applyGlobally() {
+            return false;
+        }
+
+        @Override
+        public String getName() {
+            return NAME;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package manfredlift.facebook.rmndr.client;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.util.Duration;
+import manfredlift.facebook.rmndr.factories.SendQueueFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SendQueueTest {
+    private ScheduledExecutorService scheduler;
+    private MetricRegistry metrics;
+    private SendQueueFactory config;
+
+    @Before
+    public void setup() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        metrics = new MetricRegistry();
+        config = new SendQueueFactory();
+        config.setInitialBackoff(Duration.milliseconds(10));
+        config.setMaxBackoff(Duration.milliseconds(50));
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sendsOnce() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        sendQueue().submit("some_id", () -> respond(attempts, Response.ok().build())).get(5, TimeUnit.SECONDS);
+
+        assertEquals(1, attempts.get());
+        assertEquals(1, meter("sent"));
+    }
+
+    @Test
+    public void retriesThrottledAndFailedRequests() throws Exception {
+        List<Response> responses = new ArrayList<>();
+        responses.add(Response.status(429).build());
+        responses.add(Response.status(503).build());
+        responses.add(Response.ok().build());
+        AtomicInteger attempts = new AtomicInteger();
+
+        sendQueue().submit("some_id", () -> respond(attempts, responses.remove(0))).get(5, TimeUnit.SECONDS);
+
+        assertEquals(3, attempts.get());
+        assertEquals(1, meter("sent"));
+        assertEquals(1, meter("throttled"));
+        assertEquals(2, meter("retried"));
+    }
+
+    @Test
+    public void retriesConnectionErrors() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        sendQueue().submit("some_id", () -> {
+            if (attempts.incrementAndGet() == 1) {
+                CompletableFuture<Response> failed = new CompletableFuture<>();
+                failed.completeExceptionally(new ProcessingExceptionStub());
+                return failed;
+            }
+            return CompletableFuture.completedFuture(Response.ok().build());
+        }).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, attempts.get());
+        assertEquals(1, meter("sent"));
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        assertSendFailed(sendQueue().submit("some_id", () -> respond(attempts, Response.status(400).build())));
+
+        assertEquals(1, attempts.get());
+        assertEquals(1, meter("failed"));
+    }
+
+    @Test
+    public void dropsAfterMaxRetries() throws Exception {
+        config.setMaxRetries(2);
+        AtomicInteger attempts = new AtomicInteger();
+        assertSendFailed(sendQueue().submit("some_id", () -> respond(attempts, Response.status(500).build())));
+
+        assertEquals(3, attempts.get());
+        assertEquals(1, meter("dropped.retries-exhausted"));
+    }
+
+    @Test
+    public void respectsRetryAfter() throws Exception {
+        List<Response> responses = new ArrayList<>();
+        responses.add(Response.status(429).header(HttpHeaders.RETRY_AFTER, "1").build());
+        responses.add(Response.ok().build());
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        sendQueue().submit("some_id", () -> respond(attempts, responses.remove(0))).get(5, TimeUnit.SECONDS);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 1000);
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void limitsGlobalRate() throws Exception {
+        config.setGlobalRatePerSecond(20);
+        config.setGlobalBurst(1);
+        SendQueue sendQueue = sendQueue();
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(sendQueue.submit("recipient_" + i, () -> respond(attempts, Response.ok().build())));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, TimeUnit.SECONDS);
+
+        // one from the burst, then one every 50ms
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 190);
+        assertEquals(5, attempts.get());
+    }
+
+    @Test
+    public void limitsRecipientRate() throws Exception {
+        config.setRecipientRatePerSecond(10);
+        config.setRecipientBurst(1);
+        SendQueue sendQueue = sendQueue();
+        AtomicInteger attempts = new AtomicInteger();
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> first = sendQueue.submit("some_id", () -> respond(attempts, Response.ok().build()));
+        CompletableFuture<Void> second = sendQueue.submit("some_id", () -> respond(attempts, Response.ok().build()));
+        CompletableFuture<Void> other = sendQueue.submit("other_id", () -> respond(attempts, Response.ok().build()));
+        other.get(5, TimeUnit.SECONDS);
+        first.get(5, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 90);
+
+        second.get(5, TimeUnit.SECONDS);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+    }
+
+    @Test
+    public void dropsWhenQueueIsFull() throws Exception {
+        config.setQueueSize(1);
+        config.setGlobalRatePerSecond(1);
+        config.setGlobalBurst(1);
+        SendQueue sendQueue = sendQueue();
+        AtomicInteger attempts = new AtomicInteger();
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(sendQueue.submit("recipient_" + i, () -> respond(attempts, Response.ok().build())));
+        }
+
+        futures.get(0).get(5, TimeUnit.SECONDS);
+        assertTrue(meter("dropped.queue-full") >= 3);
+        assertSendFailed(futures.get(4));
+    }
+
+    @Test
+    public void retryAfterAsHttpDate() {
+        String date = java.time.format.DateTimeFormatter.RFC_1123_DATE_TIME
+            .format(java.time.ZonedDateTime.now(java.time.ZoneOffset.UTC).plusSeconds(30));
+        long nanos = SendQueue.retryAfter(Response.status(429).header(HttpHeaders.RETRY_AFTER, date).build());
+
+        assertTrue(nanos > TimeUnit.SECONDS.toNanos(28) && nanos <= TimeUnit.SECONDS.toNanos(30));
+        assertEquals(0, SendQueue.retryAfter(Response.status(429).header(HttpHeaders.RETRY_AFTER, "soon").build()));
+    }
+
+    private SendQueue sendQueue() {
+        return new SendQueue(config, scheduler, metrics);
+    }
+
+    private long meter(String name) {
+        return metrics.meter(MetricRegistry.name(SendQueue.class, name)).getCount();
+    }
+
+    private static void assertSendFailed(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the send to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof SendFailedException);
+        }
+    }
+
+    private static CompletableFuture<Response> respond(AtomicInteger attempts, Response response) {
+        attempts.incrementAndGet();
+        return CompletableFuture.completedFuture(response);
+    }
+
+    private static class ProcessingExceptionStub extends javax.ws.rs.ProcessingException {
+        ProcessingExceptionStub() {
+            super("connection refused");
+        }
+    }
+}
@@ -1,10 +1,13 @@
 package manfredlift.facebook.rmndr.client;
 
+import com.google.common.util.concurrent.MoreExecutors;
 import manfredlift.facebook.rmndr.RmndrConfiguration;
 import manfredlift.facebook.rmndr.RmndrConstants;
+import manfredlift.facebook.rmndr.api.NlpEntity;
 import manfredlift.facebook.rmndr.api.ReferenceTime;
 import manfredlift.facebook.rmndr.api.WitResponse;
 import manfredlift.facebook.rmndr.util.DateHelper;
+import manfredlift.facebook.rmndr.util.JsonCodec;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,14 +16,19 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
 import javax.ws.rs.client.Client;
+import javax.ws.rs.client.InvocationCallback;
 import javax.ws.rs.client.WebTarget;
 import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
 import java.util.concurrent.ExecutionException;
 
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -38,7 +46,7 @@ public class WitClientTest {
         RmndrConfiguration config = new RmndrConfiguration();
         config.setWitToken("some_wit_token");
 
-        witClient = new WitClient(config, client);
+        witClient = new WitClient(config, client, MoreExecutors.newDirectExecutorService(), JsonCodec.create());
     }
 
     @Test
@@ -50,8 +58,11 @@ public class WitClientTest {
             .thenReturn(target);
 
         WitResponse witResponse = WitResponse.builder().msgId("some_message_id").build();
-        when(target.request().header(HttpHeaders.AUTHORIZATION, "some_wit_token").get(WitResponse.class))
-            .thenReturn(witResponse);
+        Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.OK);
+        when(response.readEntity(WitResponse.class)).thenReturn(witResponse);
+        when(target.request().header(HttpHeaders.AUTHORIZATION, "some_wit_token").async().get(any(InvocationCallback.class)))
+            .thenAnswer(FbClientTest.completeWith(response));
 
         WitResponse returnedWitResponse = witClient.getResponseFuture("some_query", referenceTime).get();
         assertEquals(witResponse, returnedWitResponse);
@@ -59,8 +70,62 @@ public class WitClientTest {
 
         verify(client.target(RmndrConstants.WIT_URI).queryParam("q", "some_query"))
             .queryParam("context", encodedReferenceTime);
-        verify(target.request().header(HttpHeaders.AUTHORIZATION, "some_wit_token")).get(WitResponse.class);
+        verify(target.request().header(HttpHeaders.AUTHORIZATION, "some_wit_token").async())
+            .get(any(InvocationCallback.class));
     }
 
+    @Test
+    public void getResponseTest_parsedLocally() throws ExecutionException, InterruptedException {
+        ReferenceTime referenceTime = DateHelper.referenceTimeFromMillis(1505211935893L, 1);
+
+        WitResponse witResponse = witClient.getResponseFuture("in 5 mins", referenceTime).get();
+
+        NlpEntity datetime = witResponse.getEntities().get("datetime").get(0);
+        assertEquals("2017-09-12T11:30:35.000+01:00", datetime.getValue());
+        assertEquals("second", datetime.getGrain());
+        verifyZeroInteractions(client);
+    }
+
+    @Test
+    public void getResponseTest_localParsingDisabled() throws ExecutionException, InterruptedException {
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setWitToken("some_wit_token");
+        config.setLocalDateParsing(false);
+        witClient = new WitClient(config, client, MoreExecutors.newDirectExecutorService(), JsonCodec.create());
+
+        ReferenceTime referenceTime = DateHelper.referenceTimeFromMillis(1505211935893L, 1);
+        when(client.target(RmndrConstants.WIT_URI).queryParam("q", "in 5 mins").queryParam(eq("context"), anyString()))
+            .thenReturn(target);
+
+        WitResponse witResponse = WitResponse.builder().msgId("some_message_id").build();
+        Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.OK);
+        when(response.readEntity(WitResponse.class)).thenReturn(witResponse);
+        when(target.request().header(HttpHeaders.AUTHORIZATION, "some_wit_token").async().get(any(InvocationCallback.class)))
+            .thenAnswer(FbClientTest.completeWith(response));
 
+        assertEquals(witResponse, witClient.getResponseFuture("in 5 mins", referenceTime).get());
+    }
+
+    @Test
+    public void getResponseTest_configuredWitUri() throws ExecutionException, InterruptedException {
+        RmndrConfiguration config = new RmndrConfiguration();
+        config.setWitToken("some_wit_token");
+        config.setWitUri("http://localhost:8091/message");
+        witClient = new WitClient(config, client, MoreExecutors.newDirectExecutorService(), JsonCodec.create());
+
+        ReferenceTime referenceTime = DateHelper.referenceTimeFromMillis(1505211935893L, 1);
+        when(client.target("http://localhost:8091/message").queryParam("q", "next friday")
+            .queryParam(eq("context"), anyString()))
+            .thenReturn(target);
+
+        WitResponse witResponse = WitResponse.builder().msgId("some_message_id").build();
+        Response response = mock(Response.class);
+        when(response.getStatusInfo()).thenReturn(Response.Status.OK);
+        when(response.readEntity(WitResponse.class)).thenReturn(witResponse);
+        when(target.request().header(HttpHeaders.AUTHORIZATION, "some_wit_token").async().get(any(InvocationCallback.class)))
+            .thenAnswer(FbClientTest.completeWith(response));
+
+        assertEquals(witResponse, witClient.getResponseFuture("next friday", referenceTime).get());
+    }
 }
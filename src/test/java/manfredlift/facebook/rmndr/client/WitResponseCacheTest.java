@@ -0,0 +1,158 @@
+package manfredlift.facebook.rmndr.client;
+
+import com.google.common.cache.CacheBuilderSpec;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import manfredlift.facebook.rmndr.api.NlpEntity;
+import manfredlift.facebook.rmndr.api.ReferenceTime;
+import manfredlift.facebook.rmndr.api.WitResponse;
+import manfredlift.facebook.rmndr.util.DateHelper;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WitResponseCacheTest {
+    // 2017-09-12T11:25:35.893+01:00
+    private static final long TIMESTAMP = 1505211935893L;
+
+    private WitResponseCache cache;
+    private List<String> loadedQueries;
+    private List<CompletableFuture<WitResponse>> responses;
+
+    @Before
+    public void setup() {
+        cache = new WitResponseCache(CacheBuilderSpec.parse("maximumSize=100"));
+        loadedQueries = new ArrayList<>();
+        responses = new ArrayList<>();
+    }
+
+    @Test
+    public void relativeResponseIsRebasedOnLaterReferenceTime() throws Exception {
+        WitResponse response = get("in 10 minutes", TIMESTAMP, response("2017-09-12T11:35:35.000+01:00", "second")).get();
+        assertEquals("2017-09-12T11:35:35.000+01:00", datetime(response).getValue());
+
+        // 95 seconds later, in another minute
+        WitResponse cached = get("in 10 minutes", TIMESTAMP + 95_000, null).get();
+        assertEquals("2017-09-12T11:37:10.000+01:00", datetime(cached).getValue());
+        assertEquals("second", datetime(cached).getGrain());
+        assertEquals(1, loadedQueries.size());
+    }
+
+    @Test
+    public void wallClockResponseIsOnlyReusedWithinTheMinute() throws Exception {
+        get("at 5", TIMESTAMP, response("2017-09-12T17:00:00.000+01:00", "hour")).get();
+
+        WitResponse sameMinute = get("at 5", TIMESTAMP + 10_000, null).get();
+        assertEquals("2017-09-12T17:00:00.000+01:00", datetime(sameMinute).getValue());
+        assertEquals(1, loadedQueries.size());
+
+        get("at 5", TIMESTAMP + 60_000, response("2017-09-12T17:00:00.000+01:00", "hour")).get();
+        assertEquals(2, loadedQueries.size());
+    }
+
+    @Test
+    public void absoluteResponseWithSecondsIsNotRebased() throws Exception {
+        get("at 10:30:15 tomorrow", TIMESTAMP, response("2017-09-13T10:30:15.000+01:00", "second")).get();
+
+        WitResponse sameMinute = get("at 10:30:15 tomorrow", TIMESTAMP + 10_000, null).get();
+        assertEquals("2017-09-13T10:30:15.000+01:00", datetime(sameMinute).getValue());
+        assertEquals(1, loadedQueries.size());
+
+        get("at 10:30:15 tomorrow", TIMESTAMP + 95_000, response("2017-09-13T10:30:15.000+01:00", "second")).get();
+        assertEquals(2, loadedQueries.size());
+        assertEquals(0, cache.getRelativeCache().size());
+    }
+
+    @Test
+    public void combinedRelativeQueryIsRebased() throws Exception {
+        get("in 1 hour and 30 mins", TIMESTAMP, response("2017-09-12T12:55:35.000+01:00", "second")).get();
+
+        WitResponse cached = get("in 1 hour and 30 mins", TIMESTAMP + 95_000, null).get();
+        assertEquals("2017-09-12T12:57:10.000+01:00", datetime(cached).getValue());
+        assertEquals(1, loadedQueries.size());
+    }
+
+    @Test
+    public void concurrentIdenticalQueriesShareOneRequest() throws Exception {
+        CompletableFuture<WitResponse> pending = new CompletableFuture<>();
+        CompletableFuture<WitResponse> first = get("In   10 Minutes ", TIMESTAMP, pending);
+        CompletableFuture<WitResponse> second = get("in 10 minutes", TIMESTAMP + 2_000, null);
+
+        assertFalse(first.isDone());
+        pending.complete(response("2017-09-12T11:35:35.000+01:00", "second"));
+
+        assertEquals("2017-09-12T11:35:35.000+01:00", datetime(first.get()).getValue());
+        assertEquals("2017-09-12T11:35:37.000+01:00", datetime(second.get()).getValue());
+        assertEquals(ImmutableList.of("In   10 Minutes "), loadedQueries);
+    }
+
+    @Test
+    public void failuresAreNotCached() throws Exception {
+        CompletableFuture<WitResponse> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new RuntimeException());
+
+        try {
+            get("in 10 minutes", TIMESTAMP, failed).get();
+            throw new AssertionError("Should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof RuntimeException);
+        }
+
+        get("in 10 minutes", TIMESTAMP, response("2017-09-12T11:35:35.000+01:00", "second")).get();
+        assertEquals(2, loadedQueries.size());
+    }
+
+    @Test
+    public void differentOffsetsAreNotShared() throws Exception {
+        get("in 10 minutes", TIMESTAMP, response("2017-09-12T11:35:35.000+01:00", "second")).get();
+        ReferenceTime otherOffset = DateHelper.referenceTimeFromMillis(TIMESTAMP, 2);
+        cache.get("in 10 minutes", otherOffset, this::load).join();
+
+        assertEquals(2, loadedQueries.size());
+    }
+
+    @Test
+    public void normalize() {
+        assertEquals("in 10 minutes", WitResponseCache.normalize("  In 10\tMINUTES  "));
+    }
+
+    private CompletableFuture<WitResponse> get(String query, long timestamp, Object response) {
+        if (response instanceof CompletableFuture) {
+            responses.add((CompletableFuture<WitResponse>) response);
+        } else if (response != null) {
+            responses.add(CompletableFuture.completedFuture((WitResponse) response));
+        }
+        return cache.get(query, DateHelper.referenceTimeFromMillis(timestamp, 1), this::load);
+    }
+
+    private CompletableFuture<WitResponse> load(String query, ReferenceTime referenceTime) {
+        loadedQueries.add(query);
+        return responses.isEmpty()
+            ? CompletableFuture.completedFuture(response("2017-09-12T11:35:35.000+02:00", "second"))
+            : responses.remove(0);
+    }
+
+    private static WitResponse response(String value, String grain) {
+        NlpEntity entity = new NlpEntity();
+        entity.setConfidence(0.97f);
+        entity.setValue(value);
+        entity.setGrain(grain);
+        entity.setType("value");
+        return WitResponse.builder()
+            .msgId("some_id")
+            .entities(ImmutableMap.of("datetime", ImmutableList.of(entity)))
+            .build();
+    }
+
+    private static NlpEntity datetime(WitResponse response) {
+        return response.getEntities().get("datetime").get(0);
+    }
+}
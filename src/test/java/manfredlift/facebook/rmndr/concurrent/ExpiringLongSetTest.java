@@ -0,0 +1,93 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ExpiringLongSetTest {
+    private long millis = 0;
+
+    @Test
+    public void addTest_duplicateWithinWindow() {
+        ExpiringLongSet set = new ExpiringLongSet(1000, 16, () -> millis);
+
+        assertTrue(set.add(42));
+        assertTrue(set.add(43));
+        millis += 999;
+        assertFalse(set.add(42));
+
+        assertEquals(1, set.getDuplicates());
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void addTest_keptForAtLeastOneWindow() {
+        ExpiringLongSet set = new ExpiringLongSet(1000, 16, () -> millis);
+        millis += 900;
+        set.add(42);
+
+        // the tables rotate, the key is in the previous one until the next rotation
+        millis += 200;
+        assertFalse(set.add(42));
+        millis += 800;
+        assertFalse(set.add(42));
+        millis += 1000;
+        assertTrue(set.add(42));
+    }
+
+    @Test
+    public void addTest_everythingExpiresAfterTwoWindows() {
+        ExpiringLongSet set = new ExpiringLongSet(1000, 16, () -> millis);
+        set.add(42);
+        millis += 2000;
+
+        assertEquals(0, set.size());
+        assertTrue(set.add(42));
+    }
+
+    @Test
+    public void addTest_zeroAndNegativeKeys() {
+        ExpiringLongSet set = new ExpiringLongSet(1000, 16, () -> millis);
+
+        assertTrue(set.add(0));
+        assertTrue(set.add(-1));
+        assertTrue(set.add(Long.MIN_VALUE));
+        assertFalse(set.add(0));
+        assertFalse(set.add(-1));
+        assertFalse(set.add(Long.MIN_VALUE));
+    }
+
+    @Test
+    public void addTest_fullTableRotatesEarly() {
+        ExpiringLongSet set = new ExpiringLongSet(1000, 4, () -> millis);
+        for (long key = 1; key <= 8; key++) {
+            assertTrue(set.add(key));
+        }
+        assertEquals(8, set.size());
+        assertFalse(set.add(5));
+
+        // the first four keys are forgotten within the window
+        assertTrue(set.add(9));
+        assertTrue(set.add(1));
+        assertEquals(6, set.size());
+    }
+
+    @Test
+    public void addTest_fillsToMaxEntries() {
+        ExpiringLongSet set = new ExpiringLongSet(1000, 1000, () -> millis);
+        for (long key = 0; key < 1000; key++) {
+            assertTrue(set.add(key << 32));
+        }
+        for (long key = 0; key < 1000; key++) {
+            assertFalse(set.add(key << 32));
+        }
+        assertEquals(1000, set.getDuplicates());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorTest_invalidWindow() {
+        new ExpiringLongSet(0, 16);
+    }
+}
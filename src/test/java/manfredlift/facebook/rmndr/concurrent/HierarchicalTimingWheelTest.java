@@ -0,0 +1,112 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalTimingWheelTest {
+    private HierarchicalTimingWheel wheel;
+
+    @Before
+    public void setup() {
+        // levels of 8ms, 64ms, 512ms and 4s, so the tests cross levels
+        wheel = new HierarchicalTimingWheel(1, 8, "test-wheel");
+        wheel.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        wheel.stop();
+    }
+
+    @Test
+    public void runsTasksAtTheirExpiration() throws Exception {
+        long start = System.currentTimeMillis();
+        Map<Long, Long> ranAt = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(6);
+        for (long delay : new long[]{5, 30, 100, 300, 700, 1500}) {
+            wheel.schedule(start + delay, () -> {
+                ranAt.put(delay, System.currentTimeMillis() - start);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (Map.Entry<Long, Long> entry : ranAt.entrySet()) {
+            assertTrue("ran early: " + entry, entry.getValue() >= entry.getKey());
+            assertTrue("ran late: " + entry, entry.getValue() < entry.getKey() + 50);
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void runsTasksInExpirationOrder() throws Exception {
+        long start = System.currentTimeMillis();
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(50);
+        for (int i = 49; i >= 0; i--) {
+            int index = i;
+            wheel.schedule(start + 20 + index * 7, () -> {
+                order.add(index);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) order.get(i));
+        }
+    }
+
+    @Test
+    public void cancelledTaskDoesNotRun() throws Exception {
+        long start = System.currentTimeMillis();
+        CountDownLatch cancelled = new CountDownLatch(1);
+        CountDownLatch other = new CountDownLatch(1);
+        HierarchicalTimingWheel.Timeout timeout = wheel.schedule(start + 100, cancelled::countDown);
+        wheel.schedule(start + 200, other::countDown);
+
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertFalse(timeout.isPending());
+        assertEquals(1, wheel.size());
+
+        assertTrue(other.await(5, TimeUnit.SECONDS));
+        assertEquals(1, cancelled.getCount());
+    }
+
+    @Test
+    public void expiredTaskRunsOnTheCallingThread() {
+        Thread[] ranOn = new Thread[1];
+        HierarchicalTimingWheel.Timeout timeout =
+            wheel.schedule(System.currentTimeMillis() - 1000, () -> ranOn[0] = Thread.currentThread());
+
+        assertEquals(Thread.currentThread(), ranOn[0]);
+        assertFalse(timeout.isPending());
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void failingTaskDoesNotStopTheWheel() throws Exception {
+        long start = System.currentTimeMillis();
+        CountDownLatch done = new CountDownLatch(1);
+        wheel.schedule(start + 10, () -> {
+            throw new IllegalStateException("some_error");
+        });
+        wheel.schedule(start + 20, done::countDown);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+}
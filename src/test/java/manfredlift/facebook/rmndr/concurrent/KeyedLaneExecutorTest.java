@@ -0,0 +1,154 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.IsEqual.equalTo;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+
+public class KeyedLaneExecutorTest {
+    private ExecutorService executor;
+
+    @Before
+    public void setup() {
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void sameKeyRunsInSubmissionOrder() throws Exception {
+        KeyedLaneExecutor lanes = new KeyedLaneExecutor(executor, 16);
+        List<Integer> processed = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for (int i = 0; i < 1000; i++) {
+            int value = i;
+            futures.add(lanes.submit("some_id", () -> processed.add(value)));
+            futures.add(lanes.submit("other_id_" + (i % 10), () -> { }));
+        }
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+
+        assertThat(processed.size(), equalTo(1000));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(processed.get(i), equalTo(i));
+        }
+    }
+
+    @Test
+    public void differentKeysRunInParallel() throws Exception {
+        KeyedLaneExecutor lanes = new KeyedLaneExecutor(executor, 16);
+        CountDownLatch bothRunning = new CountDownLatch(2);
+
+        Runnable task = () -> {
+            bothRunning.countDown();
+            try {
+                bothRunning.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+
+        // keys chosen to land on different lanes
+        CompletableFuture<Void> first = lanes.submit(0, task);
+        CompletableFuture<Void> second = lanes.submit(1, task);
+
+        CompletableFuture.allOf(first, second).get(10, TimeUnit.SECONDS);
+        assertThat(bothRunning.getCount(), equalTo(0L));
+    }
+
+    @Test
+    public void failedTaskCompletesFutureExceptionallyAndLaneKeepsRunning() throws Exception {
+        KeyedLaneExecutor lanes = new KeyedLaneExecutor(MoreExecutors.directExecutor(), 1);
+
+        CompletableFuture<Void> failed = lanes.submit("some_id", () -> {
+            throw new IllegalStateException();
+        });
+        CompletableFuture<Void> next = lanes.submit("some_id", () -> { });
+
+        try {
+            failed.get();
+            throw new AssertionError("Should have failed");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+        assertThat(next.isDone() && !next.isCompletedExceptionally(), equalTo(true));
+    }
+
+    @Test
+    public void tasksBeyondPendingBoundRejected() throws Exception {
+        KeyedLaneExecutor lanes = new KeyedLaneExecutor(executor, 4, 3);
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(lanes.submit("some_id", blocked));
+        }
+
+        try {
+            lanes.submit("some_id", () -> { });
+            throw new AssertionError("Should have been rejected");
+        } catch (RejectedExecutionException e) {
+            assertThat(lanes.getPendingTasks(), equalTo(3));
+        }
+
+        release.countDown();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertThat(lanes.getPendingTasks(), equalTo(0));
+        lanes.submit("some_id", () -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void asyncTaskPendingUntilItsStageCompletes() throws Exception {
+        KeyedLaneExecutor lanes = new KeyedLaneExecutor(MoreExecutors.directExecutor(), 1, 1);
+        CompletableFuture<Void> stage = new CompletableFuture<>();
+
+        CompletableFuture<Void> future = lanes.submitAsync("some_id", () -> stage);
+
+        assertThat(future.isDone(), equalTo(false));
+        assertThat(lanes.getPendingTasks(), equalTo(1));
+        try {
+            lanes.submit("other_id", () -> { });
+            throw new AssertionError("Should have been rejected");
+        } catch (RejectedExecutionException expected) {
+            // the permit is held until the stage completes
+        }
+
+        stage.complete(null);
+        assertThat(future.isDone() && !future.isCompletedExceptionally(), equalTo(true));
+        assertThat(lanes.getPendingTasks(), equalTo(0));
+    }
+
+    @Test
+    public void rejectedLaneIsDrainedByCaller() throws Exception {
+        Executor rejecting = command -> {
+            throw new RejectedExecutionException();
+        };
+        KeyedLaneExecutor lanes = new KeyedLaneExecutor(rejecting, 4);
+        List<Integer> processed = new ArrayList<>();
+
+        lanes.submit("some_id", () -> processed.add(1)).get();
+        lanes.submit("some_id", () -> processed.add(2)).get();
+
+        assertThat(processed, equalTo(Arrays.asList(1, 2)));
+    }
+}
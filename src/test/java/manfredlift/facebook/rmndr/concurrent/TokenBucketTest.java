@@ -0,0 +1,58 @@
+package manfredlift.facebook.rmndr.concurrent;
+
+import com.google.common.base.Ticker;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+    private long nanos = 0;
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos;
+        }
+    };
+
+    @Test
+    public void allowsBurstThenRate() {
+        TokenBucket bucket = new TokenBucket(10, 3, ticker);
+
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertWait(100, bucket.tryAcquire());
+
+        nanos += TimeUnit.MILLISECONDS.toNanos(40);
+        assertWait(60, bucket.tryAcquire());
+
+        nanos += TimeUnit.MILLISECONDS.toNanos(60);
+        assertEquals(0, bucket.tryAcquire());
+    }
+
+    @Test
+    public void refillIsCappedAtBurst() {
+        TokenBucket bucket = new TokenBucket(10, 2, ticker);
+        nanos += TimeUnit.SECONDS.toNanos(10);
+
+        assertEquals(0, bucket.tryAcquire());
+        assertEquals(0, bucket.tryAcquire());
+        assertWait(100, bucket.tryAcquire());
+    }
+
+    @Test
+    public void releaseReturnsToken() {
+        TokenBucket bucket = new TokenBucket(1, 1, ticker);
+
+        assertEquals(0, bucket.tryAcquire());
+        bucket.release();
+        assertEquals(0, bucket.tryAcquire());
+    }
+
+    private static void assertWait(long expectedMillis, long actualNanos) {
+        // allow for floating point rounding of the refill rate
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(expectedMillis), actualNanos, 1.0);
+    }
+}
@@ -0,0 +1,167 @@
+package manfredlift.facebook.rmndr.factories;
+
+import io.dropwizard.util.Duration;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.*;
+import org.quartz.Job;
+import org.quartz.JobExecutionContext;
+import org.quartz.JobExecutionException;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
+import org.quartz.impl.SchedulerRepository;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.quartz.JobBuilder.newJob;
+import static org.quartz.TriggerBuilder.newTrigger;
+
+/**
+ * Two clustered schedulers sharing the QRTZ_ tables of an embedded Postgres. Skipped where Postgres can not be
+ * started, e.g. when running as root.
+ */
+public class ClusteredSchedulerTest {
+    private static final int TRIGGERS = 100;
+    private static final Map<String, List<String>> FIRES = new ConcurrentHashMap<>();
+
+    private static EmbeddedPostgres postgres;
+
+    private Scheduler first;
+    private Scheduler second;
+
+    @BeforeClass
+    public static void startPostgres() throws Exception {
+        try {
+            postgres = EmbeddedPostgres.start();
+        } catch (Exception e) {
+            Assume.assumeNoException("Embedded Postgres could not be started", e);
+        }
+
+        factory("migration").migrate(postgres.getPostgresDatabase());
+    }
+
+    @AfterClass
+    public static void stopPostgres() throws Exception {
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        FIRES.clear();
+        first = clusteredScheduler("first", Duration.seconds(10));
+        second = clusteredScheduler("second", Duration.seconds(1));
+        first.clear();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        first.shutdown(true);
+        second.shutdown(true);
+    }
+
+    @Test
+    public void everyTriggerFiresOnce() throws Exception {
+        first.start();
+        second.start();
+
+        long start = System.currentTimeMillis() + 500;
+        for (int i = 0; i < TRIGGERS; i++) {
+            schedule(i % 2 == 0 ? first : second, i, new Date(start + i * 10));
+        }
+
+        awaitFires(TRIGGERS);
+        // a trigger fired twice would show up shortly after the first fire
+        Thread.sleep(2000);
+
+        assertEquals(TRIGGERS, FIRES.size());
+        for (Map.Entry<String, List<String>> fires : FIRES.entrySet()) {
+            assertEquals("Fires of " + fires.getKey(), 1, fires.getValue().size());
+        }
+    }
+
+    @Test
+    public void triggersOfAStoppedInstanceFireOnTheOther() throws Exception {
+        first.standby();
+        second.start();
+
+        long start = System.currentTimeMillis() + 500;
+        for (int i = 0; i < 10; i++) {
+            schedule(first, i, new Date(start + i * 10));
+        }
+
+        awaitFires(10);
+        assertEquals(10, FIRES.size());
+        for (List<String> fires : FIRES.values()) {
+            assertEquals(1, fires.size());
+            assertEquals("second", fires.get(0));
+        }
+    }
+
+    @Test
+    public void joiningInstanceLeavesAcquiredTriggersAlone() throws Exception {
+        // the first instance acquires triggers up to its idle wait time ahead and holds them until they are due
+        first.start();
+        schedule(first, 0, new Date(System.currentTimeMillis() + 3000));
+        Thread.sleep(1000);
+
+        second.start();
+        awaitFires(1);
+        Thread.sleep(2000);
+
+        assertEquals(1, FIRES.get("trigger0").size());
+        assertEquals("first", FIRES.get("trigger0").get(0));
+    }
+
+    private static QuartzSchedulerFactory factory(String instanceId) {
+        QuartzSchedulerFactory factory = new QuartzSchedulerFactory();
+        factory.setInstanceId(instanceId);
+        return factory;
+    }
+
+    private static Scheduler clusteredScheduler(String instanceId, Duration idleWaitTime) throws SchedulerException {
+        QuartzSchedulerFactory factory = factory(instanceId);
+        factory.setClustered(true);
+        factory.setClusterCheckinInterval(Duration.milliseconds(500));
+        factory.setThreadCount(2);
+        factory.setIdleWaitTime(idleWaitTime);
+
+        Scheduler scheduler = factory.create(postgres.getPostgresDatabase());
+        // both instances run in this JVM, the repository only holds one scheduler per name
+        SchedulerRepository.getInstance().remove(factory.getInstanceName());
+        return scheduler;
+    }
+
+    private static void schedule(Scheduler scheduler, int i, Date startAt) throws SchedulerException {
+        scheduler.scheduleJob(
+            newJob(RecordingJob.class).withIdentity("job" + i, "some_user").build(),
+            newTrigger().withIdentity("trigger" + i, "some_user").startAt(startAt).build());
+    }
+
+    private static void awaitFires(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (FIRES.size() < count && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue("Only " + FIRES.size() + " of " + count + " triggers fired", FIRES.size() >= count);
+    }
+
+    public static class RecordingJob implements Job {
+        @Override
+        public void execute(JobExecutionContext context) throws JobExecutionException {
+            try {
+                FIRES.computeIfAbsent(context.getTrigger().getKey().getName(), name -> new CopyOnWriteArrayList<>())
+                    .add(context.getScheduler().getSchedulerInstanceId());
+            } catch (Exception e) {
+                throw new JobExecutionException(e);
+            }
+        }
+    }
+}
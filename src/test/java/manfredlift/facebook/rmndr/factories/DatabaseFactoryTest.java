@@ -0,0 +1,100 @@
+package manfredlift.facebook.rmndr.factories;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.setup.Environment;
+import io.dropwizard.validation.BaseValidator;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.junit.*;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the shared pool against an embedded Postgres. Skipped where Postgres can not be started.
+ */
+public class DatabaseFactoryTest {
+    private static final String METRICS = "io.dropwizard.db.ManagedPooledDataSource.database.";
+
+    private static EmbeddedPostgres postgres;
+
+    private Environment environment;
+    private DatabaseFactory factory;
+
+    @BeforeClass
+    public static void startPostgres() throws Exception {
+        try {
+            postgres = EmbeddedPostgres.start();
+        } catch (Exception e) {
+            Assume.assumeNoException("Embedded Postgres could not be started", e);
+        }
+    }
+
+    @AfterClass
+    public static void stopPostgres() throws Exception {
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Before
+    public void setup() {
+        environment = new Environment("test", Jackson.newObjectMapper(), BaseValidator.newValidator(),
+            new MetricRegistry(), getClass().getClassLoader());
+        factory = new DatabaseFactory();
+        factory.setUrl(postgres.getJdbcUrl("postgres", "postgres"));
+        factory.setUser("postgres");
+        factory.setInitialSize(1);
+        factory.setMinSize(1);
+        factory.setMaxSize(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (LifeCycle managed : environment.lifecycle().getManagedObjects()) {
+            managed.stop();
+        }
+    }
+
+    @Test
+    public void buildTest_exportsPoolMetrics() throws Exception {
+        DataSource dataSource = factory.build(environment);
+        for (LifeCycle managed : environment.lifecycle().getManagedObjects()) {
+            managed.start();
+        }
+
+        try (Connection ignored = dataSource.getConnection()) {
+            assertEquals(1, gauge("active"));
+            assertEquals(0.5, gauge("utilization"));
+        }
+
+        assertEquals(0, gauge("active"));
+        assertEquals(0.0, gauge("utilization"));
+        assertEquals(1, gauge("size"));
+        assertEquals(1, environment.metrics().timer(METRICS + "acquisition").getCount());
+    }
+
+    @Test
+    public void buildTest_autoCommitOnForTheNextBorrower() throws Exception {
+        factory.setMaxSize(1);
+        DataSource dataSource = factory.build(environment);
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            connection.commit();
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            assertTrue(connection.getAutoCommit());
+        }
+    }
+
+    private Object gauge(String name) {
+        return ((Gauge<?>) environment.metrics().getGauges().get(METRICS + name)).getValue();
+    }
+}
@@ -0,0 +1,38 @@
+package manfredlift.facebook.rmndr.factories;
+
+import com.codahale.metrics.MetricRegistry;
+import io.dropwizard.jackson.Jackson;
+import io.dropwizard.jersey.validation.Validators;
+import io.dropwizard.setup.Environment;
+import manfredlift.facebook.rmndr.concurrent.KeyedLaneExecutor;
+import manfredlift.facebook.rmndr.factories.ExecutorFactory.RejectionPolicy;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExecutorFactoryTest {
+
+    @Test
+    public void buildLanesTest_abort() throws Exception {
+        Environment environment = new Environment("test", Jackson.newObjectMapper(),
+            Validators.newValidator(), new MetricRegistry(), getClass().getClassLoader());
+
+        KeyedLaneExecutor lanes = ExecutorFactory.withRejectionPolicy(RejectionPolicy.ABORT)
+            .buildLanes(environment, "callback", 8);
+
+        assertEquals(8, lanes.getLaneCount());
+        lanes.submit("some_id", () -> { }).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildLanesTest_discardRefused() {
+        ExecutorFactory.withRejectionPolicy(RejectionPolicy.DISCARD).buildLanes(null, "callback", 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void buildLanesTest_callerRunsRefused() {
+        ExecutorFactory.withRejectionPolicy(RejectionPolicy.CALLER_RUNS).buildLanes(null, "callback", 8);
+    }
+}
@@ -0,0 +1,63 @@
+package manfredlift.facebook.rmndr.factories;
+
+import io.dropwizard.util.Duration;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class QuartzSchedulerFactoryTest {
+
+    @Test
+    public void propertiesTest_defaults() {
+        Properties properties = new QuartzSchedulerFactory().properties();
+
+        assertEquals("RmndrScheduler", properties.getProperty("org.quartz.scheduler.instanceName"));
+        assertEquals("AUTO", properties.getProperty("org.quartz.scheduler.instanceId"));
+        assertEquals("false", properties.getProperty("org.quartz.jobStore.isClustered"));
+        assertEquals("3", properties.getProperty("org.quartz.threadPool.threadCount"));
+        assertEquals("rmndrDS", properties.getProperty("org.quartz.jobStore.dataSource"));
+        assertEquals("false", properties.getProperty("org.quartz.jobStore.acquireTriggersWithinLock"));
+        assertEquals("30000", properties.getProperty("org.quartz.scheduler.idleWaitTime"));
+    }
+
+    @Test
+    public void propertiesTest_clustered() {
+        QuartzSchedulerFactory factory = new QuartzSchedulerFactory();
+        factory.setInstanceId("node-1");
+        factory.setClustered(true);
+        factory.setClusterCheckinInterval(Duration.seconds(5));
+        factory.setThreadCount(10);
+        factory.setBatchTriggerAcquisitionMaxCount(20);
+
+        Properties properties = factory.properties();
+
+        assertEquals("node-1", properties.getProperty("org.quartz.scheduler.instanceId"));
+        assertEquals("true", properties.getProperty("org.quartz.jobStore.isClustered"));
+        assertEquals("5000", properties.getProperty("org.quartz.jobStore.clusterCheckinInterval"));
+        assertEquals("10", properties.getProperty("org.quartz.threadPool.threadCount"));
+        assertEquals("20", properties.getProperty("org.quartz.scheduler.batchTriggerAcquisitionMaxCount"));
+        assertEquals("true", properties.getProperty("org.quartz.jobStore.acquireTriggersWithinLock"));
+    }
+
+    @Test
+    public void propertiesTest_sharedPool() {
+        Properties properties = new QuartzSchedulerFactory().properties();
+
+        // the data source is registered with Quartz by build, Quartz must not create a pool of its own
+        for (String key : properties.stringPropertyNames()) {
+            assertFalse(key, key.startsWith("org.quartz.dataSource."));
+        }
+    }
+
+    @Test
+    public void inMemoryPropertiesTest() {
+        Properties properties = new QuartzSchedulerFactory().inMemoryProperties();
+
+        assertEquals("org.quartz.simpl.RAMJobStore", properties.getProperty("org.quartz.jobStore.class"));
+        assertEquals("3", properties.getProperty("org.quartz.threadPool.threadCount"));
+        assertEquals(null, properties.getProperty("org.quartz.jobStore.dataSource"));
+    }
+}
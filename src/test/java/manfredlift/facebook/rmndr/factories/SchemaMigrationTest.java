@@ -0,0 +1,134 @@
+package manfredlift.facebook.rmndr.factories;
+
+import com.google.common.io.Resources;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.junit.*;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.hasItems;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs the migrations in db/migration against databases of an embedded Postgres. Skipped where Postgres can not
+ * be started.
+ */
+public class SchemaMigrationTest {
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private static EmbeddedPostgres postgres;
+
+    private QuartzSchedulerFactory factory;
+    private String url;
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void startPostgres() throws Exception {
+        try {
+            postgres = EmbeddedPostgres.start();
+        } catch (Exception e) {
+            Assume.assumeNoException("Embedded Postgres could not be started", e);
+        }
+    }
+
+    @AfterClass
+    public static void stopPostgres() throws Exception {
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Before
+    public void setup() throws Exception {
+        String database = "migration" + DATABASES.incrementAndGet();
+        execute(postgres.getJdbcUrl("postgres", "postgres"), "CREATE DATABASE " + database);
+
+        factory = new QuartzSchedulerFactory();
+        url = postgres.getJdbcUrl("postgres", database);
+        dataSource = postgres.getDatabase("postgres", database);
+    }
+
+    @Test
+    public void migrateTest_emptyDatabase() throws Exception {
+        factory.migrate(dataSource);
+
+        assertThat(tables(),
+            hasItems("qrtz_job_details", "qrtz_triggers", "qrtz_fired_triggers", "qrtz_locks", "reminders"));
+        assertThat(indexes(), hasItems("idx_qrtz_j_grp", "idx_qrtz_t_nft_st", "idx_qrtz_ft_trig_inst_name"));
+        assertEquals("4", schemaVersion());
+    }
+
+    @Test
+    public void migrateTest_existingTablesWithoutIndexes() throws Exception {
+        // a database set up by hand before the migrations, with only the tables of the script
+        execute(url, Resources.toString(
+            Resources.getResource("db/migration/V1__create_quartz_tables.sql"), StandardCharsets.UTF_8));
+        for (String index : indexes()) {
+            execute(url, "DROP INDEX " + index);
+        }
+        execute(url, "INSERT INTO qrtz_locks VALUES ('RmndrScheduler', 'TRIGGER_ACCESS')");
+
+        factory.migrate(dataSource);
+
+        assertThat(indexes(), hasItems("idx_qrtz_j_grp", "idx_qrtz_t_nft_st", "idx_qrtz_ft_trig_inst_name"));
+        assertEquals(20, indexes().size());
+        assertEquals("4", schemaVersion());
+        assertEquals(1, count("SELECT count(*) FROM qrtz_locks"));
+    }
+
+    @Test
+    public void migrateTest_alreadyMigrated() throws Exception {
+        factory.migrate(dataSource);
+        factory.migrate(dataSource);
+
+        assertEquals("4", schemaVersion());
+        assertEquals(20, indexes().size());
+    }
+
+    private Set<String> tables() throws SQLException {
+        return strings("SELECT tablename FROM pg_tables WHERE schemaname = 'public'");
+    }
+
+    private Set<String> indexes() throws SQLException {
+        return strings("SELECT indexname FROM pg_indexes WHERE schemaname = 'public' AND indexname LIKE 'idx_qrtz_%'");
+    }
+
+    private String schemaVersion() throws SQLException {
+        Set<String> versions = strings("SELECT version FROM flyway_schema_history WHERE success AND version = " +
+            "(SELECT max(version::int)::text FROM flyway_schema_history)");
+        return versions.iterator().next();
+    }
+
+    private int count(String query) throws SQLException {
+        return Integer.parseInt(strings(query).iterator().next());
+    }
+
+    private Set<String> strings(String query) throws SQLException {
+        Set<String> strings = new HashSet<>();
+        try (Connection connection = DriverManager.getConnection(url, "postgres", null);
+             Statement statement = connection.createStatement();
+             ResultSet resultSet = statement.executeQuery(query)) {
+            while (resultSet.next()) {
+                strings.add(resultSet.getString(1));
+            }
+        }
+        return strings;
+    }
+
+    private static void execute(String url, String sql) throws SQLException {
+        try (Connection connection = DriverManager.getConnection(url, "postgres", null);
+             Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+}
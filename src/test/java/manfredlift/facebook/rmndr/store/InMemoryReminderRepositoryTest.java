@@ -0,0 +1,9 @@
+package manfredlift.facebook.rmndr.store;
+
+public class InMemoryReminderRepositoryTest extends ReminderRepositoryContractTest {
+
+    @Override
+    protected ReminderRepository createRepository() {
+        return new InMemoryReminderRepository();
+    }
+}
@@ -0,0 +1,78 @@
+package manfredlift.facebook.rmndr.store;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import manfredlift.facebook.rmndr.factories.QuartzSchedulerFactory;
+import org.junit.*;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs the contract against the reminders table of an embedded Postgres. Skipped where Postgres can not be started.
+ */
+public class JdbcReminderRepositoryTest extends ReminderRepositoryContractTest {
+    private static EmbeddedPostgres postgres;
+
+    private DataSource dataSource;
+
+    @BeforeClass
+    public static void startPostgres() throws Exception {
+        try {
+            postgres = EmbeddedPostgres.start();
+        } catch (Exception e) {
+            Assume.assumeNoException("Embedded Postgres could not be started", e);
+        }
+
+        new QuartzSchedulerFactory().migrate(postgres.getPostgresDatabase());
+    }
+
+    @AfterClass
+    public static void stopPostgres() throws Exception {
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    @Override
+    protected ReminderRepository createRepository() throws Exception {
+        dataSource = postgres.getPostgresDatabase();
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("DELETE FROM reminders");
+        }
+        return new JdbcReminderRepository(dataSource);
+    }
+
+    @Test
+    public void claimDueTest_concurrentPollersClaimEveryReminderOnce() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            repository.save(reminder("id_" + i, "user_" + i % 100, i));
+        }
+
+        ExecutorService pollers = Executors.newFixedThreadPool(4);
+        Map<String, Integer> claims = new ConcurrentHashMap<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(pollers.submit(() -> {
+                List<Reminder> due;
+                do {
+                    due = repository.claimDue(1000, 10, 60000);
+                    due.forEach(reminder -> claims.merge(reminder.getId(), 1, Integer::sum));
+                } while (!due.isEmpty());
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        pollers.shutdown();
+
+        assertEquals(1000, claims.size());
+        assertEquals(Collections.singleton(1), new HashSet<>(claims.values()));
+    }
+}
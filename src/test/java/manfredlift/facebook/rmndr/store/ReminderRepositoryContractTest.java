@@ -0,0 +1,149 @@
+package manfredlift.facebook.rmndr.store;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The behaviour every {@link ReminderRepository} shares, run against each store by its subclass.
+ */
+public abstract class ReminderRepositoryContractTest {
+    protected ReminderRepository repository;
+
+    /**
+     * A new, empty repository for each test.
+     */
+    protected abstract ReminderRepository createRepository() throws Exception;
+
+    @Before
+    public void createEmptyRepository() throws Exception {
+        repository = createRepository();
+    }
+
+    @Test
+    public void findByUserTest_earliestFirst() throws Exception {
+        repository.save(reminder("id_1", "some_user", 3000));
+        repository.save(reminder("id_2", "some_user", 1000));
+        repository.save(reminder("id_3", "other_user", 2000));
+
+        List<Reminder> found = repository.findByUser("some_user");
+        assertEquals(Arrays.asList("id_2", "id_1"), ids(found));
+        assertEquals(reminder("id_2", "some_user", 1000), found.get(0));
+        assertEquals(Collections.emptyList(), repository.findByUser("no_user"));
+    }
+
+    @Test
+    public void findByUserTest_pagesAfterCursor() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        repository.save(reminder("id_2", "some_user", 2000));
+        repository.save(reminder("id_3", "some_user", 2000));
+        repository.save(reminder("id_4", "some_user", 3000));
+        repository.save(reminder("id_5", "other_user", 1500));
+
+        List<Reminder> first = repository.findByUser("some_user", ReminderCursor.FIRST, 2);
+        assertEquals(Arrays.asList("id_1", "id_2"), ids(first));
+        List<Reminder> second = repository.findByUser("some_user", ReminderCursor.after(first.get(1)), 2);
+        assertEquals(Arrays.asList("id_3", "id_4"), ids(second));
+        assertEquals(Collections.emptyList(),
+            repository.findByUser("some_user", ReminderCursor.after(second.get(1)), 2));
+    }
+
+    @Test
+    public void saveTest_existingIdIgnored() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        repository.save(reminder("id_1", "some_user", 2000));
+
+        assertEquals(1000, repository.findByUser("some_user").get(0).getFireTime());
+    }
+
+    @Test
+    public void deleteTest_onlyOwnReminders() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+
+        assertFalse(repository.delete("other_user", "id_1"));
+        assertFalse(repository.delete("some_user", "wrong_id"));
+        assertTrue(repository.delete("some_user", "id_1"));
+        assertEquals(Collections.emptyList(), repository.claimDue(2000, 10, 1000));
+    }
+
+    @Test
+    public void deleteByUserTest() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        repository.save(reminder("id_2", "some_user", 2000));
+        repository.save(reminder("id_3", "other_user", 2000));
+
+        assertEquals(new HashSet<>(Arrays.asList("id_1", "id_2")),
+            new HashSet<>(repository.deleteByUser("some_user")));
+        assertEquals(Collections.singletonList("id_3"), ids(repository.claimDue(3000, 10, 1000)));
+    }
+
+    @Test
+    public void claimDueTest_dueInFireTimeOrder() throws Exception {
+        repository.save(reminder("id_1", "some_user", 3000));
+        repository.save(reminder("id_2", "some_user", 1000));
+        repository.save(reminder("id_3", "some_user", 2000));
+        repository.save(reminder("id_4", "some_user", 5000));
+
+        assertEquals(Arrays.asList("id_2", "id_3"), ids(repository.claimDue(4000, 2, 1000)));
+        assertEquals(Collections.singletonList("id_1"), ids(repository.claimDue(4000, 2, 1000)));
+        assertEquals(Collections.emptyList(), repository.claimDue(4000, 2, 1000));
+    }
+
+    @Test
+    public void saveClaimedTest_claimedUntilGiven() throws Exception {
+        repository.saveClaimed(reminder("id_1", "some_user", 1000), 5000);
+
+        assertEquals(Collections.singletonList("id_1"), ids(repository.findByUser("some_user")));
+        assertEquals(Collections.emptyList(), repository.claimDue(4999, 10, 500));
+        assertEquals(Collections.singletonList("id_1"), ids(repository.claimDue(5000, 10, 500)));
+    }
+
+    @Test
+    public void releaseTest_claimedAgainRightAway() throws Exception {
+        repository.saveClaimed(reminder("id_1", "some_user", 1000), 5000);
+        repository.save(reminder("id_2", "some_user", 2000));
+
+        repository.release(Arrays.asList("id_1", "id_2", "wrong_id"));
+
+        assertEquals(Arrays.asList("id_1", "id_2"), ids(repository.claimDue(2000, 10, 500)));
+    }
+
+    @Test
+    public void claimDueTest_expiredClaimClaimedAgain() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+
+        assertEquals(Collections.singletonList("id_1"), ids(repository.claimDue(1000, 10, 500)));
+        assertEquals(Collections.emptyList(), repository.claimDue(1499, 10, 500));
+        assertEquals(Collections.singletonList("id_1"), ids(repository.claimDue(1500, 10, 500)));
+    }
+
+    @Test
+    public void completeTest_removesClaimedReminder() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        repository.save(reminder("id_2", "some_user", 5000));
+
+        repository.claimDue(1000, 10, 500);
+        repository.complete("id_1");
+        repository.complete("id_2");
+
+        assertEquals(Collections.singletonList("id_2"), ids(repository.findByUser("some_user")));
+        assertEquals(Collections.emptyList(), repository.claimDue(2000, 10, 500));
+    }
+
+    protected static Reminder reminder(String id, String userId, long fireTime) {
+        return Reminder.builder().id(id).userId(userId).text("some_text").date("some_date").fireTime(fireTime).build();
+    }
+
+    protected static List<String> ids(List<Reminder> reminders) {
+        return reminders.stream().map(Reminder::getId).collect(Collectors.toList());
+    }
+}
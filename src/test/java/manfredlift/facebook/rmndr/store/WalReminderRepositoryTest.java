@@ -0,0 +1,180 @@
+package manfredlift.facebook.rmndr.store;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WalReminderRepositoryTest extends ReminderRepositoryContractTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private Path copy;
+    private WalReminderRepository wal;
+
+    @Override
+    protected ReminderRepository createRepository() throws Exception {
+        directory = folder.getRoot().toPath().resolve("reminders");
+        wal = WalReminderRepository.open(directory);
+        return wal;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        wal.close();
+    }
+
+    @Test
+    public void openTest_recoversLoggedChanges() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        repository.save(reminder("id_2", "some_user", 2000));
+        repository.saveClaimed(reminder("id_3", "some_user", 3000), 10000);
+        repository.save(reminder("id_4", "other_user", 4000));
+        repository.save(reminder("id_5", "third_user", 5000));
+        assertTrue(repository.delete("some_user", "id_2"));
+        repository.deleteByUser("other_user");
+        repository.claimDue(5000, 1, 500);
+        repository.complete("id_1");
+
+        WalReminderRepository recovered = crashAndOpen();
+
+        assertEquals(Collections.singletonList(reminder("id_3", "some_user", 3000)), recovered.findByUser("some_user"));
+        assertEquals(Collections.emptyList(), recovered.findByUser("other_user"));
+        // claims are not kept, id_3 is due again right away
+        assertEquals(Arrays.asList("id_3", "id_5"), ids(recovered.claimDue(5000, 10, 500)));
+        recovered.close();
+    }
+
+    @Test
+    public void openTest_fromSnapshotAndLog() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        wal.snapshot();
+        repository.save(reminder("id_2", "some_user", 2000));
+        assertTrue(repository.delete("some_user", "id_1"));
+
+        WalReminderRepository recovered = crashAndOpen();
+
+        assertEquals(Collections.singletonList("id_2"), ids(recovered.findByUser("some_user")));
+        recovered.close();
+    }
+
+    @Test
+    public void openTest_partlyWrittenRecordIgnored() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        repository.save(reminder("id_2", "some_user", 2000));
+        Path log = files("wal-").get(0);
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        WalReminderRepository recovered = crashAndOpen();
+
+        assertEquals(Collections.singletonList("id_1"), ids(recovered.findByUser("some_user")));
+        recovered.save(reminder("id_3", "some_user", 3000));
+        recovered.close();
+        recovered = WalReminderRepository.open(copy);
+        assertEquals(Arrays.asList("id_1", "id_3"), ids(recovered.findByUser("some_user")));
+        recovered.close();
+    }
+
+    @Test
+    public void snapshotTest_deletesCoveredFiles() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        wal.snapshot();
+        repository.save(reminder("id_2", "some_user", 2000));
+        wal.snapshot();
+        wal.snapshot();
+
+        assertEquals(1, files("snapshot-").size());
+        assertEquals(1, files("wal-").size());
+        assertEquals(0, Files.size(files("wal-").get(0)));
+    }
+
+    @Test
+    public void closeTest_changesRefused() throws Exception {
+        wal.close();
+
+        try {
+            repository.save(reminder("id_1", "some_user", 1000));
+            throw new AssertionError("Expected ReminderStoreException");
+        } catch (ReminderStoreException e) {
+            assertFalse(e.getMessage().isEmpty());
+        }
+        wal = WalReminderRepository.open(directory);
+    }
+
+    @Test
+    public void closeTest_claimsRefused() throws Exception {
+        repository.save(reminder("id_1", "some_user", 1000));
+        wal.close();
+
+        try {
+            repository.claimDue(1000, 10, 500);
+            throw new AssertionError("Expected ReminderStoreException");
+        } catch (ReminderStoreException e) {
+            assertFalse(e.getMessage().isEmpty());
+        }
+        wal = WalReminderRepository.open(directory);
+    }
+
+    @Test
+    public void saveTest_concurrentWritersAllDurable() throws Exception {
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int writer = i;
+            futures.add(writers.submit(() -> {
+                for (int j = 0; j < 100; j++) {
+                    repository.save(reminder("id_" + writer + "_" + j, "user_" + writer, j));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get(30, TimeUnit.SECONDS);
+        }
+        writers.shutdown();
+        for (int i = 0; i < 8; i++) {
+            assertEquals(100, repository.findByUser("user_" + i).size());
+        }
+
+        WalReminderRepository recovered = crashAndOpen();
+        for (int i = 0; i < 8; i++) {
+            assertEquals(100, recovered.findByUser("user_" + i).size());
+        }
+        recovered.close();
+    }
+
+    /**
+     * Opens the directory again without closing the repository, as after the process died.
+     */
+    private WalReminderRepository crashAndOpen() throws Exception {
+        copy = folder.newFolder().toPath();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                Files.copy(path, copy.resolve(path.getFileName()));
+            }
+        }
+        return WalReminderRepository.open(copy);
+    }
+
+    private List<Path> files(String prefix) throws Exception {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith(prefix)).collect(Collectors.toList());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package manfredlift.facebook.rmndr.store;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WebhookLogTest {
+    private static final int SEGMENT_BYTES = 64;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path directory;
+    private WebhookLog webhookLog;
+
+    @Before
+    public void setup() throws Exception {
+        directory = folder.getRoot().toPath().resolve("webhooks");
+        webhookLog = WebhookLog.open(directory, SEGMENT_BYTES, 3);
+    }
+
+    @After
+    public void tearDown() {
+        webhookLog.close();
+    }
+
+    @Test
+    public void pollTest_readsAppendedRecordsInOrder() throws Exception {
+        webhookLog.append(bytes("first"));
+        webhookLog.append(bytes("second"));
+
+        assertEquals(Arrays.asList("first", "second"), readAll(webhookLog, webhookLog.getCheckpoint()));
+    }
+
+    @Test
+    public void pollTest_waitsForAnAppend() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<WebhookLog.Record> polled = executor.submit(() -> webhookLog.poll(0, 5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        webhookLog.append(bytes("late"));
+
+        assertEquals("late", string(polled.get(5, TimeUnit.SECONDS)));
+        executor.shutdown();
+    }
+
+    @Test
+    public void pollTest_nothingAppended() throws Exception {
+        assertNull(webhookLog.poll(0, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void appendTest_rollsOverToTheNextSegment() throws Exception {
+        // 8 byte headers, three 20 byte payloads do not fit one 64 byte segment
+        for (int i = 0; i < 3; i++) {
+            webhookLog.append(bytes(String.format("payload-%012d", i)));
+        }
+
+        assertEquals(2, webhookLog.getSegmentCount());
+        assertEquals(3, readAll(webhookLog, 0).size());
+    }
+
+    @Test
+    public void appendTest_fullLogRefusesAppendsUntilCheckpoint() throws Exception {
+        for (int i = 0; i < 6; i++) {
+            webhookLog.append(bytes(String.format("payload-%012d", i)));
+        }
+        try {
+            webhookLog.append(bytes("one-too-many"));
+            fail("Expected the log to be full");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("full"));
+        }
+
+        // the first segment is processed once the reader is at the third record
+        WebhookLog.Record third = poll(poll(poll(0).getNext()).getNext());
+        webhookLog.checkpoint(third.getOffset());
+        webhookLog.append(bytes("fits-again"));
+
+        assertEquals(3, webhookLog.getSegmentCount());
+        assertEquals(3, segmentFiles().size());
+    }
+
+    @Test
+    public void appendTest_payloadLargerThanASegment() throws Exception {
+        try {
+            webhookLog.append(new byte[SEGMENT_BYTES]);
+            fail("Expected the payload to be refused");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("does not fit"));
+        }
+    }
+
+    @Test
+    public void checkpointTest_deletesProcessedSegments() throws Exception {
+        List<Long> offsets = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            offsets.add(webhookLog.append(bytes(String.format("payload-%012d", i))));
+        }
+
+        webhookLog.checkpoint(offsets.get(2));
+
+        assertEquals(2, webhookLog.getSegmentCount());
+        assertEquals(2, segmentFiles().size());
+        assertEquals(3, readAll(webhookLog, offsets.get(2)).size());
+    }
+
+    @Test
+    public void openTest_replaysRecordsAfterTheCheckpoint() throws Exception {
+        long first = webhookLog.append(bytes("processed"));
+        long second = webhookLog.append(bytes("not processed"));
+        webhookLog.append(bytes("not read"));
+        webhookLog.checkpoint(second);
+        assertTrue(second > first);
+        webhookLog.close();
+
+        webhookLog = WebhookLog.open(directory, SEGMENT_BYTES, 3);
+        webhookLog.append(bytes("after restart"));
+
+        assertEquals(second, webhookLog.getCheckpoint());
+        assertEquals(Arrays.asList("not processed", "not read", "after restart"),
+            readAll(webhookLog, webhookLog.getCheckpoint()));
+    }
+
+    @Test
+    public void openTest_everythingProcessed() throws Exception {
+        WebhookLog.Record record = poll(webhookLog.append(bytes("processed")));
+        webhookLog.checkpoint(record.getNext());
+        webhookLog.close();
+
+        webhookLog = WebhookLog.open(directory, SEGMENT_BYTES, 3);
+        long offset = webhookLog.append(bytes("new"));
+
+        assertTrue(offset >= record.getNext());
+        assertEquals(Arrays.asList("new"), readAll(webhookLog, webhookLog.getCheckpoint()));
+    }
+
+    @Test
+    public void openTest_ignoresPartlyWrittenRecord() throws Exception {
+        webhookLog.append(bytes("complete"));
+        long torn = webhookLog.append(bytes("torn"));
+        webhookLog.close();
+        // as if the process died while the payload was written
+        try (FileChannel channel = FileChannel.open(segmentFiles().get(0), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0}), torn + 8);
+        }
+
+        webhookLog = WebhookLog.open(directory, SEGMENT_BYTES, 3);
+        webhookLog.append(bytes("after restart"));
+
+        assertEquals(Arrays.asList("complete", "after restart"), readAll(webhookLog, 0));
+    }
+
+    @Test
+    public void appendTest_concurrentAppendsAllRead() throws Exception {
+        webhookLog.close();
+        webhookLog = WebhookLog.open(directory, 4096, 16);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Long>> appends = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] payload = bytes("payload-" + i);
+            appends.add(executor.submit(() -> webhookLog.append(payload)));
+        }
+        for (Future<Long> append : appends) {
+            append.get(5, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        List<String> read = readAll(webhookLog, 0);
+        assertEquals(200, read.size());
+        assertEquals(200, read.stream().distinct().count());
+    }
+
+    @Test
+    public void closeTest_concurrentAppendsReturnOrAreRefused() throws Exception {
+        webhookLog.close();
+        webhookLog = WebhookLog.open(directory, 4096, 16);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<Long>> appends = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            byte[] payload = bytes("payload-" + i);
+            appends.add(executor.submit(() -> webhookLog.append(payload)));
+        }
+        webhookLog.close();
+
+        int refused = 0;
+        for (Future<Long> append : appends) {
+            try {
+                assertTrue(append.get(5, TimeUnit.SECONDS) < webhookLog.getEnd());
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+                refused++;
+            }
+        }
+        executor.shutdown();
+
+        webhookLog = WebhookLog.open(directory, 4096, 16);
+        assertEquals(200 - refused, readAll(webhookLog, 0).size());
+    }
+
+    private WebhookLog.Record poll(long offset) throws InterruptedException {
+        return webhookLog.poll(offset, 0, TimeUnit.SECONDS);
+    }
+
+    private static List<String> readAll(WebhookLog webhookLog, long offset) throws InterruptedException {
+        List<String> read = new ArrayList<>();
+        WebhookLog.Record record;
+        while ((record = webhookLog.poll(offset, 0, TimeUnit.SECONDS)) != null) {
+            read.add(string(record));
+            offset = record.getNext();
+        }
+        return read;
+    }
+
+    private List<Path> segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("webhooks-"))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(WebhookLog.Record record) {
+        return new String(record.getPayload(), StandardCharsets.UTF_8);
+    }
+}
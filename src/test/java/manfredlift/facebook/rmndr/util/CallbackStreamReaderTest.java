@@ -0,0 +1,91 @@
+package manfredlift.facebook.rmndr.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import manfredlift.facebook.rmndr.api.Messaging;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CallbackStreamReaderTest {
+    private final CallbackStreamReader reader = new CallbackStreamReader(new ObjectMapper());
+
+    @Test
+    public void forEachMessagingTest_allEntries() throws IOException {
+        String body = "{\"object\":\"page\",\"entry\":[" +
+            "{\"id\":\"1\",\"time\":1505211936012,\"messaging\":[" + text("first") + "," + text("second") + "]}," +
+            "{\"id\":\"1\",\"time\":1505211936013,\"messaging\":[" + text("third") + "]}]}";
+
+        assertThat(texts(read(body)), is(Arrays.asList("first", "second", "third")));
+    }
+
+    @Test
+    public void forEachMessagingTest_unknownFieldsSkipped() throws IOException {
+        String body = "{\"entry\":[{\"changes\":[{\"field\":\"feed\",\"value\":{\"messaging\":[]}}]," +
+            "\"messaging\":[{\"extra\":{\"nested\":[1,2]}," + text("kept").substring(1) + "]," +
+            "\"standby\":[" + text("standby") + "]}],\"object\":\"page\"}";
+
+        assertThat(texts(read(body)), is(Collections.singletonList("kept")));
+    }
+
+    @Test
+    public void forEachMessagingTest_missingAndNullParts() throws IOException {
+        assertThat(read("{\"object\":\"page\"}").size(), is(0));
+        assertThat(read("{\"object\":\"page\",\"entry\":null}").size(), is(0));
+        assertThat(read("{\"entry\":[null,{\"messaging\":null},{}]}").size(), is(0));
+        assertThat(texts(read("{\"entry\":[{\"messaging\":[null," + text("only") + "]}]}")),
+            is(Collections.singletonList("only")));
+    }
+
+    @Test
+    public void forEachMessagingTest_eventsBeforeAnErrorAreRead() throws IOException {
+        List<Messaging> read = new ArrayList<>();
+        try {
+            reader.forEachMessaging(bytes("{\"entry\":[{\"messaging\":[" + text("first") + ",{\"sender\":"),
+                read::add);
+            fail("Expected the truncated body to be refused");
+        } catch (JsonProcessingException e) {
+            assertThat(texts(read), is(Collections.singletonList("first")));
+        }
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void forEachMessagingTest_notAnObject() throws IOException {
+        read("[]");
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void forEachMessagingTest_notJson() throws IOException {
+        read("dummy body");
+    }
+
+    private List<Messaging> read(String body) throws IOException {
+        List<Messaging> read = new ArrayList<>();
+        reader.forEachMessaging(bytes(body), read::add);
+        return read;
+    }
+
+    private static String text(String text) {
+        return "{\"sender\":{\"id\":\"1254459154682919\"},\"recipient\":{\"id\":\"682498302938465\"}," +
+            "\"timestamp\":1505211935893,\"message\":{\"mid\":\"mid." + text + "\",\"seq\":1,\"text\":\"" + text +
+            "\"}}";
+    }
+
+    private static List<String> texts(List<Messaging> messagings) {
+        return messagings.stream().map(messaging -> messaging.getMessage().getText()).collect(Collectors.toList());
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
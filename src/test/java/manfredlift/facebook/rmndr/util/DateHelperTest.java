@@ -3,6 +3,9 @@ package manfredlift.facebook.rmndr.util;
 import manfredlift.facebook.rmndr.api.ReferenceTime;
 import org.junit.Test;
 
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertThat;
 
@@ -18,4 +21,12 @@ public class DateHelperTest {
         ReferenceTime referenceTime = DateHelper.referenceTimeFromMillis(1505211935893L, -7);
         assertThat(referenceTime.getReferenceTime(), is(equalTo("2017-09-12T03:25:35.893-07:00")));
     }
+
+    @Test
+    public void testHelper_offsetDateTimeFromReferenceTime() {
+        ReferenceTime referenceTime = DateHelper.referenceTimeFromMillis(1505211935893L, -7);
+        OffsetDateTime dateTime = DateHelper.offsetDateTimeFromReferenceTime(referenceTime);
+        assertThat(dateTime.toInstant().toEpochMilli(), is(equalTo(1505211935893L)));
+        assertThat(dateTime.getOffset(), is(equalTo(ZoneOffset.ofHours(-7))));
+    }
 }
@@ -0,0 +1,64 @@
+package manfredlift.facebook.rmndr.util;
+
+import manfredlift.facebook.rmndr.api.Callback;
+import manfredlift.facebook.rmndr.api.ReferenceTime;
+import manfredlift.facebook.rmndr.api.ReminderPayload;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class JsonCodecTest {
+    private final JsonCodec jsonCodec = JsonCodec.create();
+
+    @Test
+    public void reminderPayloadTest_roundTrip() throws IOException {
+        ReminderPayload payload = new ReminderPayload();
+        payload.setText("take the \"pizza\" out of the oven");
+        payload.setDate("2017-09-12T11:30:35.000+01:00");
+
+        String json = jsonCodec.writeReminderPayload(payload);
+
+        assertThat(json, is("{\"text\":\"take the \\\"pizza\\\" out of the oven\"," +
+            "\"date\":\"2017-09-12T11:30:35.000+01:00\"}"));
+        assertThat(jsonCodec.readReminderPayload(json), is(payload));
+    }
+
+    @Test
+    public void reminderPayloadTest_unknownFieldsIgnored() throws IOException {
+        ReminderPayload payload = jsonCodec.readReminderPayload("{\"asd\":\"some_text\",\"date\":\"some_date\"}");
+
+        assertThat(payload.getText(), is(nullValue()));
+        assertThat(payload.getDate(), is("some_date"));
+    }
+
+    @Test(expected = IOException.class)
+    public void reminderPayloadTest_notJson() throws IOException {
+        jsonCodec.readReminderPayload("not json");
+    }
+
+    @Test
+    public void referenceTimeTest() throws IOException {
+        assertThat(jsonCodec.writeReferenceTime(new ReferenceTime("2017-09-10T12:21:31.868+03:00")),
+            is("{\"reference_time\":\"2017-09-10T12:21:31.868+03:00\"}"));
+    }
+
+    @Test
+    public void readCallbackTest() throws IOException {
+        String body = "{\"object\":\"page\",\"entry\":[{\"id\":\"1\",\"messaging\":[" +
+            "{\"sender\":{\"id\":\"some_id\"},\"message\":{\"mid\":\"mid.1\",\"text\":\"!list\"}}]}]}";
+
+        Callback callback = jsonCodec.readCallback(body.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(callback.getEntry().get(0).getMessaging().get(0).getMessage().getText(), is("!list"));
+    }
+
+    @Test
+    public void warmTest() throws IOException {
+        assertThat(jsonCodec.warm(), is(jsonCodec));
+    }
+}
@@ -0,0 +1,111 @@
+package manfredlift.facebook.rmndr.util;
+
+import com.codahale.metrics.Gauge;
+import manfredlift.facebook.rmndr.api.NlpEntity;
+import manfredlift.facebook.rmndr.api.ReferenceTime;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class LocalDateParserTest {
+    // 2017-09-12T11:25:35.893+01:00
+    private static final ReferenceTime REFERENCE_TIME = DateHelper.referenceTimeFromMillis(1505211935893L, 1);
+
+    private LocalDateParser parser;
+
+    @Before
+    public void setup() {
+        parser = new LocalDateParser();
+    }
+
+    @Test
+    public void relative() {
+        assertParsed("in 5 mins", "2017-09-12T11:30:35.000+01:00", "second");
+        assertParsed("In 15 minutes", "2017-09-12T11:40:35.000+01:00", "second");
+        assertParsed("in an hour", "2017-09-12T12:25:35.000+01:00", "second");
+        assertParsed("in 30s", "2017-09-12T11:26:05.000+01:00", "second");
+        assertParsed("  in 2   hrs ", "2017-09-12T13:25:35.000+01:00", "second");
+    }
+
+    @Test
+    public void timeOfDay() {
+        assertParsed("at 5pm", "2017-09-12T17:00:00.000+01:00", "hour");
+        assertParsed("5:30 PM", "2017-09-12T17:30:00.000+01:00", "minute");
+        assertParsed("at 17:30", "2017-09-12T17:30:00.000+01:00", "minute");
+        assertParsed("at noon", "2017-09-12T12:00:00.000+01:00", "hour");
+    }
+
+    @Test
+    public void timeOfDayRollsOverToNextOccurrence() {
+        // 9am has passed, 9pm has not
+        assertParsed("at 9", "2017-09-12T21:00:00.000+01:00", "hour");
+        assertParsed("at 9am", "2017-09-13T09:00:00.000+01:00", "hour");
+        assertParsed("11:00", "2017-09-12T23:00:00.000+01:00", "minute");
+        assertParsed("at 10:15", "2017-09-12T22:15:00.000+01:00", "minute");
+        assertParsed("at 11:20", "2017-09-12T23:20:00.000+01:00", "minute");
+        assertParsed("at 00:30", "2017-09-13T00:30:00.000+01:00", "minute");
+    }
+
+    @Test
+    public void day() {
+        assertParsed("tomorrow", "2017-09-13T00:00:00.000+01:00", "day");
+        assertParsed("tomorrow at 9", "2017-09-13T09:00:00.000+01:00", "hour");
+        assertParsed("9pm tomorrow", "2017-09-13T21:00:00.000+01:00", "hour");
+        assertParsed("today at 5:30 pm", "2017-09-12T17:30:00.000+01:00", "minute");
+        assertParsed("today at 9", "2017-09-12T21:00:00.000+01:00", "hour");
+    }
+
+    @Test
+    public void isoDate() {
+        assertParsed("2017-09-20", "2017-09-20T00:00:00.000+01:00", "day");
+        assertParsed("2017-09-20 17:30", "2017-09-20T17:30:00.000+01:00", "minute");
+        assertParsed("2017-09-20T17:30:15", "2017-09-20T17:30:15.000+01:00", "second");
+    }
+
+    @Test
+    public void unsupportedExpressionsAreLeftToWit() {
+        assertNotParsed("next friday at 5pm");
+        assertNotParsed("in 5");
+        assertNotParsed("in 2 days");
+        assertNotParsed("in5 mins");
+        assertNotParsed("5");
+        assertNotParsed("today");
+        assertNotParsed("today at 9am");
+        assertNotParsed("at 25:00");
+        assertNotParsed("at 13pm");
+        assertNotParsed("at 5:75");
+        assertNotParsed("2017-02-30");
+        assertNotParsed("2017-09-20 17");
+        assertNotParsed("in 5 mins please");
+        assertNotParsed("");
+        assertNotParsed(null);
+    }
+
+    @Test
+    public void hitRatio() {
+        parser.parse("in 5 mins", REFERENCE_TIME);
+        parser.parse("at 5pm", REFERENCE_TIME);
+        parser.parse("at 5pm", REFERENCE_TIME);
+        parser.parse("next friday", REFERENCE_TIME);
+
+        assertThat(((Gauge<?>) parser.getMetrics().get("hits")).getValue(), is(equalTo(3L)));
+        assertThat(((Gauge<?>) parser.getMetrics().get("misses")).getValue(), is(equalTo(1L)));
+        assertThat(((Gauge<?>) parser.getMetrics().get("hit-ratio")).getValue(), is(equalTo(0.75)));
+    }
+
+    private void assertParsed(String text, String value, String grain) {
+        Optional<NlpEntity> entity = parser.parse(text, REFERENCE_TIME);
+        assertThat(text, entity.map(NlpEntity::getValue).orElse(null), is(equalTo(value)));
+        assertThat(text, entity.get().getGrain(), is(equalTo(grain)));
+        assertThat(text, entity.get().getType(), is(equalTo("value")));
+    }
+
+    private void assertNotParsed(String text) {
+        assertFalse(String.valueOf(text), parser.parse(text, REFERENCE_TIME).isPresent());
+    }
+}
@@ -0,0 +1,95 @@
+package manfredlift.facebook.rmndr.util;
+
+import org.junit.Test;
+
+import java.util.Base64;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+public class ReminderPayloadCodecTest {
+    private static final long FIRE_TIME = 2546508600000L;
+
+    @Test
+    public void decodeTest_roundTrip() {
+        ReminderPayloadCodec codec = new ReminderPayloadCodec(null);
+
+        String payload = codec.encode(FIRE_TIME, 3600, "take the pizza out of the oven");
+
+        assertThat(payload.matches("[A-Za-z0-9_-]+"), is(true));
+        assertThat(codec.decode(payload), is(new ReminderPayloadCodec.Confirmation(FIRE_TIME, 3600,
+            "take the pizza out of the oven")));
+    }
+
+    @Test
+    public void decodeTest_signedRoundTrip() {
+        ReminderPayloadCodec codec = new ReminderPayloadCodec("some_secret");
+
+        String payload = codec.encode(FIRE_TIME, -12600, "käse 🍕; \"quoted\"");
+
+        assertThat(codec.decode(payload), is(new ReminderPayloadCodec.Confirmation(FIRE_TIME, -12600,
+            "käse 🍕; \"quoted\"")));
+    }
+
+    @Test
+    public void decodeTest_emptyText() {
+        ReminderPayloadCodec codec = new ReminderPayloadCodec("some_secret");
+
+        assertThat(codec.decode(codec.encode(FIRE_TIME, 0, "")).getText(), is(""));
+    }
+
+    @Test
+    public void decodeTest_wrongSecret() {
+        String payload = new ReminderPayloadCodec("other_secret").encode(FIRE_TIME, 3600, "some_text");
+
+        assertThat(new ReminderPayloadCodec("some_secret").decode(payload), is(nullValue()));
+    }
+
+    @Test
+    public void decodeTest_unsignedPayloadWithSecret() {
+        String payload = new ReminderPayloadCodec(null).encode(FIRE_TIME, 3600, "some_text_long_enough");
+
+        assertThat(new ReminderPayloadCodec("some_secret").decode(payload), is(nullValue()));
+    }
+
+    @Test
+    public void decodeTest_tamperedPayload() {
+        ReminderPayloadCodec codec = new ReminderPayloadCodec("some_secret");
+        byte[] bytes = Base64.getUrlDecoder().decode(codec.encode(FIRE_TIME, 3600, "some_text"));
+        // a later fire time
+        bytes[1]++;
+
+        assertThat(codec.decode(Base64.getUrlEncoder().withoutPadding().encodeToString(bytes)), is(nullValue()));
+    }
+
+    @Test
+    public void decodeTest_invalidPayloads() {
+        ReminderPayloadCodec codec = new ReminderPayloadCodec(null);
+
+        assertThat(codec.decode(""), is(nullValue()));
+        assertThat(codec.decode("not base64!"), is(nullValue()));
+        assertThat(codec.decode("AAAA"), is(nullValue()));
+        // unknown version
+        assertThat(codec.decode(Base64.getUrlEncoder().encodeToString(new byte[20])), is(nullValue()));
+    }
+
+    @Test
+    public void decodeTest_offsetOutOfRange() {
+        ReminderPayloadCodec codec = new ReminderPayloadCodec("some_secret");
+
+        assertThat(codec.decode(codec.encode(FIRE_TIME, 18 * 3600, "some_text")),
+            is(new ReminderPayloadCodec.Confirmation(FIRE_TIME, 18 * 3600, "some_text")));
+        assertThat(codec.decode(codec.encode(FIRE_TIME, 18 * 3600 + 1, "some_text")), is(nullValue()));
+        assertThat(codec.decode(codec.encode(FIRE_TIME, Integer.MIN_VALUE, "some_text")), is(nullValue()));
+    }
+
+    @Test
+    public void encodeTest_compactForLongTexts() {
+        ReminderPayloadCodec codec = new ReminderPayloadCodec("some_secret");
+        String text = new String(new char[700]).replace('\0', 'x');
+
+        // 1 version, 8 fire time, 4 offset and 8 tag bytes, base64 encoded
+        assertThat(codec.encode(FIRE_TIME, 3600, text).length(), is((21 + 700) * 4 / 3 + 1));
+    }
+}
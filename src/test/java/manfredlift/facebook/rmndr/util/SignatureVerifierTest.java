@@ -2,6 +2,8 @@ package manfredlift.facebook.rmndr.util;
 
 import org.junit.Test;
 
+import java.nio.charset.StandardCharsets;
+
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.MatcherAssert.assertThat;
 
@@ -21,4 +23,26 @@ public class SignatureVerifierTest {
 
         assertThat(isValid, is(false));
     }
+
+    @Test
+    public void testVerify_bytes() {
+        SignatureVerifier verifier = new SignatureVerifier("test_app_secret");
+        byte[] body = "{\"äö\":\"[[saok$@*@#*\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(verifier.isValid("sha1=004e377c0db93160cf7b58f3fa2023e74202b8f7", body), is(true));
+        assertThat(verifier.isValid("sha1=004E377C0DB93160CF7B58F3FA2023E74202B8F7", body), is(true));
+        // the Mac is reset after every use
+        assertThat(verifier.isValid("sha1=004e377c0db93160cf7b58f3fa2023e74202b8f7", body), is(true));
+    }
+
+    @Test
+    public void testVerify_malformedSignature() {
+        SignatureVerifier verifier = new SignatureVerifier("test_app_secret");
+        byte[] body = "{\"äö\":\"[[saok$@*@#*\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertThat(verifier.isValid(null, body), is(false));
+        assertThat(verifier.isValid("sha1=004e377c0db93160cf7b58f3fa2023e74202b8f", body), is(false));
+        assertThat(verifier.isValid("sha1=004e377c0db93160cf7b58f3fa2023e74202b8fx", body), is(false));
+        assertThat(verifier.isValid("sha2=004e377c0db93160cf7b58f3fa2023e74202b8f7", body), is(false));
+    }
 }